@@ -56,6 +56,8 @@ public class SearchWithCollectorTask extends SearchTask {
       collector = TopScoreDocCollector.create(numHits(), true);
     } else if (clnName.equalsIgnoreCase("topScoreDocUnOrdered") == true) {
       collector = TopScoreDocCollector.create(numHits(), false);
+    } else if (clnName.equalsIgnoreCase("topScoreDocPruning") == true) {
+      collector = TopScoreDocCollector.createWithPruning(numHits());
     } else if (clnName.length() > 0){
       collector = Class.forName(clnName).asSubclass(Collector.class).newInstance();
 
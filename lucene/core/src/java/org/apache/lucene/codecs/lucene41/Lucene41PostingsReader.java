@@ -505,6 +505,39 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
       }
     }
 
+    @Override
+    public int read(int max, int[] docs, int[] freqs) throws IOException {
+      // same as the default, but reads the decoded block directly
+      final int length = docs.length;
+      int count = 0;
+      while (doc < max && count < length) {
+        docs[count] = doc;
+        freqs[count] = freq;
+        count++;
+
+        // move to the next live document, like nextDoc()
+        while (true) {
+          if (docUpto == docFreq) {
+            doc = NO_MORE_DOCS;
+            break;
+          }
+          if (docBufferUpto == BLOCK_SIZE) {
+            refillDocs();
+          }
+          accum += docDeltaBuffer[docBufferUpto];
+          docUpto++;
+          if (liveDocs == null || liveDocs.get(accum)) {
+            doc = accum;
+            freq = freqBuffer[docBufferUpto];
+            docBufferUpto++;
+            break;
+          }
+          docBufferUpto++;
+        }
+      }
+      return count;
+    }
+
     @Override
     public int advance(int target) throws IOException {
       // TODO: make frq block load lazy/skippable
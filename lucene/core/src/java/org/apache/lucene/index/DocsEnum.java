@@ -59,6 +59,31 @@ public abstract class DocsEnum extends DocIdSetIterator {
    * the result of this method is undefined.
    */
   public abstract int freq() throws IOException;
+
+  /**
+   * Expert: reads the current document and the next ones, up to
+   * <code>docs.length</code> documents that are less than <code>max</code>,
+   * into <code>docs</code>, and their frequencies into <code>freqs</code>.
+   * Returns the number of documents read; afterwards {@link #docID()} is the
+   * first document that was not read. The enum must be positioned on a
+   * document first, with {@link #nextDoc} or {@link #advance}.
+   * <p>
+   * Postings formats can override this to copy whole decoded blocks at once.
+   * <b>NOTE:</b> if the {@link DocsEnum} was obtain with {@link #FLAG_NONE},
+   * the frequencies are undefined.
+   * @lucene.experimental
+   */
+  public int read(int max, int[] docs, int[] freqs) throws IOException {
+    int doc = docID();
+    int count = 0;
+    while (doc < max && count < docs.length) {
+      docs[count] = doc;
+      freqs[count] = freq();
+      count++;
+      doc = nextDoc();
+    }
+    return count;
+  }
   
   /** Returns the related attributes. */
   public AttributeSource attributes() {
@@ -358,6 +358,10 @@ public class BooleanQuery extends Query implements Iterable<BooleanClause> {
         for (int i = 0; i < coord.length; i++) {
           coord[i] = disableCoord ? 1.0f : coord(i, maxCoord);
         }
+        if (topScorer && MaxScoreDisjunctionScorer.canPrune(optional)) {
+          // can skip documents when collecting the top hits
+          return new MaxScoreDisjunctionScorer(this, optional.toArray(new TermScorer[optional.size()]), coord);
+        }
         return new DisjunctionSumScorer(this, optional.toArray(new Scorer[optional.size()]), coord);
       }
       
@@ -19,6 +19,7 @@ package org.apache.lucene.search;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -72,23 +73,7 @@ final class BooleanScorer extends Scorer {
     
     @Override
     public void collect(final int doc) throws IOException {
-      final BucketTable table = bucketTable;
-      final int i = doc & BucketTable.MASK;
-      final Bucket bucket = table.buckets[i];
-      
-      if (bucket.doc != doc) {                    // invalid bucket
-        bucket.doc = doc;                         // set doc
-        bucket.score = scorer.score();            // initialize score
-        bucket.bits = mask;                       // initialize mask
-        bucket.coord = 1;                         // initialize coord
-
-        bucket.next = table.first;                // push onto valid list
-        table.first = bucket;
-      } else {                                    // valid bucket
-        bucket.score += scorer.score();           // increment score
-        bucket.bits |= mask;                      // add bits in mask
-        bucket.coord++;                           // increment coord
-      }
+      bucketTable.add(doc, scorer.score(), mask);
     }
     
     @Override
@@ -140,30 +125,42 @@ final class BooleanScorer extends Scorer {
 
   }
 
-  static final class Bucket {
-    int doc = -1;            // tells if bucket is valid
-    double score;             // incremental score
-    // TODO: break out bool anyProhibited, int
-    // numRequiredMatched; then we can remove 32 limit on
-    // required clauses
-    int bits;                // used for bool constraints
-    int coord;               // count of terms in score
-    Bucket next;             // next valid bucket
-  }
-  
-  /** A simple hash table of document scores within a range. */
+  /**
+   * A simple hash table of document scores within a range. The buckets are
+   * kept in parallel arrays, indexed by doc % SIZE.
+   */
   static final class BucketTable {
     public static final int SIZE = 1 << 11;
     public static final int MASK = SIZE - 1;
 
-    final Bucket[] buckets = new Bucket[SIZE];
-    Bucket first = null;                          // head of valid list
+    final int[] docs = new int[SIZE];             // tells if bucket is valid
+    final double[] scores = new double[SIZE];     // incremental score
+    // TODO: break out bool anyProhibited, int
+    // numRequiredMatched; then we can remove 32 limit on
+    // required clauses
+    final int[] bits = new int[SIZE];             // used for bool constraints
+    final int[] coords = new int[SIZE];           // count of terms in score
+    final int[] next = new int[SIZE];             // next valid bucket
+    int first = -1;                               // head of valid list, or -1
   
     public BucketTable() {
-      // Pre-fill to save the lazy init when collecting
-      // each sub:
-      for(int idx=0;idx<SIZE;idx++) {
-        buckets[idx] = new Bucket();
+      Arrays.fill(docs, -1);
+    }
+
+    void add(int doc, float score, int mask) {
+      final int i = doc & MASK;
+      if (docs[i] != doc) {                       // invalid bucket
+        docs[i] = doc;                            // set doc
+        scores[i] = score;                        // initialize score
+        bits[i] = mask;                           // initialize mask
+        coords[i] = 1;                            // initialize coord
+
+        next[i] = first;                          // push onto valid list
+        first = i;
+      } else {                                    // valid bucket
+        scores[i] += score;                       // increment score
+        bits[i] |= mask;                          // add bits in mask
+        coords[i]++;                              // increment coord
       }
     }
 
@@ -176,6 +173,8 @@ final class BooleanScorer extends Scorer {
 
   static final class SubScorer {
     public Scorer scorer;
+    // the scorer, if it can score blocks of documents
+    public TermScorer termScorer;
     // TODO: re-enable this if BQ ever sends us required clauses
     //public boolean required = false;
     public boolean prohibited;
@@ -188,6 +187,7 @@ final class BooleanScorer extends Scorer {
         throw new IllegalArgumentException("this scorer cannot handle required=true");
       }
       this.scorer = scorer;
+      this.termScorer = scorer instanceof TermScorer ? (TermScorer) scorer : null;
       // TODO: re-enable this if BQ ever sends us required clauses
       //this.required = required;
       this.prohibited = prohibited;
@@ -203,9 +203,15 @@ final class BooleanScorer extends Scorer {
   //private int requiredMask = 0;
   private final int minNrShouldMatch;
   private int end;
-  private Bucket current;
+  private int current = -1;
   // Any time a prohibited clause matches we set bit 0:
   private static final int PROHIBITED_MASK = 1;
+
+  // a block of documents of a TermScorer, added to the bucket table at once
+  private static final int BLOCK_SIZE = 128;
+  private final int[] blockDocs = new int[BLOCK_SIZE];
+  private final int[] blockFreqs = new int[BLOCK_SIZE];
+  private final float[] blockScores = new float[BLOCK_SIZE];
   
   BooleanScorer(BooleanWeight weight, boolean disableCoord, int minNrShouldMatch,
       List<Scorer> optionalScorers, List<Scorer> prohibitedScorers, int maxCoord) throws IOException {
@@ -240,18 +246,21 @@ final class BooleanScorer extends Scorer {
     // Make sure it's only BooleanScorer that calls us:
     assert firstDocID == -1;
     boolean more;
-    Bucket tmp;
+    int tmp;
     BucketScorer bs = new BucketScorer(weight);
+    final BucketTable table = bucketTable;
+    final int[] docs = table.docs;
+    final int[] next = table.next;
 
     // The internal loop will set the score and doc before calling collect.
     collector.setScorer(bs);
     do {
-      bucketTable.first = null;
+      table.first = -1;
       
-      while (current != null) {         // more queued 
+      while (current != -1) {           // more queued 
 
         // check prohibited & required
-        if ((current.bits & PROHIBITED_MASK) == 0) {
+        if ((table.bits[current] & PROHIBITED_MASK) == 0) {
 
           // TODO: re-enable this if BQ ever sends us required
           // clauses
@@ -263,28 +272,29 @@ final class BooleanScorer extends Scorer {
           // that should work)... but in theory an outside
           // app could pass a different max so we must check
           // it:
-          if (current.doc >= max){
+          if (docs[current] >= max){
             tmp = current;
-            current = current.next;
-            tmp.next = bucketTable.first;
-            bucketTable.first = tmp;
+            current = next[current];
+            next[tmp] = table.first;
+            table.first = tmp;
             continue;
           }
           
-          if (current.coord >= minNrShouldMatch) {
-            bs.score = current.score * coordFactors[current.coord];
-            bs.doc = current.doc;
-            bs.freq = current.coord;
-            collector.collect(current.doc);
+          final int coord = table.coords[current];
+          if (coord >= minNrShouldMatch) {
+            bs.score = table.scores[current] * coordFactors[coord];
+            bs.doc = docs[current];
+            bs.freq = coord;
+            collector.collect(docs[current]);
           }
         }
         
-        current = current.next;         // pop the queue
+        current = next[current];        // pop the queue
       }
       
-      if (bucketTable.first != null){
-        current = bucketTable.first;
-        bucketTable.first = current.next;
+      if (table.first != -1){
+        current = table.first;
+        table.first = next[current];
         return true;
       }
 
@@ -294,15 +304,36 @@ final class BooleanScorer extends Scorer {
       for (SubScorer sub = scorers; sub != null; sub = sub.next) {
         int subScorerDocID = sub.scorer.docID();
         if (subScorerDocID != NO_MORE_DOCS) {
-          more |= sub.scorer.score(sub.collector, end, subScorerDocID);
+          if (sub.termScorer != null) {
+            more |= scoreBlocks(sub.termScorer, sub.prohibited ? PROHIBITED_MASK : 0);
+          } else {
+            more |= sub.scorer.score(sub.collector, end, subScorerDocID);
+          }
         }
       }
-      current = bucketTable.first;
+      current = table.first;
       
-    } while (current != null || more);
+    } while (current != -1 || more);
 
     return false;
   }
+
+  /**
+   * Adds the documents of a TermScorer below the end of the window to the
+   * bucket table, a block at a time, like its collector would one by one.
+   */
+  private boolean scoreBlocks(TermScorer scorer, int mask) throws IOException {
+    final BucketTable table = bucketTable;
+    final int[] docs = blockDocs;
+    final float[] scores = blockScores;
+    int count;
+    while ((count = scorer.nextBlock(end, docs, blockFreqs, scores)) > 0) {
+      for (int i = 0; i < count; i++) {
+        table.add(docs[i], scores[i], mask);
+      }
+    }
+    return scorer.docID() != NO_MORE_DOCS;
+  }
   
   @Override
   public int advance(int target) {
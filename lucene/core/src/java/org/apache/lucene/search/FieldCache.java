@@ -782,6 +782,56 @@ public interface FieldCache {
    */
   public abstract CacheEntry[] getCacheEntries();
 
+  /**
+   * EXPERT: The number of lookups of a field in the FieldCache that found an
+   * entry, the number that had to create one, and the time spent creating them,
+   * summed over all readers and cache types.
+   * @lucene.experimental
+   */
+  public final class FieldStats {
+
+    private final String fieldName;
+    private final long hits;
+    private final long misses;
+    private final long createTimeNanos;
+
+    public FieldStats(String fieldName, long hits, long misses, long createTimeNanos) {
+      this.fieldName = fieldName;
+      this.hits = hits;
+      this.misses = misses;
+      this.createTimeNanos = createTimeNanos;
+    }
+
+    public String getFieldName() {
+      return fieldName;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getCreateTimeNanos() {
+      return createTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "'" + fieldName + "'=>hits=" + hits + ",misses=" + misses
+          + ",createTime=" + (createTimeNanos / 1000000) + "ms";
+    }
+  }
+
+  /**
+   * EXPERT: Generates an array of FieldStats objects, one for each field that
+   * was looked up in the FieldCache since it was created.
+   * @lucene.experimental
+   */
+  public abstract FieldStats[] getFieldStats();
+
   /**
    * <p>
    * EXPERT: Instructs the FieldCache to forcibly expunge all entries 
@@ -21,9 +21,12 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.BinaryDocValues;
@@ -43,25 +46,30 @@ import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FieldCacheSanityChecker;
 import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.PagedBytes;
+import org.apache.lucene.util.WeakIdentityMap;
 import org.apache.lucene.util.packed.GrowableWriter;
 import org.apache.lucene.util.packed.MonotonicAppendingLongBuffer;
 import org.apache.lucene.util.packed.PackedInts;
 
 /**
  * Expert: The default cache implementation, storing all values in memory.
- * A WeakHashMap is used for storage.
+ * A concurrent WeakIdentityMap keyed by the core cache key of the readers is used
+ * for storage, so lookups take no lock; each entry is created once, by the first
+ * thread that asks for it, while the others wait for that entry only.
  *
  * @since   lucene 1.4
  */
 class FieldCacheImpl implements FieldCache {
 
-  private Map<Class<?>,Cache> caches;
+  private volatile Map<Class<?>,Cache> caches;
+  private final ConcurrentMap<String,FieldCounters> fieldCounters = new ConcurrentHashMap<String,FieldCounters>();
+
   FieldCacheImpl() {
     init();
   }
 
   private synchronized void init() {
-    caches = new HashMap<Class<?>,Cache>(9);
+    final Map<Class<?>,Cache> caches = new HashMap<Class<?>,Cache>(9);
     caches.put(Byte.TYPE, new ByteCache(this));
     caches.put(Short.TYPE, new ShortCache(this));
     caches.put(Integer.TYPE, new IntCache(this));
@@ -72,6 +80,7 @@ class FieldCacheImpl implements FieldCache {
     caches.put(SortedDocValues.class, new SortedDocValuesCache(this));
     caches.put(DocTermOrds.class, new DocTermOrdsCache(this));
     caches.put(DocsWithFieldCache.class, new DocsWithFieldCache(this));
+    this.caches = caches;
   }
 
   @Override
@@ -80,35 +89,63 @@ class FieldCacheImpl implements FieldCache {
   }
 
   @Override
-  public synchronized void purge(AtomicReader r) {
+  public void purge(AtomicReader r) {
     for(Cache c : caches.values()) {
       c.purge(r);
     }
   }
 
   @Override
-  public synchronized CacheEntry[] getCacheEntries() {
+  public CacheEntry[] getCacheEntries() {
     List<CacheEntry> result = new ArrayList<CacheEntry>(17);
     for(final Map.Entry<Class<?>,Cache> cacheEntry: caches.entrySet()) {
       final Cache cache = cacheEntry.getValue();
       final Class<?> cacheType = cacheEntry.getKey();
-      synchronized(cache.readerCache) {
-        for (final Map.Entry<Object,Map<CacheKey, Object>> readerCacheEntry : cache.readerCache.entrySet()) {
-          final Object readerKey = readerCacheEntry.getKey();
-          if (readerKey == null) continue;
-          final Map<CacheKey, Object> innerCache = readerCacheEntry.getValue();
-          for (final Map.Entry<CacheKey, Object> mapEntry : innerCache.entrySet()) {
-            CacheKey entry = mapEntry.getKey();
-            result.add(new CacheEntry(readerKey, entry.field,
-                                      cacheType, entry.custom,
-                                      mapEntry.getValue()));
-          }
+      for (final Iterator<Object> it = cache.readerCache.keyIterator(); it.hasNext();) {
+        final Object readerKey = it.next();
+        final Map<CacheKey, Object> innerCache = cache.readerCache.get(readerKey);
+        if (innerCache == null) continue;   // purged meanwhile
+        for (final Map.Entry<CacheKey, Object> mapEntry : innerCache.entrySet()) {
+          CacheKey entry = mapEntry.getKey();
+          result.add(new CacheEntry(readerKey, entry.field,
+                                    cacheType, entry.custom,
+                                    mapEntry.getValue()));
         }
       }
     }
     return result.toArray(new CacheEntry[result.size()]);
   }
 
+  @Override
+  public FieldStats[] getFieldStats() {
+    List<FieldStats> result = new ArrayList<FieldStats>(fieldCounters.size());
+    for (final Map.Entry<String,FieldCounters> entry : fieldCounters.entrySet()) {
+      final FieldCounters counters = entry.getValue();
+      result.add(new FieldStats(entry.getKey(), counters.hits.get(),
+                                counters.misses.get(), counters.createTimeNanos.get()));
+    }
+    return result.toArray(new FieldStats[result.size()]);
+  }
+
+  /** The cumulative counters of the lookups of one field */
+  static final class FieldCounters {
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong createTimeNanos = new AtomicLong();
+  }
+
+  FieldCounters getFieldCounters(String field) {
+    FieldCounters counters = fieldCounters.get(field);
+    if (counters == null) {
+      counters = new FieldCounters();
+      final FieldCounters existing = fieldCounters.putIfAbsent(field, counters);
+      if (existing != null) {
+        counters = existing;
+      }
+    }
+    return counters;
+  }
+
   // per-segment fieldcaches don't purge until the shared core closes.
   final SegmentReader.CoreClosedListener purgeCore = new SegmentReader.CoreClosedListener() {
     @Override
@@ -151,68 +188,61 @@ class FieldCacheImpl implements FieldCache {
 
     final FieldCacheImpl wrapper;
 
-    final Map<Object,Map<CacheKey,Object>> readerCache = new WeakHashMap<Object,Map<CacheKey,Object>>();
+    // core cache keys compare by identity, like the readers
+    final WeakIdentityMap<Object,ConcurrentMap<CacheKey,Object>> readerCache = WeakIdentityMap.newConcurrentHashMap();
     
     protected abstract Object createValue(AtomicReader reader, CacheKey key, boolean setDocsWithField)
         throws IOException;
 
     /** Remove this reader from the cache, if present. */
     public void purge(AtomicReader r) {
-      Object readerKey = r.getCoreCacheKey();
-      synchronized(readerCache) {
-        readerCache.remove(readerKey);
+      readerCache.remove(r.getCoreCacheKey());
+    }
+
+    private ConcurrentMap<CacheKey,Object> getInnerCache(AtomicReader reader) {
+      final Object readerKey = reader.getCoreCacheKey();
+      ConcurrentMap<CacheKey,Object> innerCache = readerCache.get(readerKey);
+      if (innerCache == null) {
+        // First time this reader is using FieldCache; only this registration locks
+        synchronized (readerCache) {
+          innerCache = readerCache.get(readerKey);
+          if (innerCache == null) {
+            innerCache = new ConcurrentHashMap<CacheKey,Object>();
+            readerCache.put(readerKey, innerCache);
+            wrapper.initReader(reader);
+          }
+        }
       }
+      return innerCache;
     }
 
     /** Sets the key to the value for the provided reader;
      *  if the key is already set then this doesn't change it. */
     public void put(AtomicReader reader, CacheKey key, Object value) {
-      final Object readerKey = reader.getCoreCacheKey();
-      synchronized (readerCache) {
-        Map<CacheKey,Object> innerCache = readerCache.get(readerKey);
-        if (innerCache == null) {
-          // First time this reader is using FieldCache
-          innerCache = new HashMap<CacheKey,Object>();
-          readerCache.put(readerKey, innerCache);
-          wrapper.initReader(reader);
-        }
-        if (innerCache.get(key) == null) {
-          innerCache.put(key, value);
-        } else {
-          // Another thread beat us to it; leave the current
-          // value
-        }
-      }
+      // if another thread beat us to it, leave the current value
+      getInnerCache(reader).putIfAbsent(key, value);
     }
 
     public Object get(AtomicReader reader, CacheKey key, boolean setDocsWithField) throws IOException {
-      Map<CacheKey,Object> innerCache;
-      Object value;
-      final Object readerKey = reader.getCoreCacheKey();
-      synchronized (readerCache) {
-        innerCache = readerCache.get(readerKey);
-        if (innerCache == null) {
-          // First time this reader is using FieldCache
-          innerCache = new HashMap<CacheKey,Object>();
-          readerCache.put(readerKey, innerCache);
-          wrapper.initReader(reader);
-          value = null;
-        } else {
-          value = innerCache.get(key);
-        }
+      final ConcurrentMap<CacheKey,Object> innerCache = getInnerCache(reader);
+      final FieldCounters counters = wrapper.getFieldCounters(key.field);
+      Object value = innerCache.get(key);
+      if (value == null) {
+        final CreationPlaceholder placeholder = new CreationPlaceholder();
+        value = innerCache.putIfAbsent(key, placeholder);
         if (value == null) {
-          value = new CreationPlaceholder();
-          innerCache.put(key, value);
+          value = placeholder;
         }
       }
       if (value instanceof CreationPlaceholder) {
         synchronized (value) {
           CreationPlaceholder progress = (CreationPlaceholder) value;
           if (progress.value == null) {
+            final long start = System.nanoTime();
             progress.value = createValue(reader, key, setDocsWithField);
-            synchronized (readerCache) {
-              innerCache.put(key, progress.value);
-            }
+            counters.createTimeNanos.addAndGet(System.nanoTime() - start);
+            counters.misses.incrementAndGet();
+            innerCache.replace(key, progress, progress.value);
 
             // Only check if key.custom (the parser) is
             // non-null; else, we check twice for a single
@@ -223,10 +253,13 @@ class FieldCacheImpl implements FieldCache {
                 printNewInsanity(infoStream, progress.value);
               }
             }
+            return progress.value;
           }
+          counters.hits.incrementAndGet();
           return progress.value;
         }
       }
+      counters.hits.incrementAndGet();
       return value;
     }
 
@@ -0,0 +1,238 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A Scorer for disjunctions of terms that skips the documents which cannot make it
+ * into the top hits (the MaxScore algorithm). Not to be confused with
+ * {@link DisjunctionMaxScorer}.
+ * <p>
+ * The terms are sorted by their {@link TermScorer#maxScore() maximum score}. When
+ * collecting into a {@link TopScoreDocCollector#createWithPruning(int) pruning collector},
+ * the terms with the lowest maximum scores whose sum does not exceed the score of the
+ * worst top hit are <em>non-essential</em>: a document that only contains these terms
+ * cannot compete, so the candidates are only read from the essential terms, and the
+ * non-essential terms are advanced to a candidate only while it can still compete.
+ * The more hits are collected, the more terms become non-essential.
+ * <p>
+ * In any other case this scorer behaves like a {@link DisjunctionSumScorer}.
+ */
+final class MaxScoreDisjunctionScorer extends Scorer {
+  /** The scores are summed as doubles and then rounded to floats, leave some room for that */
+  private static final double ROUNDING_FACTOR = 1 + 1e-5;
+
+  /** The term scorers, ascending by maximum score */
+  private final TermScorer[] scorers;
+  /** maxScoreSums[i] is the sum of the maximum scores of scorers[0..i] */
+  private final double[] maxScoreSums;
+  private final float[] coord;
+  /** The highest coordination factor, including the rounding factor */
+  private final double maxCoord;
+
+  /** Used for all iteration unless we are pruning */
+  private DisjunctionSumScorer disjunction;
+
+  // the current document while pruning
+  private int doc = -1;
+  private int freq;
+  private float score = Float.NaN;
+
+  /**
+   * Returns true if all scorers are {@link TermScorer}s with a finite, non-negative
+   * maximum score
+   */
+  static boolean canPrune(List<Scorer> scorers) {
+    for (Scorer scorer : scorers) {
+      if (!(scorer instanceof TermScorer)) {
+        return false;
+      }
+      final float maxScore = ((TermScorer) scorer).maxScore();
+      if (!(maxScore >= 0 && maxScore < Float.POSITIVE_INFINITY)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Construct a <code>MaxScoreDisjunctionScorer</code>.
+   * @param weight The weight to be used.
+   * @param subScorers Array of at least two term scorers, see {@link #canPrune(List)}.
+   * @param coord Table of coordination factors
+   */
+  MaxScoreDisjunctionScorer(Weight weight, TermScorer[] subScorers, float[] coord) {
+    super(weight);
+    this.scorers = subScorers.clone();
+    Arrays.sort(this.scorers, new Comparator<TermScorer>() {
+      @Override
+      public int compare(TermScorer a, TermScorer b) {
+        return Float.compare(a.maxScore(), b.maxScore());
+      }
+    });
+    maxScoreSums = new double[scorers.length];
+    double sum = 0;
+    for (int i = 0; i < scorers.length; i++) {
+      sum += scorers[i].maxScore();
+      maxScoreSums[i] = sum;
+    }
+    float maxCoord = 0;
+    for (int i = 1; i < coord.length; i++) {
+      maxCoord = Math.max(maxCoord, coord[i]);
+    }
+    this.maxCoord = maxCoord * ROUNDING_FACTOR;
+    this.coord = coord;
+  }
+
+  private DisjunctionSumScorer disjunction() throws IOException {
+    if (disjunction == null) {
+      // DisjunctionSumScorer reorders its array
+      disjunction = new DisjunctionSumScorer(weight, scorers.clone(), coord);
+    }
+    return disjunction;
+  }
+
+  @Override
+  public void score(Collector collector) throws IOException {
+    if (disjunction != null || doc != -1 || !(collector instanceof TopScoreDocCollector)
+        || !((TopScoreDocCollector) collector).allowsPruning()) {
+      super.score(collector);
+      return;
+    }
+    final TopScoreDocCollector topCollector = (TopScoreDocCollector) collector;
+    final TermScorer[] scorers = this.scorers;
+    final int numScorers = scorers.length;
+    collector.setScorer(this);
+    for (TermScorer scorer : scorers) {
+      scorer.nextDoc();
+    }
+
+    float minCompetitiveScore = topCollector.minCompetitiveScore();
+    int firstEssential = firstEssential(0, minCompetitiveScore);
+    while (firstEssential < numScorers) {
+      int candidate = NO_MORE_DOCS;
+      for (int i = firstEssential; i < numScorers; i++) {
+        candidate = Math.min(candidate, scorers[i].docID());
+      }
+      if (candidate == NO_MORE_DOCS) {
+        break;
+      }
+
+      double sum = 0;
+      int matchers = 0;
+      for (int i = firstEssential; i < numScorers; i++) {
+        if (scorers[i].docID() == candidate) {
+          sum += scorers[i].score();
+          matchers++;
+        }
+      }
+      boolean competitive = true;
+      for (int i = firstEssential - 1; i >= 0; i--) {
+        if ((sum + maxScoreSums[i]) * maxCoord <= minCompetitiveScore) {
+          competitive = false;
+          break;
+        }
+        final TermScorer scorer = scorers[i];
+        int scorerDoc = scorer.docID();
+        if (scorerDoc < candidate) {
+          scorerDoc = scorer.advance(candidate);
+        }
+        if (scorerDoc == candidate) {
+          sum += scorer.score();
+          matchers++;
+        }
+      }
+
+      if (competitive) {
+        doc = candidate;
+        freq = matchers;
+        score = (float) sum * coord[matchers];
+        collector.collect(candidate);
+        final float newMinCompetitiveScore = topCollector.minCompetitiveScore();
+        if (newMinCompetitiveScore > minCompetitiveScore) {
+          minCompetitiveScore = newMinCompetitiveScore;
+          firstEssential = firstEssential(firstEssential, minCompetitiveScore);
+        }
+      }
+      // the scorers that became non-essential are advanced when needed
+      for (int i = firstEssential; i < numScorers; i++) {
+        if (scorers[i].docID() == candidate) {
+          scorers[i].nextDoc();
+        }
+      }
+    }
+    doc = NO_MORE_DOCS;
+  }
+
+  /** Returns the index of the first scorer whose documents may compete */
+  private int firstEssential(int from, float minCompetitiveScore) {
+    int i = from;
+    while (i < scorers.length && maxScoreSums[i] * maxCoord <= minCompetitiveScore) {
+      i++;
+    }
+    return i;
+  }
+
+  @Override
+  public int docID() {
+    return disjunction == null ? doc : disjunction.docID();
+  }
+
+  @Override
+  public int nextDoc() throws IOException {
+    return disjunction().nextDoc();
+  }
+
+  @Override
+  public int advance(int target) throws IOException {
+    return disjunction().advance(target);
+  }
+
+  @Override
+  public float score() throws IOException {
+    return disjunction == null ? score : disjunction.score();
+  }
+
+  @Override
+  public int freq() throws IOException {
+    return disjunction == null ? freq : disjunction.freq();
+  }
+
+  @Override
+  public long cost() {
+    long sum = 0;
+    for (TermScorer scorer : scorers) {
+      sum += scorer.cost();
+    }
+    return sum;
+  }
+
+  @Override
+  public Collection<ChildScorer> getChildren() {
+    ArrayList<ChildScorer> children = new ArrayList<ChildScorer>(scorers.length);
+    for (TermScorer scorer : scorers) {
+      children.add(new ChildScorer(scorer, "SHOULD"));
+    }
+    return children;
+  }
+}
@@ -23,6 +23,8 @@ import java.util.Set;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
 import org.apache.lucene.index.IndexReaderContext;
 import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
@@ -84,7 +86,21 @@ public class TermQuery extends Query {
       }
       DocsEnum docs = termsEnum.docs(acceptDocs, null);
       assert docs != null;
-      return new TermScorer(this, docs, similarity.simScorer(stats, context));
+      final SimScorer docScorer = similarity.simScorer(stats, context);
+      return new TermScorer(this, docs, docScorer, docScorer.maxScore(maxFreq(context, termsEnum)));
+    }
+    
+    /**
+     * Returns an upper bound of the frequency of the term in the documents of the segment:
+     * a document can hold all occurrences of the term except one for each other document.
+     */
+    private long maxFreq(AtomicReaderContext context, TermsEnum termsEnum) throws IOException {
+      final FieldInfo fieldInfo = context.reader().getFieldInfos().fieldInfo(term.field());
+      if (fieldInfo != null && fieldInfo.getIndexOptions() == IndexOptions.DOCS_ONLY) {
+        return 1;
+      }
+      final long totalTermFreq = termsEnum.totalTermFreq();
+      return totalTermFreq == -1 ? Long.MAX_VALUE : totalTermFreq - termsEnum.docFreq() + 1;
     }
     
     /**
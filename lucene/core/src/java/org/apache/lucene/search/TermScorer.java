@@ -27,6 +27,7 @@ import org.apache.lucene.search.similarities.Similarity;
 final class TermScorer extends Scorer {
   private final DocsEnum docsEnum;
   private final Similarity.SimScorer docScorer;
+  private final float maxScore;
   
   /**
    * Construct a <code>TermScorer</code>.
@@ -38,11 +39,14 @@ final class TermScorer extends Scorer {
    * @param docScorer
    *          The </code>Similarity.SimScorer</code> implementation 
    *          to be used for score computations.
+   * @param maxScore
+   *          An upper bound of the scores, {@link Float#POSITIVE_INFINITY} if unknown.
    */
-  TermScorer(Weight weight, DocsEnum td, Similarity.SimScorer docScorer) {
+  TermScorer(Weight weight, DocsEnum td, Similarity.SimScorer docScorer, float maxScore) {
     super(weight);
     this.docScorer = docScorer;
     this.docsEnum = td;
+    this.maxScore = maxScore;
   }
 
   @Override
@@ -90,6 +94,25 @@ final class TermScorer extends Scorer {
     return docsEnum.cost();
   }
 
+  /**
+   * Reads the current document and the next ones below <code>max</code>, up to
+   * <code>docs.length</code> documents, with their scores. Returns the number of
+   * documents read; afterwards the scorer is on the first document not read.
+   */
+  int nextBlock(int max, int[] docs, int[] freqs, float[] scores) throws IOException {
+    final int count = docsEnum.read(max, docs, freqs);
+    final Similarity.SimScorer docScorer = this.docScorer;
+    for (int i = 0; i < count; i++) {
+      scores[i] = docScorer.score(docs[i], freqs[i]);
+    }
+    return count;
+  }
+
+  /** Returns an upper bound of the scores of this scorer, see {@link Similarity.SimScorer#maxScore(long)} */
+  float maxScore() {
+    return maxScore;
+  }
+
   /** Returns a string representation of this <code>TermScorer</code>. */
   @Override
   public String toString() { return "scorer(" + weight + ")"; }
@@ -68,6 +68,18 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
     }
   }
   
+  // Assumes docs are scored in order, lets the scorer skip docs that cannot compete.
+  private static class PruningTopScoreDocCollector extends InOrderTopScoreDocCollector {
+    private PruningTopScoreDocCollector(int numHits) {
+      super(numHits);
+    }
+
+    @Override
+    boolean allowsPruning() {
+      return true;
+    }
+  }
+  
   // Assumes docs are scored in order.
   private static class InOrderPagingScoreDocCollector extends TopScoreDocCollector {
     private final ScoreDoc after;
@@ -266,6 +278,26 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
     
   }
   
+  /**
+   * Creates a new {@link TopScoreDocCollector} given the number of hits to
+   * collect, for documents scored in order, that lets disjunctions of terms
+   * skip the documents which cannot compete with the hits collected so far.
+   * The top hits are the same as with {@link #create(int, boolean)}, but
+   * {@link TopDocs#totalHits} only counts the collected documents and is a
+   * lower bound of the number of matches.
+   *
+   * <p><b>NOTE</b>: The instances returned by this method
+   * pre-allocate a full array of length
+   * <code>numHits</code>, and fill the array with sentinel
+   * objects.
+   */
+  public static TopScoreDocCollector createWithPruning(int numHits) {
+    if (numHits <= 0) {
+      throw new IllegalArgumentException("numHits must be > 0; please use TotalHitCountCollector if you just need the total hit count");
+    }
+    return new PruningTopScoreDocCollector(numHits);
+  }
+  
   ScoreDoc pqTop;
   int docBase = 0;
   Scorer scorer;
@@ -308,4 +340,14 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
   public void setScorer(Scorer scorer) throws IOException {
     this.scorer = scorer;
   }
+
+  /** Returns true if the scorer may skip documents that score no higher than {@link #minCompetitiveScore()} */
+  boolean allowsPruning() {
+    return false;
+  }
+
+  /** Returns the score that a document must exceed to be collected */
+  float minCompetitiveScore() {
+    return pqTop.score;
+  }
 }
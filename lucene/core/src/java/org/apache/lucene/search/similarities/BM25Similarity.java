@@ -236,6 +236,12 @@ public class BM25Similarity extends Similarity {
       float norm = norms == null ? k1 : cache[(byte)norms.get(doc) & 0xFF];
       return weightValue * freq / (freq + norm);
     }
+
+    @Override
+    public float maxScore(long maxFreq) {
+      // freq / (freq + norm) never exceeds 1
+      return weightValue;
+    }
     
     @Override
     public Explanation explain(int doc, Explanation freq) {
@@ -198,6 +198,18 @@ public abstract class Similarity {
      */
     public abstract float score(int doc, float freq);
 
+    /**
+     * Returns an upper bound of the score of any document of the segment, given
+     * the maximum term frequency. Disjunctions use it to skip documents that cannot
+     * compete with the top hits. The default implementation returns
+     * {@link Float#POSITIVE_INFINITY}, which means that the score is not bounded.
+     * @param maxFreq upper bound of the term frequency in the segment
+     * @return upper bound of {@link #score(int, float)}
+     */
+    public float maxScore(long maxFreq) {
+      return Float.POSITIVE_INFINITY;
+    }
+
     /** Computes the amount of a sloppy phrase match, based on an edit distance. */
     public abstract float computeSlopFactor(int distance);
     
@@ -715,6 +715,12 @@ public abstract class TFIDFSimilarity extends Similarity {
       
       return norms == null ? raw : raw * decodeNormValue(norms.get(doc));  // normalize for field
     }
+
+    @Override
+    public float maxScore(long maxFreq) {
+      // assumes that tf() does not decrease with the frequency; the norms are not bounded
+      return norms == null ? tf(maxFreq) * weightValue : Float.POSITIVE_INFINITY;
+    }
     
     @Override
     public float computeSlopFactor(int distance) {
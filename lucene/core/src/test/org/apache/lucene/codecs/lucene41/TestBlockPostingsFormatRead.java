@@ -0,0 +1,111 @@
+package org.apache.lucene.codecs.lucene41;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util._TestUtil;
+
+/**
+ * Tests that reading blocks of postings returns the same documents as nextDoc
+ */
+public class TestBlockPostingsFormatRead extends LuceneTestCase {
+
+  public void testRead() throws Exception {
+    Directory dir = newDirectory();
+    IndexWriterConfig iwc = newIndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()));
+    iwc.setCodec(_TestUtil.alwaysPostingsFormat(new Lucene41PostingsFormat()));
+    RandomIndexWriter iw = new RandomIndexWriter(random(), dir, iwc);
+    int numDocs = atLeast(1000);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Field.Store.NO));
+      StringBuilder sb = new StringBuilder();
+      int freq = random().nextInt(4);
+      for (int j = 0; j < freq; j++) {
+        sb.append("common ");
+      }
+      if (random().nextInt(50) == 0) {
+        sb.append("rare");
+      }
+      doc.add(newTextField("body", sb.toString(), Field.Store.NO));
+      iw.addDocument(doc);
+    }
+    for (int i = 0; i < numDocs / 20; i++) {
+      iw.deleteDocuments(new Term("id", Integer.toString(random().nextInt(numDocs))));
+    }
+    DirectoryReader reader = iw.getReader();
+    iw.close();
+
+    for (AtomicReaderContext context : reader.leaves()) {
+      AtomicReader leaf = context.reader();
+      for (String term : new String[] {"common", "rare"}) {
+        TermsEnum termsEnum = leaf.terms("body").iterator(null);
+        if (!termsEnum.seekExact(new BytesRef(term), random().nextBoolean())) {
+          continue;
+        }
+        List<Integer> expectedDocs = new ArrayList<Integer>();
+        List<Integer> expectedFreqs = new ArrayList<Integer>();
+        DocsEnum expected = termsEnum.docs(leaf.getLiveDocs(), null);
+        while (expected.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          expectedDocs.add(expected.docID());
+          expectedFreqs.add(expected.freq());
+        }
+
+        DocsEnum actual = termsEnum.docs(leaf.getLiveDocs(), null);
+        int[] docs = new int[_TestUtil.nextInt(random(), 1, 300)];
+        int[] freqs = new int[docs.length];
+        int upto = 0;
+        int doc = actual.nextDoc();
+        while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+          int max = random().nextBoolean() ? DocIdSetIterator.NO_MORE_DOCS : doc + random().nextInt(500);
+          int count = actual.read(max, docs, freqs);
+          for (int i = 0; i < count; i++) {
+            assertEquals(expectedDocs.get(upto).intValue(), docs[i]);
+            assertEquals(expectedFreqs.get(upto).intValue(), freqs[i]);
+            assertTrue(docs[i] < max);
+            upto++;
+          }
+          // stops at max, when the arrays are full, or at the end
+          doc = actual.docID();
+          assertTrue(doc >= max || count == docs.length);
+          assertEquals(upto == expectedDocs.size() ? DocIdSetIterator.NO_MORE_DOCS : expectedDocs.get(upto).intValue(), doc);
+        }
+        assertEquals(expectedDocs.size(), upto);
+      }
+    }
+    reader.close();
+    dir.close();
+  }
+}
@@ -442,6 +442,56 @@ public class TestFieldCache extends LuceneTestCase {
     assertFalse(failed.get());
   }
   
+  public void testConcurrentCreationAndFieldStats() throws Exception {
+    // a private cache, so other tests don't change the stats
+    final FieldCacheImpl cache = new FieldCacheImpl();
+    final int numThreads = _TestUtil.nextInt(random(), 2, 8);
+    final CyclicBarrier start = new CyclicBarrier(numThreads);
+    final Object[] values = new Object[numThreads];
+    final AtomicBoolean failed = new AtomicBoolean();
+    Thread[] threads = new Thread[numThreads];
+    for (int threadIDX = 0; threadIDX < numThreads; threadIDX++) {
+      final int idx = threadIDX;
+      threads[threadIDX] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            values[idx] = cache.getInts(reader, "numInt", FieldCache.NUMERIC_UTILS_INT_PARSER, false);
+          } catch (Throwable t) {
+            failed.set(true);
+            throw new RuntimeException(t);
+          }
+        }
+      };
+      threads[threadIDX].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(failed.get());
+
+    // the value is created once, the other threads wait for it
+    for (Object value : values) {
+      assertSame(values[0], value);
+    }
+    assertEquals(1, cache.getCacheEntries().length);
+    FieldCache.FieldStats[] stats = cache.getFieldStats();
+    assertEquals(1, stats.length);
+    assertEquals("numInt", stats[0].getFieldName());
+    assertEquals(1, stats[0].getMisses());
+    assertEquals(numThreads - 1, stats[0].getHits());
+    assertTrue(stats[0].getCreateTimeNanos() >= 0);
+
+    cache.getInts(reader, "numInt", FieldCache.NUMERIC_UTILS_INT_PARSER, false);
+    assertEquals(numThreads, cache.getFieldStats()[0].getHits());
+
+    cache.purge(reader);
+    assertEquals(0, cache.getCacheEntries().length);
+    cache.getInts(reader, "numInt", FieldCache.NUMERIC_UTILS_INT_PARSER, false);
+    assertEquals(2, cache.getFieldStats()[0].getMisses());
+  }
+
   public void testDocValuesIntegration() throws Exception {
     assumeTrue("3.x does not support docvalues", defaultCodecSupportsDocValues());
     Directory dir = newDirectory();
@@ -0,0 +1,105 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+
+/**
+ * Tests that pruning disjunctions returns the same top hits as scoring all documents
+ */
+public class TestMaxScoreDisjunctionScorer extends LuceneTestCase {
+
+  public void testBM25() throws Exception {
+    doTestSameTopHits(new BM25Similarity(), random().nextBoolean());
+  }
+
+  public void testDefaultSimilarityWithoutNorms() throws Exception {
+    doTestSameTopHits(new DefaultSimilarity(), true);
+  }
+
+  private void doTestSameTopHits(Similarity similarity, boolean omitNorms) throws Exception {
+    Directory dir = newDirectory();
+    IndexWriterConfig iwc = newIndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()));
+    iwc.setSimilarity(similarity);
+    RandomIndexWriter iw = new RandomIndexWriter(random(), dir, iwc);
+    FieldType type = new FieldType(TextField.TYPE_NOT_STORED);
+    type.setOmitNorms(omitNorms);
+    int numDocs = atLeast(2000);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Field.Store.NO));
+      StringBuilder sb = new StringBuilder();
+      int length = 1 + random().nextInt(20);
+      for (int j = 0; j < length; j++) {
+        // some terms are much more frequent than others
+        sb.append("t").append((int) Math.abs(random().nextGaussian() * 8)).append(' ');
+      }
+      doc.add(newField("body", sb.toString(), type));
+      iw.addDocument(doc);
+    }
+    for (int i = 0; i < numDocs / 50; i++) {
+      iw.deleteDocuments(new Term("id", Integer.toString(random().nextInt(numDocs))));
+    }
+    IndexReader reader = iw.getReader();
+    iw.close();
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(similarity);
+
+    int numQueries = atLeast(50);
+    for (int i = 0; i < numQueries; i++) {
+      BooleanQuery query = new BooleanQuery(random().nextBoolean());
+      int numClauses = 2 + random().nextInt(5);
+      for (int j = 0; j < numClauses; j++) {
+        TermQuery termQuery = new TermQuery(new Term("body", "t" + (int) Math.abs(random().nextGaussian() * 10)));
+        if (random().nextInt(4) == 0) {
+          termQuery.setBoost(3 * random().nextFloat());
+        }
+        query.add(termQuery, BooleanClause.Occur.SHOULD);
+      }
+      int numHits = 1 + random().nextInt(20);
+      TopScoreDocCollector expected = TopScoreDocCollector.create(numHits, true);
+      searcher.search(query, expected);
+      TopScoreDocCollector actual = TopScoreDocCollector.createWithPruning(numHits);
+      searcher.search(query, actual);
+
+      TopDocs expectedDocs = expected.topDocs();
+      TopDocs actualDocs = actual.topDocs();
+      assertTrue(actualDocs.totalHits <= expectedDocs.totalHits);
+      assertEquals(expectedDocs.scoreDocs.length, actualDocs.scoreDocs.length);
+      for (int j = 0; j < expectedDocs.scoreDocs.length; j++) {
+        assertEquals(query.toString(), expectedDocs.scoreDocs[j].doc, actualDocs.scoreDocs[j].doc);
+        assertEquals(query.toString(), expectedDocs.scoreDocs[j].score, actualDocs.scoreDocs[j].score, 0f);
+      }
+    }
+    reader.close();
+    dir.close();
+  }
+}
@@ -19,6 +19,7 @@ package org.apache.solr.core;
 import java.io.IOException;
 
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.store.Directory;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.util.plugin.NamedListInitializedPlugin;
@@ -67,4 +68,18 @@ public abstract class IndexReaderFactory implements NamedListInitializedPlugin {
    */
   public abstract DirectoryReader newReader(Directory indexDir, SolrCore core)
       throws IOException;
+
+  /**
+   * Creates a new near real time IndexReader instance from the given IndexWriter,
+   * applying all deletes.
+   * 
+   * @param writer IndexWriter of the index
+   * @param core {@link SolrCore} instance where this reader will be used.
+   * @return An IndexReader instance
+   * @throws IOException If there is a low-level I/O error.
+   */
+  public DirectoryReader newReader(IndexWriter writer, SolrCore core)
+      throws IOException {
+    return DirectoryReader.open(writer, true);
+  }
 }
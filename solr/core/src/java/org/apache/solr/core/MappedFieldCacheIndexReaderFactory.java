@@ -0,0 +1,143 @@
+package org.apache.solr.core;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FilterAtomicReader;
+import org.apache.lucene.index.FilterDirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.MappedFieldCache;
+
+/**
+ * IndexReaderFactory that keeps the FieldCache values of the single-valued, indexed
+ * numeric fields of the schema off the heap, in memory mapped sidecar files under
+ * <code>dataDir/fieldcache</code> (or the <code>dir</code> init arg).
+ * <p>
+ * The segments of the readers return the mapped values as their {@link NumericDocValues},
+ * which the FieldCache uses instead of un-inverting the field, so sorting and function
+ * queries on these fields need no heap arrays and warm up quickly after a restart.
+ *
+ * @see MappedFieldCache
+ */
+public class MappedFieldCacheIndexReaderFactory extends StandardIndexReaderFactory {
+  private String dir;
+  private MappedFieldCache fieldCache;
+
+  @Override
+  public void init(NamedList args) {
+    super.init(args);
+    dir = (String) args.get("dir");
+  }
+
+  @Override
+  public DirectoryReader newReader(Directory indexDir, SolrCore core) throws IOException {
+    return new MappedFieldCacheDirectoryReader(super.newReader(indexDir, core), getFieldCache(core), core);
+  }
+
+  @Override
+  public DirectoryReader newReader(IndexWriter writer, SolrCore core) throws IOException {
+    return new MappedFieldCacheDirectoryReader(super.newReader(writer, core), getFieldCache(core), core);
+  }
+
+  private synchronized MappedFieldCache getFieldCache(SolrCore core) throws IOException {
+    if (fieldCache == null) {
+      String name = dir != null ? dir : "fieldcache";
+      File path = new File(name);
+      if (!path.isAbsolute()) {
+        path = new File(core.getDataDir(), name);
+      }
+      fieldCache = new MappedFieldCache(path);
+    }
+    return fieldCache;
+  }
+
+  /** Wraps every segment, also of the reopened readers, and removes the stale sidecars */
+  static class MappedFieldCacheDirectoryReader extends FilterDirectoryReader {
+    private final MappedFieldCache fieldCache;
+    private final SolrCore core;
+
+    MappedFieldCacheDirectoryReader(DirectoryReader in, final MappedFieldCache fieldCache, final SolrCore core) {
+      super(in, new SubReaderWrapper() {
+        @Override
+        public AtomicReader wrap(AtomicReader reader) {
+          return new MappedFieldCacheAtomicReader(reader, fieldCache, core);
+        }
+      });
+      this.fieldCache = fieldCache;
+      this.core = core;
+      fieldCache.purge(in);
+    }
+
+    @Override
+    protected DirectoryReader doWrapDirectoryReader(DirectoryReader in) {
+      return new MappedFieldCacheDirectoryReader(in, fieldCache, core);
+    }
+  }
+
+  /**
+   * Returns the mapped values of the schema's single-valued numeric fields that have no doc
+   * values in the segment.  The cache keys are the ones of the segment, since the content is
+   * the same.
+   */
+  static class MappedFieldCacheAtomicReader extends FilterAtomicReader {
+    private final MappedFieldCache fieldCache;
+    private final SolrCore core;
+
+    MappedFieldCacheAtomicReader(AtomicReader in, MappedFieldCache fieldCache, SolrCore core) {
+      super(in);
+      this.fieldCache = fieldCache;
+      this.core = core;
+    }
+
+    @Override
+    public NumericDocValues getNumericDocValues(String field) throws IOException {
+      NumericDocValues values = in.getNumericDocValues(field);
+      if (values != null || !(in instanceof SegmentReader)) {
+        return values;
+      }
+      FieldInfo info = in.getFieldInfos().fieldInfo(field);
+      if (info == null || !info.isIndexed() || info.hasDocValues()) {
+        return null;
+      }
+      SchemaField sf = core.getLatestSchema().getFieldOrNull(field);
+      if (sf == null || sf.multiValued() || sf.getType().getNumericType() == null) {
+        return null;
+      }
+      return fieldCache.getNumericDocValues((SegmentReader) in, field, sf.getType().getNumericType());
+    }
+
+    @Override
+    public Object getCoreCacheKey() {
+      return in.getCoreCacheKey();
+    }
+
+    @Override
+    public Object getCombinedCoreAndDeletesKey() {
+      return in.getCombinedCoreAndDeletesKey();
+    }
+  }
+}
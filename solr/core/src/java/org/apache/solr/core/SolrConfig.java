@@ -166,12 +166,16 @@ public class SolrConfig extends Config {
     useFilterForSortedQuery = getBool("query/useFilterForSortedQuery", false);
     queryResultWindowSize = Math.max(1, getInt("query/queryResultWindowSize", 1));
     queryResultMaxDocsCached = getInt("query/queryResultMaxDocsCached", Integer.MAX_VALUE);
+    searchThreads = getInt("query/searchThreads", 0);
     enableLazyFieldLoading = getBool("query/enableLazyFieldLoading", false);
+    useIdLookupFilter = getBool("query/useIdLookupFilter", false);
+    compressFilterCache = getBool("query/compressFilterCache", false);
 
     
     filterCacheConfig = CacheConfig.getConfig(this, "query/filterCache");
     queryResultCacheConfig = CacheConfig.getConfig(this, "query/queryResultCache");
     documentCacheConfig = CacheConfig.getConfig(this, "query/documentCache");
+    groupingCacheConfig = CacheConfig.getConfig(this, "query/groupingCache");
     CacheConfig conf = CacheConfig.getConfig(this, "query/fieldValueCache");
     if (conf == null) {
       Map<String,String> args = new HashMap<String,String>();
@@ -272,13 +276,17 @@ public class SolrConfig extends Config {
   public final CacheConfig filterCacheConfig ;
   public final CacheConfig queryResultCacheConfig;
   public final CacheConfig documentCacheConfig;
+  public final CacheConfig groupingCacheConfig;
   public final CacheConfig fieldValueCacheConfig;
   public final CacheConfig[] userCacheConfigs;
   // SolrIndexSearcher - more...
   public final boolean useFilterForSortedQuery;
   public final int queryResultWindowSize;
   public final int queryResultMaxDocsCached;
+  public final int searchThreads;
   public final boolean enableLazyFieldLoading;
+  public final boolean useIdLookupFilter;
+  public final boolean compressFilterCache;
   public final boolean reopenReaders;
   // DocSet
   public final float hashSetInverseLoadFactor;
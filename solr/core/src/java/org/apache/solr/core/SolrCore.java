@@ -207,6 +207,14 @@ public final class SolrCore implements SolrInfoMBean {
   public SolrConfig getSolrConfig() {
     return solrConfig;
   }
+
+  /**
+   * Gets the executor that collects slices of the index concurrently, or null if
+   * searchThreads is not configured.
+   */
+  public ExecutorService getParallelSearchExecutor() {
+    return parallelSearchExecutor;
+  }
   
   /**
    * Gets the schema resource name used by this core instance.
@@ -667,6 +675,9 @@ public final class SolrCore implements SolrInfoMBean {
     this.setName( name );
     resourceLoader = config.getResourceLoader();
     this.solrConfig = config;
+    if (config.searchThreads > 1) {
+      parallelSearchExecutor = Executors.newFixedThreadPool(config.searchThreads, new DefaultSolrThreadFactory("parallelSearchExecutor"));
+    }
     
     if (updateHandler == null) {
       initDirectoryFactory();
@@ -776,7 +787,7 @@ public final class SolrCore implements SolrInfoMBean {
       
       // cause the executor to stall so firstSearcher events won't fire
       // until after inform() has been called for all components.
-      // searchExecutor must be single-threaded for this to work
+      // searcherExecutor must be single-threaded for this to work
       searcherExecutor.submit(new Callable<Void>() {
         @Override
         public Void call() throws Exception {
@@ -794,7 +805,7 @@ public final class SolrCore implements SolrInfoMBean {
           newReaderCreator = new Callable<DirectoryReader>() {
             @Override
             public DirectoryReader call() throws Exception {
-              return DirectoryReader.open(iw, true);
+              return indexReaderFactory.newReader(iw, SolrCore.this);
             }
           };
         }
@@ -1081,13 +1092,21 @@ public final class SolrCore implements SolrInfoMBean {
       SolrException.log(log, e);
     }
 
+    if (parallelSearchExecutor != null) {
+      try {
+        ExecutorUtil.shutdownAndAwaitTermination(parallelSearchExecutor);
+      } catch (Throwable e) {
+        SolrException.log(log, e);
+      }
+    }
+
     try {
       // Since we waited for the searcherExecutor to shut down,
       // there should be no more searchers warming in the background
       // that we need to take care of.
       //
       // For the case that a searcher was registered *before* warming
-      // then the searchExecutor will throw an exception when getSearcher()
+      // then the searcherExecutor will throw an exception when getSearcher()
       // tries to use it, and the exception handling code should close it.
       closeSearcher();
     } catch (Throwable e) {
@@ -1314,6 +1333,8 @@ public final class SolrCore implements SolrInfoMBean {
 
   final ExecutorService searcherExecutor = Executors.newSingleThreadExecutor(
       new DefaultSolrThreadFactory("searcherExecutor"));
+  // collects slices of the index for requests with search.parallel=true, null if searchThreads isn't set
+  private ExecutorService parallelSearchExecutor;
   private int onDeckSearchers;  // number of searchers preparing
   // Lock ordering: one can acquire the openSearcherLock and then the searcherLock, but not vice-versa.
   private Object searcherLock = new Object();  // the sync object for the searcher
@@ -17,6 +17,7 @@
 
 package org.apache.solr.handler.component;
 
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.OpenBitSet;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrException.ErrorCode;
@@ -29,6 +30,7 @@ import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.common.util.StrUtils;
 import org.apache.solr.request.SimpleFacets;
+import org.apache.solr.schema.DateField;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.search.QueryParsing;
 import org.apache.solr.search.SyntaxError;
@@ -70,12 +72,26 @@ public class FacetComponent extends SearchComponent
   {
     if (rb.doFacets) {
       SolrParams params = rb.req.getParams();
+      SolrParams fieldParams = params;
+      Set<String> completeKeys = Collections.emptySet();
+      boolean packed = params.getBool(FacetParams.FACET_DISTRIB_PACKED, false);
+      if (packed) {
+        // low cardinality fields return all their counts, and need no refinement
+        ModifiableSolrParams completeParams = new ModifiableSolrParams(params);
+        completeKeys = PackedFacetCounts.completeFields(rb.req.getSearcher(), completeParams);
+        if (!completeKeys.isEmpty()) {
+          fieldParams = completeParams;
+        }
+      }
       SimpleFacets f = new SimpleFacets(rb.req,
               rb.getResults().docSet,
-              params,
+              fieldParams,
               rb );
 
       NamedList<Object> counts = f.getFacetCounts();
+      if (packed) {
+        PackedFacetCounts.pack(rb.req.getSchema(), params, counts, completeKeys);
+      }
       String[] pivots = params.getParams( FacetParams.FACET_PIVOT );
       if( pivots != null && pivots.length > 0 ) {
         PivotFacetHelper pivotHelper = new PivotFacetHelper(rb.req,
@@ -143,7 +159,17 @@ public class FacetComponent extends SearchComponent
           refinements.add(termsVal);
         }
 
-        if (refinements == null) continue;
+        List<PivotRefinement> pivotRefinements = null;
+        for (DistribPivotFacet dpf : rb._facetInfo.pivotFacets.values()) {
+          List<PivotRefinement> refList = dpf._toRefine == null ? null : dpf._toRefine[shardNum];
+          if (refList == null || refList.size()==0) continue;
+          if (pivotRefinements == null) {
+            pivotRefinements = new ArrayList<PivotRefinement>();
+          }
+          pivotRefinements.addAll(refList);
+        }
+
+        if (refinements == null && pivotRefinements == null) continue;
 
 
         String shard = rb.shards[shardNum];
@@ -180,8 +206,10 @@ public class FacetComponent extends SearchComponent
         refine.params.set(FacetParams.FACET, "true");
         refine.params.remove(FacetParams.FACET_FIELD);
         refine.params.remove(FacetParams.FACET_QUERY);
+        refine.params.remove(FacetParams.FACET_PIVOT);
+        refine.params.remove(FacetParams.FACET_DISTRIB_PACKED);
 
-        for (int i=0; i<refinements.size();) {
+        for (int i=0; refinements != null && i<refinements.size();) {
           String facetCommand=refinements.get(i++);
           String termsKey=refinements.get(i++);
           String termsVal=refinements.get(i++);
@@ -190,6 +218,16 @@ public class FacetComponent extends SearchComponent
           refine.params.set(termsKey, termsVal);
         }
 
+        // pivot values are counted with a facet.query for the path to each of them
+        if (pivotRefinements != null) {
+          for (PivotRefinement ref : pivotRefinements) {
+            refine.params.add(FacetParams.FACET_QUERY, ref.query);
+            for (int i=0; i<ref.valueParams.length; i+=2) {
+              refine.params.set(ref.valueParams[i], ref.valueParams[i+1]);
+            }
+          }
+        }
+
         if (newRequest) {
           rb.addRequest(this, refine);
         }
@@ -217,6 +255,9 @@ public class FacetComponent extends SearchComponent
         sreq.params.remove(FacetParams.FACET_MINCOUNT);
         sreq.params.remove(FacetParams.FACET_OFFSET);
         sreq.params.remove(FacetParams.FACET_LIMIT);
+        if (!fi.facets.isEmpty()) {
+          sreq.params.set(FacetParams.FACET_DISTRIB_PACKED, "true");
+        }
 
         for (DistribFieldFacet dff : fi.facets.values()) {
           String paramStart = "f." + dff.field + '.';
@@ -262,6 +303,58 @@ public class FacetComponent extends SearchComponent
 
           sreq.params.set(paramStart + FacetParams.FACET_LIMIT,  dff.initialLimit);
       }
+
+      if (!fi.pivotFacets.isEmpty()) {
+        // the shard limit and mincount of each field, over all pivots it is in
+        Map<String,int[]> pivotFields = new HashMap<String,int[]>();
+        for (DistribPivotFacet dpf : fi.pivotFacets.values()) {
+          for (FieldFacet ff : dpf.levels) {
+            int limit = ff.limit <= 0 ? ff.limit : ff.offset + ff.limit;
+            if (limit > 0 && ff.sort.equals(FacetParams.FACET_SORT_COUNT)) {
+              // over-request, as for facet.field
+              limit = (int)(limit * 1.5) + 10;
+            }
+            int mincount = Math.min(ff.minCount, 1);
+            int[] prev = pivotFields.get(ff.field);
+            if (prev != null) {
+              limit = prev[0] < 0 || limit < 0 ? -1 : Math.max(prev[0], limit);
+              mincount = Math.min(prev[1], mincount);
+            }
+            pivotFields.put(ff.field, new int[] {limit, mincount});
+          }
+        }
+
+        for (Map.Entry<String,int[]> entry : pivotFields.entrySet()) {
+          String field = entry.getKey();
+          String paramStart = "f." + field + '.';
+          int limit = entry.getValue()[0];
+          int mincount = entry.getValue()[1];
+          DistribFieldFacet dff = fi.getFieldFacet(field);
+          if (dff == null) {
+            sreq.params.remove(paramStart + FacetParams.FACET_OFFSET);
+            sreq.params.remove(paramStart + FacetParams.FACET_MINCOUNT);
+          } else {
+            // the field is also a facet.field: ask for the longer of both lists
+            limit = limit < 0 || dff.initialLimit < 0 ? -1 : Math.max(limit, dff.initialLimit);
+            mincount = Math.min(mincount, dff.initialMincount);
+          }
+          entry.getValue()[0] = limit;
+          sreq.params.set(paramStart + FacetParams.FACET_LIMIT, limit);
+          if (mincount != 0) {
+            sreq.params.set(paramStart + FacetParams.FACET_MINCOUNT, mincount);
+          } else {
+            sreq.params.remove(paramStart + FacetParams.FACET_MINCOUNT);
+          }
+        }
+
+        for (DistribPivotFacet dpf : fi.pivotFacets.values()) {
+          for (int level=0; level<dpf.levels.length; level++) {
+            dpf.initialLimits[level] = pivotFields.get(dpf.levels[level].field)[0];
+          }
+        }
+        // a node with a small count on one shard may still make it into the merged pivot
+        sreq.params.set(FacetParams.FACET_PIVOT_MINCOUNT, Math.min(fi.pivotMinCount, 1));
+      }
     } else {
       // turn off faceting on other requests
       sreq.params.set(FacetParams.FACET, "false");
@@ -315,10 +408,24 @@ public class FacetComponent extends SearchComponent
     
       if (facet_fields != null) {
         for (DistribFieldFacet dff : fi.facets.values()) {
-          dff.add(shardNum, (NamedList)facet_fields.get(dff.getKey()), dff.initialLimit);
+          Object shardCounts = facet_fields.get(dff.getKey());
+          if (shardCounts instanceof byte[]) {
+            // merged with the other shards' blocks below
+            dff.packedCounts.add(new PackedFacetCounts.Reader(shardNum, (byte[])shardCounts));
+          } else {
+            dff.add(shardNum, (NamedList)shardCounts, dff.initialLimit);
+          }
         }
       }
 
+      // step through each facet.pivot, merging the tree from this shard
+      NamedList facet_pivot = (NamedList)facet_counts.get(PIVOT_KEY);
+      for (DistribPivotFacet dpf : fi.pivotFacets.values()) {
+        @SuppressWarnings("unchecked")
+        List<NamedList<Object>> shardPivot = facet_pivot == null ? null : (List<NamedList<Object>>)facet_pivot.get(dpf.getKey());
+        dpf.add(shardNum, shardPivot);
+      }
+
       // Distributed facet_dates
       //
       // The implementation below uses the first encountered shard's 
@@ -414,6 +521,12 @@ public class FacetComponent extends SearchComponent
     // otherwise we would need to wait until all facet responses were received.
     //
 
+    for (DistribFieldFacet dff : fi.facets.values()) {
+      if (!dff.packedCounts.isEmpty()) {
+        dff.addPacked(dff.initialLimit);
+      }
+    }
+
     for (DistribFieldFacet dff : fi.facets.values()) {
        // no need to check these facets for refinement
       if (dff.initialLimit <= 0 && dff.initialMincount <= 1) continue;
@@ -472,6 +585,10 @@ public class FacetComponent extends SearchComponent
         }
       }
     }
+
+    for (DistribPivotFacet dpf : fi.pivotFacets.values()) {
+      dpf.findRefinements();
+    }
   }
 
 
@@ -481,6 +598,23 @@ public class FacetComponent extends SearchComponent
     for (ShardResponse srsp: sreq.responses) {
       // int shardNum = rb.getShardNum(srsp.shard);
       NamedList facet_counts = (NamedList)srsp.getSolrResponse().getResponse().get("facet_counts");
+
+      // the counts of pivot values on this shard
+      NamedList facet_queries = (NamedList)facet_counts.get("facet_queries");
+      if (facet_queries != null && !fi.pivotFacets.isEmpty()) {
+        for (int i=0; i<facet_queries.size(); i++) {
+          String key = facet_queries.getName(i);
+          long count = ((Number)facet_queries.getVal(i)).longValue();
+          for (DistribPivotFacet dpf : fi.pivotFacets.values()) {
+            PivotFacetNode node = dpf.refinementKeys.get(key);
+            if (node != null) {
+              node.count += count;
+              break;
+            }
+          }
+        }
+      }
+
       NamedList facet_fields = (NamedList)facet_counts.get("facet_fields");
 
       if (facet_fields == null) continue; // this can happen when there's an exception      
@@ -584,6 +718,14 @@ public class FacetComponent extends SearchComponent
     facet_counts.add("facet_dates", fi.dateFacets);
     facet_counts.add("facet_ranges", fi.rangeFacets);
 
+    if (!fi.pivotFacets.isEmpty()) {
+      SimpleOrderedMap<List<NamedList<Object>>> facet_pivot = new SimpleOrderedMap<List<NamedList<Object>>>();
+      for (DistribPivotFacet dpf : fi.pivotFacets.values()) {
+        facet_pivot.add(dpf.getKey(), dpf.getPivots());
+      }
+      facet_counts.add(PIVOT_KEY, facet_pivot);
+    }
+
     rb.rsp.add("facet_counts", facet_counts);
 
     rb._facetInfo = null;  // could be big, so release asap
@@ -591,7 +733,7 @@ public class FacetComponent extends SearchComponent
 
 
   // use <int> tags for smaller facet counts (better back compatibility)
-  private Number num(long val) {
+  private static Number num(long val) {
    if (val < Integer.MAX_VALUE) return (int)val;
    else return val;
   }
@@ -631,10 +773,13 @@ public class FacetComponent extends SearchComponent
       = new SimpleOrderedMap<SimpleOrderedMap<Object>>();
     public SimpleOrderedMap<SimpleOrderedMap<Object>> rangeFacets
       = new SimpleOrderedMap<SimpleOrderedMap<Object>>();
+    public LinkedHashMap<String,DistribPivotFacet> pivotFacets;
+    public int pivotMinCount;
 
     void parse(SolrParams params, ResponseBuilder rb) {
       queryFacets = new LinkedHashMap<String,QueryFacet>();
       facets = new LinkedHashMap<String,DistribFieldFacet>();
+      pivotFacets = new LinkedHashMap<String,DistribPivotFacet>();
 
       String[] facetQs = params.getParams(FacetParams.FACET_QUERY);
       if (facetQs != null) {
@@ -652,6 +797,23 @@ public class FacetComponent extends SearchComponent
           facets.put(ff.getKey(), ff);
         }
       }
+
+      pivotMinCount = params.getInt(FacetParams.FACET_PIVOT_MINCOUNT, 1);
+      String[] facetPivots = params.getParams(FacetParams.FACET_PIVOT);
+      if (facetPivots != null) {
+        for (String pivot : facetPivots) {
+          DistribPivotFacet dpf = new DistribPivotFacet(rb, pivot, pivotFacets.size(), pivotMinCount);
+          pivotFacets.put(dpf.getKey(), dpf);
+        }
+      }
+    }
+
+    /** returns the facet.field on a field, or null if there is none */
+    DistribFieldFacet getFieldFacet(String field) {
+      for (DistribFieldFacet dff : facets.values()) {
+        if (dff.field.equals(field)) return dff;
+      }
+      return null;
     }
   }
 
@@ -762,6 +924,8 @@ public class FacetComponent extends SearchComponent
     public OpenBitSet[] counted; // a bitset for each shard, keeping track of which terms seen
     public HashMap<String,ShardFacetCount> counts = new HashMap<String,ShardFacetCount>(128);
     public int termNum;
+    // the packed counts of the shards, until all shards have responded
+    List<PackedFacetCounts.Reader> packedCounts = new ArrayList<PackedFacetCounts.Reader>();
 
     public int initialLimit;     // how many terms requested in first phase
     public int initialMincount;  // mincount param sent to each shard
@@ -815,6 +979,52 @@ public class FacetComponent extends SearchComponent
       counted[shardNum] = terms;
     }
 
+    /** merges the packed counts of the shards, whose terms are all in index order */
+    void addPacked(int numRequested) {
+      PackedFacetCounts.Reader[] readers = packedCounts.toArray(new PackedFacetCounts.Reader[packedCounts.size()]);
+      packedCounts.clear();
+
+      for (PackedFacetCounts.Reader reader : readers) {
+        if (reader.missing >= 0) {
+          missingCount += reader.missing;
+        }
+        long last = reader.last;
+        if (reader.complete) {
+          // the shard returned every term with at least initialMincount documents
+          last = Math.max(initialMincount - 1, 0);
+        } else if (numRequested<0 || numRequested != 0 && reader.numTerms < numRequested) {
+          last = initialMincount;
+        }
+        missingMaxPossible += last;
+        missingMax[reader.shardNum] = last;
+        counted[reader.shardNum] = new OpenBitSet(termNum + reader.numTerms);
+      }
+
+      // only look up terms if some shards returned their counts in a NamedList
+      boolean lookup = !counts.isEmpty();
+      PackedFacetCounts.Merger merger = new PackedFacetCounts.Merger(readers);
+      BytesRef current = new BytesRef();
+      ShardFacetCount sfc = null;
+      for (PackedFacetCounts.Reader top = merger.top(); top != null; top = merger.top()) {
+        if (sfc == null || !top.term.bytesEquals(current)) {
+          String indexed = top.term.utf8ToString();
+          String name = top.readable == null ? indexed : top.readable;
+          sfc = lookup ? counts.get(name) : null;
+          if (sfc == null) {
+            sfc = new ShardFacetCount();
+            sfc.name = name;
+            sfc.indexed = indexed;
+            sfc.termNum = termNum++;
+            counts.put(name, sfc);
+          }
+          current.copyBytes(top.term);
+        }
+        sfc.count += top.count;
+        counted[top.shardNum].set(sfc.termNum);
+        merger.advanceTop();
+      }
+    }
+
     public ShardFacetCount[] getLexSorted() {
       ShardFacetCount[] arr = counts.values().toArray(new ShardFacetCount[counts.size()]);
       Arrays.sort(arr, new Comparator<ShardFacetCount>() {
@@ -864,4 +1074,282 @@ public class FacetComponent extends SearchComponent
       return "{term="+name+",termNum="+termNum+",count="+count+"}";
     }
   }
+
+  /**
+   * A facet.pivot merged from the shards.  The values the shards did not report for the
+   * nodes that will be returned are counted with one refinement request per shard.
+   * <p>
+   * There is only one round of refinement, so a value is only counted on a shard if some
+   * shard reported it in the first round.  If a shard did not report a node, the values
+   * below it that only this shard has are never found, nor are the values below a node
+   * that only gets into the result through refinement.  The pivots below such nodes may
+   * miss values or have counts that are too low.
+   * <b>This API is experimental and subject to change</b>
+   */
+  public static class DistribPivotFacet extends FacetBase {
+    public FieldFacet[] levels;   // the fields of the pivot, with their facet params
+    public int[] initialLimits;   // facet.limit sent to the shards, for each level
+    public int minMatch;          // facet.pivot.mincount
+    public PivotFacetNode root = new PivotFacetNode(null, null);
+    public List<PivotRefinement>[] _toRefine; // refinements needed, one list for each shard
+    // facet.query key of a refinement -> the node it counts
+    public HashMap<String,PivotFacetNode> refinementKeys = new HashMap<String,PivotFacetNode>();
+
+    private final int index;
+    private final boolean[] responded;
+
+    DistribPivotFacet(ResponseBuilder rb, String facetStr, int index, int minMatch) {
+      super(rb, FacetParams.FACET_PIVOT, facetStr);
+      this.index = index;
+      this.minMatch = minMatch;
+      String[] fields = facetOn.split(",");
+      levels = new FieldFacet[fields.length];
+      for (int i=0; i<fields.length; i++) {
+        levels[i] = new FieldFacet(rb, fields[i]);
+      }
+      initialLimits = new int[fields.length];
+      responded = new boolean[rb.shards.length];
+    }
+
+    void add(int shardNum, List<NamedList<Object>> shardPivot) {
+      responded[shardNum] = true;
+      merge(root, 0, shardPivot, shardNum);
+    }
+
+    private void merge(PivotFacetNode parent, int level, List<NamedList<Object>> shardNodes, int shardNum) {
+      parent.shards.set(shardNum);
+      if (shardNodes == null || level >= levels.length) return;
+      FieldFacet ff = levels[level];
+
+      int numReceived = 0;
+      long last = 0;
+      for (NamedList<Object> shardNode : shardNodes) {
+        Object value = shardNode.get("value");
+        long count = ((Number)shardNode.get("count")).longValue();
+        String readable = value == null ? null : toReadable(value);
+        PivotFacetNode node = parent.children.get(readable);
+        if (node == null) {
+          String indexed = readable == null || ff.ftype == null ? readable : ff.ftype.toInternal(readable);
+          node = new PivotFacetNode(value, indexed);
+          parent.children.put(readable, node);
+        }
+        node.count += count;
+        if (value != null) {
+          numReceived++;
+          last = count;
+        }
+        @SuppressWarnings("unchecked")
+        List<NamedList<Object>> subPivot = (List<NamedList<Object>>)shardNode.get("pivot");
+        merge(node, level + 1, subPivot, shardNum);
+      }
+
+      // the largest count of a value the shard did not report
+      int numRequested = initialLimits[level];
+      if (numRequested > 0 && numReceived >= numRequested) {
+        parent.childMax.put(shardNum, last);
+      }
+    }
+
+    /** Flags the values missing from a shard's pivot that may be returned */
+    void findRefinements() {
+      @SuppressWarnings("unchecked") // generic array's are annoying
+      List<PivotRefinement>[] tmp = (List<PivotRefinement>[]) new List[responded.length];
+      _toRefine = tmp;
+      findRefinements(root, 0, new ArrayList<PivotFacetNode>(), new long[responded.length]);
+    }
+
+    private void findRefinements(PivotFacetNode parent, int level, List<PivotFacetNode> path, long[] parentMax) {
+      FieldFacet ff = levels[level];
+      boolean lastLevel = level == levels.length - 1;
+
+      // the largest count a value not reported by a shard may have
+      long[] max = new long[responded.length];
+      for (int shardNum=0; shardNum<responded.length; shardNum++) {
+        if (parent.shards.get(shardNum)) {
+          Long last = parent.childMax.get(shardNum);
+          max[shardNum] = last == null ? 0 : last;
+        } else {
+          max[shardNum] = parentMax[shardNum];
+        }
+      }
+
+      List<PivotFacetNode> sorted = getSorted(parent, ff, 0);
+      int ntop = Math.min(sorted.size(), ff.limit >= 0 ? ff.offset + ff.limit : Integer.MAX_VALUE);
+      long smallestCount = ntop == 0 ? 0 : sorted.get(ntop-1).count;
+      List<PivotFacetNode> candidates = new ArrayList<PivotFacetNode>(sorted.subList(0, ntop));
+      if (ff.sort.equals(FacetParams.FACET_SORT_COUNT)) {
+        for (int i=ntop; i<sorted.size(); i++) {
+          PivotFacetNode node = sorted.get(i);
+          long maxCount = node.count;
+          for (int shardNum=0; shardNum<responded.length; shardNum++) {
+            if (responded[shardNum] && !node.shards.get(shardNum)) {
+              maxCount += max[shardNum];
+            }
+          }
+          if (maxCount > 0 && maxCount >= smallestCount) {
+            candidates.add(node);
+          }
+        }
+      }
+      if (ff.missing && parent.children.containsKey(null)) {
+        candidates.add(parent.children.get(null));
+      }
+
+      for (PivotFacetNode node : candidates) {
+        path.add(node);
+        for (int shardNum=0; shardNum<responded.length; shardNum++) {
+          if (!responded[shardNum] || node.shards.get(shardNum)) continue;
+          // a shard that reported all children of the parent has none of the last field
+          // left out; above the last level, it leaves out values without sub-values.
+          if (lastLevel && parent.shards.get(shardNum) && max[shardNum] == 0) continue;
+          List<PivotRefinement> lst = _toRefine[shardNum];
+          if (lst == null) {
+            lst = _toRefine[shardNum] = new ArrayList<PivotRefinement>();
+          }
+          lst.add(getRefinement(node, path));
+        }
+        if (!lastLevel) {
+          findRefinements(node, level + 1, path, max);
+        }
+        path.remove(path.size() - 1);
+      }
+    }
+
+    private PivotRefinement getRefinement(PivotFacetNode node, List<PivotFacetNode> path) {
+      if (node.refinement != null) {
+        return node.refinement;
+      }
+      String key = "__pivot_" + index + "_" + refinementKeys.size();
+      StringBuilder query = new StringBuilder("{!lucene key=").append(key);
+      String excludes = localParams == null ? null : localParams.get(CommonParams.EXCLUDE);
+      if (excludes != null) {
+        query.append(" ex=").append(QueryParsing.encodeLocalParamVal(excludes));
+      }
+      query.append("}+*:*");
+      List<String> valueParams = new ArrayList<String>();
+      for (int i=0; i<path.size(); i++) {
+        PivotFacetNode pathNode = path.get(i);
+        String field = levels[i].field;
+        if (pathNode.value == null) {
+          query.append(" -").append(field).append(":[* TO *]");
+        } else {
+          // values are passed by parameter reference to avoid another layer of encoding
+          String param = key + "_" + i;
+          query.append(" +_query_:\"{!term f=").append(field).append(" v=$").append(param).append("}\"");
+          valueParams.add(param);
+          valueParams.add(toReadable(pathNode.value));
+        }
+      }
+
+      PivotRefinement refinement = new PivotRefinement();
+      refinement.query = query.toString();
+      refinement.valueParams = valueParams.toArray(new String[valueParams.size()]);
+      node.refinement = refinement;
+      refinementKeys.put(key, node);
+      return refinement;
+    }
+
+    /** returns the merged pivot, in the form of the pivot of a single shard */
+    public List<NamedList<Object>> getPivots() {
+      return getPivots(root, 0);
+    }
+
+    private List<NamedList<Object>> getPivots(PivotFacetNode parent, int level) {
+      FieldFacet ff = levels[level];
+      List<PivotFacetNode> entries = select(parent, level);
+      List<NamedList<Object>> values = new ArrayList<NamedList<Object>>(entries.size());
+      for (PivotFacetNode node : entries) {
+        if (node.count < minMatch) continue;
+
+        SimpleOrderedMap<Object> pivot = new SimpleOrderedMap<Object>();
+        pivot.add("field", ff.field);
+        pivot.add("value", node.value);
+        pivot.add("count", num(node.count));
+        if (level == levels.length - 1) {
+          values.add(pivot);
+        } else if (!node.shards.isEmpty() || select(node, level + 1).size() >= minMatch) {
+          // a shard only reports a node if it has enough values below it, and so do all shards together
+          pivot.add("pivot", getPivots(node, level + 1));
+          values.add(pivot);
+        }
+      }
+      return values;
+    }
+
+    /** returns the children of a node to return, as getTermCounts on a single shard */
+    private List<PivotFacetNode> select(PivotFacetNode parent, int level) {
+      FieldFacet ff = levels[level];
+      List<PivotFacetNode> res = new ArrayList<PivotFacetNode>();
+      if (ff.limit == 0) return res;
+      List<PivotFacetNode> sorted = getSorted(parent, ff, ff.minCount);
+      int end = ff.limit < 0 ? sorted.size() : Math.min(sorted.size(), ff.offset + ff.limit);
+      for (int i=ff.offset; i<end; i++) {
+        res.add(sorted.get(i));
+      }
+      if (ff.missing) {
+        PivotFacetNode missing = parent.children.get(null);
+        res.add(missing != null ? missing : new PivotFacetNode(null, null));
+      }
+      return res;
+    }
+
+    private static List<PivotFacetNode> getSorted(PivotFacetNode parent, FieldFacet ff, int minCount) {
+      List<PivotFacetNode> sorted = new ArrayList<PivotFacetNode>(parent.children.size());
+      for (PivotFacetNode node : parent.children.values()) {
+        if (node.value != null && node.count >= minCount) {
+          sorted.add(node);
+        }
+      }
+      final boolean countSorted = ff.sort.equals(FacetParams.FACET_SORT_COUNT);
+      Collections.sort(sorted, new Comparator<PivotFacetNode>() {
+        @Override
+        public int compare(PivotFacetNode o1, PivotFacetNode o2) {
+          if (countSorted) {
+            if (o2.count < o1.count) return -1;
+            else if (o1.count < o2.count) return 1;
+          }
+          return o1.indexed.compareTo(o2.indexed);
+        }
+      });
+      return sorted;
+    }
+
+    private static String toReadable(Object value) {
+      return value instanceof Date ? DateField.formatExternal((Date)value) : value.toString();
+    }
+  }
+
+  /**
+   * A value of a pivot field under the values of the fields before it.
+   * <b>This API is experimental and subject to change</b>
+   */
+  public static class PivotFacetNode {
+    public Object value;    // null for the documents without a value
+    public String indexed;  // the indexed form of the value... used for comparisons.
+    public long count;
+    public OpenBitSet shards = new OpenBitSet();  // the shards that reported this node
+    // shard -> the largest count of a child the shard did not report, if it cut the list of them
+    public HashMap<Integer,Long> childMax = new HashMap<Integer,Long>();
+    public LinkedHashMap<String,PivotFacetNode> children = new LinkedHashMap<String,PivotFacetNode>();
+    public PivotRefinement refinement;
+
+    PivotFacetNode(Object value, String indexed) {
+      this.value = value;
+      this.indexed = indexed;
+    }
+
+    @Override
+    public String toString() {
+      return "{value="+value+",count="+count+",children="+children.size()+"}";
+    }
+  }
+
+  /**
+   * A facet.query counting a pivot value on a shard, with the parameters it refers to.
+   * <b>This API is experimental and subject to change</b>
+   */
+  public static class PivotRefinement {
+    public String query;
+    public String[] valueParams; // parameter names and values, alternating
+  }
 }
@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.handler.component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrFieldSource;
+import org.apache.solr.schema.TrieField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+
+/**
+ * Computes the stats of several single-valued numeric fields together, with one pass over
+ * the documents of each segment.
+ * <p>
+ * Values are read from the field cache into primitive accumulators, and stats.facet
+ * values are accumulated by segment ordinal; the facet terms are only looked up once per
+ * ordinal, when the segments are merged.  Segments are accumulated in parallel.
+ */
+class FieldCacheStats {
+
+  /**
+   * A stats.facet field with more terms than this in a segment is accumulated only for the
+   * ordinals the matching documents have, rather than with slots for all of its terms.
+   */
+  static final int MAX_DENSE_SLOTS = 4096;
+
+  private static final Executor statsExecutor = new ThreadPoolExecutor(
+      0,
+      Integer.MAX_VALUE,
+      10, TimeUnit.SECONDS, // terminate idle threads after 10 sec
+      new SynchronousQueue<Runnable>()  // directly hand off tasks
+      , new DefaultSolrThreadFactory("statsExecutor")
+  );
+
+  private final SolrIndexSearcher searcher;
+  private final SchemaField[] fields;
+  private final String[][] facets;  // the stats.facet fields of each field
+
+  FieldCacheStats(SolrIndexSearcher searcher, List<SchemaField> fields, List<String[]> facets) {
+    this.searcher = searcher;
+    this.fields = fields.toArray(new SchemaField[fields.size()]);
+    this.facets = facets.toArray(new String[facets.size()][]);
+  }
+
+  /**
+   * Returns true if the stats of a field, faceted by the given fields, can be computed
+   * here: the field must be a single-valued numeric trie field, and the facet fields
+   * must be single-valued fields whose values come from the terms index.
+   */
+  static boolean supports(IndexSchema schema, SchemaField sf, String[] facets) {
+    if (!(sf.getType() instanceof TrieField) || sf.multiValued() || sf.getType().multiValuedFieldCache()) {
+      return false;
+    }
+    if (((TrieField)sf.getType()).getType() == TrieField.TrieTypes.DATE) {
+      return false;
+    }
+    for (String facet : facets) {
+      SchemaField fsf = schema.getField(facet);
+      if (fsf.multiValued() || fsf.getType().getValueSource(fsf, null).getClass() != StrFieldSource.class) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the stats of each field, in the form of {@link StatsValues#getStatsValues} */
+  NamedList<?>[] getStatsValues(DocSet docs) throws IOException {
+    final Filter filter = docs.getTopFilter();
+    List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    CompletionService<SegmentStats> completionService = new ExecutorCompletionService<SegmentStats>(statsExecutor);
+    LinkedList<Callable<SegmentStats>> pending = new LinkedList<Callable<SegmentStats>>();
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (final AtomicReaderContext leaf : leaves) {
+      Callable<SegmentStats> task = new Callable<SegmentStats>() {
+        @Override
+        public SegmentStats call() throws IOException {
+          return accumulate(leaf, filter);
+        }
+      };
+      if (--threads >= 0) {
+        completionService.submit(task);
+      } else {
+        pending.add(task);
+      }
+    }
+
+    // merge the segments as they complete
+    Accumulators totals = new Accumulators(fields.length);
+    List<List<Map<String,Accumulators>>> facetTotals = new ArrayList<List<Map<String,Accumulators>>>();
+    for (int i = 0; i < fields.length; i++) {
+      List<Map<String,Accumulators>> perFacet = new ArrayList<Map<String,Accumulators>>();
+      for (int j = 0; j < facets[i].length; j++) {
+        perFacet.add(new HashMap<String,Accumulators>());
+      }
+      facetTotals.add(perFacet);
+    }
+
+    BytesRef term = new BytesRef();
+    for (int s = 0; s < leaves.size(); s++) {
+      SegmentStats seg;
+      try {
+        seg = completionService.take().get();
+        if (!pending.isEmpty()) {
+          completionService.submit(pending.removeFirst());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        } else {
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Error computing stats", cause);
+        }
+      }
+
+      for (int i = 0; i < fields.length; i++) {
+        totals.merge(i, seg.fieldStats, i);
+        for (int j = 0; j < facets[i].length; j++) {
+          FacetStats segFacet = seg.facetStats[i][j];
+          Map<String,Accumulators> total = facetTotals.get(i).get(j);
+          for (int slot = 0; slot < segFacet.numSlots(); slot++) {
+            if (segFacet.acc.count[slot] == 0 && segFacet.acc.missing[slot] == 0) continue;
+            int ord = segFacet.ord(slot);
+            String key = null;
+            if (ord >= 0) {
+              segFacet.ords.lookupOrd(ord, term);
+              key = term.utf8ToString();
+            }
+            Accumulators acc = total.get(key);
+            if (acc == null) {
+              acc = new Accumulators(1);
+              total.put(key, acc);
+            }
+            acc.merge(0, segFacet.acc, slot);
+          }
+        }
+      }
+    }
+
+    NamedList<?>[] res = new NamedList<?>[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      StatsValues stats = StatsValuesFactory.createStatsValues(fields[i]);
+      stats.accumulate(totals.toNamedList(i));
+      for (int j = 0; j < facets[i].length; j++) {
+        Map<String,StatsValues> facetValues = new HashMap<String,StatsValues>();
+        for (Map.Entry<String,Accumulators> entry : facetTotals.get(i).get(j).entrySet()) {
+          StatsValues facetStats = StatsValuesFactory.createStatsValues(fields[i]);
+          facetStats.accumulate(entry.getValue().toNamedList(0));
+          facetValues.put(entry.getKey(), facetStats);
+        }
+        stats.addFacet(facets[i][j], facetValues);
+      }
+      res[i] = stats.getStatsValues();
+    }
+    return res;
+  }
+
+  private SegmentStats accumulate(AtomicReaderContext leaf, Filter filter) throws IOException {
+    final AtomicReader reader = leaf.reader();
+    final int n = fields.length;
+    final FieldCache.Doubles[] values = new FieldCache.Doubles[n];
+    final Bits[] docsWithField = new Bits[n];
+    final SegmentStats seg = new SegmentStats(n);
+    Map<String,SortedDocValues> ordsByField = new HashMap<String,SortedDocValues>();
+    for (int i = 0; i < n; i++) {
+      values[i] = getValues(reader, fields[i]);
+      docsWithField[i] = FieldCache.DEFAULT.getDocsWithField(reader, fields[i].getName());
+      seg.facetStats[i] = new FacetStats[facets[i].length];
+      for (int j = 0; j < facets[i].length; j++) {
+        SortedDocValues ords = ordsByField.get(facets[i][j]);
+        if (ords == null) {
+          ords = FieldCache.DEFAULT.getTermsIndex(reader, facets[i][j]);
+          ordsByField.put(facets[i][j], ords);
+        }
+        seg.facetStats[i][j] = new FacetStats(ords);
+      }
+    }
+
+    DocIdSet set = filter.getDocIdSet(leaf, null);
+    DocIdSetIterator iter = set == null ? null : set.iterator();
+    if (iter == null) {
+      return seg;
+    }
+
+    final Accumulators fieldStats = seg.fieldStats;
+    int doc;
+    while ((doc = iter.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+      for (int i = 0; i < n; i++) {
+        final boolean exists = docsWithField[i].get(doc);
+        final double value = exists ? values[i].get(doc) : 0;
+        if (exists) {
+          fieldStats.add(i, value);
+        } else {
+          fieldStats.addMissing(i);
+        }
+        final FacetStats[] facetStats = seg.facetStats[i];
+        for (int j = 0; j < facetStats.length; j++) {
+          final FacetStats facet = facetStats[j];
+          final int slot = facet.slot(facet.ords.getOrd(doc));
+          if (exists) {
+            facet.acc.add(slot, value);
+          } else {
+            facet.acc.addMissing(slot);
+          }
+        }
+      }
+    }
+    return seg;
+  }
+
+  private static FieldCache.Doubles getValues(AtomicReader reader, SchemaField sf) throws IOException {
+    final String field = sf.getName();
+    switch (sf.getType().getNumericType()) {
+      case INT:
+        final FieldCache.Ints ints = FieldCache.DEFAULT.getInts(reader, field, true);
+        return new FieldCache.Doubles() {
+          @Override
+          public double get(int docID) {
+            return ints.get(docID);
+          }
+        };
+      case LONG:
+        final FieldCache.Longs longs = FieldCache.DEFAULT.getLongs(reader, field, true);
+        return new FieldCache.Doubles() {
+          @Override
+          public double get(int docID) {
+            return longs.get(docID);
+          }
+        };
+      case FLOAT:
+        final FieldCache.Floats floats = FieldCache.DEFAULT.getFloats(reader, field, true);
+        return new FieldCache.Doubles() {
+          @Override
+          public double get(int docID) {
+            return floats.get(docID);
+          }
+        };
+      case DOUBLE:
+        return FieldCache.DEFAULT.getDoubles(reader, field, true);
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  /** The stats of one segment */
+  private static final class SegmentStats {
+    final Accumulators fieldStats;
+    final FacetStats[][] facetStats;
+
+    SegmentStats(int numFields) {
+      fieldStats = new Accumulators(numFields);
+      facetStats = new FacetStats[numFields][];
+    }
+  }
+
+  /**
+   * The stats of a stats.facet field in one segment, by ordinal.  With up to
+   * {@link #MAX_DENSE_SLOTS} terms, slot 0 holds the documents without a value and slot
+   * ord+1 the others.  With more, slots are handed out to the ordinals as they are seen,
+   * through an open addressing hash of ord+1.
+   */
+  static final class FacetStats {
+    final SortedDocValues ords;
+    Accumulators acc;
+    private int[] keys;      // ord+2 of each hash entry, 0 if empty; null if dense
+    private int[] slots;     // slot of each hash entry
+    private int[] slotOrds;  // ord of each slot
+    private int numSlots;
+
+    FacetStats(SortedDocValues ords) {
+      this.ords = ords;
+      int size = ords.getValueCount() + 1;
+      if (size <= MAX_DENSE_SLOTS) {
+        acc = new Accumulators(size);
+        numSlots = size;
+      } else {
+        acc = new Accumulators(16);
+        keys = new int[32];
+        slots = new int[32];
+        slotOrds = new int[16];
+      }
+    }
+
+    int numSlots() {
+      return numSlots;
+    }
+
+    /** Returns the ordinal of a slot, -1 for the documents without a value */
+    int ord(int slot) {
+      return keys == null ? slot - 1 : slotOrds[slot];
+    }
+
+    /** Returns the slot of an ordinal, adding one if it has none yet */
+    int slot(int ord) {
+      if (keys == null) return ord + 1;
+      int key = ord + 2;
+      int mask = keys.length - 1;
+      int h = hash(key) & mask;
+      while (keys[h] != 0) {
+        if (keys[h] == key) return slots[h];
+        h = (h + 1) & mask;
+      }
+      int slot = numSlots++;
+      keys[h] = key;
+      slots[h] = slot;
+      if (slot == slotOrds.length) {
+        slotOrds = Arrays.copyOf(slotOrds, slot << 1);
+        acc.grow(slot << 1);
+      }
+      slotOrds[slot] = ord;
+      if (numSlots << 1 > keys.length) {
+        rehash(keys.length << 1);
+      }
+      return slot;
+    }
+
+    private void rehash(int size) {
+      int[] oldKeys = keys;
+      int[] oldSlots = slots;
+      keys = new int[size];
+      slots = new int[size];
+      int mask = size - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] == 0) continue;
+        int h = hash(oldKeys[i]) & mask;
+        while (keys[h] != 0) {
+          h = (h + 1) & mask;
+        }
+        keys[h] = oldKeys[i];
+        slots[h] = oldSlots[i];
+      }
+    }
+
+    private static int hash(int key) {
+      // ordinals are dense, so spread them over the table
+      return key * 0x9E3779B9;
+    }
+  }
+
+  /** Count, missing, min, max, sum and sum of squares of a number of slots */
+  static final class Accumulators {
+    long[] count;
+    long[] missing;
+    double[] min;
+    double[] max;
+    double[] sum;
+    double[] sumOfSquares;
+
+    Accumulators(int size) {
+      count = new long[size];
+      missing = new long[size];
+      min = new double[size];
+      max = new double[size];
+      sum = new double[size];
+      sumOfSquares = new double[size];
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    /** Grows the number of slots to <code>size</code> */
+    void grow(int size) {
+      int oldSize = count.length;
+      count = Arrays.copyOf(count, size);
+      missing = Arrays.copyOf(missing, size);
+      min = Arrays.copyOf(min, size);
+      max = Arrays.copyOf(max, size);
+      sum = Arrays.copyOf(sum, size);
+      sumOfSquares = Arrays.copyOf(sumOfSquares, size);
+      Arrays.fill(min, oldSize, size, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, oldSize, size, Double.NEGATIVE_INFINITY);
+    }
+
+    void add(int slot, double value) {
+      count[slot]++;
+      min[slot] = Math.min(min[slot], value);
+      max[slot] = Math.max(max[slot], value);
+      sum[slot] += value;
+      sumOfSquares[slot] += value * value;
+    }
+
+    void addMissing(int slot) {
+      missing[slot]++;
+    }
+
+    void merge(int slot, Accumulators other, int otherSlot) {
+      count[slot] += other.count[otherSlot];
+      missing[slot] += other.missing[otherSlot];
+      min[slot] = Math.min(min[slot], other.min[otherSlot]);
+      max[slot] = Math.max(max[slot], other.max[otherSlot]);
+      sum[slot] += other.sum[otherSlot];
+      sumOfSquares[slot] += other.sumOfSquares[otherSlot];
+    }
+
+    /** Returns a slot in the form {@link StatsValues#accumulate(NamedList)} takes */
+    NamedList<Object> toNamedList(int slot) {
+      NamedList<Object> res = new SimpleOrderedMap<Object>();
+      res.add("min", min[slot]);
+      res.add("max", max[slot]);
+      res.add("count", count[slot]);
+      res.add("missing", missing[slot]);
+      res.add("sum", sum[slot]);
+      res.add("sumOfSquares", sumOfSquares[slot]);
+      return res;
+    }
+  }
+}
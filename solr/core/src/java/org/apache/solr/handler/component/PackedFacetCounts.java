@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.handler.component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SyntaxError;
+
+/**
+ * The packed form of the facet.field counts a shard returns in the first phase of a
+ * distributed request ({@link FacetParams#FACET_DISTRIB_PACKED}).
+ * <p>
+ * Instead of a NamedList, the counts of each facet.field are a single byte[]: a header
+ * with the number of terms, the count of the last term in the shard's order, the count
+ * of documents without a value and whether the shard returned all its counts
+ * ({@link FacetParams#FACET_DISTRIB_COMPLETE}), followed by the terms sorted by their
+ * indexed form, prefix-coded, each with its count.  The readable form of a term is only
+ * written when it differs from the indexed one.
+ * <p>
+ * Since the terms of every shard are sorted the same way, {@link Merger} merges the
+ * blocks of all shards in one pass with a heap of shard numbers, and builds one
+ * {@link FacetComponent.ShardFacetCount} per distinct term.
+ */
+class PackedFacetCounts {
+  private static final int COMPLETE = 0x1;
+  private static final int HAS_MISSING = 0x2;
+
+  private PackedFacetCounts() {}
+
+  /**
+   * Finds the facet.fields for which this shard can return all counts, because the field
+   * has at most {@link FacetParams#FACET_DISTRIB_COMPLETE} terms in the index, and removes
+   * their limit from the params.
+   *
+   * @return the keys of those facet.fields
+   */
+  static Set<String> completeFields(SolrIndexSearcher searcher, ModifiableSolrParams params) throws IOException {
+    Set<String> keys = new HashSet<String>();
+    Map<String,Boolean> complete = new HashMap<String,Boolean>();
+    for (Map.Entry<String,String> entry : getFields(params, true).entrySet()) {
+      String field = entry.getValue();
+      int maxTerms = params.getFieldInt(field, FacetParams.FACET_DISTRIB_COMPLETE, 0);
+      if (maxTerms <= 0) continue;
+      Boolean isComplete = complete.get(field);
+      if (isComplete == null) {
+        long numTerms = getNumTerms(searcher, field);
+        isComplete = numTerms >= 0 && numTerms <= maxTerms;
+        complete.put(field, isComplete);
+      }
+      if (isComplete) {
+        keys.add(entry.getKey());
+        params.set("f." + field + '.' + FacetParams.FACET_LIMIT, -1);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Returns an upper bound of the number of distinct terms of a field: the sum of the
+   * number of terms of each segment, or -1 if it is not known.
+   */
+  private static long getNumTerms(SolrIndexSearcher searcher, String field) throws IOException {
+    SchemaField sf = searcher.getSchema().getFieldOrNull(field);
+    if (sf == null || !sf.indexed()) return -1;
+    long numTerms = 0;
+    for (AtomicReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+      Terms terms = leaf.reader().terms(field);
+      if (terms == null) continue;
+      long size = terms.size();
+      if (size < 0) return -1;
+      numTerms += size;
+    }
+    return numTerms;
+  }
+
+  /**
+   * Returns the field of each facet.field, by key.
+   *
+   * @param skipLimited skip the facet.fields whose local params set their limit or offset,
+   *                    or the terms to count
+   */
+  private static Map<String,String> getFields(SolrParams params, boolean skipLimited) {
+    Map<String,String> fields = new LinkedHashMap<String,String>();
+    String[] facetFs = params.getParams(FacetParams.FACET_FIELD);
+    if (facetFs == null) return fields;
+    for (String facetStr : facetFs) {
+      SolrParams localParams;
+      try {
+        localParams = QueryParsing.getLocalParams(facetStr, params);
+      } catch (SyntaxError e) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, e);
+      }
+      if (localParams == null) {
+        fields.put(facetStr, facetStr);
+        continue;
+      }
+      if (skipLimited && (localParams.get(FacetParams.FACET_LIMIT) != null
+          || localParams.get(FacetParams.FACET_OFFSET) != null
+          || localParams.get(CommonParams.TERMS) != null)) {
+        continue;
+      }
+      String field = localParams.get(CommonParams.VALUE);
+      fields.put(localParams.get(CommonParams.OUTPUT_KEY, field), field);
+    }
+    return fields;
+  }
+
+  /**
+   * Replaces the counts of each facet.field in the facet_fields of a shard response by
+   * their packed form.
+   */
+  static void pack(IndexSchema schema, SolrParams params, NamedList<Object> facetCounts, Set<String> completeKeys) {
+    @SuppressWarnings("unchecked")
+    NamedList<Object> facetFields = (NamedList<Object>) facetCounts.get("facet_fields");
+    if (facetFields == null) return;
+    Map<String,String> fields = getFields(params, false);
+    for (int i = 0; i < facetFields.size(); i++) {
+      String key = facetFields.getName(i);
+      String field = fields.get(key);
+      FieldType ft = field == null ? null : schema.getFieldTypeNoEx(field);
+      facetFields.setVal(i, encode((NamedList<?>) facetFields.getVal(i), ft, completeKeys.contains(key)));
+    }
+  }
+
+  /** Returns the packed form of the counts of a facet.field */
+  static byte[] encode(NamedList<?> counts, FieldType ft, boolean complete) {
+    final int size = counts.size();
+    BytesRef[] indexed = new BytesRef[size];
+    BytesRef[] readable = new BytesRef[size];
+    Integer[] order = new Integer[size];
+    int numTerms = 0;
+    int flags = complete ? COMPLETE : 0;
+    long missing = 0;
+    long last = 0;
+    int maxLength = 32;
+    for (int i = 0; i < size; i++) {
+      String name = counts.getName(i);
+      long count = ((Number) counts.getVal(i)).longValue();
+      if (name == null) {
+        flags |= HAS_MISSING;
+        missing += count;
+        continue;
+      }
+      String internal = ft == null ? name : ft.toInternal(name);
+      indexed[i] = new BytesRef(internal);
+      if (!internal.equals(name)) {
+        readable[i] = new BytesRef(name);
+        maxLength += 5 + readable[i].length;
+      }
+      maxLength += 10 + 10 + indexed[i].length;
+      order[numTerms++] = i;
+      last = count;
+    }
+
+    final BytesRef[] terms = indexed;
+    Arrays.sort(order, 0, numTerms, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return terms[a].compareTo(terms[b]);
+      }
+    });
+
+    byte[] bytes = new byte[maxLength];
+    ByteArrayDataOutput out = new ByteArrayDataOutput(bytes);
+    try {
+      out.writeVInt(flags);
+      if ((flags & HAS_MISSING) != 0) {
+        out.writeVLong(missing);
+      }
+      out.writeVLong(last);
+      out.writeVInt(numTerms);
+      BytesRef prev = new BytesRef();
+      for (int j = 0; j < numTerms; j++) {
+        int i = order[j];
+        BytesRef term = indexed[i];
+        int prefix = prefixLength(prev, term);
+        out.writeVInt(prefix);
+        out.writeVInt(term.length - prefix);
+        out.writeBytes(term.bytes, term.offset + prefix, term.length - prefix);
+        long count = ((Number) counts.getVal(i)).longValue();
+        out.writeVLong(count << 1 | (readable[i] == null ? 0 : 1));
+        if (readable[i] != null) {
+          out.writeVInt(readable[i].length);
+          out.writeBytes(readable[i].bytes, readable[i].offset, readable[i].length);
+        }
+        prev = term;
+      }
+    } catch (IOException e) {
+      // writing to a byte array
+      throw new RuntimeException(e);
+    }
+    return Arrays.copyOf(bytes, out.getPosition());
+  }
+
+  private static int prefixLength(BytesRef a, BytesRef b) {
+    int end = Math.min(a.length, b.length);
+    int i = 0;
+    while (i < end && a.bytes[a.offset + i] == b.bytes[b.offset + i]) {
+      i++;
+    }
+    return i;
+  }
+
+  /** Reads the terms of a packed block in order */
+  static final class Reader {
+    final int shardNum;
+    final boolean complete;
+    final long missing;     // -1 if the shard did not count documents without a value
+    final long last;        // the count of the last term, in the shard's order
+    final int numTerms;
+
+    final BytesRef term = new BytesRef(16);
+    String readable;        // null if it is the same as the indexed form
+    long count;
+
+    private final ByteArrayDataInput in;
+    private int remaining;
+
+    Reader(int shardNum, byte[] bytes) {
+      this.shardNum = shardNum;
+      in = new ByteArrayDataInput(bytes);
+      int flags = in.readVInt();
+      complete = (flags & COMPLETE) != 0;
+      missing = (flags & HAS_MISSING) != 0 ? in.readVLong() : -1;
+      last = in.readVLong();
+      numTerms = remaining = in.readVInt();
+    }
+
+    /** Moves to the next term, returns false if there is none */
+    boolean next() {
+      if (remaining == 0) return false;
+      remaining--;
+      int prefix = in.readVInt();
+      int suffix = in.readVInt();
+      term.length = prefix + suffix;
+      if (term.bytes.length < term.length) {
+        term.bytes = ArrayUtil.grow(term.bytes, term.length);
+      }
+      in.readBytes(term.bytes, prefix, suffix);
+      long code = in.readVLong();
+      count = code >>> 1;
+      if ((code & 1) != 0) {
+        byte[] utf8 = new byte[in.readVInt()];
+        in.readBytes(utf8, 0, utf8.length);
+        readable = new BytesRef(utf8).utf8ToString();
+      } else {
+        readable = null;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Merges the sorted terms of the readers of all shards: a heap of reader numbers,
+   * ordered by their current terms.
+   */
+  static final class Merger {
+    private final Reader[] readers;
+    private final int[] heap;
+    private int size;
+
+    Merger(Reader[] readers) {
+      this.readers = readers;
+      heap = new int[readers.length];
+      for (int i = 0; i < readers.length; i++) {
+        if (readers[i].next()) {
+          heap[size] = i;
+          upHeap(size++);
+        }
+      }
+    }
+
+    /** Returns the reader with the smallest term, or null if all are exhausted */
+    Reader top() {
+      return size == 0 ? null : readers[heap[0]];
+    }
+
+    /** Moves the top reader to its next term */
+    void advanceTop() {
+      if (readers[heap[0]].next()) {
+        downHeap(0);
+      } else if (--size > 0) {
+        heap[0] = heap[size];
+        downHeap(0);
+      }
+    }
+
+    private boolean lessThan(int a, int b) {
+      int cmp = readers[a].term.compareTo(readers[b].term);
+      return cmp < 0 || cmp == 0 && a < b;
+    }
+
+    private void upHeap(int i) {
+      int node = heap[i];
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!lessThan(node, heap[parent])) break;
+        heap[i] = heap[parent];
+        i = parent;
+      }
+      heap[i] = node;
+    }
+
+    private void downHeap(int i) {
+      int node = heap[i];
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) break;
+        if (child + 1 < size && lessThan(heap[child + 1], heap[child])) child++;
+        if (!lessThan(heap[child], node)) break;
+        heap[i] = heap[child];
+        i = child;
+      }
+      heap[i] = node;
+    }
+  }
+}
@@ -0,0 +1,399 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.handler.component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.GroupParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.PerSegmentTermOrds;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.TrieField;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Computes a pivot facet with a single pass over the documents.
+ * <p>
+ * The values of each pivot field are read as global ordinals from the per-segment
+ * un-inverted fields ({@link PerSegmentTermOrds}).  For every document, each path of
+ * ordinals from the first field down to each level is counted, keyed by the path encoded
+ * in a long; a missing value is ordinal -1.  The counts of the children of a node are then
+ * a contiguous range of the sorted keys of the next level, so no DocSet is created for
+ * any node of the pivot.
+ * <p>
+ * The result is the same as {@link PivotFacetHelper}'s: each level honours the field's
+ * facet.limit, facet.offset, facet.mincount, facet.sort and facet.missing, and
+ * facet.pivot.mincount.
+ */
+class PivotFacetCounts {
+  private final SolrIndexSearcher searcher;
+  private final SolrParams params;
+  private final String[] fields;
+  private final SchemaField[] schemaFields;
+  private final int minMatch;
+
+  private final SortedSetDocValues[] values;
+  private final long[] radix;  // number of ordinals of each level, plus one for missing values
+  private long[][] keys;       // per level, the sorted keys of the paths with documents
+  private int[][] counts;      // per level, the number of documents of each key
+
+  private final BytesRef term = new BytesRef();
+
+  PivotFacetCounts(SolrIndexSearcher searcher, SolrParams params, String[] fields, int minMatch) throws IOException {
+    this.searcher = searcher;
+    this.params = params;
+    this.fields = fields;
+    this.minMatch = minMatch;
+    schemaFields = new SchemaField[fields.length];
+    values = new SortedSetDocValues[fields.length];
+    radix = new long[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      schemaFields[i] = searcher.getSchema().getField(fields[i]);
+      values[i] = PerSegmentTermOrds.getValues(searcher, fields[i]);
+      radix[i] = values[i].getValueCount() + 1;
+    }
+  }
+
+  /**
+   * Returns true if the pivot can be computed here: all fields must be indexed, without
+   * doc values and with one term per value, no facet.prefix may be set, and the
+   * paths of ordinals must fit in a long.  Nothing is un-inverted to decide this: the
+   * number of ordinals of a field is bounded by the sum of the number of terms of
+   * its segments, which the terms dictionaries know.
+   */
+  static boolean supports(SolrIndexSearcher searcher, SolrParams params, String[] fields) throws IOException {
+    if (params.getBool(GroupParams.GROUP_FACET, false)) {
+      return false;
+    }
+    for (String field : fields) {
+      SchemaField sf = searcher.getSchema().getField(field);
+      if (!sf.indexed() || sf.hasDocValues() || TrieField.getMainValuePrefix(sf.getType()) != null) {
+        return false;
+      }
+      if (params.getFieldParam(field, FacetParams.FACET_PREFIX) != null) {
+        return false;
+      }
+    }
+    double paths = 1;
+    for (String field : fields) {
+      long maxOrds = 0;
+      for (AtomicReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+        Terms terms = leaf.reader().terms(field);
+        if (terms == null) continue;
+        long size = terms.size();
+        if (size < 0) {
+          return false;  // the codec doesn't know, so the paths may not fit
+        }
+        maxOrds += size;
+      }
+      paths *= maxOrds + 1;
+    }
+    return paths < (double) (1L << 62);
+  }
+
+  /** Returns the pivot of the documents, in the form of {@link PivotFacetHelper#doPivots} */
+  List<NamedList<Object>> getPivots(DocSet docs) throws IOException {
+    count(docs);
+    return pivots(0, 0, select(0, 0));
+  }
+
+  private void count(DocSet docs) {
+    final int numLevels = fields.length;
+    LongCounts[] levelCounts = new LongCounts[numLevels];
+    for (int i = 0; i < numLevels; i++) {
+      levelCounts[i] = new LongCounts();
+    }
+
+    long[] paths = new long[1];
+    long[] nextPaths = new long[1];
+    long[] ords = new long[1];
+    for (DocIterator iter = docs.iterator(); iter.hasNext(); ) {
+      int doc = iter.nextDoc();
+      int numPaths = 1;
+      paths[0] = 0;
+      for (int level = 0; level < numLevels; level++) {
+        SortedSetDocValues levelValues = values[level];
+        levelValues.setDocument(doc);
+        int numOrds = 0;
+        long ord;
+        while ((ord = levelValues.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+          if (numOrds == ords.length) ords = ArrayUtil.grow(ords);
+          ords[numOrds++] = ord;
+        }
+        if (numOrds == 0) {
+          ords[numOrds++] = -1;
+        }
+
+        // a document with several values is counted once under each of them
+        int numNext = numPaths * numOrds;
+        if (nextPaths.length < numNext) nextPaths = new long[ArrayUtil.oversize(numNext, 8)];
+        int upto = 0;
+        for (int i = 0; i < numPaths; i++) {
+          long base = paths[i] * radix[level] + 1;
+          for (int j = 0; j < numOrds; j++) {
+            long key = base + ords[j];
+            nextPaths[upto++] = key;
+            levelCounts[level].increment(key);
+          }
+        }
+        long[] tmp = paths;
+        paths = nextPaths;
+        nextPaths = tmp;
+        numPaths = numNext;
+      }
+    }
+
+    keys = new long[numLevels][];
+    counts = new int[numLevels][];
+    for (int i = 0; i < numLevels; i++) {
+      keys[i] = levelCounts[i].sortedKeys();
+      counts[i] = new int[keys[i].length];
+      for (int j = 0; j < keys[i].length; j++) {
+        counts[i][j] = levelCounts[i].get(keys[i][j]);
+      }
+    }
+  }
+
+  /** A value of a pivot field and its count; slot is the ordinal plus one, 0 for missing */
+  private static final class Entry {
+    final long slot;
+    final int count;
+
+    Entry(long slot, int count) {
+      this.slot = slot;
+      this.count = count;
+    }
+  }
+
+  /**
+   * Returns the values of a level below a node that getTermCounts would return for the
+   * documents of the node.
+   */
+  private List<Entry> select(int level, long parent) {
+    final String field = fields[level];
+    List<Entry> res = new ArrayList<Entry>();
+    int offset = params.getFieldInt(field, FacetParams.FACET_OFFSET, 0);
+    int limit = params.getFieldInt(field, FacetParams.FACET_LIMIT, 100);
+    if (limit == 0) return res;
+    Integer mincount = params.getFieldInt(field, FacetParams.FACET_MINCOUNT);
+    if (mincount == null) {
+      Boolean zeros = params.getFieldBool(field, FacetParams.FACET_ZEROS);
+      mincount = (zeros != null && !zeros) ? 1 : 0;
+    }
+    boolean missing = params.getFieldBool(field, FacetParams.FACET_MISSING, false);
+    String sort = params.getFieldParam(field, FacetParams.FACET_SORT, limit > 0 ? FacetParams.FACET_SORT_COUNT : FacetParams.FACET_SORT_INDEX);
+    boolean countSort = sort.equals(FacetParams.FACET_SORT_COUNT) || sort.equals(FacetParams.FACET_SORT_COUNT_LEGACY);
+    int end = limit < 0 ? Integer.MAX_VALUE : offset + limit;
+
+    // the children of the node are the keys [parent*radix, parent*radix+radix)
+    long[] levelKeys = keys[level];
+    int[] levelCounts = counts[level];
+    long base = parent * radix[level];
+    int lo = lowerBound(levelKeys, base);
+    int hi = lowerBound(levelKeys, base + radix[level]);
+    int missingCount = 0;
+    if (lo < hi && levelKeys[lo] == base) {
+      missingCount = levelCounts[lo++];
+    }
+    long numTerms = radix[level] - 1;
+
+    List<Entry> sorted = new ArrayList<Entry>();
+    if (countSort) {
+      for (int i = lo; i < hi; i++) {
+        if (levelCounts[i] >= mincount) {
+          sorted.add(new Entry(levelKeys[i] - base, levelCounts[i]));
+        }
+      }
+      // by count, ties in index order
+      Collections.sort(sorted, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+          if (a.count != b.count) return a.count > b.count ? -1 : 1;
+          return a.slot < b.slot ? -1 : (a.slot == b.slot ? 0 : 1);
+        }
+      });
+      if (mincount <= 0) {
+        // followed by the terms without documents, in index order
+        int present = lo;
+        for (long slot = 1; slot <= numTerms && sorted.size() < end; slot++) {
+          if (present < hi && levelKeys[present] - base == slot) {
+            present++;
+          } else {
+            sorted.add(new Entry(slot, 0));
+          }
+        }
+      }
+    } else if (mincount <= 0) {
+      int present = lo;
+      for (long slot = 1; slot <= numTerms && sorted.size() < end; slot++) {
+        if (present < hi && levelKeys[present] - base == slot) {
+          sorted.add(new Entry(slot, levelCounts[present++]));
+        } else {
+          sorted.add(new Entry(slot, 0));
+        }
+      }
+    } else {
+      for (int i = lo; i < hi && sorted.size() < end; i++) {
+        if (levelCounts[i] >= mincount) {
+          sorted.add(new Entry(levelKeys[i] - base, levelCounts[i]));
+        }
+      }
+    }
+
+    for (int i = offset; i < sorted.size() && i < end; i++) {
+      res.add(sorted.get(i));
+    }
+    if (missing) {
+      res.add(new Entry(0, missingCount));
+    }
+    return res;
+  }
+
+  private List<NamedList<Object>> pivots(int level, long parent, List<Entry> entries) {
+    final String field = fields[level];
+    final SchemaField sf = schemaFields[level];
+    List<NamedList<Object>> res = new ArrayList<NamedList<Object>>(entries.size());
+    for (Entry entry : entries) {
+      // Only sub-facet if parent facet has positive count - still may not be any values for the sub-field though
+      if (entry.count < minMatch) continue;
+
+      SimpleOrderedMap<Object> pivot = new SimpleOrderedMap<Object>();
+      pivot.add("field", field);
+      if (entry.slot == 0) {
+        pivot.add("value", null);
+      } else {
+        values[level].lookupOrd(entry.slot - 1, term);
+        pivot.add("value", sf.getType().toObject(sf, BytesRef.deepCopyOf(term)));
+      }
+      pivot.add("count", entry.count);
+
+      if (level == fields.length - 1) {
+        res.add(pivot);
+      } else {
+        long key = parent * radix[level] + entry.slot;
+        List<Entry> children = select(level + 1, key);
+        if (children.size() >= minMatch) {
+          pivot.add("pivot", pivots(level + 1, key, children));
+          res.add(pivot); // only add response if there are some counts
+        }
+      }
+    }
+    return res;
+  }
+
+  private static int lowerBound(long[] arr, long key) {
+    int lo = 0, hi = arr.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (arr[mid] < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /** Counts of non-negative long keys, in open addressing */
+  private static final class LongCounts {
+    private long[] keys = new long[64];
+    private int[] counts = new int[64];
+    private int size;
+
+    LongCounts() {
+      Arrays.fill(keys, -1);
+    }
+
+    private static int hash(long key) {
+      key ^= key >>> 33;
+      key *= 0xff51afd7ed558ccdL;
+      key ^= key >>> 33;
+      return (int)key;
+    }
+
+    void increment(long key) {
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != -1 && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == -1) {
+        keys[slot] = key;
+        if (++size > keys.length >> 1) {
+          counts[slot]++;
+          rehash();
+          return;
+        }
+      }
+      counts[slot]++;
+    }
+
+    int get(long key) {
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != -1) {
+        if (keys[slot] == key) return counts[slot];
+        slot = (slot + 1) & mask;
+      }
+      return 0;
+    }
+
+    private void rehash() {
+      long[] oldKeys = keys;
+      int[] oldCounts = counts;
+      keys = new long[oldKeys.length << 1];
+      counts = new int[oldKeys.length << 1];
+      Arrays.fill(keys, -1);
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] == -1) continue;
+        int slot = hash(oldKeys[i]) & mask;
+        while (keys[slot] != -1) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        counts[slot] = oldCounts[i];
+      }
+    }
+
+    long[] sortedKeys() {
+      long[] res = new long[size];
+      int upto = 0;
+      for (long key : keys) {
+        if (key != -1) res[upto++] = key;
+      }
+      Arrays.sort(res);
+      return res;
+    }
+  }
+}
@@ -215,6 +215,7 @@ public class QueryComponent extends SearchComponent
     groupingSpec.setOffset(rb.getSortSpec().getOffset());
     groupingSpec.setLimit(rb.getSortSpec().getCount());
     groupingSpec.setIncludeGroupCount(params.getBool(GroupParams.GROUP_TOTAL_COUNT, false));
+    groupingSpec.setApproximateGroupCount(params.getBool(GroupParams.GROUP_TOTAL_COUNT_APPROXIMATE, false));
     groupingSpec.setMain(params.getBool(GroupParams.GROUP_MAIN, false));
     groupingSpec.setNeedScore((cmd.getFlags() & SolrIndexSearcher.GET_SCORES) != 0);
     groupingSpec.setTruncateGroups(params.getBool(GroupParams.GROUP_TRUNCATE, false));
@@ -281,6 +282,7 @@ public class QueryComponent extends SearchComponent
 
     SolrIndexSearcher.QueryCommand cmd = rb.getQueryCommand();
     cmd.setTimeAllowed(timeAllowed);
+    cmd.setParallel(params.getBool(CommonParams.SEARCH_PARALLEL, false));
     SolrIndexSearcher.QueryResult result = new SolrIndexSearcher.QueryResult();
 
     //
@@ -303,6 +305,7 @@ public class QueryComponent extends SearchComponent
                 .setGroupSort(groupingSpec.getGroupSort())
                 .setTopNGroups(cmd.getOffset() + cmd.getLen())
                 .setIncludeGroupCount(groupingSpec.isIncludeGroupCount())
+                .setApproximateGroupCount(groupingSpec.isApproximateGroupCount())
                 .build()
             );
           }
@@ -374,10 +377,12 @@ public class QueryComponent extends SearchComponent
         Grouping grouping =
             new Grouping(searcher, result, cmd, cacheSecondPassSearch, maxDocsPercentageToCache, groupingSpec.isMain());
         grouping.setSort(groupingSpec.getGroupSort())
+            .setUnweightedSort(cmd.getSort() == null ? Sort.RELEVANCE : cmd.getSort())
             .setGroupSort(groupingSpec.getSortWithinGroup())
             .setDefaultFormat(groupingSpec.getResponseFormat())
             .setLimitDefault(limitDefault)
             .setDefaultTotalCount(defaultTotalCount)
+            .setApproximateGroupCount(groupingSpec.isApproximateGroupCount())
             .setDocsPerGroupDefault(groupingSpec.getGroupLimit())
             .setGroupOffsetDefault(groupingSpec.getGroupOffset())
             .setGetGroupedDocSet(groupingSpec.isTruncateGroups());
@@ -25,6 +25,9 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.params.SolrParams;
@@ -36,9 +39,11 @@ import org.apache.solr.request.UnInvertedField;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.CardinalityCollector;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocSet;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.HyperLogLog;
 
 /**
  * Stats component calculates simple statistics on numeric field values
@@ -206,22 +211,51 @@ class SimpleStats {
     boolean isShard = params.getBool(ShardParams.IS_SHARD, false);
     if (null != statsFs) {
       final IndexSchema schema = searcher.getSchema();
+
+      // single-valued numeric fields are computed together, in one pass over the documents
+      List<SchemaField> singlePassFields = new ArrayList<SchemaField>();
+      List<String[]> singlePassFacets = new ArrayList<String[]>();
       for (String f : statsFs) {
-        String[] facets = params.getFieldParams(f, StatsParams.STATS_FACET);
-        if (facets == null) {
-          facets = new String[0]; // make sure it is something...
+        SchemaField sf = schema.getField(f);
+        String[] facets = getFacets(f);
+        if (FieldCacheStats.supports(schema, sf, facets)) {
+          singlePassFields.add(sf);
+          singlePassFacets.add(facets);
+        }
+      }
+      Map<String,NamedList<?>> singlePassStats = new HashMap<String,NamedList<?>>();
+      if (!singlePassFields.isEmpty()) {
+        NamedList<?>[] stvs = new FieldCacheStats(searcher, singlePassFields, singlePassFacets).getStatsValues(docs);
+        for (int i = 0; i < stvs.length; i++) {
+          singlePassStats.put(singlePassFields.get(i).getName(), stvs[i]);
         }
+      }
+
+      for (String f : statsFs) {
+        String[] facets = getFacets(f);
         SchemaField sf = schema.getField(f);
         FieldType ft = sf.getType();
         NamedList<?> stv;
 
-        if (sf.multiValued() || ft.multiValuedFieldCache()) {
+        if (singlePassStats.containsKey(f)) {
+          stv = singlePassStats.get(f);
+        } else if (sf.multiValued() || ft.multiValuedFieldCache()) {
           //use UnInvertedField for multivalued fields
           UnInvertedField uif = UnInvertedField.getUnInvertedField(f, searcher);
           stv = uif.getStats(searcher, docs, facets).getStatsValues();
         } else {
           stv = getFieldCacheStats(f, facets);
         }
+        if (params.getFieldBool(f, StatsParams.STATS_CARDINALITY, false)) {
+          HyperLogLog sketch = getCardinality(sf);
+          @SuppressWarnings("unchecked")
+          NamedList<Object> values = (NamedList<Object>) stv;
+          values.add("cardinality", sketch.cardinality());
+          if (isShard) {
+            // the sketches of the shards are merged
+            values.add("cardinalitySketch", sketch.toBytes());
+          }
+        }
         if (isShard == true || (Long) stv.get("count") > 0) {
           res.add(f, stv);
         } else {
@@ -232,6 +266,31 @@ class SimpleStats {
     return res;
   }
 
+  private String[] getFacets(String f) {
+    String[] facets = params.getFieldParams(f, StatsParams.STATS_FACET);
+    if (facets == null) {
+      facets = new String[0]; // make sure it is something...
+    }
+    return facets;
+  }
+
+  /** Returns the sketch of the distinct values of a field in the documents */
+  private HyperLogLog getCardinality(SchemaField sf) throws IOException {
+    CardinalityCollector collector = new CardinalityCollector(sf, false);
+    Filter filter = docs.getTopFilter();
+    for (AtomicReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+      DocIdSet set = filter.getDocIdSet(leaf, null);
+      DocIdSetIterator iter = set == null ? null : set.iterator();
+      if (iter == null) continue;
+      collector.setNextReader(leaf);
+      int doc;
+      while ((doc = iter.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        collector.collect(doc);
+      }
+    }
+    return collector.getSketch();
+  }
+
   public NamedList<?> getFieldCacheStats(String fieldName, String[] facet) throws IOException {
     IndexSchema schema = searcher.getSchema();
     final SchemaField sf = schema.getField(fieldName);
@@ -31,6 +31,7 @@ import org.apache.solr.common.SolrException;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.schema.*;
+import org.apache.solr.util.HyperLogLog;
 
 /**
  * Factory class for creating instance of {@link org.apache.solr.handler.component.StatsValues}
@@ -83,6 +84,7 @@ abstract class AbstractStatsValues<T> implements StatsValues {
   protected T min;
   protected long missing;
   protected long count;
+  protected HyperLogLog cardinality;  // merged from the shards
   private ValueSource valueSource;
   protected FunctionValues values;
   
@@ -105,6 +107,15 @@ abstract class AbstractStatsValues<T> implements StatsValues {
     updateMinMax((T) stv.get("min"), (T) stv.get("max"));
     updateTypeSpecificStats(stv);
 
+    byte[] sketch = (byte[]) stv.get("cardinalitySketch");
+    if (sketch != null) {
+      if (cardinality == null) {
+        cardinality = HyperLogLog.fromBytes(sketch);
+      } else {
+        cardinality.merge(HyperLogLog.fromBytes(sketch));
+      }
+    }
+
     NamedList f = (NamedList) stv.get(FACETS);
     if (f == null) {
       return;
@@ -192,6 +203,9 @@ abstract class AbstractStatsValues<T> implements StatsValues {
       }
     }
     res.add(FACETS, nl);
+    if (cardinality != null) {
+      res.add("cardinality", cardinality.cardinality());
+    }
     return res;
   }
 
@@ -57,13 +57,31 @@ public class DocValuesFacets {
   private DocValuesFacets() {}
   
   public static NamedList<Integer> getCounts(SolrIndexSearcher searcher, DocSet docs, String fieldName, int offset, int limit, int mincount, boolean missing, String sort, String prefix) throws IOException {
+    return getCounts(searcher, docs, fieldName, offset, limit, mincount, missing, sort, prefix, false);
+  }
+
+  /**
+   * Computes term facets for an indexed field without docvalues, from the per-segment
+   * un-inverted values of {@link PerSegmentTermOrds}.  The field is treated as multi-valued.
+   */
+  public static NamedList<Integer> getUnInvertedCounts(SolrIndexSearcher searcher, DocSet docs, String fieldName, int offset, int limit, int mincount, boolean missing, String sort, String prefix) throws IOException {
+    return getCounts(searcher, docs, fieldName, offset, limit, mincount, missing, sort, prefix, true);
+  }
+
+  private static NamedList<Integer> getCounts(SolrIndexSearcher searcher, DocSet docs, String fieldName, int offset, int limit, int mincount, boolean missing, String sort, String prefix, boolean uninvert) throws IOException {
     SchemaField schemaField = searcher.getSchema().getField(fieldName);
     FieldType ft = schemaField.getType();
     NamedList<Integer> res = new NamedList<Integer>();
+    final boolean multiValued = uninvert || schemaField.multiValued();
 
     final SortedSetDocValues si; // for term lookups only
     OrdinalMap ordinalMap = null; // for mapping per-segment ords to global ones
-    if (schemaField.multiValued()) {
+    if (uninvert) {
+      si = PerSegmentTermOrds.getValues(searcher, fieldName);
+      if (si instanceof MultiSortedSetDocValues) {
+        ordinalMap = ((MultiSortedSetDocValues)si).mapping;
+      }
+    } else if (schemaField.multiValued()) {
       si = searcher.getAtomicReader().getSortedSetDocValues(fieldName);
       if (si instanceof MultiSortedSetDocValues) {
         ordinalMap = ((MultiSortedSetDocValues)si).mapping;
@@ -76,7 +94,7 @@ public class DocValuesFacets {
       }
     }
     if (si == null) {
-      return finalize(res, searcher, schemaField, docs, -1, missing);
+      return finalize(res, searcher, schemaField, docs, -1, missing, multiValued);
     }
     if (si.getValueCount() >= Integer.MAX_VALUE) {
       throw new UnsupportedOperationException("Currently this faceting method is limited to " + Integer.MAX_VALUE + " unique terms");
@@ -126,8 +144,10 @@ public class DocValuesFacets {
           disi = dis.iterator();
         }
         if (disi != null) {
-          if (schemaField.multiValued()) {
-            SortedSetDocValues sub = leaf.reader().getSortedSetDocValues(fieldName);
+          if (multiValued) {
+            SortedSetDocValues sub = uninvert
+                ? PerSegmentTermOrds.getSegmentValues(leaf.reader(), fieldName)
+                : leaf.reader().getSortedSetDocValues(fieldName);
             if (sub == null) {
               sub = SortedSetDocValues.EMPTY;
             }
@@ -211,14 +231,14 @@ public class DocValuesFacets {
       }
     }
     
-    return finalize(res, searcher, schemaField, docs, missingCount, missing);
+    return finalize(res, searcher, schemaField, docs, missingCount, missing, multiValued);
   }
   
   /** finalizes result: computes missing count if applicable */
-  static NamedList<Integer> finalize(NamedList<Integer> res, SolrIndexSearcher searcher, SchemaField schemaField, DocSet docs, int missingCount, boolean missing) throws IOException {
+  static NamedList<Integer> finalize(NamedList<Integer> res, SolrIndexSearcher searcher, SchemaField schemaField, DocSet docs, int missingCount, boolean missing, boolean multiValued) throws IOException {
     if (missing) {
       if (missingCount < 0) {
-        if (schemaField.multiValued()) {
+        if (multiValued) {
           missingCount = SimpleFacets.getFieldMissingCount(searcher,docs,schemaField.getName());
         } else {
           missingCount = 0; // single-valued dv is implicitly 0
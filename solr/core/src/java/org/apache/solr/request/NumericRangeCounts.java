@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.request;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Counts the documents of a set that fall into each of a number of ranges of a
+ * single-valued numeric field, in one pass over the documents.
+ * <p>
+ * All values and range endpoints are mapped to sortable longs (the order of the indexed
+ * terms), and the distinct endpoints split the number line into elementary intervals.
+ * Each document's value is binary searched into its interval, and the count of a range
+ * is the sum of the intervals it spans.  Segments are counted in parallel.
+ */
+class NumericRangeCounts {
+  private final String fieldName;
+  private final NumericType numericType;
+
+  // per range: [lower, upper) as sortable longs; NO_BOUND for an open end
+  private long[] lowers = new long[16];
+  private long[] uppers = new long[16];
+  private boolean[] empty = new boolean[16];
+  private int numRanges;
+
+  private static final long NO_BOUND = Long.MIN_VALUE;
+
+  NumericRangeCounts(SchemaField sf) {
+    this.fieldName = sf.getName();
+    this.numericType = sf.getType().getNumericType();
+    assert supports(sf);
+  }
+
+  /**
+   * Returns true if the counts can be computed from the field cache and are the same
+   * as the ones of range queries: the field must be single-valued and numeric, and a
+   * doc values field must have a value in every document.
+   */
+  static boolean supports(SchemaField sf) {
+    if (sf.getType().getNumericType() == null || sf.multiValued()) {
+      return false;
+    }
+    if (sf.hasDocValues()) {
+      // doc values don't record missing values
+      return sf.isRequired() || sf.getDefaultValue() != null;
+    }
+    return sf.indexed();
+  }
+
+  /**
+   * Adds a range, of which the ends are Numbers or Dates, or null if the range is
+   * open on that end.  Returns the index of the range in the counts.
+   */
+  int add(Object low, Object high, boolean includeLower, boolean includeUpper) {
+    if (numRanges == lowers.length) {
+      lowers = ArrayUtil.grow(lowers);
+      uppers = ArrayUtil.grow(uppers, lowers.length);
+      empty = ArrayUtil.grow(empty, lowers.length);
+    }
+    long lower = NO_BOUND, upper = NO_BOUND;
+    boolean isEmpty = false;
+    if (low != null) {
+      lower = toSortableLong(low);
+      if (!includeLower) {
+        if (lower == Long.MAX_VALUE) {
+          isEmpty = true;
+        } else {
+          lower++;
+        }
+      }
+    }
+    if (high != null) {
+      upper = toSortableLong(high);
+      if (includeUpper) {
+        // an inclusive upper end at the largest value is no upper end at all
+        upper = upper == Long.MAX_VALUE ? NO_BOUND : upper + 1;
+      } else if (upper == Long.MIN_VALUE) {
+        isEmpty = true;
+      }
+    }
+    if (lower != NO_BOUND && upper != NO_BOUND && lower >= upper) {
+      isEmpty = true;
+    }
+    lowers[numRanges] = lower;
+    uppers[numRanges] = upper;
+    empty[numRanges] = isEmpty;
+    return numRanges++;
+  }
+
+  private long toSortableLong(Object val) {
+    switch (numericType) {
+      case INT:
+        return ((Number)val).intValue();
+      case LONG:
+        return val instanceof Date ? ((Date)val).getTime() : ((Number)val).longValue();
+      case FLOAT:
+        return NumericUtils.floatToSortableInt(((Number)val).floatValue());
+      case DOUBLE:
+        return NumericUtils.doubleToSortableLong(((Number)val).doubleValue());
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  /**
+   * Returns the number of documents in docs in each of the ranges, in the order they
+   * were added.  Up to nThreads segments are counted concurrently (no limit if &lt;= 0).
+   */
+  int[] count(SolrIndexSearcher searcher, DocSet docs, Executor executor, int nThreads) throws IOException {
+    // the distinct endpoints, in order
+    long[] bounds = new long[numRanges * 2];
+    int numBounds = 0;
+    for (int i=0; i<numRanges; i++) {
+      if (empty[i]) continue;
+      if (lowers[i] != NO_BOUND) bounds[numBounds++] = lowers[i];
+      if (uppers[i] != NO_BOUND) bounds[numBounds++] = uppers[i];
+    }
+    Arrays.sort(bounds, 0, numBounds);
+    int unique = 0;
+    for (int i=0; i<numBounds; i++) {
+      if (unique == 0 || bounds[i] != bounds[unique-1]) {
+        bounds[unique++] = bounds[i];
+      }
+    }
+    final long[] sortedBounds = Arrays.copyOf(bounds, unique);
+
+    // counts per elementary interval: interval i holds the values with i endpoints <= value
+    int[] intervalCounts = new int[unique + 1];
+    final Filter filter = docs.getTopFilter();
+    List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    CompletionService<int[]> completionService = new ExecutorCompletionService<int[]>(executor);
+    LinkedList<Callable<int[]>> pending = new LinkedList<Callable<int[]>>();
+    int threads = nThreads <= 0 ? Integer.MAX_VALUE : nThreads;
+    for (final AtomicReaderContext leaf : leaves) {
+      Callable<int[]> task = new Callable<int[]>() {
+        @Override
+        public int[] call() throws IOException {
+          return countSegment(leaf, filter, sortedBounds);
+        }
+      };
+      if (--threads >= 0) {
+        completionService.submit(task);
+      } else {
+        pending.add(task);
+      }
+    }
+
+    for (int i=0; i<leaves.size(); i++) {
+      int[] segCounts;
+      try {
+        segCounts = completionService.take().get();
+        if (!pending.isEmpty()) {
+          completionService.submit(pending.removeFirst());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        } else {
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Error in range faceting on field: " + fieldName, cause);
+        }
+      }
+      for (int j=0; j<segCounts.length; j++) {
+        intervalCounts[j] += segCounts[j];
+      }
+    }
+
+    // prefix sums, so that the count of the intervals [from, to) is sums[to] - sums[from]
+    int[] sums = new int[intervalCounts.length + 1];
+    for (int i=0; i<intervalCounts.length; i++) {
+      sums[i+1] = sums[i] + intervalCounts[i];
+    }
+
+    int[] counts = new int[numRanges];
+    for (int i=0; i<numRanges; i++) {
+      if (empty[i]) continue;
+      // the interval starting at an endpoint is the one after the endpoint's index
+      int from = lowers[i] == NO_BOUND ? 0 : Arrays.binarySearch(sortedBounds, lowers[i]) + 1;
+      int to = uppers[i] == NO_BOUND ? intervalCounts.length : Arrays.binarySearch(sortedBounds, uppers[i]) + 1;
+      counts[i] = sums[to] - sums[from];
+    }
+    return counts;
+  }
+
+  private int[] countSegment(AtomicReaderContext leaf, Filter filter, long[] bounds) throws IOException {
+    int[] counts = new int[bounds.length + 1];
+    AtomicReader reader = leaf.reader();
+    Bits docsWithField = FieldCache.DEFAULT.getDocsWithField(reader, fieldName);
+    if (docsWithField instanceof Bits.MatchNoBits) {
+      return counts;
+    }
+    DocIdSet set = filter.getDocIdSet(leaf, null);
+    if (set == null) {
+      return counts;
+    }
+    DocIdSetIterator iter = set.iterator();
+    if (iter == null) {
+      return counts;
+    }
+
+    FieldCache.Longs values = getValues(reader);
+    int doc;
+    while ((doc = iter.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+      if (!docsWithField.get(doc)) continue;
+      long value = values.get(doc);
+      // number of bounds <= value
+      int lo = 0, hi = bounds.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (bounds[mid] <= value) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      counts[lo]++;
+    }
+    return counts;
+  }
+
+  private FieldCache.Longs getValues(AtomicReader reader) throws IOException {
+    switch (numericType) {
+      case LONG:
+        return FieldCache.DEFAULT.getLongs(reader, fieldName, true);
+      case INT:
+        final FieldCache.Ints ints = FieldCache.DEFAULT.getInts(reader, fieldName, true);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return ints.get(docID);
+          }
+        };
+      case FLOAT:
+        final FieldCache.Floats floats = FieldCache.DEFAULT.getFloats(reader, fieldName, true);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return NumericUtils.floatToSortableInt(floats.get(docID));
+          }
+        };
+      case DOUBLE:
+        final FieldCache.Doubles doubles = FieldCache.DEFAULT.getDoubles(reader, fieldName, true);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return NumericUtils.doubleToSortableLong(doubles.get(docID));
+          }
+        };
+      default:
+        throw new AssertionError();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.request;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.MultiDocValues.MultiSortedSetDocValues;
+import org.apache.lucene.index.MultiDocValues.OrdinalMap;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.FieldCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Per-segment un-inverted values of an indexed field, for faceting on multi-valued
+ * fields under frequent reopens.
+ * <p>
+ * Unlike {@link UnInvertedField}, which un-inverts the whole index into one structure
+ * that is thrown away on every commit, each segment is un-inverted on its own
+ * ({@link FieldCache#getDocTermOrds}), and that is kept for as long as the segment core
+ * lives.  After a reopen only the new segments are un-inverted.  Segment ords are mapped
+ * to global ords through an {@link OrdinalMap}, which is built once per searcher and
+ * field in O(number of terms).
+ * <p>
+ * Fields that index more than one term per value (trie fields) are not supported.
+ * <p>
+ * Single-valued fields can also be read per segment with {@link FieldCache#getTermsIndex},
+ * see {@link #getSortedOrdinalMap}.
+ */
+public class PerSegmentTermOrds {
+  // top-level reader -> field -> map from segment ords to global ords
+  private static final Map<Object,Map<String,OrdinalMap>> ordinalMaps =
+      Collections.synchronizedMap(new WeakHashMap<Object,Map<String,OrdinalMap>>());
+  // the same for the segment ords of getTermsIndex
+  private static final Map<Object,Map<String,OrdinalMap>> sortedOrdinalMaps =
+      Collections.synchronizedMap(new WeakHashMap<Object,Map<String,OrdinalMap>>());
+
+  private PerSegmentTermOrds() {}
+
+  /** Returns the un-inverted values of a segment */
+  public static SortedSetDocValues getSegmentValues(AtomicReader reader, String field) throws IOException {
+    return FieldCache.DEFAULT.getDocTermOrds(reader, field);
+  }
+
+  /**
+   * Returns a view of the values of the whole index.  If there is more than one segment,
+   * this is a {@link MultiSortedSetDocValues} whose mapping translates segment ords.
+   */
+  public static SortedSetDocValues getValues(SolrIndexSearcher searcher, String field) throws IOException {
+    List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    if (leaves.size() == 0) {
+      return SortedSetDocValues.EMPTY;
+    } else if (leaves.size() == 1) {
+      return getSegmentValues(leaves.get(0).reader(), field);
+    }
+
+    SortedSetDocValues[] values = new SortedSetDocValues[leaves.size()];
+    int[] starts = new int[leaves.size() + 1];
+    for (int i=0; i<values.length; i++) {
+      AtomicReaderContext leaf = leaves.get(i);
+      values[i] = getSegmentValues(leaf.reader(), field);
+      starts[i] = leaf.docBase;
+    }
+    starts[values.length] = searcher.maxDoc();
+
+    Map<String,OrdinalMap> maps = getOrdinalMaps(ordinalMaps, searcher);
+    OrdinalMap map = maps.get(field);
+    if (map == null) {
+      // built outside of the lock: concurrent builders for the same field just do redundant work
+      TermsEnum[] subs = new TermsEnum[values.length];
+      for (int i=0; i<subs.length; i++) {
+        subs[i] = values[i].termsEnum();
+      }
+      // the owner must not be the reader, or the weak key would be strongly reachable from the map
+      map = new OrdinalMap(maps, subs);
+      maps.put(field, map);
+    }
+    return new MultiSortedSetDocValues(values, starts, map);
+  }
+
+  /**
+   * Returns the map from the ords of {@link FieldCache#getTermsIndex} of each segment, by
+   * {@link AtomicReaderContext#ord}, to global ords, or null if there are less than two
+   * segments.  Like the top-level terms index, the global ords are those of the sorted
+   * terms of the whole index, but only new segments are un-inverted after a reopen.
+   */
+  public static OrdinalMap getSortedOrdinalMap(SolrIndexSearcher searcher, String field) throws IOException {
+    List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    if (leaves.size() < 2) {
+      return null;
+    }
+
+    Map<String,OrdinalMap> maps = getOrdinalMaps(sortedOrdinalMaps, searcher);
+    OrdinalMap map = maps.get(field);
+    if (map == null) {
+      TermsEnum[] subs = new TermsEnum[leaves.size()];
+      for (int i=0; i<subs.length; i++) {
+        subs[i] = FieldCache.DEFAULT.getTermsIndex(leaves.get(i).reader(), field).termsEnum();
+      }
+      map = new OrdinalMap(maps, subs);
+      maps.put(field, map);
+    }
+    return map;
+  }
+
+  private static Map<String,OrdinalMap> getOrdinalMaps(Map<Object,Map<String,OrdinalMap>> cache, SolrIndexSearcher searcher) {
+    Object key = searcher.getIndexReader().getCoreCacheKey();
+    synchronized (cache) {
+      Map<String,OrdinalMap> maps = cache.get(key);
+      if (maps == null) {
+        maps = new ConcurrentHashMap<String,OrdinalMap>();
+        cache.put(key, maps);
+      }
+      return maps;
+    }
+  }
+}
@@ -23,10 +23,15 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.IdentityHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -289,24 +294,112 @@ public class SimpleFacets {
 
     
     if (null != facetQs && 0 != facetQs.length) {
-      for (String q : facetQs) {
+      // parse all queries first, since parseParams changes the state of this SimpleFacets,
+      // and then count the ungrouped ones concurrently
+      final String[] keys = new String[facetQs.length];
+      final int[] counts = new int[facetQs.length];
+      final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+      for (int i = 0; i < facetQs.length; i++) {
+        final String q = facetQs[i];
         parseParams(FacetParams.FACET_QUERY, q);
+        keys[i] = key;
 
         // TODO: slight optimization would prevent double-parsing of any localParams
-        Query qobj = QParser.getParser(q, null, req).getQuery();
+        final Query qobj = QParser.getParser(q, null, req).getQuery();
 
         if (qobj == null) {
-          res.add(key, 0);
+          counts[i] = 0;
         } else if (params.getBool(GroupParams.GROUP_FACET, false)) {
-          res.add(key, getGroupedFacetQueryCount(qobj));
+          counts[i] = getGroupedFacetQueryCount(qobj);
         } else {
-          res.add(key, searcher.numDocs(qobj, docs));
+          final int slot = i;
+          final DocSet base = docs;
+          tasks.add(withRequestInfo(new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+              counts[slot] = searcher.numDocs(qobj, base);
+              return null;
+            }
+          }));
         }
       }
+
+      int nThreads = orig.getInt(FacetParams.FACET_THREADS, 0);
+      runAll(tasks, nThreads == 0 || tasks.size() <= 1 ? directExecutor : facetExecutor, nThreads);
+
+      for (int i = 0; i < keys.length; i++) {
+        res.add(keys[i], counts[i]);
+      }
     }
 
     return res;
   }
+
+  /**
+   * Wraps a task so that it runs with the request info of the calling thread, which some
+   * queries need (cross-core joins get the searcher of the other core through it).  On another
+   * thread the task gets its own copy, whose close hooks are run when the task is done.
+   */
+  private static Callable<Object> withRequestInfo(final Callable<Object> task) {
+    final SolrRequestInfo info = SolrRequestInfo.getRequestInfo();
+    if (info == null) return task;
+    return new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        if (SolrRequestInfo.getRequestInfo() == info) {
+          return task.call();  // run by the calling thread
+        }
+        SolrRequestInfo copy = new SolrRequestInfo(info.getReq(), info.getRsp());
+        copy.setResponseBuilder(info.getResponseBuilder());
+        copy.now = info.getNOW();
+        copy.tz = info.getClientTimeZone();
+        SolrRequestInfo.setRequestInfo(copy);
+        try {
+          return task.call();
+        } finally {
+          SolrRequestInfo.clearRequestInfo();
+        }
+      }
+    };
+  }
+
+  /**
+   * Runs tasks on an executor, at most nThreads (no limit if &lt;= 0) at a time, and waits
+   * for all of them to finish.
+   */
+  private static void runAll(List<Callable<Object>> tasks, Executor executor, int nThreads) throws IOException {
+    CompletionService<Object> completionService = new ExecutorCompletionService<Object>(executor);
+    LinkedList<Callable<Object>> pending = new LinkedList<Callable<Object>>();
+    int threads = nThreads <= 0 ? Integer.MAX_VALUE : nThreads;
+    for (Callable<Object> task : tasks) {
+      if (--threads >= 0) {
+        completionService.submit(task);
+      } else {
+        pending.add(task);
+      }
+    }
+
+    for (int i = 0; i < tasks.size(); i++) {
+      try {
+        completionService.take().get();
+        if (!pending.isEmpty()) {
+          completionService.submit(pending.removeFirst());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SolrException(ErrorCode.SERVER_ERROR, e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        } else {
+          throw new SolrException(ErrorCode.SERVER_ERROR, cause);
+        }
+      }
+    }
+  }
   
   /**
    * Returns a grouped facet count for the facet query
@@ -394,8 +487,9 @@ public class SimpleFacets {
       method = FacetMethod.FC;
     }
 
-    if (method == FacetMethod.FCS && multiToken) {
-      // only fc knows how to deal with multi-token fields
+    if (method == FacetMethod.FCS && multiToken
+        && (sf.hasDocValues() || !sf.indexed() || TrieField.getMainValuePrefix(ft) != null)) {
+      // only fc knows how to deal with these multi-token fields; indexed ones are un-inverted per segment
       method = FacetMethod.FC;
     }
     
@@ -414,8 +508,10 @@ public class SimpleFacets {
           counts = getFacetTermEnumCounts(searcher, docs, field, offset, limit, mincount,missing,sort,prefix);
           break;
         case FCS:
-          assert !multiToken;
-          if (ft.getNumericType() != null && !sf.multiValued()) {
+          if (multiToken) {
+            // per-segment un-inversion, which unlike UnInvertedField survives reopens
+            counts = DocValuesFacets.getUnInvertedCounts(searcher, docs, field, offset,limit, mincount, missing, sort, prefix);
+          } else if (ft.getNumericType() != null && !sf.multiValued()) {
             // force numeric faceting
             if (prefix != null && !prefix.isEmpty()) {
               throw new SolrException(ErrorCode.BAD_REQUEST, FacetParams.FACET_PREFIX + " is not supported on numeric types");
@@ -965,6 +1061,9 @@ public class SimpleFacets {
                  FacetRangeInclude.EDGE)
       : FacetRangeInclude.parseParam(iStrs);
 
+    final RangeCounter counter = new RangeCounter(sf, true);
+    final List<String> labels = new ArrayList<String>();
+
     try {
       Date low = start;
       while (low.before(end)) {
@@ -996,10 +1095,8 @@ public class SimpleFacets {
             (include.contains(FacetRangeInclude.UPPER) ||
                 (include.contains(FacetRangeInclude.EDGE) && high.equals(end)));
 
-        final int count = rangeCount(sf,low,high,includeLower,includeUpper);
-        if (count >= minCount) {
-          resInner.add(label, count);
-        }
+        labels.add(label);
+        counter.add(low, high, null, null, includeLower, includeUpper);
         low = high;
       }
     } catch (java.text.ParseException e) {
@@ -1007,13 +1104,7 @@ public class SimpleFacets {
           (SolrException.ErrorCode.BAD_REQUEST,
               "date facet 'gap' is not a valid Date Math string: " + gap, e);
     }
-
-    // explicitly return the gap and end so all the counts
-    // (including before/after/between) are meaningful - even if mincount
-    // has removed the neighboring ranges
-    resInner.add("gap", gap);
-    resInner.add("start", start);
-    resInner.add("end", end);
+    final int numGaps = labels.size();
 
     final String[] othersP =
         params.getFieldParams(f,FacetParams.FACET_DATE_OTHER);
@@ -1031,32 +1122,50 @@ public class SimpleFacets {
 
         if (all || others.contains(FacetRangeOther.BEFORE)) {
           // include upper bound if "outer" or if first gap doesn't already include it
-          resInner.add(FacetRangeOther.BEFORE.toString(),
-              rangeCount(sf,null,start,
-                  false,
-                  (include.contains(FacetRangeInclude.OUTER) ||
-                      (! (include.contains(FacetRangeInclude.LOWER) ||
-                          include.contains(FacetRangeInclude.EDGE))))));
+          labels.add(FacetRangeOther.BEFORE.toString());
+          counter.add(null, start, null, null,
+              false,
+              (include.contains(FacetRangeInclude.OUTER) ||
+                  (! (include.contains(FacetRangeInclude.LOWER) ||
+                      include.contains(FacetRangeInclude.EDGE)))));
         }
         if (all || others.contains(FacetRangeOther.AFTER)) {
           // include lower bound if "outer" or if last gap doesn't already include it
-          resInner.add(FacetRangeOther.AFTER.toString(),
-              rangeCount(sf,end,null,
-                  (include.contains(FacetRangeInclude.OUTER) ||
-                      (! (include.contains(FacetRangeInclude.UPPER) ||
-                          include.contains(FacetRangeInclude.EDGE)))),
-                  false));
+          labels.add(FacetRangeOther.AFTER.toString());
+          counter.add(end, null, null, null,
+              (include.contains(FacetRangeInclude.OUTER) ||
+                  (! (include.contains(FacetRangeInclude.UPPER) ||
+                      include.contains(FacetRangeInclude.EDGE)))),
+              false);
         }
         if (all || others.contains(FacetRangeOther.BETWEEN)) {
-          resInner.add(FacetRangeOther.BETWEEN.toString(),
-              rangeCount(sf,start,end,
-                  (include.contains(FacetRangeInclude.LOWER) ||
-                      include.contains(FacetRangeInclude.EDGE)),
-                  (include.contains(FacetRangeInclude.UPPER) ||
-                      include.contains(FacetRangeInclude.EDGE))));
+          labels.add(FacetRangeOther.BETWEEN.toString());
+          counter.add(start, end, null, null,
+              (include.contains(FacetRangeInclude.LOWER) ||
+                  include.contains(FacetRangeInclude.EDGE)),
+              (include.contains(FacetRangeInclude.UPPER) ||
+                  include.contains(FacetRangeInclude.EDGE)));
         }
       }
     }
+
+    final int[] rangeCounts = counter.count();
+    for (int i = 0; i < numGaps; i++) {
+      if (rangeCounts[i] >= minCount) {
+        resInner.add(labels.get(i), rangeCounts[i]);
+      }
+    }
+
+    // explicitly return the gap and end so all the counts
+    // (including before/after/between) are meaningful - even if mincount
+    // has removed the neighboring ranges
+    resInner.add("gap", gap);
+    resInner.add("start", start);
+    resInner.add("end", end);
+
+    for (int i = numGaps; i < labels.size(); i++) {
+      resInner.add(labels.get(i), rangeCounts[i]);
+    }
   }
 
   
@@ -1162,6 +1271,9 @@ public class SimpleFacets {
     final EnumSet<FacetRangeInclude> include = FacetRangeInclude.parseParam
       (params.getFieldParams(f,FacetParams.FACET_RANGE_INCLUDE));
     
+    final RangeCounter counter = new RangeCounter(sf, false);
+    final List<String> labels = new ArrayList<String>();
+
     T low = start;
     
     while (low.compareTo(end) < 0) {
@@ -1196,20 +1308,12 @@ public class SimpleFacets {
       final String lowS = calc.formatValue(low);
       final String highS = calc.formatValue(high);
 
-      final int count = rangeCount(sf, lowS, highS,
-                                   includeLower,includeUpper);
-      if (count >= minCount) {
-        counts.add(lowS, count);
-      }
+      labels.add(lowS);
+      counter.add(low, high, lowS, highS, includeLower, includeUpper);
       
       low = high;
     }
-    
-    // explicitly return the start and end so all the counts 
-    // (including before/after/between) are meaningful - even if mincount
-    // has removed the neighboring ranges
-    res.add("start", start);
-    res.add("end", end);
+    final int numGaps = labels.size();
     
     final String[] othersP =
       params.getFieldParams(f,FacetParams.FACET_RANGE_OTHER);
@@ -1230,36 +1334,110 @@ public class SimpleFacets {
 
         if (all || others.contains(FacetRangeOther.BEFORE)) {
           // include upper bound if "outer" or if first gap doesn't already include it
-          res.add(FacetRangeOther.BEFORE.toString(),
-                  rangeCount(sf,null,startS,
-                             false,
-                             (include.contains(FacetRangeInclude.OUTER) ||
-                              (! (include.contains(FacetRangeInclude.LOWER) ||
-                                  include.contains(FacetRangeInclude.EDGE))))));
+          labels.add(FacetRangeOther.BEFORE.toString());
+          counter.add(null, start, null, startS,
+                      false,
+                      (include.contains(FacetRangeInclude.OUTER) ||
+                       (! (include.contains(FacetRangeInclude.LOWER) ||
+                           include.contains(FacetRangeInclude.EDGE)))));
           
         }
         if (all || others.contains(FacetRangeOther.AFTER)) {
           // include lower bound if "outer" or if last gap doesn't already include it
-          res.add(FacetRangeOther.AFTER.toString(),
-                  rangeCount(sf,endS,null,
-                             (include.contains(FacetRangeInclude.OUTER) ||
-                              (! (include.contains(FacetRangeInclude.UPPER) ||
-                                  include.contains(FacetRangeInclude.EDGE)))),  
-                             false));
+          labels.add(FacetRangeOther.AFTER.toString());
+          counter.add(end, null, endS, null,
+                      (include.contains(FacetRangeInclude.OUTER) ||
+                       (! (include.contains(FacetRangeInclude.UPPER) ||
+                           include.contains(FacetRangeInclude.EDGE)))),  
+                      false);
         }
         if (all || others.contains(FacetRangeOther.BETWEEN)) {
-         res.add(FacetRangeOther.BETWEEN.toString(),
-                 rangeCount(sf,startS,endS,
-                            (include.contains(FacetRangeInclude.LOWER) ||
-                             include.contains(FacetRangeInclude.EDGE)),
-                            (include.contains(FacetRangeInclude.UPPER) ||
-                             include.contains(FacetRangeInclude.EDGE))));
+          labels.add(FacetRangeOther.BETWEEN.toString());
+          counter.add(start, end, startS, endS,
+                      (include.contains(FacetRangeInclude.LOWER) ||
+                       include.contains(FacetRangeInclude.EDGE)),
+                      (include.contains(FacetRangeInclude.UPPER) ||
+                       include.contains(FacetRangeInclude.EDGE)));
          
         }
       }
     }
+
+    final int[] rangeCounts = counter.count();
+    for (int i = 0; i < numGaps; i++) {
+      if (rangeCounts[i] >= minCount) {
+        counts.add(labels.get(i), rangeCounts[i]);
+      }
+    }
+    
+    // explicitly return the start and end so all the counts 
+    // (including before/after/between) are meaningful - even if mincount
+    // has removed the neighboring ranges
+    res.add("start", start);
+    res.add("end", end);
+
+    for (int i = numGaps; i < labels.size(); i++) {
+      res.add(labels.get(i), rangeCounts[i]);
+    }
     return res;
   }  
+
+  /**
+   * Collects the ranges of a range or date facet and counts them together: in a single
+   * pass over the documents when the field supports it (see {@link NumericRangeCounts}),
+   * or else with a range query per range.
+   */
+  private final class RangeCounter {
+    private final SchemaField sf;
+    private final boolean dates;  // count with the deprecated Date version of rangeCount
+    private final NumericRangeCounts numericCounts;
+    private final List<Object> endpoints = new ArrayList<Object>();
+    private final List<String> endpointStrs = new ArrayList<String>();
+    private final List<Boolean> includes = new ArrayList<Boolean>();
+
+    RangeCounter(SchemaField sf, boolean dates) {
+      this.sf = sf;
+      this.dates = dates;
+      String method = params.getFieldParam(sf.getName(), FacetParams.FACET_RANGE_METHOD, FacetParams.FACET_RANGE_METHOD_fc);
+      boolean singlePass = FacetParams.FACET_RANGE_METHOD_fc.equals(method)
+          && !params.getBool(GroupParams.GROUP_FACET, false)
+          && NumericRangeCounts.supports(sf);
+      numericCounts = singlePass ? new NumericRangeCounts(sf) : null;
+    }
+
+    /** Adds a range, of which the ends are null if the range is open on that end */
+    void add(Object low, Object high, String lowS, String highS, boolean includeLower, boolean includeUpper) {
+      if (numericCounts != null) {
+        numericCounts.add(low, high, includeLower, includeUpper);
+      }
+      endpoints.add(low);
+      endpoints.add(high);
+      endpointStrs.add(lowS);
+      endpointStrs.add(highS);
+      includes.add(includeLower);
+      includes.add(includeUpper);
+    }
+
+    /** Returns the counts of the ranges, in the order they were added */
+    int[] count() throws IOException {
+      if (numericCounts != null) {
+        Executor executor = threads == 0 ? directExecutor : facetExecutor;
+        return numericCounts.count(searcher, docs, executor, threads);
+      }
+      int[] counts = new int[endpoints.size() / 2];
+      for (int i = 0; i < counts.length; i++) {
+        int lo = 2 * i, hi = 2 * i + 1;
+        if (dates) {
+          counts[i] = rangeCount(sf, (Date)endpoints.get(lo), (Date)endpoints.get(hi),
+                                 includes.get(lo), includes.get(hi));
+        } else {
+          counts[i] = rangeCount(sf, endpointStrs.get(lo), endpointStrs.get(hi),
+                                 includes.get(lo), includes.get(hi));
+        }
+      }
+      return counts;
+    }
+  }
   
   /**
    * Macro for getting the numDocs of range over docs
@@ -21,6 +21,11 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.index.AtomicReader;
@@ -650,23 +655,121 @@ public class UnInvertedField extends DocTermOrds {
   //////////////////////////////////////////////////////////////////
   //////////////////////////// caching /////////////////////////////
   //////////////////////////////////////////////////////////////////
-  public static UnInvertedField getUnInvertedField(String field, SolrIndexSearcher searcher) throws IOException {
-    SolrCache<String,UnInvertedField> cache = searcher.getFieldValueCache();
+  // un-inversions in progress, per fieldValueCache and field
+  private static final ConcurrentMap<PendingKey,FutureTask<UnInvertedField>> pending =
+      new ConcurrentHashMap<PendingKey,FutureTask<UnInvertedField>>();
+
+  static Runnable testing_buildHook;  // called before a cached field is un-inverted
+
+  private static final class PendingKey {
+    final SolrCache<String,UnInvertedField> cache;
+    final String field;
+
+    PendingKey(SolrCache<String,UnInvertedField> cache, String field) {
+      this.cache = cache;
+      this.field = field;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(cache) * 31 + field.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof PendingKey)) return false;
+      PendingKey other = (PendingKey)o;
+      return cache == other.cache && field.equals(other.field);
+    }
+  }
+
+  /**
+   * Returns the UnInvertedField of a field from the searcher's fieldValueCache, un-inverting
+   * it if it isn't cached yet.  Concurrent requests for the same field wait for a single
+   * un-inversion; requests for other fields are not held up by it.
+   */
+  public static UnInvertedField getUnInvertedField(final String field, final SolrIndexSearcher searcher) throws IOException {
+    final SolrCache<String,UnInvertedField> cache = searcher.getFieldValueCache();
     if (cache == null) {
       return new UnInvertedField(field, searcher);
     }
 
     UnInvertedField uif = cache.get(field);
-    if (uif == null) {
-      synchronized (cache) {
-        uif = cache.get(field);
+    if (uif != null) {
+      return uif;
+    }
+
+    PendingKey key = new PendingKey(cache, field);
+    FutureTask<UnInvertedField> task = new FutureTask<UnInvertedField>(new Callable<UnInvertedField>() {
+      @Override
+      public UnInvertedField call() throws IOException {
+        // check again: a build may have finished since we looked
+        UnInvertedField uif = cache.get(field);
         if (uif == null) {
+          if (testing_buildHook != null) testing_buildHook.run();
+          long start = System.nanoTime();
           uif = new UnInvertedField(field, searcher);
+          searcher.getUnInvertStats().record(System.nanoTime() - start, uif.memSize());
           cache.put(field, uif);
         }
+        return uif;
+      }
+    });
+
+    FutureTask<UnInvertedField> existing = pending.putIfAbsent(key, task);
+    if (existing == null) {
+      try {
+        task.run();
+      } finally {
+        pending.remove(key, task);
+      }
+    } else {
+      searcher.getUnInvertStats().recordWait();
+      task = existing;
+    }
+
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Interrupted while un-inverting field " + field, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException)cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if (cause instanceof Error) throw (Error)cause;
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, cause);
+    }
+  }
+
+  /** Statistics of the un-inversions done for a searcher */
+  public static class BuildStats {
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong buildTimeNanos = new AtomicLong();
+    private final AtomicLong maxBuildTimeNanos = new AtomicLong();
+    private final AtomicLong memSize = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    void record(long elapsedNanos, long bytes) {
+      builds.incrementAndGet();
+      buildTimeNanos.addAndGet(elapsedNanos);
+      memSize.addAndGet(bytes);
+      long curr;
+      while ((curr = maxBuildTimeNanos.get()) < elapsedNanos) {
+        if (maxBuildTimeNanos.compareAndSet(curr, elapsedNanos)) break;
       }
     }
 
-    return uif;
+    void recordWait() {
+      waits.incrementAndGet();
+    }
+
+    public void addTo(NamedList<Object> lst) {
+      lst.add("uninvertedFields", builds.get());
+      lst.add("uninvertedFieldsMemSize", memSize.get());
+      lst.add("uninvertTimeMs", buildTimeNanos.get() / 1000000);
+      lst.add("uninvertMaxTimeMs", maxBuildTimeNanos.get() / 1000000);
+      lst.add("uninvertWaits", waits.get());
+    }
   }
 }
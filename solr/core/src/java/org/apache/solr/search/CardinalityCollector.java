@@ -0,0 +1,192 @@
+package org.apache.solr.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.StringHelper;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.TrieField;
+import org.apache.solr.util.HyperLogLog;
+
+/**
+ * Estimates the number of distinct values of a field in the collected documents with a
+ * {@link HyperLogLog} sketch, in memory that does not depend on the number of values.
+ * <p>
+ * The values of single-valued numeric fields are hashed per document from the field cache.
+ * For other fields, the term ordinals of each segment (doc values, or the field cache) are
+ * marked in a bit set, and each distinct term of the segment is hashed once when the
+ * collector moves on to the next segment.
+ */
+public class CardinalityCollector extends Collector {
+  // the hash of the "value" of documents without one, when they are counted
+  private static final long MISSING_HASH = HyperLogLog.hash(0x5bd1e9955bd1e995L);
+
+  private final String field;
+  private final NumericType numericType;
+  private final boolean singleValued;
+  private final BytesRef prefix;       // terms of other values than the main one don't start with this
+  private final boolean countMissing;
+  private final HyperLogLog sketch = new HyperLogLog();
+
+  private FieldCache.Longs longs;
+  private Bits docsWithField;
+  private SortedDocValues termsIndex;
+  private SortedSetDocValues termOrds;
+  private FixedBitSet seenOrds;
+  private boolean sawMissing;
+  private final BytesRef term = new BytesRef();
+
+  /**
+   * @param sf the field
+   * @param countMissing whether documents without a value count as one more value, as
+   *                     the null group of grouping does
+   */
+  public CardinalityCollector(SchemaField sf, boolean countMissing) {
+    this.field = sf.getName();
+    this.countMissing = countMissing;
+    this.singleValued = !sf.multiValued() && !sf.getType().multiValuedFieldCache();
+    this.numericType = singleValued ? sf.getType().getNumericType() : null;
+    String mainValuePrefix = TrieField.getMainValuePrefix(sf.getType());
+    this.prefix = mainValuePrefix == null ? null : new BytesRef(mainValuePrefix);
+  }
+
+  @Override
+  public void setScorer(Scorer scorer) throws IOException {
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    if (numericType != null) {
+      if (docsWithField.get(doc)) {
+        sketch.add(HyperLogLog.hash(longs.get(doc)));
+      } else {
+        sawMissing = true;
+      }
+    } else if (termsIndex != null) {
+      int ord = termsIndex.getOrd(doc);
+      if (ord >= 0) {
+        seenOrds.set(ord);
+      } else {
+        sawMissing = true;
+      }
+    } else {
+      termOrds.setDocument(doc);
+      long ord = termOrds.nextOrd();
+      if (ord == SortedSetDocValues.NO_MORE_ORDS) {
+        sawMissing = true;
+      }
+      for (; ord != SortedSetDocValues.NO_MORE_ORDS; ord = termOrds.nextOrd()) {
+        seenOrds.set((int) ord);
+      }
+    }
+  }
+
+  @Override
+  public void setNextReader(AtomicReaderContext context) throws IOException {
+    flush();
+    AtomicReader reader = context.reader();
+    if (numericType != null) {
+      docsWithField = FieldCache.DEFAULT.getDocsWithField(reader, field);
+      longs = getLongs(reader);
+    } else if (singleValued) {
+      termsIndex = FieldCache.DEFAULT.getTermsIndex(reader, field);
+      seenOrds = new FixedBitSet(termsIndex.getValueCount());
+    } else {
+      termOrds = FieldCache.DEFAULT.getDocTermOrds(reader, field);
+      seenOrds = new FixedBitSet((int) termOrds.getValueCount());
+    }
+  }
+
+  private FieldCache.Longs getLongs(AtomicReader reader) throws IOException {
+    switch (numericType) {
+      case LONG:
+        return FieldCache.DEFAULT.getLongs(reader, field, false);
+      case INT:
+        final FieldCache.Ints ints = FieldCache.DEFAULT.getInts(reader, field, false);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return ints.get(docID);
+          }
+        };
+      case FLOAT:
+        final FieldCache.Floats floats = FieldCache.DEFAULT.getFloats(reader, field, false);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return Float.floatToIntBits(floats.get(docID));
+          }
+        };
+      case DOUBLE:
+        final FieldCache.Doubles doubles = FieldCache.DEFAULT.getDoubles(reader, field, false);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return Double.doubleToLongBits(doubles.get(docID));
+          }
+        };
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  /** Hashes the distinct terms seen in the current segment */
+  private void flush() {
+    if (seenOrds == null) {
+      return;
+    }
+    final int numOrds = seenOrds.length();
+    for (int ord = numOrds == 0 ? -1 : seenOrds.nextSetBit(0); ord >= 0; ord = ord + 1 < numOrds ? seenOrds.nextSetBit(ord + 1) : -1) {
+      if (termsIndex != null) {
+        termsIndex.lookupOrd(ord, term);
+      } else {
+        termOrds.lookupOrd(ord, term);
+      }
+      if (prefix == null || StringHelper.startsWith(term, prefix)) {
+        sketch.add(HyperLogLog.hash(term));
+      }
+    }
+    seenOrds = null;
+  }
+
+  @Override
+  public boolean acceptsDocsOutOfOrder() {
+    return true;
+  }
+
+  /** Returns the sketch of the values of all documents collected so far */
+  public HyperLogLog getSketch() {
+    flush();
+    if (countMissing && sawMissing) {
+      sketch.add(MISSING_HASH);
+    }
+    return sketch;
+  }
+}
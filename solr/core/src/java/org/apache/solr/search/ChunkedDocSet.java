@@ -0,0 +1,704 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import java.util.Arrays;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * A compressed, immutable <code>DocSet</code>, in the style of roaring bitmaps.
+ * <p>
+ * The id space is split into chunks of 65536 documents.  Each non-empty chunk is stored
+ * either as a sorted array of the low 16 bits of its documents (if it has at most 4096 of
+ * them) or as a 65536 bit bitmap.  Sparse regions take two bytes per document, half of
+ * what a {@link SortedIntDocSet} takes, while dense regions are no bigger than the
+ * equivalent part of a {@link BitDocSet}.  Set operations with other
+ * <code>ChunkedDocSet</code>s and with <code>BitDocSet</code>s work chunk by chunk, and
+ * chunks that only exist on one side are skipped (or shared, since chunks are never modified).
+ * <p>
+ * Use {@link #compress} to pick the representation by density.
+ */
+public final class ChunkedDocSet extends DocSetBase {
+  static final int CHUNK_SHIFT = 16;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  static final int BITMAP_WORDS = CHUNK_SIZE >>> 6;
+  /** Chunks with more documents than this are stored as bitmaps */
+  static final int MAX_ARRAY_SIZE = 4096;
+
+  private final int[] keys;        // chunk numbers (doc >>> CHUNK_SHIFT), ascending
+  private final char[][] arrays;   // sorted low bits of the docs of a chunk, or null if it is a bitmap
+  private final long[][] bitmaps;  // the bits of a chunk, or null if it is an array
+  private final int[] cards;       // number of docs per chunk
+  private final int size;
+
+  private ChunkedDocSet(int[] keys, char[][] arrays, long[][] bitmaps, int[] cards, int numChunks) {
+    this.keys = numChunks == keys.length ? keys : Arrays.copyOf(keys, numChunks);
+    this.arrays = numChunks == arrays.length ? arrays : Arrays.copyOf(arrays, numChunks);
+    this.bitmaps = numChunks == bitmaps.length ? bitmaps : Arrays.copyOf(bitmaps, numChunks);
+    this.cards = numChunks == cards.length ? cards : Arrays.copyOf(cards, numChunks);
+    int sz = 0;
+    for (int i=0; i<numChunks; i++) sz += this.cards[i];
+    this.size = sz;
+  }
+
+  /**
+   * Returns a ChunkedDocSet with the same documents as <code>set</code> if that takes less
+   * than half of its memory, and <code>set</code> itself otherwise.
+   */
+  public static DocSet compress(DocSet set, int maxDoc) {
+    if (set instanceof ChunkedDocSet || !(set instanceof BitDocSet || set instanceof SortedIntDocSet)) {
+      return set;
+    }
+    int sz = set.size();
+    // with a uniform density over 1/16, every chunk would be a bitmap anyway
+    if (set instanceof BitDocSet && sz > (maxDoc >>> 4)) return set;
+
+    ChunkedDocSet chunked = set instanceof BitDocSet
+        ? fromBits(set.getBits())
+        : fromSortedDocs(((SortedIntDocSet)set).getDocs(), sz);
+    return chunked.memSize() * 2 <= set.memSize() ? chunked : set;
+  }
+
+  /** Creates a ChunkedDocSet from a sorted array of documents without duplicates */
+  public static ChunkedDocSet fromSortedDocs(int[] docs, int len) {
+    Builder b = new Builder();
+    int i = 0;
+    while (i < len) {
+      int key = docs[i] >>> CHUNK_SHIFT;
+      int end = i + 1;
+      while (end < len && (docs[end] >>> CHUNK_SHIFT) == key) end++;
+      int n = end - i;
+      if (n <= MAX_ARRAY_SIZE) {
+        char[] arr = new char[n];
+        for (int j=0; j<n; j++) arr[j] = (char)docs[i+j];
+        b.add(key, arr, null, n);
+      } else {
+        long[] bm = new long[BITMAP_WORDS];
+        for (int j=i; j<end; j++) {
+          int low = docs[j] & (CHUNK_SIZE-1);
+          bm[low >>> 6] |= 1L << low;
+        }
+        b.add(key, null, bm, n);
+      }
+      i = end;
+    }
+    return b.build();
+  }
+
+  /** Creates a ChunkedDocSet with the bits set in an OpenBitSet */
+  public static ChunkedDocSet fromBits(OpenBitSet bits) {
+    Builder b = new Builder();
+    long[] words = bits.getBits();
+    int numWords = bits.getNumWords();
+    for (int off=0, key=0; off < numWords; off += BITMAP_WORDS, key++) {
+      int n = Math.min(BITMAP_WORDS, numWords - off);
+      int card = 0;
+      for (int i=0; i<n; i++) card += Long.bitCount(words[off+i]);
+      if (card == 0) continue;
+      if (card <= MAX_ARRAY_SIZE) {
+        b.add(key, toArray(words, off, n, card), null, card);
+      } else {
+        long[] bm = new long[BITMAP_WORDS];
+        System.arraycopy(words, off, bm, 0, n);
+        b.add(key, null, bm, card);
+      }
+    }
+    return b.build();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean exists(int doc) {
+    int c = Arrays.binarySearch(keys, doc >>> CHUNK_SHIFT);
+    if (c < 0) return false;
+    char low = (char)doc;
+    char[] arr = arrays[c];
+    return arr != null ? Arrays.binarySearch(arr, low) >= 0 : (bitmaps[c][low >>> 6] & (1L << low)) != 0;
+  }
+
+  @Override
+  public DocIterator iterator() {
+    final Cursor cursor = new Cursor();
+    return new DocIterator() {
+      int next = cursor.next();
+
+      @Override
+      public boolean hasNext() {
+        return next != DocIdSetIterator.NO_MORE_DOCS;
+      }
+
+      @Override
+      public Integer next() {
+        return nextDoc();
+      }
+
+      /**
+       * The remove  operation is not supported by this Iterator.
+       */
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("The remove  operation is not supported by this Iterator.");
+      }
+
+      @Override
+      public int nextDoc() {
+        int doc = next;
+        next = cursor.next();
+        return doc;
+      }
+
+      @Override
+      public float score() {
+        return 0.0f;
+      }
+    };
+  }
+
+  @Override
+  public OpenBitSet getBits() {
+    int numChunks = keys.length;
+    OpenBitSet bits = new OpenBitSet(numChunks == 0 ? 0 : ((long)keys[numChunks-1] + 1) << CHUNK_SHIFT);
+    setBitsOn(bits);
+    return bits;
+  }
+
+  @Override
+  public void setBitsOn(OpenBitSet target) {
+    long[] words = target.getBits();
+    int numWords = target.getNumWords();
+    for (int c=0; c<keys.length; c++) {
+      int base = keys[c] << CHUNK_SHIFT;
+      char[] arr = arrays[c];
+      if (arr != null) {
+        for (char low : arr) target.fastSet(base | low);
+      } else {
+        long[] bm = bitmaps[c];
+        int off = keys[c] * BITMAP_WORDS;
+        int n = Math.min(BITMAP_WORDS, numWords - off);
+        for (int i=0; i<n; i++) words[off+i] |= bm[i];
+      }
+    }
+  }
+
+  @Override
+  public long memSize() {
+    long sz = 40 + keys.length * 32L;
+    for (int c=0; c<keys.length; c++) {
+      sz += arrays[c] != null ? (arrays[c].length << 1) : (BITMAP_WORDS << 3);
+    }
+    return sz;
+  }
+
+  @Override
+  public int intersectionSize(DocSet other) {
+    if (other instanceof ChunkedDocSet) {
+      ChunkedDocSet o = (ChunkedDocSet)other;
+      int count = 0;
+      int i = 0, j = 0;
+      while (i < keys.length && j < o.keys.length) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          if (arrays[i] != null) {
+            count += o.arrays[j] != null ? countArrays(arrays[i], o.arrays[j]) : countArrayBits(arrays[i], o.bitmaps[j], 0, BITMAP_WORDS);
+          } else {
+            count += o.arrays[j] != null ? countArrayBits(o.arrays[j], bitmaps[i], 0, BITMAP_WORDS) : countBits(bitmaps[i], o.bitmaps[j], 0, BITMAP_WORDS);
+          }
+          i++; j++;
+        }
+      }
+      return count;
+    }
+
+    if (other instanceof BitDocSet) {
+      OpenBitSet bits = other.getBits();
+      long[] words = bits.getBits();
+      int numWords = bits.getNumWords();
+      int count = 0;
+      for (int c=0; c<keys.length; c++) {
+        int off = keys[c] * BITMAP_WORDS;
+        if (off >= numWords) break;
+        count += arrays[c] != null ? countArrayBits(arrays[c], words, off, numWords) : countBits(bitmaps[c], words, off, numWords);
+      }
+      return count;
+    }
+
+    // the other types are small, so probe them against this set
+    int count = 0;
+    for (DocIterator iter = other.iterator(); iter.hasNext();) {
+      if (exists(iter.nextDoc())) count++;
+    }
+    return count;
+  }
+
+  @Override
+  public boolean intersects(DocSet other) {
+    if (other instanceof ChunkedDocSet || other instanceof BitDocSet) {
+      return intersectionSize(other) > 0;
+    }
+    for (DocIterator iter = other.iterator(); iter.hasNext();) {
+      if (exists(iter.nextDoc())) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public DocSet intersection(DocSet other) {
+    if (other instanceof ChunkedDocSet) {
+      ChunkedDocSet o = (ChunkedDocSet)other;
+      Builder b = new Builder();
+      int i = 0, j = 0;
+      while (i < keys.length && j < o.keys.length) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          if (arrays[i] != null) {
+            b.addArray(keys[i], o.arrays[j] != null ? andArrays(arrays[i], o.arrays[j]) : andArrayBits(arrays[i], o.bitmaps[j], 0, BITMAP_WORDS));
+          } else if (o.arrays[j] != null) {
+            b.addArray(keys[i], andArrayBits(o.arrays[j], bitmaps[i], 0, BITMAP_WORDS));
+          } else {
+            b.addBits(keys[i], andBits(bitmaps[i], o.bitmaps[j], 0, BITMAP_WORDS));
+          }
+          i++; j++;
+        }
+      }
+      return b.build();
+    }
+
+    if (other instanceof BitDocSet) {
+      OpenBitSet bits = other.getBits();
+      long[] words = bits.getBits();
+      int numWords = bits.getNumWords();
+      Builder b = new Builder();
+      for (int c=0; c<keys.length; c++) {
+        int off = keys[c] * BITMAP_WORDS;
+        if (off >= numWords) break;
+        if (arrays[c] != null) {
+          b.addArray(keys[c], andArrayBits(arrays[c], words, off, numWords));
+        } else {
+          b.addBits(keys[c], andBits(bitmaps[c], words, off, numWords));
+        }
+      }
+      return b.build();
+    }
+
+    // the other types are small: keep the result in the same form SortedIntDocSet would
+    int[] result = new int[other.size()];
+    int n = 0;
+    for (DocIterator iter = other.iterator(); iter.hasNext();) {
+      int doc = iter.nextDoc();
+      if (exists(doc)) result[n++] = doc;
+    }
+    if (!(other instanceof SortedIntDocSet)) {
+      Arrays.sort(result, 0, n);  // HashDocSet and DocList are not ordered
+    }
+    return new SortedIntDocSet(result, n);
+  }
+
+  @Override
+  public DocSet union(DocSet other) {
+    if (!(other instanceof ChunkedDocSet)) {
+      return super.union(other);
+    }
+    ChunkedDocSet o = (ChunkedDocSet)other;
+    Builder b = new Builder();
+    int i = 0, j = 0;
+    while (i < keys.length || j < o.keys.length) {
+      if (j >= o.keys.length || (i < keys.length && keys[i] < o.keys[j])) {
+        b.add(keys[i], arrays[i], bitmaps[i], cards[i]);
+        i++;
+      } else if (i >= keys.length || keys[i] > o.keys[j]) {
+        b.add(o.keys[j], o.arrays[j], o.bitmaps[j], o.cards[j]);
+        j++;
+      } else {
+        long[] bm = new long[BITMAP_WORDS];
+        setChunkBits(bm, arrays[i], bitmaps[i]);
+        setChunkBits(bm, o.arrays[j], o.bitmaps[j]);
+        b.addBits(keys[i], bm);
+        i++; j++;
+      }
+    }
+    return b.build();
+  }
+
+  @Override
+  public DocSet andNot(DocSet other) {
+    if (!(other instanceof ChunkedDocSet) && !(other instanceof BitDocSet)) {
+      return super.andNot(other);
+    }
+
+    Builder b = new Builder();
+    if (other instanceof ChunkedDocSet) {
+      ChunkedDocSet o = (ChunkedDocSet)other;
+      int j = 0;
+      for (int i=0; i<keys.length; i++) {
+        while (j < o.keys.length && o.keys[j] < keys[i]) j++;
+        if (j >= o.keys.length || o.keys[j] != keys[i]) {
+          b.add(keys[i], arrays[i], bitmaps[i], cards[i]);
+        } else {
+          long[] bm = new long[BITMAP_WORDS];
+          setChunkBits(bm, o.arrays[j], o.bitmaps[j]);
+          andNotChunk(b, i, bm, 0, BITMAP_WORDS);
+        }
+      }
+    } else {
+      OpenBitSet bits = other.getBits();
+      long[] words = bits.getBits();
+      int numWords = bits.getNumWords();
+      for (int i=0; i<keys.length; i++) {
+        int off = keys[i] * BITMAP_WORDS;
+        if (off >= numWords) {
+          b.add(keys[i], arrays[i], bitmaps[i], cards[i]);
+        } else {
+          andNotChunk(b, i, words, off, numWords);
+        }
+      }
+    }
+    return b.build();
+  }
+
+  private void andNotChunk(Builder b, int c, long[] words, int off, int numWords) {
+    char[] arr = arrays[c];
+    if (arr != null) {
+      char[] result = new char[arr.length];
+      int n = 0;
+      for (char low : arr) {
+        int w = off + (low >>> 6);
+        if (w >= numWords || (words[w] & (1L << low)) == 0) result[n++] = low;
+      }
+      b.addArray(keys[c], n == result.length ? result : Arrays.copyOf(result, n));
+    } else {
+      long[] bm = bitmaps[c].clone();
+      int n = Math.min(BITMAP_WORDS, numWords - off);
+      for (int i=0; i<n; i++) bm[i] &= ~words[off+i];
+      b.addBits(keys[c], bm);
+    }
+  }
+
+  @Override
+  public Filter getTopFilter() {
+    return new Filter() {
+      @Override
+      public DocIdSet getDocIdSet(final AtomicReaderContext context, final Bits acceptDocs) {
+        AtomicReader reader = context.reader();
+        // all Solr DocSets that are used as filters only include live docs
+        final Bits acceptDocs2 = acceptDocs == null ? null : (reader.getLiveDocs() == acceptDocs ? null : acceptDocs);
+
+        final int base = context.docBase;
+        final int maxDoc = reader.maxDoc();
+        final int max = base + maxDoc;   // one past the max doc in this segment.
+
+        return BitsFilteredDocIdSet.wrap(new DocIdSet() {
+          @Override
+          public DocIdSetIterator iterator() {
+            return new DocIdSetIterator() {
+              final Cursor cursor = new Cursor();
+              int adjustedDoc = -1;
+
+              @Override
+              public int docID() {
+                return adjustedDoc;
+              }
+
+              @Override
+              public int nextDoc() {
+                int doc = adjustedDoc == -1 ? cursor.advance(base) : cursor.next();
+                return adjustedDoc = doc < max ? doc - base : NO_MORE_DOCS;
+              }
+
+              @Override
+              public int advance(int target) {
+                if (target == NO_MORE_DOCS) return adjustedDoc = NO_MORE_DOCS;
+                int doc = cursor.advance(target + base);
+                return adjustedDoc = doc < max ? doc - base : NO_MORE_DOCS;
+              }
+
+              @Override
+              public long cost() {
+                return size;
+              }
+            };
+          }
+
+          @Override
+          public boolean isCacheable() {
+            return true;
+          }
+
+          @Override
+          public Bits bits() {
+            return new Bits() {
+              @Override
+              public boolean get(int index) {
+                return exists(index + base);
+              }
+
+              @Override
+              public int length() {
+                return maxDoc;
+              }
+            };
+          }
+
+        }, acceptDocs2);
+      }
+    };
+  }
+
+  /** Iterates over the documents of this set in order */
+  private final class Cursor {
+    int chunk = -1;
+    int base;
+    char[] arr;
+    long[] bm;
+    int pos = -1;   // index in arr, or bit in bm, of the current document
+
+    /** Returns the next document, or NO_MORE_DOCS */
+    int next() {
+      if (chunk >= 0 && chunk < keys.length) {
+        if (arr != null) {
+          if (++pos < arr.length) return base | arr[pos];
+        } else {
+          int bit = nextSetBit(bm, pos + 1);
+          if (bit >= 0) {
+            pos = bit;
+            return base | bit;
+          }
+        }
+      }
+      return nextChunk(chunk + 1);
+    }
+
+    /** Returns the first document at or after target, or NO_MORE_DOCS */
+    int advance(int target) {
+      int key = target >>> CHUNK_SHIFT;
+      if (chunk < 0 || chunk >= keys.length || keys[chunk] != key) {
+        int from = Math.max(chunk, 0);
+        if (from >= keys.length) return DocIdSetIterator.NO_MORE_DOCS;
+        int c = Arrays.binarySearch(keys, from, keys.length, key);
+        if (c < 0) return nextChunk(-c - 1);
+        load(c);
+      }
+      int low = target & (CHUNK_SIZE-1);
+      if (arr != null) {
+        int i = lowerBound(arr, Math.max(pos, 0), (char)low);
+        if (i < arr.length) {
+          pos = i;
+          return base | arr[i];
+        }
+      } else {
+        int bit = nextSetBit(bm, low);
+        if (bit >= 0) {
+          pos = bit;
+          return base | bit;
+        }
+      }
+      return nextChunk(chunk + 1);
+    }
+
+    private int nextChunk(int c) {
+      if (c >= keys.length) {
+        chunk = keys.length;
+        return DocIdSetIterator.NO_MORE_DOCS;
+      }
+      load(c);
+      return next();
+    }
+
+    private void load(int c) {
+      chunk = c;
+      base = keys[c] << CHUNK_SHIFT;
+      arr = arrays[c];
+      bm = bitmaps[c];
+      pos = -1;
+    }
+  }
+
+  /** Accumulates chunks in increasing key order */
+  private static final class Builder {
+    int[] keys = new int[4];
+    char[][] arrays = new char[4][];
+    long[][] bitmaps = new long[4][];
+    int[] cards = new int[4];
+    int numChunks;
+
+    void add(int key, char[] arr, long[] bm, int card) {
+      if (card == 0) return;
+      if (numChunks == keys.length) {
+        int newSize = ArrayUtil.oversize(numChunks + 1, 8);
+        keys = Arrays.copyOf(keys, newSize);
+        arrays = Arrays.copyOf(arrays, newSize);
+        bitmaps = Arrays.copyOf(bitmaps, newSize);
+        cards = Arrays.copyOf(cards, newSize);
+      }
+      keys[numChunks] = key;
+      arrays[numChunks] = arr;
+      bitmaps[numChunks] = bm;
+      cards[numChunks] = card;
+      numChunks++;
+    }
+
+    void addArray(int key, char[] arr) {
+      add(key, arr, null, arr.length);
+    }
+
+    /** Adds a chunk given as bits, which becomes owned by the set, converting it to an array if it is sparse */
+    void addBits(int key, long[] bm) {
+      int card = 0;
+      for (long word : bm) card += Long.bitCount(word);
+      if (card <= MAX_ARRAY_SIZE) {
+        add(key, toArray(bm, 0, BITMAP_WORDS, card), null, card);
+      } else {
+        add(key, null, bm, card);
+      }
+    }
+
+    ChunkedDocSet build() {
+      return new ChunkedDocSet(keys, arrays, bitmaps, cards, numChunks);
+    }
+  }
+
+  private static char[] toArray(long[] words, int off, int numWords, int card) {
+    char[] arr = new char[card];
+    int n = 0;
+    for (int i=0; i<numWords; i++) {
+      long word = words[off+i];
+      while (word != 0) {
+        arr[n++] = (char)((i << 6) + Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+    return arr;
+  }
+
+  private static void setChunkBits(long[] bm, char[] arr, long[] bits) {
+    if (arr != null) {
+      for (char low : arr) bm[low >>> 6] |= 1L << low;
+    } else {
+      for (int i=0; i<BITMAP_WORDS; i++) bm[i] |= bits[i];
+    }
+  }
+
+  static int nextSetBit(long[] words, int index) {
+    int i = index >>> 6;
+    if (i >= words.length) return -1;
+    long word = words[i] >>> index;
+    if (word != 0) return index + Long.numberOfTrailingZeros(word);
+    while (++i < words.length) {
+      word = words[i];
+      if (word != 0) return (i << 6) + Long.numberOfTrailingZeros(word);
+    }
+    return -1;
+  }
+
+  /** Returns the index of the first element of arr at or after from that is &gt;= target */
+  private static int lowerBound(char[] arr, int from, char target) {
+    int low = from, high = arr.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (arr[mid] < target) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  private static int countArrays(char[] a, char[] b) {
+    int count = 0;
+    int i = 0, j = 0;
+    // branch free, since which side advances is unpredictable
+    while (i < a.length && j < b.length) {
+      int x = a[i], y = b[j];
+      count += x == y ? 1 : 0;
+      i += x <= y ? 1 : 0;
+      j += x >= y ? 1 : 0;
+    }
+    return count;
+  }
+
+  private static char[] andArrays(char[] a, char[] b) {
+    // one extra slot, since the loop always stores a candidate
+    char[] result = new char[Math.min(a.length, b.length) + 1];
+    int n = 0;
+    int i = 0, j = 0;
+    while (i < a.length && j < b.length) {
+      char x = a[i], y = b[j];
+      result[n] = x;
+      n += x == y ? 1 : 0;
+      i += x <= y ? 1 : 0;
+      j += x >= y ? 1 : 0;
+    }
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  // words[off..numWords) is the bitmap of the chunk
+
+  private static int countArrayBits(char[] a, long[] words, int off, int numWords) {
+    int count = 0;
+    for (char low : a) {
+      int w = off + (low >>> 6);
+      if (w >= numWords) break;
+      if ((words[w] & (1L << low)) != 0) count++;
+    }
+    return count;
+  }
+
+  private static char[] andArrayBits(char[] a, long[] words, int off, int numWords) {
+    char[] result = new char[a.length];
+    int n = 0;
+    for (char low : a) {
+      int w = off + (low >>> 6);
+      if (w >= numWords) break;
+      if ((words[w] & (1L << low)) != 0) result[n++] = low;
+    }
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  private static int countBits(long[] bm, long[] words, int off, int numWords) {
+    int count = 0;
+    int n = Math.min(BITMAP_WORDS, numWords - off);
+    for (int i=0; i<n; i++) count += Long.bitCount(bm[i] & words[off+i]);
+    return count;
+  }
+
+  private static long[] andBits(long[] bm, long[] words, int off, int numWords) {
+    long[] result = new long[BITMAP_WORDS];
+    int n = Math.min(BITMAP_WORDS, numWords - off);
+    for (int i=0; i<n; i++) result[i] = bm[i] & words[off+i];
+    return result;
+  }
+}
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.MultiDocValues.OrdinalMap;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.PerSegmentTermOrds;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.grouping.collector.NumericGroupValues;
+
+/**
+ * Collapses the results to one document per value of a single-valued string field, the
+ * group head, as a post filter that runs before the normal collection of the top documents,
+ * the DocSet and the facets.
+ * <br>The group head is the document with the highest score, or with the <code>min</code>
+ * or <code>max</code> value of a single-valued numeric field.  Ties go to the first document.
+ * Documents without a value in the <code>min</code> or <code>max</code> field only become
+ * the group head if no document of the group has one.
+ * <br>Documents without a value in the field are dropped (<code>nullPolicy=ignore</code>,
+ * the default), kept (<code>nullPolicy=expand</code>), or collapsed into one more group
+ * (<code>nullPolicy=collapse</code>).
+ * <br>Unlike the group heads of group.truncate, the group heads are kept in primitive
+ * arrays indexed by the global term ordinals of the field, which take 8 or 16 bytes per
+ * distinct value, so the number of groups can be very large.  The field is read per segment,
+ * and the segment ordinals are mapped to global ordinals ({@link PerSegmentTermOrds}).
+ * <br>Example: <code>fq={!collapse field=productId_s max=price_f}</code>
+ */
+public class CollapsingQParserPlugin extends QParserPlugin {
+  public static String NAME = "collapse";
+
+  public static final String NULL_IGNORE = "ignore";
+  public static final String NULL_EXPAND = "expand";
+  public static final String NULL_COLLAPSE = "collapse";
+
+  @Override
+  public void init(NamedList args) {
+  }
+
+  @Override
+  public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+    return new QParser(qstr, localParams, params, req) {
+      @Override
+      public Query parse() throws SyntaxError {
+        String field = localParams.get("field");
+        if (field == null) {
+          throw new SyntaxError("Missing field to collapse on");
+        }
+        checkSingleValued(req.getSchema().getField(field), false);
+
+        String min = localParams.get("min");
+        String max = localParams.get("max");
+        if (min != null && max != null) {
+          throw new SyntaxError("Only one of min and max may be specified");
+        }
+        String sortField = min != null ? min : max;
+        if (sortField != null) {
+          checkSingleValued(req.getSchema().getField(sortField), true);
+        }
+
+        String nullPolicy = localParams.get("nullPolicy", NULL_IGNORE);
+        if (!NULL_IGNORE.equals(nullPolicy) && !NULL_EXPAND.equals(nullPolicy) && !NULL_COLLAPSE.equals(nullPolicy)) {
+          throw new SyntaxError("Unknown nullPolicy: " + nullPolicy);
+        }
+        return new CollapsingPostFilter(field, sortField, max != null, nullPolicy);
+      }
+
+      private void checkSingleValued(SchemaField sf, boolean numeric) {
+        if (sf.multiValued() || (sf.getType().getNumericType() != null) != numeric) {
+          throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "collapse can not use field " + sf.getName()
+              + ", it must be a single-valued " + (numeric ? "numeric" : "string") + " field");
+        }
+      }
+    };
+  }
+
+  /**
+   * The collapse query, which can only be used as a post filter: it is never cached and
+   * its cost is at least 100.
+   */
+  static class CollapsingPostFilter extends ExtendedQueryBase implements PostFilter {
+    final String field;
+    final String sortField;   // null to select the group heads by score
+    final boolean max;
+    final String nullPolicy;
+
+    CollapsingPostFilter(String field, String sortField, boolean max, String nullPolicy) {
+      this.field = field;
+      this.sortField = sortField;
+      this.max = max;
+      this.nullPolicy = nullPolicy;
+    }
+
+    @Override
+    public boolean getCache() {
+      return false;
+    }
+
+    @Override
+    public int getCost() {
+      return Math.max(super.getCost(), 100);
+    }
+
+    @Override
+    public DelegatingCollector getFilterCollector(IndexSearcher indexSearcher) {
+      SolrIndexSearcher searcher = (SolrIndexSearcher) indexSearcher;
+      try {
+        OrdinalMap ordinalMap = PerSegmentTermOrds.getSortedOrdinalMap(searcher, field);
+        int valueCount;
+        if (ordinalMap != null) {
+          valueCount = (int) ordinalMap.getValueCount();
+        } else if (searcher.getTopReaderContext().leaves().size() == 1) {
+          valueCount = FieldCache.DEFAULT.getTermsIndex(searcher.getTopReaderContext().leaves().get(0).reader(), field).getValueCount();
+        } else {
+          valueCount = 0;
+        }
+        NumericType sortType = sortField == null ? null : searcher.getSchema().getField(sortField).getType().getNumericType();
+        return new CollapsingCollector(searcher, ordinalMap, valueCount, sortType);
+      } catch (IOException e) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      int h = super.hashCode();
+      h = h * 31 + field.hashCode();
+      h = h * 31 + (sortField == null ? 0 : sortField.hashCode());
+      h = h * 31 + (max ? 1 : 0);
+      h = h * 31 + nullPolicy.hashCode();
+      return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!super.equals(o)) return false;
+      CollapsingPostFilter other = (CollapsingPostFilter) o;
+      return field.equals(other.field)
+          && (sortField == null ? other.sortField == null : sortField.equals(other.sortField))
+          && max == other.max
+          && nullPolicy.equals(other.nullPolicy);
+    }
+
+    @Override
+    public String toString(String s) {
+      return "{!collapse field=" + field + (sortField == null ? "" : (max ? " max=" : " min=") + sortField)
+          + " nullPolicy=" + nullPolicy + "}";
+    }
+
+    /**
+     * Selects the group heads of all segments, and then passes them on to the delegate
+     * in {@link #finish()}, with their scores.
+     */
+    class CollapsingCollector extends DelegatingCollector {
+      final SolrIndexSearcher searcher;
+      final OrdinalMap ordinalMap;       // segment to global ordinals, null for a single segment
+      final NumericType sortType;        // null to select by score
+      final boolean collapseNulls;
+      final boolean expandNulls;
+
+      final int[] heads;                 // the global doc of the head of each ordinal, or -1
+      final float[] scores;
+      final long[] values;               // the min/max values, if sortType != null
+      final FixedBitSet hasValues;       // whether the head has a min/max value, if sortType != null
+      int nullHead = -1;
+      float nullScore;
+      long nullValue;
+      boolean nullHasValue;
+      FixedBitSet nullDocs;              // for nullPolicy=expand
+      float[] nullScores = new float[0];
+      int numNullDocs;
+
+      SortedDocValues segmentOrds;
+      int segment;
+      FieldCache.Longs segmentValues;
+      Bits segmentDocsWithValue;
+
+      CollapsingCollector(SolrIndexSearcher searcher, OrdinalMap ordinalMap, int valueCount, NumericType sortType) {
+        this.searcher = searcher;
+        this.ordinalMap = ordinalMap;
+        this.sortType = sortType;
+        collapseNulls = NULL_COLLAPSE.equals(nullPolicy);
+        expandNulls = NULL_EXPAND.equals(nullPolicy);
+        heads = new int[valueCount];
+        Arrays.fill(heads, -1);
+        scores = new float[heads.length];
+        values = sortType == null ? null : new long[heads.length];
+        hasValues = sortType == null ? null : new FixedBitSet(heads.length);
+      }
+
+      @Override
+      public void setScorer(Scorer scorer) throws IOException {
+        // the delegate gets its scorer when the group heads are replayed
+        this.scorer = scorer;
+      }
+
+      @Override
+      public void setNextReader(AtomicReaderContext context) throws IOException {
+        this.context = context;
+        this.docBase = context.docBase;
+        segmentOrds = FieldCache.DEFAULT.getTermsIndex(context.reader(), field);
+        segment = context.ord;
+        if (sortType != null) {
+          segmentValues = NumericGroupValues.getValues(context.reader(), sortField, sortType);
+          segmentDocsWithValue = FieldCache.DEFAULT.getDocsWithField(context.reader(), sortField);
+        }
+      }
+
+      /** Returns the global ordinal of a document of a segment, or -1 */
+      private int globalOrd(SortedDocValues segmentOrds, int segment, int doc) {
+        int ord = segmentOrds.getOrd(doc);
+        return ord < 0 || ordinalMap == null ? ord : (int) ordinalMap.getGlobalOrd(segment, ord);
+      }
+
+      @Override
+      public boolean acceptsDocsOutOfOrder() {
+        return false;
+      }
+
+      @Override
+      public void collect(int doc) throws IOException {
+        int globalDoc = docBase + doc;
+        int ord = globalOrd(segmentOrds, segment, doc);
+        // no scorer is set when only a DocSet is collected
+        float score = scorer == null ? 0f : scorer.score();
+        boolean hasValue = sortType != null && segmentDocsWithValue.get(doc);
+        long value = hasValue ? segmentValues.get(doc) : 0L;
+
+        if (ord >= 0) {
+          if (heads[ord] < 0 || (sortType == null ? score > scores[ord] : isBetter(hasValue, value, hasValues.get(ord), values[ord]))) {
+            heads[ord] = globalDoc;
+            scores[ord] = score;
+            if (sortType != null) {
+              values[ord] = value;
+              if (hasValue) {
+                hasValues.set(ord);
+              } else {
+                hasValues.clear(ord);
+              }
+            }
+          }
+        } else if (collapseNulls) {
+          if (nullHead < 0 || (sortType == null ? score > nullScore : isBetter(hasValue, value, nullHasValue, nullValue))) {
+            nullHead = globalDoc;
+            nullScore = score;
+            nullValue = value;
+            nullHasValue = hasValue;
+          }
+        } else if (expandNulls) {
+          if (nullDocs == null) {
+            nullDocs = new FixedBitSet(searcher.maxDoc());
+          }
+          nullDocs.set(globalDoc);
+          nullScores = ArrayUtil.grow(nullScores, numNullDocs + 1);
+          nullScores[numNullDocs++] = score;
+        }
+      }
+
+      private boolean isBetter(boolean hasValue, long value, boolean currentHasValue, long current) {
+        if (hasValue != currentHasValue) {
+          // a document without a value loses against any with one, whether min or max
+          return hasValue;
+        }
+        // ints, longs and the sortable bits of floats and doubles all compare as longs
+        return hasValue && (max ? value > current : value < current);
+      }
+
+      @Override
+      public void finish() throws IOException {
+        FixedBitSet collapsed = nullDocs != null ? nullDocs : new FixedBitSet(searcher.maxDoc());
+        for (int head : heads) {
+          if (head >= 0) collapsed.set(head);
+        }
+        if (nullHead >= 0) {
+          collapsed.set(nullHead);
+        }
+
+        try {
+          ReplayScorer replayScorer = new ReplayScorer();
+          int nullIndex = 0;
+          for (AtomicReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+            int end = leaf.docBase + leaf.reader().maxDoc();
+            int globalDoc = leaf.docBase < collapsed.length() ? collapsed.nextSetBit(leaf.docBase) : -1;
+            if (globalDoc < 0 || globalDoc >= end) continue;
+
+            SortedDocValues leafOrds = FieldCache.DEFAULT.getTermsIndex(leaf.reader(), field);
+            delegate.setNextReader(leaf);
+            delegate.setScorer(replayScorer);
+            while (globalDoc >= 0 && globalDoc < end) {
+              replayScorer.doc = globalDoc - leaf.docBase;
+              int ord = globalOrd(leafOrds, leaf.ord, replayScorer.doc);
+              if (ord >= 0) {
+                replayScorer.score = scores[ord];
+              } else if (collapseNulls) {
+                replayScorer.score = nullScore;
+              } else {
+                replayScorer.score = nullScores[nullIndex++];
+              }
+              delegate.collect(replayScorer.doc);
+              globalDoc = globalDoc + 1 < collapsed.length() ? collapsed.nextSetBit(globalDoc + 1) : -1;
+            }
+          }
+        } finally {
+          // grouping runs the post filter more than once, also after the time allowed ran out
+          Arrays.fill(heads, -1);
+          nullHead = -1;
+          nullDocs = null;
+          numNullDocs = 0;
+        }
+
+        super.finish();
+      }
+    }
+  }
+
+  /** Passes the score of a group head on to the delegate */
+  static class ReplayScorer extends Scorer {
+    float score;
+    int doc = -1;
+
+    ReplayScorer() {
+      super(null);
+    }
+
+    @Override
+    public float score() {
+      return score;
+    }
+
+    @Override
+    public int freq() {
+      return 1;
+    }
+
+    @Override
+    public int docID() {
+      return doc;
+    }
+
+    @Override
+    public int nextDoc() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int advance(int target) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long cost() {
+      return 1;
+    }
+  }
+}
@@ -75,5 +75,16 @@ public class DelegatingCollector extends Collector {
   public boolean acceptsDocsOutOfOrder() {
     return delegate.acceptsDocsOutOfOrder();
   }
+
+  /**
+   * Called after the search has collected all segments, so that a collector that holds
+   * back documents until it has seen all of them can pass them on to the delegate.
+   * The default implementation finishes the next delegating collector of the chain.
+   */
+  public void finish() throws IOException {
+    if (delegate instanceof DelegatingCollector) {
+      ((DelegatingCollector) delegate).finish();
+    }
+  }
 }
 
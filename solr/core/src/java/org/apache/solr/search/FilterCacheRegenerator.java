@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * The default regenerator of the filterCache.
+ * <p>
+ * For filters whose matches in a segment only depend on that segment (term and phrase
+ * queries, multi-term queries with a constant score rewrite, and boolean combinations
+ * of them), the matches
+ * in segments the new searcher shares with the old one are copied from the old
+ * DocSet, minus any documents deleted since.  The query is only executed against the
+ * new segments.  After an NRT reopen, that is usually a small fraction of the index.
+ * Other filters are recomputed from scratch.
+ */
+public class FilterCacheRegenerator implements CacheRegenerator {
+
+  @Override
+  public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache, Object oldKey, Object oldVal) throws IOException {
+    Query query = (Query)oldKey;
+    SolrIndexSearcher oldSearcher = newSearcher.getAutowarmingSource();
+    if (oldSearcher != null && oldVal instanceof DocSet && isSegmentLocal(query)) {
+      newCache.put(query, newSearcher.forFilterCache(regenerate(newSearcher, oldSearcher, query, (DocSet)oldVal)));
+    } else {
+      newSearcher.cacheDocSet(query, null, false);
+    }
+    return true;
+  }
+
+  /** Returns true if the documents a query matches in a segment only depend on that segment */
+  static boolean isSegmentLocal(Query q) {
+    if (q instanceof TermQuery || q instanceof PhraseQuery || q instanceof MatchAllDocsQuery) {
+      return true;
+    }
+    if (q instanceof MultiTermQuery) {
+      // a top terms rewrite (the default of fuzzy queries) picks its terms from all segments
+      MultiTermQuery.RewriteMethod rewrite = ((MultiTermQuery)q).getRewriteMethod();
+      return rewrite == MultiTermQuery.CONSTANT_SCORE_FILTER_REWRITE
+          || rewrite == MultiTermQuery.CONSTANT_SCORE_BOOLEAN_QUERY_REWRITE
+          || rewrite instanceof MultiTermQuery.ConstantScoreAutoRewrite;
+    }
+    if (q instanceof BooleanQuery) {
+      for (BooleanClause clause : ((BooleanQuery)q).clauses()) {
+        if (!isSegmentLocal(clause.getQuery())) return false;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  static DocSet regenerate(SolrIndexSearcher newSearcher, SolrIndexSearcher oldSearcher, Query query, DocSet oldSet) throws IOException {
+    List<AtomicReaderContext> oldLeaves = oldSearcher.getTopReaderContext().leaves();
+    List<AtomicReaderContext> newLeaves = newSearcher.getTopReaderContext().leaves();
+
+    // core key -> leaf of the new searcher
+    Map<Object,AtomicReaderContext> newByCore = new HashMap<Object,AtomicReaderContext>(newLeaves.size()*2);
+    for (AtomicReaderContext leaf : newLeaves) {
+      newByCore.put(leaf.reader().getCoreCacheKey(), leaf);
+    }
+
+    // for each old leaf, the new leaf of the same segment (or null)
+    AtomicReaderContext[] oldToNew = new AtomicReaderContext[oldLeaves.size()];
+    Map<Object,Boolean> reused = new HashMap<Object,Boolean>();
+    for (int i=0; i<oldToNew.length; i++) {
+      Object coreKey = oldLeaves.get(i).reader().getCoreCacheKey();
+      AtomicReaderContext newLeaf = newByCore.get(coreKey);
+      if (newLeaf != null && newLeaf.reader().maxDoc() == oldLeaves.get(i).reader().maxDoc()) {
+        oldToNew[i] = newLeaf;
+        reused.put(coreKey, Boolean.TRUE);
+      }
+    }
+
+    int maxDoc = newSearcher.maxDoc();
+    OpenBitSet bits = new OpenBitSet(maxDoc);
+
+    // copy the matches in shared segments
+    DocIterator iter = oldSet.iterator();
+    int lastLeaf = -1;
+    int oldBase = 0, oldEnd = 0;
+    AtomicReaderContext newLeaf = null;
+    Bits liveDocs = null;
+    while (iter.hasNext()) {
+      int doc = iter.nextDoc();
+      if (doc < oldBase || doc >= oldEnd) {
+        // DocSets like HashDocSet don't iterate in order, so look the leaf up if we left the last one
+        lastLeaf = ReaderUtil.subIndex(doc, oldLeaves);
+        AtomicReaderContext oldLeaf = oldLeaves.get(lastLeaf);
+        oldBase = oldLeaf.docBase;
+        oldEnd = oldBase + oldLeaf.reader().maxDoc();
+        newLeaf = oldToNew[lastLeaf];
+        liveDocs = newLeaf == null ? null : newLeaf.reader().getLiveDocs();
+      }
+      if (newLeaf == null) continue;  // segment is gone (merged away)
+      int segDoc = doc - oldBase;
+      if (liveDocs != null && !liveDocs.get(segDoc)) continue;  // deleted since
+      bits.fastSet(newLeaf.docBase + segDoc);
+    }
+
+    // and run the query against the new segments
+    Weight weight = null;
+    for (AtomicReaderContext leaf : newLeaves) {
+      if (reused.containsKey(leaf.reader().getCoreCacheKey())) continue;
+      if (weight == null) {
+        weight = newSearcher.createNormalizedWeight(query);
+      }
+      Scorer scorer = weight.scorer(leaf, true, false, leaf.reader().getLiveDocs());
+      if (scorer == null) continue;
+      int doc;
+      while ((doc = scorer.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        bits.fastSet(leaf.docBase + doc);
+      }
+    }
+
+    // same representation choice as DocSetCollector
+    int size = (int)bits.cardinality();
+    int smallSetSize = maxDoc >> 6;
+    if (size <= smallSetSize) {
+      int[] docs = new int[size];
+      int upto = 0;
+      for (int doc = bits.nextSetBit(0); doc >= 0; doc = bits.nextSetBit(doc+1)) {
+        docs[upto++] = doc;
+      }
+      return new SortedIntDocSet(docs);
+    }
+    return new BitDocSet(bits, size);
+  }
+}
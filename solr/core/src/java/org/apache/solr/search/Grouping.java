@@ -18,6 +18,7 @@
 package org.apache.solr.search;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.lucene.document.FieldType.NumericType;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.queries.function.FunctionQuery;
 import org.apache.lucene.queries.function.ValueSource;
@@ -34,6 +35,7 @@ import org.apache.lucene.search.grouping.term.TermFirstPassGroupingCollector;
 import org.apache.lucene.search.grouping.term.TermSecondPassGroupingCollector;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.OpenBitSet;
 import org.apache.lucene.util.mutable.MutableValue;
 import org.apache.solr.common.SolrException;
@@ -44,6 +46,9 @@ import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.schema.StrFieldSource;
 import org.apache.solr.search.grouping.collector.FilterCollector;
+import org.apache.solr.search.grouping.collector.NumericAllGroupsCollector;
+import org.apache.solr.search.grouping.collector.NumericFirstPassGroupingCollector;
+import org.apache.solr.search.grouping.collector.NumericSecondPassGroupingCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,12 +74,14 @@ public class Grouping {
   private final int maxDocsPercentageToCache;
 
   private Sort sort;
+  private Sort unweightedSort;
   private Sort groupSort;
   private int limitDefault;
   private int docsPerGroupDefault;
   private int groupOffsetDefault;
   private Format defaultFormat;
   private TotalCount defaultTotalCount;
+  private boolean approximateGroupCount;
 
   private int maxDoc;
   private boolean needScores;
@@ -90,6 +97,7 @@ public class Grouping {
   private float maxScore = Float.NEGATIVE_INFINITY;  // max score seen in any doclist
   private boolean signalCacheWarning = false;
   private TimeLimitingCollector timeLimitingCollector;
+  private SolrCache<GroupingCacheKey,Collection<SearchGroup<BytesRef>>> groupingCache;
 
 
   public DocList mainResult;  // output if one of the grouping commands should be used as the main result.
@@ -121,6 +129,7 @@ public class Grouping {
 
   /**
    * Adds a field command based on the specified field.
+   * Single-valued numeric fields are grouped by a {@link CommandNumericField}.
    * If the field is not compatible with {@link CommandField} it invokes the
    * {@link #addFunctionCommand(String, org.apache.solr.request.SolrQueryRequest)} method.
    *
@@ -130,20 +139,32 @@ public class Grouping {
     SchemaField schemaField = searcher.getSchema().getField(field); // Throws an exception when field doesn't exist. Bad request.
     FieldType fieldType = schemaField.getType();
     ValueSource valueSource = fieldType.getValueSource(schemaField, null);
+    if (fieldType.getNumericType() != null && !schemaField.multiValued()) {
+      Grouping.CommandNumericField gc = new CommandNumericField();
+      gc.groupBy = field;
+      gc.numericType = fieldType.getNumericType();
+      addFieldCommand(gc, field);
+      return;
+    }
     if (!(valueSource instanceof StrFieldSource)) {
       addFunctionCommand(field, request);
       return;
     }
 
     Grouping.CommandField gc = new CommandField();
-    gc.groupSort = groupSort;
     gc.groupBy = field;
+    addFieldCommand(gc, field);
+  }
+
+  private void addFieldCommand(Grouping.Command gc, String field) {
+    gc.groupSort = groupSort;
     gc.key = field;
     gc.numGroups = limitDefault;
     gc.docsPerGroup = docsPerGroupDefault;
     gc.groupOffset = groupOffsetDefault;
     gc.offset = cmd.getOffset();
     gc.sort = sort;
+    gc.unweightedSort = unweightedSort;
     gc.format = defaultFormat;
     gc.totalCount = defaultTotalCount;
 
@@ -234,6 +255,16 @@ public class Grouping {
     return this;
   }
 
+  /**
+   * Sets the sort between groups as it was before {@link SolrIndexSearcher#weightSort weighting}.
+   * Field commands only use the groupingCache if it is set: a weighted sort is bound to
+   * the searcher it was weighted against, and function sorts only compare equal unweighted.
+   */
+  public Grouping setUnweightedSort(Sort unweightedSort) {
+    this.unweightedSort = unweightedSort;
+    return this;
+  }
+
   public Grouping setGroupSort(Sort groupSort) {
     this.groupSort = groupSort;
     return this;
@@ -264,6 +295,11 @@ public class Grouping {
     return this;
   }
 
+  public Grouping setApproximateGroupCount(boolean approximateGroupCount) {
+    this.approximateGroupCount = approximateGroupCount;
+    return this;
+  }
+
   public Grouping setGetGroupedDocSet(boolean getGroupedDocSet) {
     this.getGroupedDocSet = getGroupedDocSet;
     return this;
@@ -305,6 +341,11 @@ public class Grouping {
     getDocSet = (cmd.getFlags() & SolrIndexSearcher.GET_DOCSET) != 0;
     getDocList = (cmd.getFlags() & SolrIndexSearcher.GET_DOCLIST) != 0;
     query = QueryUtils.makeQueryable(cmd.getQuery());
+    // the top groups of field commands are cached, unless the docs are filtered by a DocSet
+    // or a post filter the cache key can't describe
+    if (cmd.getFilter() == null && pf.postFilter == null) {
+      groupingCache = searcher.getGroupingCache();
+    }
 
     for (Command cmd : commands) {
       cmd.prepare();
@@ -322,9 +363,10 @@ public class Grouping {
       }
     }
 
-    Collector allCollectors = MultiCollector.wrap(collectors.toArray(new Collector[collectors.size()]));
+    // no first pass is needed if the top groups of all commands were cached
+    Collector allCollectors = collectors.isEmpty() ? null : MultiCollector.wrap(collectors.toArray(new Collector[collectors.size()]));
     DocSetCollector setCollector = null;
-    if (getDocSet && allGroupHeadsCollector == null) {
+    if (getDocSet && allGroupHeadsCollector == null && allCollectors != null) {
       setCollector = new DocSetDelegateCollector(maxDoc >> 6, maxDoc, allCollectors);
       allCollectors = setCollector;
     }
@@ -339,7 +381,7 @@ public class Grouping {
       }
     }
 
-    if (pf.postFilter != null) {
+    if (pf.postFilter != null && allCollectors != null) {
       pf.postFilter.setLastDelegate(allCollectors);
       allCollectors = pf.postFilter;
     }
@@ -354,7 +396,16 @@ public class Grouping {
       OpenBitSet openBitSet = new OpenBitSet(bits, bits.length);
       qr.setDocSet(new BitDocSet(openBitSet));
     } else if (getDocSet) {
-      qr.setDocSet(setCollector.getDocSet());
+      if (setCollector != null) {
+        qr.setDocSet(setCollector.getDocSet());
+      } else {
+        List<Query> queries = new ArrayList<Query>();
+        queries.add(cmd.getQuery());
+        if (cmd.getFilterList() != null) {
+          queries.addAll(cmd.getFilterList());
+        }
+        qr.setDocSet(searcher.getDocSet(queries));
+      }
     }
 
     collectors.clear();
@@ -408,6 +459,8 @@ public class Grouping {
    * If a time limit has been specified, wrap the collector in a TimeLimitingCollector
    */
   private void searchWithTimeLimiter(final Filter luceneFilter, Collector collector) throws IOException {
+    // the post filters, if any, are at the head of the collector chain
+    DelegatingCollector postFilter = collector instanceof DelegatingCollector ? (DelegatingCollector) collector : null;
     if (cmd.getTimeAllowed() > 0) {
       if (timeLimitingCollector == null) {
         timeLimitingCollector = new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), cmd.getTimeAllowed());
@@ -424,9 +477,16 @@ public class Grouping {
     }
     try {
       searcher.search(query, luceneFilter, collector);
+      if (postFilter != null) {
+        postFilter.finish();
+      }
     } catch (TimeLimitingCollector.TimeExceededException x) {
       logger.warn( "Query: " + query + "; " + x.getMessage() );
       qr.setPartialResults(true);
+      if (postFilter != null) {
+        // the time limit is checked ahead of the post filters, so they can still pass on what they collected
+        postFilter.finish();
+      }
     }
   }
 
@@ -444,6 +504,38 @@ public class Grouping {
     return v;
   }
 
+  /**
+   * Runs the first pass of grouping by a field for a key of the groupingCache, and returns
+   * the top groups, or an empty collection if there are none.
+   */
+  static Collection<SearchGroup<BytesRef>> findTopGroups(SolrIndexSearcher searcher, GroupingCacheKey key) throws IOException {
+    Sort sort = searcher.weightSort(key.queryKey.sort);
+    TermFirstPassGroupingCollector firstPass = new TermFirstPassGroupingCollector(key.field, sort, key.topN);
+    SolrIndexSearcher.ProcessedFilter pf = searcher.getProcessedFilter(null, key.queryKey.filters);
+    searcher.search(QueryUtils.makeQueryable(key.queryKey.query), pf.filter, firstPass);
+    Collection<SearchGroup<BytesRef>> topGroups = firstPass.getTopGroups(0, false);
+    return topGroups == null ? Collections.<SearchGroup<BytesRef>>emptyList() : topGroups;
+  }
+
+  /**
+   * Returns the groups from start (inclusive) to end (exclusive) of the top groups, or
+   * <code>null</code> if there are no more than start groups.
+   */
+  static <T> Collection<SearchGroup<T>> getTopGroups(Collection<SearchGroup<T>> groups, int start, int end) {
+    if (groups.size() <= start) {
+      return null;
+    }
+    List<SearchGroup<T>> result = new ArrayList<SearchGroup<T>>(Math.min(groups.size(), end) - start);
+    int upto = 0;
+    for (SearchGroup<T> group : groups) {
+      if (upto >= end) break;
+      if (upto++ >= start) {
+        result.add(group);
+      }
+    }
+    return result;
+  }
+
   /**
    * Returns whether a cache warning should be send to the client.
    * The value <code>true</code> is returned when the cache is emptied because the caching limits where met, otherwise
@@ -494,6 +586,7 @@ public class Grouping {
     public String key;       // the name to use for this group in the response
     public Sort groupSort;   // the sort of the documents *within* a single group.
     public Sort sort;        // the sort between groups
+    public Sort unweightedSort; // the sort between groups before weighting, null if not known
     public int docsPerGroup; // how many docs in each group - from "group.limit" param, default=1
     public int groupOffset;  // the offset within each group (for paging within each group)
     public int numGroups;    // how many groups - defaults to the "rows" parameter
@@ -673,11 +766,15 @@ public class Grouping {
     TermSecondPassGroupingCollector secondPass;
 
     TermAllGroupsCollector allGroupsCollector;
+    CardinalityCollector groupCardinalityCollector;
 
     // If offset falls outside the number of documents a group can provide use this collector instead of secondPass
     TotalHitCountCollector fallBackCollector;
     Collection<SearchGroup<BytesRef>> topGroups;
 
+    GroupingCacheKey cacheKey;                      // null if the groupingCache isn't used
+    Collection<SearchGroup<BytesRef>> cachedGroups; // the top groups from the groupingCache
+
     /**
      * {@inheritDoc}
      */
@@ -698,7 +795,25 @@ public class Grouping {
       }
 
       sort = sort == null ? Sort.RELEVANCE : sort;
-      firstPass = new TermFirstPassGroupingCollector(groupBy, sort, actualGroupsToFind);
+      if (groupingCache == null || unweightedSort == null) {
+        firstPass = new TermFirstPassGroupingCollector(groupBy, sort, actualGroupsToFind);
+        return firstPass;
+      }
+
+      // find a window of top groups, like the queryResultCache does for documents, so that
+      // the next pages are in the cache too
+      int windowSize = searcher.getCore().getSolrConfig().queryResultWindowSize;
+      int topN = actualGroupsToFind;
+      if (windowSize > 1 && topN < Integer.MAX_VALUE - windowSize) {
+        topN = ((topN - 1) / windowSize + 1) * windowSize;
+      }
+      // keyed by the unweighted sort, which the regenerator weights against the new searcher
+      cacheKey = new GroupingCacheKey(cmd.getQuery(), cmd.getFilterList(), unweightedSort, groupBy, topN);
+      cachedGroups = groupingCache.get(cacheKey);
+      if (cachedGroups != null) {
+        return null;
+      }
+      firstPass = new TermFirstPassGroupingCollector(groupBy, sort, topN);
       return firstPass;
     }
 
@@ -708,16 +823,28 @@ public class Grouping {
     @Override
     protected Collector createSecondPassCollector() throws IOException {
       if (actualGroupsToFind <= 0) {
-        allGroupsCollector = new TermAllGroupsCollector(groupBy);
-        return totalCount == TotalCount.grouped ? allGroupsCollector : null;
+        return totalCount == TotalCount.grouped ? createAllGroupsCollector() : null;
       }
 
-      topGroups = format == Format.grouped ? firstPass.getTopGroups(offset, false) : firstPass.getTopGroups(0, false);
+      if (cacheKey == null) {
+        topGroups = format == Format.grouped ? firstPass.getTopGroups(offset, false) : firstPass.getTopGroups(0, false);
+      } else {
+        if (cachedGroups == null) {
+          cachedGroups = firstPass.getTopGroups(0, false);
+          if (cachedGroups == null) {
+            cachedGroups = Collections.emptyList();
+          }
+          if (!qr.isPartialResults()) {
+            groupingCache.put(cacheKey, cachedGroups);
+          }
+        }
+        topGroups = getTopGroups(cachedGroups, format == Format.grouped ? offset : 0, actualGroupsToFind);
+      }
       if (topGroups == null) {
         if (totalCount == TotalCount.grouped) {
-          allGroupsCollector = new TermAllGroupsCollector(groupBy);
+          Collector allGroups = createAllGroupsCollector();
           fallBackCollector = new TotalHitCountCollector();
-          return MultiCollector.wrap(allGroupsCollector, fallBackCollector);
+          return MultiCollector.wrap(allGroups, fallBackCollector);
         } else {
           fallBackCollector = new TotalHitCountCollector();
           return fallBackCollector;
@@ -731,13 +858,21 @@ public class Grouping {
       );
 
       if (totalCount == TotalCount.grouped) {
-        allGroupsCollector = new TermAllGroupsCollector(groupBy);
-        return MultiCollector.wrap(secondPass, allGroupsCollector);
+        return MultiCollector.wrap(secondPass, createAllGroupsCollector());
       } else {
         return secondPass;
       }
     }
 
+    private Collector createAllGroupsCollector() {
+      if (approximateGroupCount) {
+        groupCardinalityCollector = new CardinalityCollector(searcher.getSchema().getField(groupBy), true);
+        return groupCardinalityCollector;
+      }
+      allGroupsCollector = new TermAllGroupsCollector(groupBy);
+      return allGroupsCollector;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -814,6 +949,183 @@ public class Grouping {
      */
     @Override
     protected Integer getNumberOfGroups() {
+      if (groupCardinalityCollector != null) {
+        return (int) Math.min(Integer.MAX_VALUE, groupCardinalityCollector.getSketch().cardinality());
+      }
+      return allGroupsCollector == null ? null : allGroupsCollector.getGroupCount();
+    }
+  }
+
+  /**
+   * A group command for grouping on a single-valued numeric field.  Unlike {@link CommandFunc},
+   * the group values are primitive longs read straight from the field's doc values or field cache.
+   */
+  public class CommandNumericField extends Command<Long> {
+
+    public String groupBy;
+    NumericType numericType;
+    Map context;
+
+    NumericFirstPassGroupingCollector firstPass;
+    NumericSecondPassGroupingCollector secondPass;
+
+    NumericAllGroupsCollector allGroupsCollector;
+    CardinalityCollector groupCardinalityCollector;
+
+    // If offset falls outside the number of documents a group can provide use this collector instead of secondPass
+    TotalHitCountCollector fallBackCollector;
+    Collection<SearchGroup<Long>> topGroups;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void prepare() throws IOException {
+      actualGroupsToFind = getMax(offset, numGroups, maxDoc);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collector createFirstPassCollector() throws IOException {
+      // Ok we don't want groups, but do want a total count
+      if (actualGroupsToFind <= 0) {
+        fallBackCollector = new TotalHitCountCollector();
+        return fallBackCollector;
+      }
+
+      sort = sort == null ? Sort.RELEVANCE : sort;
+      firstPass = new NumericFirstPassGroupingCollector(groupBy, numericType, searcher.weightSort(sort), actualGroupsToFind);
+      return firstPass;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collector createSecondPassCollector() throws IOException {
+      if (actualGroupsToFind <= 0) {
+        return totalCount == TotalCount.grouped ? createAllGroupsCollector() : null;
+      }
+
+      topGroups = format == Format.grouped ? firstPass.getTopGroups(offset, false) : firstPass.getTopGroups(0, false);
+      if (topGroups == null) {
+        if (totalCount == TotalCount.grouped) {
+          Collector allGroups = createAllGroupsCollector();
+          fallBackCollector = new TotalHitCountCollector();
+          return MultiCollector.wrap(allGroups, fallBackCollector);
+        } else {
+          fallBackCollector = new TotalHitCountCollector();
+          return fallBackCollector;
+        }
+      }
+
+      int groupedDocsToCollect = getMax(groupOffset, docsPerGroup, maxDoc);
+      groupedDocsToCollect = Math.max(groupedDocsToCollect, 1);
+      secondPass = new NumericSecondPassGroupingCollector(
+          groupBy, numericType, topGroups, sort, groupSort, groupedDocsToCollect, needScores, needScores, false
+      );
+
+      if (totalCount == TotalCount.grouped) {
+        return MultiCollector.wrap(secondPass, createAllGroupsCollector());
+      } else {
+        return secondPass;
+      }
+    }
+
+    private Collector createAllGroupsCollector() {
+      if (approximateGroupCount) {
+        groupCardinalityCollector = new CardinalityCollector(searcher.getSchema().getField(groupBy), true);
+        return groupCardinalityCollector;
+      }
+      allGroupsCollector = new NumericAllGroupsCollector(groupBy, numericType);
+      return allGroupsCollector;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AbstractAllGroupHeadsCollector<?> createAllGroupCollector() throws IOException {
+      Sort sortWithinGroup = groupSort != null ? groupSort : new Sort();
+      SchemaField schemaField = searcher.getSchema().getField(groupBy);
+      ValueSource valueSource = schemaField.getType().getValueSource(schemaField, null);
+      context = ValueSource.newContext(searcher);
+      valueSource.createWeight(context, searcher);
+      return new FunctionAllGroupHeadsCollector(valueSource, context, sortWithinGroup);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void finish() throws IOException {
+      result = secondPass != null ? secondPass.getTopGroups(0) : null;
+      if (main) {
+        mainResult = createSimpleResponse();
+        return;
+      }
+
+      NamedList groupResult = commonResponse();
+
+      if (format == Format.simple) {
+        groupResult.add("doclist", createSimpleResponse());
+        return;
+      }
+
+      List groupList = new ArrayList();
+      groupResult.add("groups", groupList);        // grouped={ key={ groups=[
+
+      if (result == null) {
+        return;
+      }
+
+      // handle case of rows=0
+      if (numGroups == 0) return;
+
+      SchemaField schemaField = searcher.getSchema().getField(groupBy);
+      BytesRef term = new BytesRef(NumericUtils.BUF_SIZE_LONG);
+      for (GroupDocs<Long> group : result.groups) {
+        NamedList nl = new SimpleOrderedMap();
+        groupList.add(nl);                         // grouped={ key={ groups=[ {
+
+        // prefix code the value back into its indexed term, so that the FieldType gives the native type, e.g. a Date
+        if (group.groupValue != null) {
+          if (numericType == NumericType.INT || numericType == NumericType.FLOAT) {
+            NumericUtils.intToPrefixCodedBytes(group.groupValue.intValue(), 0, term);
+          } else {
+            NumericUtils.longToPrefixCodedBytes(group.groupValue, 0, term);
+          }
+          nl.add("groupValue", schemaField.getType().toObject(schemaField, term));
+        } else {
+          nl.add("groupValue", null);
+        }
+
+        addDocList(nl, group);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMatches() {
+      if (result == null && fallBackCollector == null) {
+        return 0;
+      }
+
+      return result != null ? result.totalHitCount : fallBackCollector.getTotalHits();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Integer getNumberOfGroups() {
+      if (groupCardinalityCollector != null) {
+        return (int) Math.min(Integer.MAX_VALUE, groupCardinalityCollector.getSketch().cardinality());
+      }
       return allGroupsCollector == null ? null : allGroupsCollector.getGroupCount();
     }
   }
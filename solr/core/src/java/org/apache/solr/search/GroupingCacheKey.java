@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import java.util.List;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+
+/**
+ * A hash key for the groupingCache: the query, filters and sort between groups of a
+ * {@link QueryResultKey}, the field to group by and the number of top groups.
+ * Like the queryResultCache, the key holds the sort before it is weighted against a searcher.
+ */
+public final class GroupingCacheKey {
+  final QueryResultKey queryKey;
+  final String field;
+  final int topN;
+
+  private final int hc;  // cached hashCode
+
+  public GroupingCacheKey(Query query, List<Query> filters, Sort groupSort, String field, int topN) {
+    this.queryKey = new QueryResultKey(query, filters, groupSort, 0);
+    this.field = field;
+    this.topN = topN;
+    hc = (queryKey.hashCode() * 31 + field.hashCode()) * 31 + topN;
+  }
+
+  @Override
+  public int hashCode() {
+    return hc;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o==this) return true;
+    if (!(o instanceof GroupingCacheKey)) return false;
+    GroupingCacheKey other = (GroupingCacheKey)o;
+    return this.hc == other.hc
+        && this.topN == other.topN
+        && this.field.equals(other.field)
+        && this.queryKey.equals(other.queryKey);
+  }
+
+  @Override
+  public String toString() {
+    return "{field=" + field + ",topN=" + topN + ",query=" + queryKey.query + ",filters=" + queryKey.filters
+        + ",sort=" + queryKey.sort + "}";
+  }
+}
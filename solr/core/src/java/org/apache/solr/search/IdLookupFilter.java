@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.util.Hash;
+
+/**
+ * A bloom filter over the unique key terms of a single segment, used by
+ * {@link SolrIndexSearcher#lookupId} to skip segments that can't contain an id
+ * without seeking in their terms dictionary.
+ * <p>
+ * Segments are immutable, so a filter is built once per segment core and shared by
+ * all searchers that contain the segment, including NRT reopens.  Deleted documents
+ * are still in the filter, which only causes a false positive.
+ *
+ * @lucene.internal
+ */
+public final class IdLookupFilter {
+  private static final int BITS_PER_TERM = 8;
+  private static final int NUM_HASHES = 3;
+
+  // segment core cache key -> filter.  Weak keys, like the FieldCache, so filters go away with their segment.
+  private static final Map<Object,IdLookupFilter> filters = Collections.synchronizedMap(new WeakHashMap<Object,IdLookupFilter>());
+
+  private final String field;
+  private final long[] bits;
+  private final int mask;
+
+  private IdLookupFilter(String field, int numTerms) {
+    this.field = field;
+    // round up to a power of two so a hash can be masked to a bit index
+    long numBits = Math.max(64L, (long)numTerms * BITS_PER_TERM);
+    numBits = Math.min(1L << 31, Long.highestOneBit(numBits - 1) << 1);
+    this.bits = new long[(int)(numBits >>> 6)];
+    this.mask = (int)(numBits - 1);
+  }
+
+  /**
+   * Returns the filter for the given field of a segment, building it if no searcher
+   * has done so yet.  Returns null if the segment has no terms for the field.
+   */
+  public static IdLookupFilter get(AtomicReader reader, String field) throws IOException {
+    Object key = reader.getCoreCacheKey();
+    IdLookupFilter filter = filters.get(key);
+    if (filter != null && filter.field.equals(field)) {
+      return filter;
+    }
+
+    Terms terms = reader.terms(field);
+    if (terms == null) return null;
+
+    // built outside of the lock: concurrent builders for the same segment just do redundant work
+    filter = build(terms, field, reader.maxDoc());
+    filters.put(key, filter);
+    return filter;
+  }
+
+  static IdLookupFilter build(Terms terms, String field, int maxDoc) throws IOException {
+    long size = terms.size();
+    int numTerms = size < 0 ? maxDoc : (int)Math.min(size, Integer.MAX_VALUE);
+    IdLookupFilter filter = new IdLookupFilter(field, numTerms);
+    TermsEnum te = terms.iterator(null);
+    BytesRef term;
+    while ((term = te.next()) != null) {
+      filter.add(term);
+    }
+    return filter;
+  }
+
+  void add(BytesRef id) {
+    int h1 = Hash.murmurhash3_x86_32(id.bytes, id.offset, id.length, 0);
+    int h2 = Hash.murmurhash3_x86_32(id.bytes, id.offset, id.length, h1);
+    for (int i=0; i<NUM_HASHES; i++) {
+      int bit = (h1 + i * h2) & mask;
+      bits[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  /** Returns false if the segment definitely does not contain the id */
+  public boolean mightContain(BytesRef id) {
+    int h1 = Hash.murmurhash3_x86_32(id.bytes, id.offset, id.length, 0);
+    int h2 = Hash.murmurhash3_x86_32(id.bytes, id.offset, id.length, h1);
+    for (int i=0; i<NUM_HASHES; i++) {
+      int bit = (h1 + i * h2) & mask;
+      if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+    }
+    return true;
+  }
+
+  public long ramBytesUsed() {
+    return RamUsageEstimator.sizeOf(bits);
+  }
+}
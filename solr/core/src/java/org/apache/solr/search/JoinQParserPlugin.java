@@ -465,8 +465,15 @@ class JoinQuery extends Query {
       int[] docs = new int[sz];
       int pos = 0;
       for (DocSet set : resultList) {
-        System.arraycopy(((SortedIntDocSet)set).getDocs(), 0, docs, pos, set.size());
-        pos += set.size();
+        if (set instanceof SortedIntDocSet) {
+          System.arraycopy(((SortedIntDocSet)set).getDocs(), 0, docs, pos, set.size());
+          pos += set.size();
+        } else {
+          // e.g. a compressed set from the filter cache
+          for (DocIterator iter = set.iterator(); iter.hasNext();) {
+            docs[pos++] = iter.nextDoc();
+          }
+        }
       }
       Arrays.sort(docs);
       int[] dedup = new int[sz];
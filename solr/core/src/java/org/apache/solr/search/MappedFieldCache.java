@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NoSuchDirectoryException;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CloseableThreadLocal;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.packed.PackedInts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the un-inverted values of single-valued numeric fields in sidecar files, one per
+ * segment and field, that are memory mapped instead of being loaded onto the heap.
+ * <br>A sidecar is written the first time a field of a segment is needed, and it is reused
+ * by every later reader of the segment, including the readers opened after a restart.
+ * The values are the same as the ones of the {@link org.apache.lucene.search.FieldCache}:
+ * the raw bits of floats and doubles, and 0 for documents without a value.
+ * <br>Sidecars are named after the segment, the time it was written and its number of
+ * documents, so a file is never used for another segment of the same name; the ones of
+ * segments that are no longer open or in the index are removed by {@link #purge}.
+ * Segments without a timestamp in their diagnostics are not mapped.
+ */
+public class MappedFieldCache {
+  public static Logger log = LoggerFactory.getLogger(MappedFieldCache.class);
+
+  static final String CODEC_NAME = "SolrMappedFieldCache";
+  static final int VERSION_START = 0;
+  static final int VERSION_CURRENT = VERSION_START;
+
+  static final String EXTENSION = ".fcv";
+  static final String TMP_EXTENSION = ".tmp";
+
+  private final MMapDirectory dir;
+  private final Map<Object,SegmentValues> segments = new ConcurrentHashMap<Object,SegmentValues>();
+
+  public MappedFieldCache(File path) throws IOException {
+    this.dir = new MMapDirectory(path);
+  }
+
+  public File getDirectory() {
+    return dir.getDirectory();
+  }
+
+  /**
+   * Returns the mapped values of a field of a segment, writing its sidecar first if needed,
+   * or null if the segment can not be mapped or the field has no values in it.
+   * <br>Like the doc values of a {@link SegmentReader}, the returned instance is reused by
+   * the calls of the same thread, and must not be shared with other threads.
+   */
+  public NumericDocValues getNumericDocValues(SegmentReader reader, String field, NumericType type) throws IOException {
+    Object key = reader.getCoreCacheKey();
+    SegmentValues values = segments.get(key);
+    if (values == null) {
+      String prefix = getPrefix(reader);
+      if (prefix == null) {
+        return null;
+      }
+      synchronized (segments) {
+        values = segments.get(key);
+        if (values == null) {
+          values = new SegmentValues(key, prefix);
+          segments.put(key, values);
+          reader.addCoreClosedListener(values);
+        }
+      }
+    }
+    MappedValues mapped = values.get(reader, field, type);
+    return mapped == null ? null : mapped.values.get();
+  }
+
+  /**
+   * Deletes the sidecars of the segments that are neither in the given reader nor open by
+   * an earlier reader.
+   */
+  public void purge(IndexReader reader) {
+    List<String> live = new ArrayList<String>();
+    for (AtomicReaderContext leaf : reader.leaves()) {
+      AtomicReader leafReader = leaf.reader();
+      if (leafReader instanceof SegmentReader) {
+        String prefix = getPrefix((SegmentReader) leafReader);
+        if (prefix != null) live.add(prefix);
+      }
+    }
+
+    synchronized (segments) {
+      for (SegmentValues values : segments.values()) {
+        live.add(values.prefix);
+      }
+      String[] files;
+      try {
+        files = dir.listAll();
+      } catch (NoSuchDirectoryException e) {
+        return;
+      } catch (IOException e) {
+        log.warn("Could not list the field cache sidecars in " + dir.getDirectory(), e);
+        return;
+      }
+      outer: for (String file : files) {
+        for (String prefix : live) {
+          if (file.startsWith(prefix)) continue outer;
+        }
+        try {
+          dir.deleteFile(file);
+        } catch (IOException e) {
+          log.warn("Could not delete field cache sidecar " + file, e);
+        }
+      }
+    }
+  }
+
+  /** The name of the sidecars of a segment start with its prefix, or null if it can not be mapped */
+  static String getPrefix(SegmentReader reader) {
+    SegmentInfo info = reader.getSegmentInfo().info;
+    String timestamp = info.getDiagnostics() == null ? null : info.getDiagnostics().get("timestamp");
+    if (timestamp == null) {
+      return null;
+    }
+    return info.name + "_" + timestamp + "_" + info.getDocCount() + "_";
+  }
+
+  static String getFileName(String prefix, String field) {
+    StringBuilder sb = new StringBuilder(prefix);
+    for (int i = 0; i < field.length(); i++) {
+      char ch = field.charAt(i);
+      sb.append(Character.isLetterOrDigit(ch) && ch < 128 ? ch : '_');
+    }
+    sb.append('_').append(Integer.toHexString(field.hashCode()));
+    return sb.append(EXTENSION).toString();
+  }
+
+  /** The sidecars of one segment, closed with the core of the segment */
+  private class SegmentValues implements SegmentReader.CoreClosedListener {
+    final Object key;
+    final String prefix;
+    // null values for the fields without values in the segment
+    final Map<String,MappedValues> fields = new HashMap<String,MappedValues>();
+
+    SegmentValues(Object key, String prefix) {
+      this.key = key;
+      this.prefix = prefix;
+    }
+
+    // one field is un-inverted at a time per segment, other callers wait for it
+    synchronized MappedValues get(SegmentReader reader, String field, NumericType type) throws IOException {
+      if (fields.containsKey(field)) {
+        return fields.get(field);
+      }
+      MappedValues values = load(reader, getFileName(prefix, field), field, type);
+      fields.put(field, values);
+      return values;
+    }
+
+    @Override
+    public void onClose(SegmentReader owner) {
+      synchronized (segments) {
+        segments.remove(key);
+      }
+      synchronized (this) {
+        try {
+          IOUtils.close(fields.values());
+        } catch (IOException e) {
+          log.warn("Could not close the field cache sidecars of segment " + prefix, e);
+        }
+        fields.clear();
+      }
+    }
+  }
+
+  private MappedValues load(SegmentReader reader, String fileName, String field, NumericType type) throws IOException {
+    if (dir.fileExists(fileName)) {
+      try {
+        return open(fileName, reader.maxDoc());
+      } catch (IOException e) {
+        // a corrupt or truncated file, write it again
+        log.warn("Rewriting field cache sidecar " + fileName, e);
+        dir.deleteFile(fileName);
+      }
+    }
+
+    if (!write(reader, fileName, field, type)) {
+      return null;
+    }
+    return open(fileName, reader.maxDoc());
+  }
+
+  private MappedValues open(String fileName, int maxDoc) throws IOException {
+    IndexInput in = dir.openInput(fileName, IOContext.READ);
+    boolean success = false;
+    try {
+      CodecUtil.checkHeader(in, CODEC_NAME, VERSION_START, VERSION_CURRENT);
+      long minValue = in.readLong();
+      PackedInts.Header header = PackedInts.readHeader(in);
+      // in stays at the start of the packed values, and so do its clones
+      PackedInts.Reader values = PackedInts.getDirectReaderNoHeader(in, header);
+      if (values.size() != maxDoc) {
+        throw new IOException("Expected " + maxDoc + " values but found " + values.size() + " in " + fileName);
+      }
+      success = true;
+      return new MappedValues(in, header, minValue);
+    } finally {
+      if (!success) {
+        IOUtils.closeWhileHandlingException(in);
+      }
+    }
+  }
+
+  /**
+   * Un-inverts the full precision terms of a field to a temporary file, which is renamed
+   * once it is complete.  Returns false if the field has no terms in the segment.
+   */
+  private boolean write(SegmentReader reader, String fileName, String field, NumericType type) throws IOException {
+    Terms terms = reader.terms(field);
+    if (terms == null) {
+      return false;
+    }
+
+    // the values include 0, the value of the documents without one
+    long minValue = 0;
+    long maxValue = 0;
+    TermsEnum termsEnum = filter(terms.iterator(null), type);
+    BytesRef term;
+    while ((term = termsEnum.next()) != null) {
+      long value = toValue(term, type);
+      minValue = Math.min(minValue, value);
+      maxValue = Math.max(maxValue, value);
+    }
+    long delta = maxValue - minValue;
+    int bitsPerValue = delta < 0 ? 64 : PackedInts.bitsRequired(delta);
+
+    // the values are written in document order, so they are collected first
+    int maxDoc = reader.maxDoc();
+    PackedInts.Mutable values = PackedInts.getMutable(maxDoc, bitsPerValue, PackedInts.COMPACT);
+    if (minValue != 0) {
+      values.fill(0, maxDoc, -minValue);
+    }
+    termsEnum = filter(terms.iterator(null), type);
+    DocsEnum docs = null;
+    while ((term = termsEnum.next()) != null) {
+      long value = toValue(term, type) - minValue;
+      docs = termsEnum.docs(null, docs, DocsEnum.FLAG_NONE);
+      int doc;
+      while ((doc = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        values.set(doc, value);
+      }
+    }
+
+    String tmpName = fileName + TMP_EXTENSION;
+    IndexOutput out = dir.createOutput(tmpName, IOContext.DEFAULT);
+    boolean success = false;
+    try {
+      CodecUtil.writeHeader(out, CODEC_NAME, VERSION_CURRENT);
+      out.writeLong(minValue);
+      values.save(out);
+      success = true;
+    } finally {
+      if (success) {
+        IOUtils.close(out);
+      } else {
+        IOUtils.closeWhileHandlingException(out);
+        deleteQuietly(tmpName);
+      }
+    }
+
+    dir.sync(Collections.singleton(tmpName));
+    if (!new File(dir.getDirectory(), tmpName).renameTo(new File(dir.getDirectory(), fileName))) {
+      deleteQuietly(tmpName);
+      throw new IOException("Could not rename " + tmpName + " to " + fileName + " in " + dir.getDirectory());
+    }
+    return true;
+  }
+
+  private void deleteQuietly(String fileName) {
+    try {
+      dir.deleteFile(fileName);
+    } catch (IOException e) {
+      // ignore, purge will try again
+    }
+  }
+
+  private static TermsEnum filter(TermsEnum termsEnum, NumericType type) {
+    return type == NumericType.INT || type == NumericType.FLOAT
+        ? NumericUtils.filterPrefixCodedInts(termsEnum)
+        : NumericUtils.filterPrefixCodedLongs(termsEnum);
+  }
+
+  /** The value of a term as the FieldCache returns it from doc values */
+  private static long toValue(BytesRef term, NumericType type) {
+    switch (type) {
+      case INT:
+        return NumericUtils.prefixCodedToInt(term);
+      case FLOAT:
+        return Float.floatToRawIntBits(NumericUtils.sortableIntToFloat(NumericUtils.prefixCodedToInt(term)));
+      case LONG:
+        return NumericUtils.prefixCodedToLong(term);
+      case DOUBLE:
+        return Double.doubleToRawLongBits(NumericUtils.sortableLongToDouble(NumericUtils.prefixCodedToLong(term)));
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  /** An open sidecar, read by a clone of its input per thread */
+  private static class MappedValues implements Closeable {
+    final IndexInput in;
+    final PackedInts.Header header;
+    final long minValue;
+
+    final CloseableThreadLocal<NumericDocValues> values = new CloseableThreadLocal<NumericDocValues>() {
+      @Override
+      protected NumericDocValues initialValue() {
+        final PackedInts.Reader reader;
+        try {
+          reader = PackedInts.getDirectReaderNoHeader(in.clone(), header);
+        } catch (IOException e) {
+          // the header was read when the sidecar was opened
+          throw new IllegalStateException("failed", e);
+        }
+        return new NumericDocValues() {
+          @Override
+          public long get(int docID) {
+            return minValue + reader.get(docID);
+          }
+        };
+      }
+    };
+
+    MappedValues(IndexInput in, PackedInts.Header header, long minValue) {
+      this.in = in;
+      this.header = header;
+      this.minValue = minValue;
+    }
+
+    @Override
+    public void close() throws IOException {
+      values.close();
+      in.close();
+    }
+  }
+}
@@ -27,6 +27,7 @@ import org.apache.solr.core.SolrInfoMBean;
 
 import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.FieldCache.CacheEntry;
+import org.apache.lucene.search.FieldCache.FieldStats;
 import org.apache.lucene.util.FieldCacheSanityChecker;
 import org.apache.lucene.util.FieldCacheSanityChecker.Insanity;
 
@@ -67,6 +68,20 @@ public class SolrFieldCacheMBean implements SolrInfoMBean {
       stats.add("entry#" + i, e.toString());
     }
 
+    FieldStats[] fieldStats = FieldCache.DEFAULT.getFieldStats();
+    long hits = 0, misses = 0, createTime = 0;
+    for (FieldStats fs : fieldStats) {
+      hits += fs.getHits();
+      misses += fs.getMisses();
+      createTime += fs.getCreateTimeNanos();
+    }
+    stats.add("cumulative_hits", hits);
+    stats.add("cumulative_misses", misses);
+    stats.add("cumulative_createTimeMs", createTime / 1000000);
+    for (FieldStats fs : fieldStats) {
+      stats.add("field#" + fs.getFieldName(), fs.toString());
+    }
+
     Insanity[] insanity = checker.check(entries);
 
     stats.add("insanity_count", insanity.length);
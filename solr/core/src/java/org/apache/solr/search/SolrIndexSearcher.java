@@ -31,6 +31,10 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.document.Document;
@@ -81,10 +85,12 @@ import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.TotalHitCountCollector;
 import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.grouping.SearchGroup;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ThreadInterruptedException;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrException.ErrorCode;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -132,6 +138,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
   private long openTime = System.currentTimeMillis();
   private long registerTime = 0;
   private long warmupTime = 0;
+  private volatile SolrIndexSearcher autowarmingSource;
   private final DirectoryReader reader;
   private final boolean closeReader;
 
@@ -139,12 +146,18 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
   private final int queryResultMaxDocsCached;
   private final boolean useFilterForSortedQuery;
   public final boolean enableLazyFieldLoading;
+  private final boolean useIdLookupFilter;
+  private final IdLookupFilter[] idLookupFilters;  // per leaf, null if not enabled
+  private final List<List<AtomicReaderContext>> searchSlices;  // null if the core has no search executor
+  private final boolean compressFilterCache;
+  private final UnInvertedField.BuildStats uninvertStats = new UnInvertedField.BuildStats();
   
   private final boolean cachingEnabled;
   private final SolrCache<Query,DocSet> filterCache;
   private final SolrCache<QueryResultKey,DocList> queryResultCache;
   private final SolrCache<Integer,Document> documentCache;
   private final SolrCache<String,UnInvertedField> fieldValueCache;
+  private final SolrCache<GroupingCacheKey,Collection<SearchGroup<BytesRef>>> groupingCache;
 
   private final LuceneQueryOptimizer optimizer;
   
@@ -219,6 +232,19 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     queryResultMaxDocsCached = solrConfig.queryResultMaxDocsCached;
     useFilterForSortedQuery = solrConfig.useFilterForSortedQuery;
     enableLazyFieldLoading = solrConfig.enableLazyFieldLoading;
+    useIdLookupFilter = solrConfig.useIdLookupFilter && schema.getUniqueKeyField() != null;
+    if (useIdLookupFilter) {
+      // filters of segments we share with a previous searcher are reused
+      String idField = schema.getUniqueKeyField().getName();
+      idLookupFilters = new IdLookupFilter[leafContexts.size()];
+      for (int i=0; i<idLookupFilters.length; i++) {
+        idLookupFilters[i] = IdLookupFilter.get(leafContexts.get(i).reader(), idField);
+      }
+    } else {
+      idLookupFilters = null;
+    }
+    compressFilterCache = solrConfig.compressFilterCache;
+    searchSlices = core.getParallelSearchExecutor() == null ? null : getSearchSlices(leafContexts, solrConfig.searchThreads);
     
     cachingEnabled=enableCache;
     if (cachingEnabled) {
@@ -231,6 +257,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       if (queryResultCache!=null) clist.add(queryResultCache);
       documentCache = solrConfig.documentCacheConfig==null ? null : solrConfig.documentCacheConfig.newInstance();
       if (documentCache!=null) clist.add(documentCache);
+      groupingCache = solrConfig.groupingCacheConfig==null ? null : solrConfig.groupingCacheConfig.newInstance();
+      if (groupingCache!=null) clist.add(groupingCache);
 
       if (solrConfig.userCacheConfigs == null) {
         cacheMap = noGenericCaches;
@@ -252,6 +280,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       queryResultCache=null;
       documentCache=null;
       fieldValueCache=null;
+      groupingCache=null;
       cacheMap = noGenericCaches;
       cacheList= noCaches;
     }
@@ -421,15 +450,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     }
 
     if (solrConfig.filterCacheConfig != null && solrConfig.filterCacheConfig.getRegenerator() == null) {
-      solrConfig.filterCacheConfig.setRegenerator(
-              new CacheRegenerator() {
-                @Override
-                public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache, Object oldKey, Object oldVal) throws IOException {
-                  newSearcher.cacheDocSet((Query)oldKey, null, false);
-                  return true;
-                }
-              }
-      );
+      solrConfig.filterCacheConfig.setRegenerator(new FilterCacheRegenerator());
     }
 
     if (solrConfig.queryResultCacheConfig != null && solrConfig.queryResultCacheConfig.getRegenerator() == null) {
@@ -468,6 +489,19 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
               }
       );
     }
+
+    if (solrConfig.groupingCacheConfig != null && solrConfig.groupingCacheConfig.getRegenerator() == null) {
+      solrConfig.groupingCacheConfig.setRegenerator(
+              new CacheRegenerator() {
+                @Override
+                public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache, Object oldKey, Object oldVal) throws IOException {
+                  GroupingCacheKey key = (GroupingCacheKey)oldKey;
+                  newCache.put(key, Grouping.findTopGroups(newSearcher, key));
+                  return true;
+                }
+              }
+      );
+    }
   }
 
   public QueryResult search(QueryResult qr, QueryCommand cmd) throws IOException {
@@ -697,6 +731,11 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     return fieldValueCache;
   }
 
+  /** expert: internal API, subject to change */
+  public SolrCache<GroupingCacheKey,Collection<SearchGroup<BytesRef>>> getGroupingCache() {
+    return groupingCache;
+  }
+
   /** Returns a weighted sort according to this searcher */
   public Sort weightSort(Sort sort) throws IOException {
     return (sort != null) ? sort.rewrite(this) : null;
@@ -733,7 +772,14 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
   public long lookupId(BytesRef idBytes) throws IOException {
     String field = schema.getUniqueKeyField().getName();
 
-    for (int i=0, c=leafContexts.size(); i<c; i++) {
+    // Probe the newest segments first: recently updated documents, which are the most
+    // likely to be looked up by realtime-get and version checks, live there.
+    for (int i=leafContexts.size()-1; i>=0; i--) {
+      if (idLookupFilters != null) {
+        IdLookupFilter filter = idLookupFilters[i];
+        if (filter == null || !filter.mightContain(idBytes)) continue;
+      }
+
       final AtomicReaderContext leaf = leafContexts.get(i);
       final AtomicReader reader = leaf.reader();
 
@@ -775,7 +821,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     // or OS disk cache.
     if (optionalAnswer != null) {
       if (filterCache!=null) {
-        filterCache.put(query,optionalAnswer);
+        filterCache.put(query,forFilterCache(optionalAnswer));
       }
       return;
     }
@@ -821,7 +867,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       }
     }
 
-    DocSet absAnswer = getDocSetNC(absQ, null);
+    DocSet absAnswer = forFilterCache(getDocSetNC(absQ, null));
     DocSet answer = positive ? absAnswer : getPositiveDocSet(matchAllDocsQuery).andNot(absAnswer);
 
     if (filterCache != null) {
@@ -839,12 +885,20 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       answer = filterCache.get(q);
       if (answer!=null) return answer;
     }
-    answer = getDocSetNC(q,null);
+    answer = forFilterCache(getDocSetNC(q,null));
     if (filterCache != null) filterCache.put(
         q,answer);
     return answer;
   }
 
+  /**
+   * Returns the representation of a DocSet to keep in the filterCache: a {@link ChunkedDocSet}
+   * if compressFilterCache is enabled and that saves memory, otherwise the set itself.
+   */
+  DocSet forFilterCache(DocSet set) {
+    return compressFilterCache && filterCache != null ? ChunkedDocSet.compress(set, maxDoc()) : set;
+  }
+
   private static Query matchAllDocsQuery = new MatchAllDocsQuery();
 
 
@@ -912,6 +966,10 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       }
     }
 
+    if (pf.postFilter != null) {
+      pf.postFilter.finish();
+    }
+
     return setCollector.getDocSet();
   }
 
@@ -1159,7 +1217,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     if (filterCache != null) {
       first = filterCache.get(absQ);
       if (first==null) {
-        first = getDocSetNC(absQ,null);
+        first = forFilterCache(getDocSetNC(absQ,null));
         filterCache.put(absQ,first);
       }
       return positive ? first.intersection(filter) : filter.andNot(first);
@@ -1358,7 +1416,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         // the base query and all filters.
         DocSet qDocSet = getDocListAndSetNC(qr,cmd);
         // cache the docSet matching the query w/o filtering
-        if (qDocSet!=null && filterCache!=null && !qr.isPartialResults()) filterCache.put(cmd.getQuery(),qDocSet);
+        if (qDocSet!=null && filterCache!=null && !qr.isPartialResults()) filterCache.put(cmd.getQuery(),forFilterCache(qDocSet));
       } else {
         getDocListNC(qr,cmd);
         //Parameters: cmd.getQuery(),theFilt,cmd.getSort(),0,supersetMaxDoc,cmd.getFlags(),cmd.getTimeAllowed(),responseHeader);
@@ -1461,12 +1519,25 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         log.warn( "Query: " + query + "; " + x.getMessage() );
         qr.setPartialResults(true);
       }
+      finishPostFilter(pf, query, qr);
 
       nDocsReturned=0;
       ids = new int[nDocsReturned];
       scores = new float[nDocsReturned];
       totalHits = numHits[0];
       maxScore = totalHits>0 ? topscore[0] : 0.0f;
+    } else if (useParallelSearch(cmd, pf, terminateEarly)) {
+      TopDocs topDocs = getTopDocsParallel(qr, cmd, query, luceneFilter, len, cmd.getScoreDoc(), null);
+      totalHits = topDocs.totalHits;
+      maxScore = totalHits>0 ? topDocs.getMaxScore() : 0.0f;
+      nDocsReturned = topDocs.scoreDocs.length;
+      ids = new int[nDocsReturned];
+      scores = (cmd.getFlags()&GET_SCORES)!=0 ? new float[nDocsReturned] : null;
+      for (int i=0; i<nDocsReturned; i++) {
+        ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+        ids[i] = scoreDoc.doc;
+        if (scores != null) scores[i] = scoreDoc.score;
+      }
     } else {
       TopDocsCollector topCollector;
       if (cmd.getSort() == null) {
@@ -1497,6 +1568,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         log.warn( "Query: " + query + "; " + x.getMessage() );
         qr.setPartialResults(true);
       }
+      finishPostFilter(pf, query, qr);
 
       totalHits = topCollector.getTotalHits();
       TopDocs topDocs = topCollector.topDocs(0, len);
@@ -1516,6 +1588,201 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     qr.setDocList(new DocSlice(0,sliceLen,ids,scores,totalHits,maxScore));
   }
 
+  /**
+   * Finishes the post filters, if any, also after the time allowed ran out, so that
+   * post filters which hold back documents until they finish return partial results.
+   */
+  private void finishPostFilter(ProcessedFilter pf, Query query, QueryResult qr) throws IOException {
+    if (pf.postFilter == null) return;
+    try {
+      pf.postFilter.finish();
+    }
+    catch( TimeLimitingCollector.TimeExceededException x ) {
+      log.warn( "Query: " + query + "; " + x.getMessage() );
+      qr.setPartialResults(true);
+    }
+  }
+
+  /**
+   * Splits the leaves into at most <code>numSlices</code> runs of consecutive leaves with
+   * about the same number of documents, so that the merged top documents of the slices
+   * break ties by docid like a sequential search does.
+   */
+  private static List<List<AtomicReaderContext>> getSearchSlices(List<AtomicReaderContext> leaves, int numSlices) {
+    int maxDoc = 0;
+    for (AtomicReaderContext leaf : leaves) {
+      maxDoc += leaf.reader().maxDoc();
+    }
+    long docsPerSlice = Math.max(1, ((long) maxDoc + numSlices - 1) / numSlices);
+
+    List<List<AtomicReaderContext>> slices = new ArrayList<List<AtomicReaderContext>>(numSlices);
+    List<AtomicReaderContext> slice = new ArrayList<AtomicReaderContext>();
+    long sliceDocs = 0;
+    for (AtomicReaderContext leaf : leaves) {
+      slice.add(leaf);
+      sliceDocs += leaf.reader().maxDoc();
+      if (sliceDocs >= docsPerSlice && slices.size() < numSlices - 1) {
+        slices.add(slice);
+        slice = new ArrayList<AtomicReaderContext>();
+        sliceDocs = 0;
+      }
+    }
+    if (!slice.isEmpty()) {
+      slices.add(slice);
+    }
+    return slices;
+  }
+
+  /**
+   * Whether to collect the top documents of a request concurrently: it must ask for it,
+   * the index must have more than one slice, and the collection must not depend on the
+   * order of all documents (post filters and early termination).
+   */
+  private boolean useParallelSearch(QueryCommand cmd, ProcessedFilter pf, boolean terminateEarly) {
+    return cmd.isParallel() && searchSlices != null && searchSlices.size() > 1
+        && pf.postFilter == null && !terminateEarly;
+  }
+
+  /**
+   * Collects the top documents of each slice on the search executor, and merges them.
+   * @param setCollectors if not null, filled with the DocSet collector of each slice
+   */
+  private TopDocs getTopDocsParallel(QueryResult qr, QueryCommand cmd, Query query, Filter luceneFilter, int len,
+                                     ScoreDoc after, SliceDocSetCollector[] setCollectors) throws IOException {
+    boolean needScores = (cmd.getFlags() & GET_SCORES) != 0;
+    Sort sort = cmd.getSort() == null ? null : weightSort(cmd.getSort());
+
+    TopDocsCollector[] topCollectors = new TopDocsCollector[searchSlices.size()];
+    Collector[] collectors = new Collector[topCollectors.length];
+    for (int i = 0; i < collectors.length; i++) {
+      if (sort == null) {
+        topCollectors[i] = after != null ? TopScoreDocCollector.create(len, after, true) : TopScoreDocCollector.create(len, true);
+      } else {
+        // the sort values are needed to merge the slices
+        topCollectors[i] = TopFieldCollector.create(sort, len, true, needScores, needScores, true);
+      }
+      Collector collector = topCollectors[i];
+      if (setCollectors != null) {
+        collector = setCollectors[i] = new SliceDocSetCollector(searchSlices.get(i), collector);
+      }
+      if (cmd.getTimeAllowed() > 0) {
+        collector = new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), cmd.getTimeAllowed());
+      }
+      collectors[i] = collector;
+    }
+
+    try {
+      searchSlices(query, luceneFilter, collectors);
+    }
+    catch( TimeLimitingCollector.TimeExceededException x ) {
+      log.warn( "Query: " + query + "; " + x.getMessage() );
+      qr.setPartialResults(true);
+    }
+
+    TopDocs[] sliceHits = new TopDocs[topCollectors.length];
+    for (int i = 0; i < sliceHits.length; i++) {
+      sliceHits[i] = topCollectors[i].topDocs(0, len);
+    }
+    return TopDocs.merge(sort, len, sliceHits);
+  }
+
+  /**
+   * Searches each slice with its collector on the search executor, and waits for all of them.
+   * The first exception of a slice is rethrown.
+   */
+  private void searchSlices(Query query, Filter luceneFilter, Collector[] collectors) throws IOException {
+    final Weight weight = createNormalizedWeight(wrapFilter(query, luceneFilter));
+    ExecutorService executor = core.getParallelSearchExecutor();
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(collectors.length);
+    for (int i = 0; i < collectors.length; i++) {
+      final List<AtomicReaderContext> leaves = searchSlices.get(i);
+      final Collector collector = collectors[i];
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          search(leaves, weight, collector);
+          return null;
+        }
+      }));
+    }
+
+    Throwable failure = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        throw new ThreadInterruptedException(e);
+      } catch (ExecutionException e) {
+        if (failure == null) failure = e.getCause();
+      }
+    }
+    if (failure instanceof IOException) throw (IOException) failure;
+    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+    if (failure instanceof Error) throw (Error) failure;
+    if (failure != null) throw new SolrException(ErrorCode.SERVER_ERROR, failure);
+  }
+
+  /**
+   * Collects the DocSet of a slice with docids relative to the start of the slice, so that
+   * a slice with many hits only allocates bits for the documents of the slice.
+   */
+  private static class SliceDocSetCollector extends DocSetDelegateCollector {
+    final int sliceBase;
+
+    SliceDocSetCollector(List<AtomicReaderContext> slice, Collector collector) {
+      super(sliceMaxDoc(slice)>>6, sliceMaxDoc(slice), collector);
+      this.sliceBase = slice.get(0).docBase;
+    }
+
+    private static int sliceMaxDoc(List<AtomicReaderContext> slice) {
+      int maxDoc = 0;
+      for (AtomicReaderContext leaf : slice) {
+        maxDoc += leaf.reader().maxDoc();
+      }
+      return maxDoc;
+    }
+
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+      super.setNextReader(context);
+      this.base = context.docBase - sliceBase;
+    }
+  }
+
+  /** Returns the union of the DocSets collected from the slices, which are in docid order */
+  private DocSet unionOfSlices(SliceDocSetCollector[] setCollectors) {
+    DocSet[] sets = new DocSet[setCollectors.length];
+    int size = 0;
+    boolean small = true;
+    for (int i = 0; i < sets.length; i++) {
+      sets[i] = setCollectors[i].getDocSet();
+      size += sets[i].size();
+      small &= sets[i] instanceof SortedIntDocSet;
+    }
+
+    if (small) {
+      int[] docs = new int[size];
+      int upto = 0;
+      for (int i = 0; i < sets.length; i++) {
+        int[] sliceDocs = ((SortedIntDocSet) sets[i]).getDocs();
+        int sliceBase = setCollectors[i].sliceBase;
+        for (int j = 0; j < sets[i].size(); j++) {
+          docs[upto++] = sliceBase + sliceDocs[j];
+        }
+      }
+      return new SortedIntDocSet(docs);
+    }
+
+    OpenBitSet bits = new OpenBitSet(maxDoc());
+    for (int i = 0; i < sets.length; i++) {
+      int sliceBase = setCollectors[i].sliceBase;
+      for (DocIterator iter = sets[i].iterator(); iter.hasNext(); ) {
+        bits.fastSet(sliceBase + iter.nextDoc());
+      }
+    }
+    return new BitDocSet(bits, size);
+  }
+
   // any DocSet returned is for the query only, without any filtering... that way it may
   // be cached if desired.
   private DocSet getDocListAndSetNC(QueryResult qr,QueryCommand cmd) throws IOException {
@@ -1589,6 +1856,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
          log.warn( "Query: " + query + "; " + x.getMessage() );
          qr.setPartialResults(true);
        }
+       finishPostFilter(pf, query, qr);
 
       set = setCollector.getDocSet();
 
@@ -1597,6 +1865,21 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       scores = new float[nDocsReturned];
       totalHits = set.size();
       maxScore = totalHits>0 ? topscore[0] : 0.0f;
+    } else if (useParallelSearch(cmd, pf, terminateEarly)) {
+      SliceDocSetCollector[] setCollectors = new SliceDocSetCollector[searchSlices.size()];
+      TopDocs topDocs = getTopDocsParallel(qr, cmd, query, luceneFilter, len, null, setCollectors);
+      set = unionOfSlices(setCollectors);
+
+      totalHits = topDocs.totalHits;
+      maxScore = totalHits>0 ? topDocs.getMaxScore() : 0.0f;
+      nDocsReturned = topDocs.scoreDocs.length;
+      ids = new int[nDocsReturned];
+      scores = (cmd.getFlags()&GET_SCORES)!=0 ? new float[nDocsReturned] : null;
+      for (int i=0; i<nDocsReturned; i++) {
+        ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+        ids[i] = scoreDoc.doc;
+        if (scores != null) scores[i] = scoreDoc.score;
+      }
     } else {
 
       TopDocsCollector topCollector;
@@ -1626,6 +1909,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         log.warn( "Query: " + query + "; " + x.getMessage() );
         qr.setPartialResults(true);
       }
+      finishPostFilter(pf, query, qr);
 
       set = setCollector.getDocSet();      
 
@@ -2020,32 +2304,50 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     // warm the caches in order...
     ModifiableSolrParams params = new ModifiableSolrParams();
     params.add("warming","true");
-    for (int i=0; i<cacheList.length; i++) {
-      if (debug) log.debug("autowarming " + this + " from " + old + "\n\t" + old.cacheList[i]);
+    autowarmingSource = old;
+    try {
+      for (int i=0; i<cacheList.length; i++) {
+        if (debug) log.debug("autowarming " + this + " from " + old + "\n\t" + old.cacheList[i]);
 
 
-      SolrQueryRequest req = new LocalSolrQueryRequest(core,params) {
-        @Override public SolrIndexSearcher getSearcher() { return SolrIndexSearcher.this; }
-        @Override public void close() { }
-      };
+        SolrQueryRequest req = new LocalSolrQueryRequest(core,params) {
+          @Override public SolrIndexSearcher getSearcher() { return SolrIndexSearcher.this; }
+          @Override public void close() { }
+        };
 
-      SolrQueryResponse rsp = new SolrQueryResponse();
-      SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
-      try {
-        this.cacheList[i].warm(this, old.cacheList[i]);
-      } finally {
+        SolrQueryResponse rsp = new SolrQueryResponse();
+        SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
         try {
-          req.close();
+          this.cacheList[i].warm(this, old.cacheList[i]);
         } finally {
-          SolrRequestInfo.clearRequestInfo();
+          try {
+            req.close();
+          } finally {
+            SolrRequestInfo.clearRequestInfo();
+          }
         }
-      }
 
-      if (debug) log.debug("autowarming result for " + this + "\n\t" + this.cacheList[i]);
+        if (debug) log.debug("autowarming result for " + this + "\n\t" + this.cacheList[i]);
+      }
+    } finally {
+      autowarmingSource = null;
     }
     warmupTime = System.currentTimeMillis() - warmingStartTime;
   }
 
+  /**
+   * Returns the searcher this one is being autowarmed from, or null if it is not
+   * currently being warmed.  Regenerators can use it to reuse per-segment work.
+   */
+  public SolrIndexSearcher getAutowarmingSource() {
+    return autowarmingSource;
+  }
+
+  /** Returns the statistics of the fields un-inverted into this searcher's fieldValueCache */
+  public UnInvertedField.BuildStats getUnInvertStats() {
+    return uninvertStats;
+  }
+
   /**
    * return the named generic cache
    */
@@ -2126,6 +2428,14 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     lst.add("openedAt", new Date(openTime));
     if (registerTime!=0) lst.add("registeredAt", new Date(registerTime));
     lst.add("warmupTime", warmupTime);
+    if (idLookupFilters != null) {
+      long ramBytes = 0;
+      for (IdLookupFilter filter : idLookupFilters) {
+        if (filter != null) ramBytes += filter.ramBytesUsed();
+      }
+      lst.add("idLookupFilterRamBytes", ramBytes);
+    }
+    uninvertStats.addTo(lst);
     return lst;
   }
 
@@ -2143,6 +2453,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     private int supersetMaxDoc;
     private int flags;
     private long timeAllowed = -1;
+    private boolean parallel;
     //Issue 1726 start
     private ScoreDoc scoreDoc;
     
@@ -2251,6 +2562,13 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       this.timeAllowed = timeAllowed;
       return this;
     }
+
+    public boolean isParallel() { return parallel; }
+    /** Collect the slices of the index concurrently, if the core has a search executor */
+    public QueryCommand setParallel(boolean parallel) {
+      this.parallel = parallel;
+      return this;
+    }
     
     public boolean isNeedDocSet() { return (flags & GET_DOCSET) != 0; }
     public QueryCommand setNeedDocSet(boolean needDocSet) {
@@ -214,6 +214,15 @@ public class CommandHandler {
       partialResults = true;
       logger.warn( "Query: " + query + "; " + x.getMessage() );
     }
+    if (filter.postFilter != null) {
+      // also after the time allowed ran out, so that the post filters return partial results
+      try {
+        filter.postFilter.finish();
+      } catch (TimeLimitingCollector.TimeExceededException x) {
+        partialResults = true;
+        logger.warn( "Query: " + query + "; " + x.getMessage() );
+      }
+    }
 
     if (includeHitCount) {
       totalHitCount = hitCountCollector.getTotalHits();
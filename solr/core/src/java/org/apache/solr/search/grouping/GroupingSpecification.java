@@ -37,6 +37,7 @@ public class GroupingSpecification {
   private Sort groupSort;
   private Sort sortWithinGroup;
   private boolean includeGroupCount;
+  private boolean approximateGroupCount;
   private boolean main;
   private Grouping.Format responseFormat;
   private boolean needScore;
@@ -134,6 +135,14 @@ public class GroupingSpecification {
     this.includeGroupCount = includeGroupCount;
   }
 
+  public boolean isApproximateGroupCount() {
+    return approximateGroupCount;
+  }
+
+  public void setApproximateGroupCount(boolean approximateGroupCount) {
+    this.approximateGroupCount = approximateGroupCount;
+  }
+
   public boolean isMain() {
     return main;
   }
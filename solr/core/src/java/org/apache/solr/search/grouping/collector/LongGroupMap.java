@@ -0,0 +1,128 @@
+package org.apache.solr.search.grouping.collector;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collection;
+
+/**
+ * An open addressing hash map from long group values to objects, which unlike
+ * {@link LongGroupSet} supports removal.
+ *
+ * @lucene.experimental
+ */
+final class LongGroupMap<T> {
+  private long[] keys;
+  private Object[] values;  // null for an empty slot
+  private int mask;
+  private int size;
+
+  LongGroupMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  /** Returns the number of keys */
+  int size() {
+    return size;
+  }
+
+  /** Returns the value of a key, or null if it isn't in the map */
+  @SuppressWarnings("unchecked")
+  T get(long key) {
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+      if (values[slot] == null) return null;
+      if (keys[slot] == key) return (T) values[slot];
+    }
+  }
+
+  /** Maps a key to a non-null value, replacing any previous value */
+  void put(long key, T value) {
+    assert value != null;
+    int slot = hash(key) & mask;
+    for (; values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return;
+      }
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size * 2 > keys.length) {
+      rehash();
+    }
+  }
+
+  /** Removes a key if it is in the map */
+  void remove(long key) {
+    int slot = hash(key) & mask;
+    for (; ; slot = (slot + 1) & mask) {
+      if (values[slot] == null) return;
+      if (keys[slot] == key) break;
+    }
+    values[slot] = null;
+    size--;
+    // shift back the following keys of the cluster that can no longer be reached
+    for (int next = (slot + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+      int home = hash(keys[next]) & mask;
+      boolean reachable = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+      if (!reachable) {
+        keys[slot] = keys[next];
+        values[slot] = values[next];
+        values[next] = null;
+        slot = next;
+      }
+    }
+  }
+
+  /** Adds the values to a collection */
+  @SuppressWarnings("unchecked")
+  void addValuesTo(Collection<? super T> to) {
+    for (Object value : values) {
+      if (value != null) {
+        to.add((T) value);
+      }
+    }
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new Object[keys.length];
+    mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != null) {
+        int slot = hash(oldKeys[i]) & mask;
+        while (values[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
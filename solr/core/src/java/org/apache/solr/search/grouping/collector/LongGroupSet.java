@@ -0,0 +1,101 @@
+package org.apache.solr.search.grouping.collector;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * An open addressing hash set of long group values, which numbers the values in the
+ * order they are added.
+ *
+ * @lucene.experimental
+ */
+final class LongGroupSet {
+  private long[] keys;
+  private int[] ords;     // ordinal + 1 of the key in each slot, 0 for an empty slot
+  private int mask;
+  private int size;
+
+  LongGroupSet(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+    keys = new long[capacity];
+    ords = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  /** Returns the number of values */
+  int size() {
+    return size;
+  }
+
+  /** Returns the ordinal of a value, or -1 if it isn't in the set */
+  int find(long key) {
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+      if (ords[slot] == 0) return -1;
+      if (keys[slot] == key) return ords[slot] - 1;
+    }
+  }
+
+  /** Adds a value if it isn't in the set yet, and returns its ordinal */
+  int add(long key) {
+    int slot = hash(key) & mask;
+    for (; ords[slot] != 0; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) return ords[slot] - 1;
+    }
+    keys[slot] = key;
+    ords[slot] = ++size;
+    if (size * 2 > keys.length) {
+      rehash();
+    }
+    return size - 1;
+  }
+
+  /** Returns the values, by ordinal */
+  long[] values() {
+    long[] values = new long[size];
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (ords[slot] != 0) {
+        values[ords[slot] - 1] = keys[slot];
+      }
+    }
+    return values;
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    int[] oldOrds = ords;
+    keys = new long[oldKeys.length * 2];
+    ords = new int[keys.length];
+    mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldOrds[i] != 0) {
+        int slot = hash(oldKeys[i]) & mask;
+        while (ords[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        ords[slot] = oldOrds[i];
+      }
+    }
+  }
+
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
@@ -0,0 +1,86 @@
+package org.apache.solr.search.grouping.collector;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.grouping.AbstractAllGroupsCollector;
+import org.apache.lucene.util.Bits;
+
+/**
+ * An all groups collector that counts the distinct values of a single-valued numeric
+ * field in a primitive long set.  Documents without a value count as the
+ * <code>null</code> group.
+ *
+ * @lucene.experimental
+ */
+public class NumericAllGroupsCollector extends AbstractAllGroupsCollector<Long> {
+
+  private static final int DEFAULT_INITIAL_SIZE = 128;
+
+  private final String groupField;
+  private final NumericType numericType;
+  private final LongGroupSet groupSet = new LongGroupSet(DEFAULT_INITIAL_SIZE);
+  private boolean sawMissing;
+
+  private FieldCache.Longs values;
+  private Bits docsWithField;
+
+  public NumericAllGroupsCollector(String groupField, NumericType numericType) {
+    this.groupField = groupField;
+    this.numericType = numericType;
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    if (docsWithField.get(doc)) {
+      groupSet.add(values.get(doc));
+    } else {
+      sawMissing = true;
+    }
+  }
+
+  @Override
+  public int getGroupCount() {
+    return groupSet.size() + (sawMissing ? 1 : 0);
+  }
+
+  @Override
+  public Collection<Long> getGroups() {
+    List<Long> groups = new ArrayList<Long>(getGroupCount());
+    for (long value : groupSet.values()) {
+      groups.add(value);
+    }
+    if (sawMissing) {
+      groups.add(null);
+    }
+    return groups;
+  }
+
+  @Override
+  public void setNextReader(AtomicReaderContext context) throws IOException {
+    values = NumericGroupValues.getValues(context.reader(), groupField, numericType);
+    docsWithField = FieldCache.DEFAULT.getDocsWithField(context.reader(), groupField);
+  }
+}
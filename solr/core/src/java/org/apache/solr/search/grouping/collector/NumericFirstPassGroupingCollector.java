@@ -0,0 +1,330 @@
+package org.apache.solr.search.grouping.collector;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.grouping.AbstractFirstPassGroupingCollector;
+import org.apache.lucene.search.grouping.SearchGroup;
+import org.apache.lucene.util.Bits;
+
+/**
+ * A first pass grouping collector that groups by a single-valued numeric field.  The
+ * group values are the longs read by {@link NumericGroupValues}, and <code>null</code>
+ * for documents without a value.
+ * <p>
+ * This collects the top groups like {@link AbstractFirstPassGroupingCollector}, but
+ * looks the groups up by their primitive value in a {@link LongGroupMap}, so that
+ * collecting a document neither boxes its value nor hashes an object.
+ *
+ * @lucene.experimental
+ */
+public class NumericFirstPassGroupingCollector extends Collector {
+
+  private final String groupField;
+  private final NumericType numericType;
+
+  private final Sort groupSort;
+  private final FieldComparator<?>[] comparators;
+  private final int[] reversed;
+  private final int topNGroups;
+  private final int compIDXEnd;
+
+  private final LongGroupMap<CollectedGroup> groupMap;
+  // the group of the documents without a value
+  private CollectedGroup missingGroup;
+  private int groupCount;
+
+  // Set once we reach topNGroups unique groups:
+  private TreeSet<CollectedGroup> orderedGroups;
+  private int docBase;
+  private int spareSlot;
+
+  private FieldCache.Longs values;
+  private Bits docsWithField;
+
+  @SuppressWarnings({"unchecked","rawtypes"})
+  public NumericFirstPassGroupingCollector(String groupField, NumericType numericType, Sort groupSort, int topNGroups)
+      throws IOException {
+    if (topNGroups < 1) {
+      throw new IllegalArgumentException("topNGroups must be >= 1 (got " + topNGroups + ")");
+    }
+    this.groupField = groupField;
+    this.numericType = numericType;
+    this.groupSort = groupSort;
+    this.topNGroups = topNGroups;
+
+    final SortField[] sortFields = groupSort.getSort();
+    comparators = new FieldComparator[sortFields.length];
+    compIDXEnd = comparators.length - 1;
+    reversed = new int[sortFields.length];
+    for (int i = 0; i < sortFields.length; i++) {
+      // use topNGroups + 1 so we have a spare slot to use for comparing (tracked by this.spareSlot):
+      comparators[i] = sortFields[i].getComparator(topNGroups + 1, i);
+      reversed[i] = sortFields[i].getReverse() ? -1 : 1;
+    }
+
+    spareSlot = topNGroups;
+    groupMap = new LongGroupMap<CollectedGroup>(Math.min(topNGroups, 128));
+  }
+
+  /**
+   * Returns top groups, starting from offset.  This may
+   * return null, if no groups were collected, or if the
+   * number of unique groups collected is <= offset.
+   *
+   * @param groupOffset The offset in the collected groups
+   * @param fillFields Whether to fill to {@link SearchGroup#sortValues}
+   * @return top groups, starting from offset
+   */
+  public Collection<SearchGroup<Long>> getTopGroups(int groupOffset, boolean fillFields) {
+    if (groupOffset < 0) {
+      throw new IllegalArgumentException("groupOffset must be >= 0 (got " + groupOffset + ")");
+    }
+
+    if (groupCount <= groupOffset) {
+      return null;
+    }
+
+    if (orderedGroups == null) {
+      buildSortedSet();
+    }
+
+    final Collection<SearchGroup<Long>> result = new ArrayList<SearchGroup<Long>>();
+    int upto = 0;
+    final int sortFieldCount = groupSort.getSort().length;
+    for (CollectedGroup group : orderedGroups) {
+      if (upto++ < groupOffset) {
+        continue;
+      }
+      SearchGroup<Long> searchGroup = new SearchGroup<Long>();
+      searchGroup.groupValue = group.exists ? Long.valueOf(group.value) : null;
+      if (fillFields) {
+        searchGroup.sortValues = new Object[sortFieldCount];
+        for (int sortFieldIDX = 0; sortFieldIDX < sortFieldCount; sortFieldIDX++) {
+          searchGroup.sortValues[sortFieldIDX] = comparators[sortFieldIDX].value(group.comparatorSlot);
+        }
+      }
+      result.add(searchGroup);
+    }
+    return result;
+  }
+
+  @Override
+  public void setScorer(Scorer scorer) throws IOException {
+    for (FieldComparator<?> comparator : comparators) {
+      comparator.setScorer(scorer);
+    }
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    // Once we have collected N groups, compare the document to the bottom group
+    // before looking up its group, see AbstractFirstPassGroupingCollector
+    if (orderedGroups != null) {
+      for (int compIDX = 0;; compIDX++) {
+        final int c = reversed[compIDX] * comparators[compIDX].compareBottom(doc);
+        if (c < 0) {
+          return;
+        } else if (c > 0) {
+          break;
+        } else if (compIDX == compIDXEnd) {
+          return;
+        }
+      }
+    }
+
+    final boolean exists = docsWithField.get(doc);
+    final long value = exists ? values.get(doc) : 0L;
+    final CollectedGroup group = exists ? groupMap.get(value) : missingGroup;
+
+    if (group == null) {
+      if (groupCount < topNGroups) {
+        // Still in startup transient: just keep collecting the groups
+        final CollectedGroup cg = new CollectedGroup();
+        cg.exists = exists;
+        cg.value = value;
+        cg.comparatorSlot = groupCount;
+        cg.topDoc = docBase + doc;
+        for (FieldComparator<?> fc : comparators) {
+          fc.copy(cg.comparatorSlot, doc);
+        }
+        add(cg);
+
+        if (groupCount == topNGroups) {
+          // End of startup transient: from here on we will drop the
+          // bottom group when we insert a new one
+          buildSortedSet();
+        }
+        return;
+      }
+
+      // We already tested that the document is competitive, so replace
+      // the bottom group with this new group.
+      final CollectedGroup bottomGroup = orderedGroups.pollLast();
+      assert orderedGroups.size() == topNGroups - 1;
+      remove(bottomGroup);
+
+      bottomGroup.exists = exists;
+      bottomGroup.value = value;
+      bottomGroup.topDoc = docBase + doc;
+      for (FieldComparator<?> fc : comparators) {
+        fc.copy(bottomGroup.comparatorSlot, doc);
+      }
+
+      add(bottomGroup);
+      orderedGroups.add(bottomGroup);
+      assert orderedGroups.size() == topNGroups;
+
+      final int lastComparatorSlot = orderedGroups.last().comparatorSlot;
+      for (FieldComparator<?> fc : comparators) {
+        fc.setBottom(lastComparatorSlot);
+      }
+      return;
+    }
+
+    // Update existing group:
+    for (int compIDX = 0;; compIDX++) {
+      final FieldComparator<?> fc = comparators[compIDX];
+      fc.copy(spareSlot, doc);
+
+      final int c = reversed[compIDX] * fc.compare(group.comparatorSlot, spareSlot);
+      if (c < 0) {
+        return;
+      } else if (c > 0) {
+        for (int compIDX2 = compIDX + 1; compIDX2 < comparators.length; compIDX2++) {
+          comparators[compIDX2].copy(spareSlot, doc);
+        }
+        break;
+      } else if (compIDX == compIDXEnd) {
+        return;
+      }
+    }
+
+    // Remove before updating the group since lookup is done via comparators
+    final CollectedGroup prevLast;
+    if (orderedGroups != null) {
+      prevLast = orderedGroups.last();
+      orderedGroups.remove(group);
+      assert orderedGroups.size() == topNGroups - 1;
+    } else {
+      prevLast = null;
+    }
+
+    group.topDoc = docBase + doc;
+
+    // Swap slots
+    final int tmp = spareSlot;
+    spareSlot = group.comparatorSlot;
+    group.comparatorSlot = tmp;
+
+    // Re-add the changed group
+    if (orderedGroups != null) {
+      orderedGroups.add(group);
+      assert orderedGroups.size() == topNGroups;
+      final CollectedGroup newLast = orderedGroups.last();
+      // If we changed the value of the last group, or changed which group was last, then update bottom:
+      if (group == newLast || prevLast != newLast) {
+        for (FieldComparator<?> fc : comparators) {
+          fc.setBottom(newLast.comparatorSlot);
+        }
+      }
+    }
+  }
+
+  private void add(CollectedGroup group) {
+    if (group.exists) {
+      groupMap.put(group.value, group);
+    } else {
+      missingGroup = group;
+    }
+    groupCount++;
+  }
+
+  private void remove(CollectedGroup group) {
+    if (group.exists) {
+      groupMap.remove(group.value);
+    } else {
+      missingGroup = null;
+    }
+    groupCount--;
+  }
+
+  private void buildSortedSet() {
+    final Comparator<CollectedGroup> comparator = new Comparator<CollectedGroup>() {
+      @Override
+      public int compare(CollectedGroup o1, CollectedGroup o2) {
+        for (int compIDX = 0;; compIDX++) {
+          FieldComparator<?> fc = comparators[compIDX];
+          final int c = reversed[compIDX] * fc.compare(o1.comparatorSlot, o2.comparatorSlot);
+          if (c != 0) {
+            return c;
+          } else if (compIDX == compIDXEnd) {
+            return o1.topDoc - o2.topDoc;
+          }
+        }
+      }
+    };
+
+    orderedGroups = new TreeSet<CollectedGroup>(comparator);
+    groupMap.addValuesTo(orderedGroups);
+    if (missingGroup != null) {
+      orderedGroups.add(missingGroup);
+    }
+    assert orderedGroups.size() > 0;
+
+    for (FieldComparator<?> fc : comparators) {
+      fc.setBottom(orderedGroups.last().comparatorSlot);
+    }
+  }
+
+  @Override
+  public boolean acceptsDocsOutOfOrder() {
+    return false;
+  }
+
+  @Override
+  public void setNextReader(AtomicReaderContext readerContext) throws IOException {
+    docBase = readerContext.docBase;
+    for (int i = 0; i < comparators.length; i++) {
+      comparators[i] = comparators[i].setNextReader(readerContext);
+    }
+    values = NumericGroupValues.getValues(readerContext.reader(), groupField, numericType);
+    docsWithField = FieldCache.DEFAULT.getDocsWithField(readerContext.reader(), groupField);
+  }
+
+  /** A collected group, tracking its top doc and {@link FieldComparator} slot */
+  private static final class CollectedGroup {
+    boolean exists;
+    long value;
+    int topDoc;
+    int comparatorSlot;
+  }
+}
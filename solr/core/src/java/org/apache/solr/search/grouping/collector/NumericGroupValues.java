@@ -0,0 +1,72 @@
+package org.apache.solr.search.grouping.collector;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Reads the values of a single-valued numeric field per segment as longs, from its
+ * {@link org.apache.lucene.index.NumericDocValues} if it has any, or else from the
+ * {@link FieldCache}.  Floats and doubles are read as their sortable int and long bits
+ * ({@link NumericUtils#floatToSortableInt(float)}), so that equal values have equal keys
+ * and the keys can be prefix-coded back into terms.
+ *
+ * @lucene.experimental
+ */
+public final class NumericGroupValues {
+
+  private NumericGroupValues() {}
+
+  public static FieldCache.Longs getValues(AtomicReader reader, String field, NumericType type) throws IOException {
+    switch (type) {
+      case LONG:
+        return FieldCache.DEFAULT.getLongs(reader, field, FieldCache.NUMERIC_UTILS_LONG_PARSER, false);
+      case INT:
+        final FieldCache.Ints ints = FieldCache.DEFAULT.getInts(reader, field, FieldCache.NUMERIC_UTILS_INT_PARSER, false);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return ints.get(docID);
+          }
+        };
+      case FLOAT:
+        final FieldCache.Floats floats = FieldCache.DEFAULT.getFloats(reader, field, FieldCache.NUMERIC_UTILS_FLOAT_PARSER, false);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return NumericUtils.floatToSortableInt(floats.get(docID));
+          }
+        };
+      case DOUBLE:
+        final FieldCache.Doubles doubles = FieldCache.DEFAULT.getDoubles(reader, field, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER, false);
+        return new FieldCache.Longs() {
+          @Override
+          public long get(int docID) {
+            return NumericUtils.doubleToSortableLong(doubles.get(docID));
+          }
+        };
+      default:
+        throw new IllegalArgumentException("Unknown numeric type: " + type);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package org.apache.solr.search.grouping.collector;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.lucene.document.FieldType.NumericType;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.grouping.AbstractSecondPassGroupingCollector;
+import org.apache.lucene.search.grouping.SearchGroup;
+import org.apache.lucene.util.Bits;
+
+/**
+ * A second pass grouping collector that groups by a single-valued numeric field, and
+ * finds the group of a document in a primitive long set instead of the group map.
+ *
+ * @lucene.experimental
+ */
+public class NumericSecondPassGroupingCollector extends AbstractSecondPassGroupingCollector<Long> {
+
+  private final String groupField;
+  private final NumericType numericType;
+  private final LongGroupSet groupSet;
+  private SearchGroupDocs<Long> nullGroup;
+
+  private FieldCache.Longs values;
+  private Bits docsWithField;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public NumericSecondPassGroupingCollector(String groupField, NumericType numericType, Collection<SearchGroup<Long>> groups,
+                                            Sort groupSort, Sort withinGroupSort, int maxDocsPerGroup, boolean getScores,
+                                            boolean getMaxScores, boolean fillSortFields) throws IOException {
+    super(groups, groupSort, withinGroupSort, maxDocsPerGroup, getScores, getMaxScores, fillSortFields);
+    this.groupField = groupField;
+    this.numericType = numericType;
+    groupSet = new LongGroupSet(groupMap.size());
+    groupDocs = (SearchGroupDocs<Long>[]) new SearchGroupDocs[groupMap.size()];
+    for (SearchGroupDocs<Long> group : groupMap.values()) {
+      if (group.groupValue == null) {
+        nullGroup = group;
+      } else {
+        groupDocs[groupSet.add(group.groupValue)] = group;
+      }
+    }
+  }
+
+  @Override
+  public void setNextReader(AtomicReaderContext readerContext) throws IOException {
+    super.setNextReader(readerContext);
+    values = NumericGroupValues.getValues(readerContext.reader(), groupField, numericType);
+    docsWithField = FieldCache.DEFAULT.getDocsWithField(readerContext.reader(), groupField);
+  }
+
+  @Override
+  protected SearchGroupDocs<Long> retrieveGroup(int doc) throws IOException {
+    if (!docsWithField.get(doc)) {
+      return nullGroup;
+    }
+    int ord = groupSet.find(values.get(doc));
+    return ord >= 0 ? groupDocs[ord] : null;
+  }
+}
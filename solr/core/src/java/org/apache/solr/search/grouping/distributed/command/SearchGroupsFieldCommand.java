@@ -24,7 +24,9 @@ import org.apache.lucene.search.grouping.term.TermAllGroupsCollector;
 import org.apache.lucene.search.grouping.term.TermFirstPassGroupingCollector;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.CardinalityCollector;
 import org.apache.solr.search.grouping.Command;
+import org.apache.solr.util.HyperLogLog;
 
 import java.io.IOException;
 import java.util.*;
@@ -40,6 +42,7 @@ public class SearchGroupsFieldCommand implements Command<Pair<Integer, Collectio
     private Sort groupSort;
     private Integer topNGroups;
     private boolean includeGroupCount = false;
+    private boolean approximateGroupCount = false;
 
     public Builder setField(SchemaField field) {
       this.field = field;
@@ -61,12 +64,17 @@ public class SearchGroupsFieldCommand implements Command<Pair<Integer, Collectio
       return this;
     }
 
+    public Builder setApproximateGroupCount(boolean approximateGroupCount) {
+      this.approximateGroupCount = approximateGroupCount;
+      return this;
+    }
+
     public SearchGroupsFieldCommand build() {
       if (field == null || groupSort == null || topNGroups == null) {
         throw new IllegalStateException("All fields must be set");
       }
 
-      return new SearchGroupsFieldCommand(field, groupSort, topNGroups, includeGroupCount);
+      return new SearchGroupsFieldCommand(field, groupSort, topNGroups, includeGroupCount, approximateGroupCount);
     }
 
   }
@@ -75,15 +83,18 @@ public class SearchGroupsFieldCommand implements Command<Pair<Integer, Collectio
   private final Sort groupSort;
   private final int topNGroups;
   private final boolean includeGroupCount;
+  private final boolean approximateGroupCount;
 
   private TermFirstPassGroupingCollector firstPassGroupingCollector;
   private TermAllGroupsCollector allGroupsCollector;
+  private CardinalityCollector groupCardinalityCollector;
 
-  private SearchGroupsFieldCommand(SchemaField field, Sort groupSort, int topNGroups, boolean includeGroupCount) {
+  private SearchGroupsFieldCommand(SchemaField field, Sort groupSort, int topNGroups, boolean includeGroupCount, boolean approximateGroupCount) {
     this.field = field;
     this.groupSort = groupSort;
     this.topNGroups = topNGroups;
     this.includeGroupCount = includeGroupCount;
+    this.approximateGroupCount = approximateGroupCount;
   }
 
   @Override
@@ -93,7 +104,10 @@ public class SearchGroupsFieldCommand implements Command<Pair<Integer, Collectio
       firstPassGroupingCollector = new TermFirstPassGroupingCollector(field.getName(), groupSort, topNGroups);
       collectors.add(firstPassGroupingCollector);
     }
-    if (includeGroupCount) {
+    if (includeGroupCount && approximateGroupCount) {
+      groupCardinalityCollector = new CardinalityCollector(field, true);
+      collectors.add(groupCardinalityCollector);
+    } else if (includeGroupCount) {
       allGroupsCollector = new TermAllGroupsCollector(field.getName());
       collectors.add(allGroupsCollector);
     }
@@ -109,7 +123,9 @@ public class SearchGroupsFieldCommand implements Command<Pair<Integer, Collectio
       topGroups = Collections.emptyList();
     }
     final Integer groupCount;
-    if (includeGroupCount) {
+    if (groupCardinalityCollector != null) {
+      groupCount = (int) Math.min(Integer.MAX_VALUE, groupCardinalityCollector.getSketch().cardinality());
+    } else if (includeGroupCount) {
       groupCount = allGroupsCollector.getGroupCount();
     } else {
       groupCount = null;
@@ -117,6 +133,11 @@ public class SearchGroupsFieldCommand implements Command<Pair<Integer, Collectio
     return new Pair<Integer, Collection<SearchGroup<BytesRef>>>(groupCount, topGroups);
   }
 
+  /** Returns the sketch of the groups, if the group count is approximate */
+  public HyperLogLog getGroupCountSketch() {
+    return groupCardinalityCollector == null ? null : groupCardinalityCollector.getSketch();
+  }
+
   @Override
   public Sort getSortWithinGroup() {
     return null;
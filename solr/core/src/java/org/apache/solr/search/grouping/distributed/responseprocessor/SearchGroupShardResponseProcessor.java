@@ -32,6 +32,7 @@ import org.apache.solr.search.SortSpec;
 import org.apache.solr.search.grouping.distributed.ShardResponseProcessor;
 import org.apache.solr.search.grouping.distributed.command.Pair;
 import org.apache.solr.search.grouping.distributed.shardresultserializer.SearchGroupsResultTransformer;
+import org.apache.solr.util.HyperLogLog;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -62,6 +63,9 @@ public class SearchGroupShardResponseProcessor implements ShardResponseProcessor
       }
     }
 
+    // approximate group counts are merged from sketches, so that groups on several shards count once
+    Map<String, HyperLogLog> groupCountSketches = new HashMap<String, HyperLogLog>();
+
     SearchGroupsResultTransformer serializer = new SearchGroupsResultTransformer(rb.req.getSearcher());
     try {
       int maxElapsedTime = 0;
@@ -105,7 +109,16 @@ public class SearchGroupShardResponseProcessor implements ShardResponseProcessor
         for (String field : commandSearchGroups.keySet()) {
           Pair<Integer, Collection<SearchGroup<BytesRef>>> firstPhaseCommandResult = result.get(field);
           Integer groupCount = firstPhaseCommandResult.getA();
-          if (groupCount != null) {
+          NamedList commandResult = firstPhaseResult.get(field);
+          byte[] sketchBytes = commandResult == null ? null : (byte[]) commandResult.get("groupCountSketch");
+          if (sketchBytes != null) {
+            HyperLogLog sketch = groupCountSketches.get(field);
+            if (sketch == null) {
+              groupCountSketches.put(field, HyperLogLog.fromBytes(sketchBytes));
+            } else {
+              sketch.merge(HyperLogLog.fromBytes(sketchBytes));
+            }
+          } else if (groupCount != null) {
             Integer existingGroupCount = rb.mergedGroupCounts.get(field);
             // Assuming groups don't cross shard boundary...
             rb.mergedGroupCounts.put(field, existingGroupCount != null ? existingGroupCount + groupCount : groupCount);
@@ -129,6 +142,9 @@ public class SearchGroupShardResponseProcessor implements ShardResponseProcessor
         }
         hitCountDuringFirstPhase += (Integer) srsp.getSolrResponse().getResponse().get("totalHitCount");
       }
+      for (Map.Entry<String, HyperLogLog> entry : groupCountSketches.entrySet()) {
+        rb.mergedGroupCounts.put(entry.getKey(), (int) Math.min(Integer.MAX_VALUE, entry.getValue().cardinality()));
+      }
       rb.totalHitCount = hitCountDuringFirstPhase;
       rb.firstPhaseElapsedTime = maxElapsedTime;
       for (String groupField : commandSearchGroups.keySet()) {
@@ -36,6 +36,7 @@ import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.grouping.Command;
 import org.apache.solr.search.grouping.distributed.command.Pair;
 import org.apache.solr.search.grouping.distributed.command.SearchGroupsFieldCommand;
+import org.apache.solr.util.HyperLogLog;
 
 /**
  * Implementation for transforming {@link SearchGroup} into a {@link NamedList} structure and visa versa.
@@ -67,6 +68,10 @@ public class SearchGroupsResultTransformer implements ShardResultTransformer<Lis
         if (groupedCount != null) {
           commandResult.add("groupCount", groupedCount);
         }
+        HyperLogLog groupCountSketch = fieldCommand.getGroupCountSketch();
+        if (groupCountSketch != null) {
+          commandResult.add("groupCountSketch", groupCountSketch.toBytes());
+        }
       } else {
         continue;
       }
@@ -897,6 +897,12 @@ public class DirectUpdateHandler2 extends UpdateHandler implements SolrCoreState
     lst.add("cumulative_deletesById", deleteByIdCommandsCumulative.get());
     lst.add("cumulative_deletesByQuery", deleteByQueryCommandsCumulative.get());
     lst.add("cumulative_errors", numErrorsCumulative.get());
+    if (ulog != null && ulog.getVersionInfo() != null) {
+      lst.addAll(ulog.getVersionInfo().getBucketStatistics());
+    }
+    if (ulog != null && (ulog.getDefaultSyncLevel() == UpdateLog.SyncLevel.GROUP || ulog.getSyncStats().getSyncs() > 0)) {
+      ulog.getSyncStats().addTo(lst);
+    }
     return lst;
   }
 
@@ -166,6 +166,8 @@ public class HdfsTransactionLog extends TransactionLog {
       // TODO: how do we rollback with hdfs?? We need HDFS-3107
       //raf.setLength(pos);
       fos.setWritten(pos);
+      flushedSize = pos;
+      resetSyncedSize(pos);
       assert fos.size() == pos;
       numRecords = snapshot_numRecords;
     }
@@ -272,6 +274,7 @@ public class HdfsTransactionLog extends TransactionLog {
   public void finish(UpdateLog.SyncLevel syncLevel) {
     if (syncLevel == UpdateLog.SyncLevel.NONE) return;
     try {
+      long upTo;
       synchronized (this) {
         fos.flushBuffer();
         
@@ -280,9 +283,14 @@ public class HdfsTransactionLog extends TransactionLog {
         // hsync below if we do this - I
         // think they are equivalent.
         tlogOutStream.hflush();
+        upTo = fos.size();
+        flushedSize = upTo;
       }
 
-      if (syncLevel == UpdateLog.SyncLevel.FSYNC) {
+      if (syncLevel == UpdateLog.SyncLevel.GROUP) {
+        // concurrent requests share one hsync
+        groupSync(upTo);
+      } else if (syncLevel == UpdateLog.SyncLevel.FSYNC) {
         // Since fsync is outside of synchronized block, we can end up with a partial
         // last record on power failure (which is OK, and does not represent an error...
         // we just need to be aware of it when reading).
@@ -295,6 +303,11 @@ public class HdfsTransactionLog extends TransactionLog {
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
     }
   }
+
+  @Override
+  protected void syncToDisk() throws IOException {
+    tlogOutStream.hsync();
+  }
   
   @Override
   protected void close() {
@@ -337,6 +350,12 @@ public class HdfsTransactionLog extends TransactionLog {
     return new HDFSReverseReader();
   }
 
+  /** Returns a single threaded iterator over the records of this log, positioned after the last one */
+  @Override
+  public RecordIterator getRecordIterator() throws IOException {
+    return new HDFSRecordIterator();
+  }
+
 
   public class HDFSLogReader extends LogReader{
     FSDataFastInputStream fis;
@@ -526,6 +545,49 @@ public class HdfsTransactionLog extends TransactionLog {
 
   }
 
+  public class HDFSRecordIterator extends RecordIterator {
+    FSDataFastInputStream fis;
+
+    public HDFSRecordIterator() throws IOException {
+      incref();
+
+      synchronized (HdfsTransactionLog.this) {
+        fos.flushBuffer();
+
+        // this must be an hflush
+        tlogOutStream.hflush();
+        end = fos.size();
+      }
+      cursor = end;
+      fis = new FSDataFastInputStream(fs.open(tlogFile), 0);
+    }
+
+    @Override
+    protected FastInputStream seekStream(long pos, long readEnd) throws IOException {
+      if (readEnd >= 0 && pos < fis.getBufferPos()) {
+        // Position buffer so that this record is at the end.
+        // For small records, this will cause subsequent reads backwards to be within the buffer.
+        long seekPos = readEnd - fis.getBufferSize();
+        seekPos = Math.min(seekPos, pos); // seek to the start of the record if it's larger then the block size.
+        seekPos = Math.max(seekPos, 0);
+        fis.seek(seekPos);
+        fis.peek();  // cause buffer to be filled
+      }
+      fis.seek(pos);
+      return fis;
+    }
+
+    @Override
+    public void close() {
+      try {
+        fis.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      decref();
+    }
+  }
+
 }
 
 
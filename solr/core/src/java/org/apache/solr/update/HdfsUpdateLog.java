@@ -84,6 +84,9 @@ public class HdfsUpdateLog extends UpdateLog {
     
     defaultSyncLevel = SyncLevel.getSyncLevel((String) info.initArgs
         .get("syncLevel"));
+    numVersionBuckets = getIntArg(info, "numVersionBuckets", numVersionBuckets);
+    versionBucketLockTimeoutMs = getIntArg(info, "versionBucketLockTimeoutMs", -1);
+    replayThreads = Math.max(1, getIntArg(info, "replayThreads", replayThreads));
     
   }
 
@@ -187,7 +190,7 @@ public class HdfsUpdateLog extends UpdateLog {
     }
     
     try {
-      versionInfo = new VersionInfo(this, 256);
+      versionInfo = new VersionInfo(this, numVersionBuckets, versionBucketLockTimeoutMs);
     } catch (SolrException e) {
       log.error("Unable to use updateLog: " + e.getMessage(), e);
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
@@ -267,8 +270,10 @@ public class HdfsUpdateLog extends UpdateLog {
     if (tlog == null) {
       String newLogName = String.format(Locale.ROOT, LOG_FILENAME_PATTERN,
           TLOG_NAME, id);
-      tlog = new HdfsTransactionLog(fs, new Path(tlogDir, newLogName),
+      TransactionLog newLog = new HdfsTransactionLog(fs, new Path(tlogDir, newLogName),
           globalStrings);
+      newLog.syncStats = syncStats;
+      tlog = newLog;
     }
   }
   
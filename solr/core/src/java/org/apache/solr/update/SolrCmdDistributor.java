@@ -64,11 +64,20 @@ public class SolrCmdDistributor {
   
   int maxBufferedAddsPerServer = 10;
   int maxBufferedDeletesPerServer = 10;
+  // While a request to a node is still outstanding, keep buffering adds for it (up to this
+  // many) instead of sending another small request.  Under load this turns the stream of
+  // adds to each replica into a few large pipelined requests, while a lightly loaded node
+  // still gets its adds after maxBufferedAddsPerServer.
+  int maxBufferedAddsPerBusyServer = 500;
+  // Maximum number of outstanding requests per node before we wait for responses.
+  int maxInFlightPerServer = 4;
 
   private Response response = new Response();
   
   private final Map<Node,List<AddRequest>> adds = new HashMap<Node,List<AddRequest>>();
   private final Map<Node,List<DeleteRequest>> deletes = new HashMap<Node,List<DeleteRequest>>();
+  // number of submitted but not yet checked requests per node
+  private final Map<Node,Integer> inFlight = new HashMap<Node,Integer>();
   private UpdateShardHandler updateShardHandler;
   private AuthCredentialsSource authCredentialsSource;
   
@@ -292,6 +301,10 @@ public class SolrCmdDistributor {
     for (Node node : nodes) {
       List<AddRequest> alist = adds.get(node);
       if (alist == null || alist.size() < limit) continue;
+      if (limit > 1 && alist.size() < maxBufferedAddsPerBusyServer && isBusy(node)) {
+        // the node is still working on earlier adds, piggyback these on the next request
+        continue;
+      }
   
         UpdateRequestExt leaderSeenUreq = new UpdateRequestExt();
         UpdateRequestExt leaderNotSeenUreq = new UpdateRequestExt();
@@ -427,8 +440,49 @@ public class SolrCmdDistributor {
     sreq.ureq = ureq;
     submit(sreq);
   }
-  
+
+  private boolean isBusy(Node node) {
+    Integer n = inFlight.get(node);
+    return n != null && n > 0;
+  }
+
+  private void requestFinished(Node node) {
+    Integer n = inFlight.get(node);
+    if (n == null || n <= 1) {
+      inFlight.remove(node);
+    } else {
+      inFlight.put(node, n - 1);
+    }
+  }
+
+  /** Number of requests to <code>node</code> that have been submitted but not checked yet */
+  int inFlight(Node node) {
+    Integer n = inFlight.get(node);
+    return n == null ? 0 : n;
+  }
+
   public void submit(final Request sreq) {
+    // failed requests seen while waiting are retried once this one is on its way,
+    // instead of being submitted from inside the wait
+    List<Request> retries = new ArrayList<Request>();
+    doSubmit(sreq, retries);
+    for (int i = 0; i < retries.size(); i++) {
+      doSubmit(retries.get(i), retries);
+    }
+  }
+
+  private void doSubmit(final Request sreq, List<Request> retries) {
+    // backpressure: don't let more than maxInFlightPerServer requests pile up for a node
+    Integer n = inFlight.get(sreq.node);
+    while (n != null && n >= maxInFlightPerServer && !pending.isEmpty()) {
+      checkResponses(true, sreq.node, retries);
+      n = inFlight.get(sreq.node);
+    }
+    if (pending.isEmpty()) {
+      inFlight.clear();
+      n = null;
+    }
+    inFlight.put(sreq.node, n == null ? 1 : n + 1);
 
     final String url = sreq.node.getUrl();
 
@@ -480,12 +534,14 @@ public class SolrCmdDistributor {
       semaphore.acquire();
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
+      requestFinished(sreq.node);
       throw new SolrException(ErrorCode.SERVICE_UNAVAILABLE, "Update thread interrupted", e);
     }
     try {
       pending.add(completionService.submit(task));
     } catch (RejectedExecutionException e) {
       semaphore.release();
+      requestFinished(sreq.node);
       throw new SolrException(ErrorCode.SERVICE_UNAVAILABLE, "Shutting down", e);
     }
     
@@ -499,6 +555,16 @@ public class SolrCmdDistributor {
   }
 
   void checkResponses(boolean block) {
+    checkResponses(block, null, null);
+  }
+
+  /**
+   * Checks the responses of outstanding requests.  If <code>untilNode</code> is non-null and
+   * we are blocking, returns as soon as a response from that node has been handled.  Requests
+   * to retry are added to <code>retries</code> if it is non-null, otherwise they are resubmitted
+   * right away.
+   */
+  private void checkResponses(boolean block, Node untilNode, List<Request> retries) {
 
     while (pending != null && pending.size() > 0) {
       try {
@@ -509,6 +575,7 @@ public class SolrCmdDistributor {
         
         try {
           Request sreq = future.get();
+          requestFinished(sreq.node);
           if (sreq.rspCode != 0) {
             // error during request
 
@@ -542,7 +609,11 @@ public class SolrCmdDistributor {
               sreq.exception = null;
               SolrException.log(SolrCmdDistributor.log, "forwarding update to " + sreq.node.getUrl() + " failed - retrying ... ");
               Thread.sleep(500);
-              submit(sreq);
+              if (retries != null) {
+                retries.add(sreq);
+              } else {
+                submit(sreq);
+              }
             } else {
               Error error = new Error();
               error.e = e;
@@ -554,6 +625,7 @@ public class SolrCmdDistributor {
             }
           }
           
+          if (untilNode != null && untilNode.equals(sreq.node)) return;
         } catch (ExecutionException e) {
           // shouldn't happen since we catch exceptions ourselves
           SolrException.log(SolrCore.log,
@@ -21,9 +21,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -32,7 +37,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Constants;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.util.DataInputInputStream;
@@ -73,6 +80,33 @@ public class TransactionLog {
   OutputStream os;
   FastOutputStream fos;    // all accesses to this stream should be synchronized on "this" (The TransactionLog)
   int numRecords;
+
+  // Everything before this position is known to have been written to the channel.
+  // Only updated while synchronized, but read without a lock so that lookups and
+  // finish() calls of concurrent requests can skip a flush another thread already did.
+  // It may lag behind the real flushed position (the buffer can flush itself when full),
+  // which only causes an unnecessary flush.
+  protected volatile long flushedSize;
+
+  // Read-only mapping of the start of the log, used by readers instead of reading the channel.
+  // Only the region that was flushed when the mapping was made is covered; reads past it
+  // go to the channel.  Disabled on Windows, where a mapped file can't be deleted.
+  // Readers keep using a mapping after a bigger one replaced it, so a region that has been
+  // mapped must never be truncated: touching a truncated page of a mapping crashes the JVM.
+  static final boolean USE_MMAP = Constants.JRE_IS_64BIT && !Constants.WINDOWS
+      && Boolean.parseBoolean(System.getProperty("solr.tlog.mmap", "true"));
+  private volatile ByteBuffer mapped;
+  // Nothing past this position is mapped.  Set to the snapshot position while updates are
+  // buffered, since rollback() truncates the log back to it.  Guarded by "this".
+  private long mapLimit = Long.MAX_VALUE;
+
+  // state for SyncLevel.GROUP, guarded by syncLock
+  private final Object syncLock = new Object();
+  private long syncedSize;        // everything before this position has been forced to disk
+  private boolean syncing;        // true while some thread is forcing the channel
+  private int pendingSyncs;       // requests waiting to be covered by the next force
+  private long batchNumber;       // incremented whenever a syncer takes the pending requests
+  UpdateLog.SyncStats syncStats;  // may be null
   
   protected volatile boolean deleteOnClose = true;  // we can delete old tlogs since they are currently only used for real-time-get (and in the future, recovery)
 
@@ -228,6 +262,8 @@ public class TransactionLog {
     synchronized (this) {
       snapshot_size = fos.size();
       snapshot_numRecords = numRecords;
+      // existing mappings only cover what was flushed before, which is never more than this
+      mapLimit = snapshot_size;
       return snapshot_size;
     }    
   }
@@ -240,6 +276,10 @@ public class TransactionLog {
       fos.flush();
       raf.setLength(pos);
       fos.setWritten(pos);
+      flushedSize = pos;
+      resetSyncedSize(pos);
+      // mappings are limited to the snapshot, see snapshot()
+      assert mapped == null || mapped.capacity() <= pos;
       assert fos.size() == pos;
       numRecords = snapshot_numRecords;
     }
@@ -335,6 +375,15 @@ public class TransactionLog {
   int lastAddSize;
 
   public long write(AddUpdateCommand cmd, int flags) {
+    return append(encode(cmd, flags));
+  }
+
+  /**
+   * Encodes an add record without appending it to the log, so that callers can do the
+   * expensive part of logging before taking their own locks.  The record can only be
+   * appended to this log, with {@link #append(MemOutputStream)}.
+   */
+  public MemOutputStream encode(AddUpdateCommand cmd, int flags) {
     LogCodec codec = new LogCodec(resolver);
     SolrInputDocument sdoc = cmd.getSolrInputDocument();
 
@@ -352,31 +401,19 @@ public class TransactionLog {
       codec.writeLong(cmd.getVersion());
       codec.writeSolrInputDocument(cmd.getSolrInputDocument());
       lastAddSize = (int)out.size();
-
-      synchronized (this) {
-        long pos = fos.size();   // if we had flushed, this should be equal to channel.position()
-        assert pos != 0;
-
-        /***
-         System.out.println("###writing at " + pos + " fos.size()=" + fos.size() + " raf.length()=" + raf.length());
-         if (pos != fos.size()) {
-         throw new RuntimeException("ERROR" + "###writing at " + pos + " fos.size()=" + fos.size() + " raf.length()=" + raf.length());
-         }
-         ***/
-
-        out.writeAll(fos);
-        endRecord(pos);
-        // fos.flushBuffer();  // flush later
-        return pos;
-      }
+      return out;
 
     } catch (IOException e) {
-      // TODO: reset our file pointer back to "pos", the start of this record.
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Error logging add", e);
     }
   }
 
   public long writeDelete(DeleteUpdateCommand cmd, int flags) {
+    return append(encodeDelete(cmd, flags));
+  }
+
+  /** Encodes a delete record without appending it, see {@link #encode(AddUpdateCommand, int)} */
+  public MemOutputStream encodeDelete(DeleteUpdateCommand cmd, int flags) {
     LogCodec codec = new LogCodec(resolver);
 
     try {
@@ -390,20 +427,37 @@ public class TransactionLog {
       codec.writeInt(UpdateLog.DELETE | flags);  // should just take one byte
       codec.writeLong(cmd.getVersion());
       codec.writeByteArray(br.bytes, br.offset, br.length);
+      return out;
+
+    } catch (IOException e) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+    }
+  }
 
+  /** Appends a record encoded by this log and returns its position */
+  public long append(MemOutputStream record) {
+    try {
       synchronized (this) {
         long pos = fos.size();   // if we had flushed, this should be equal to channel.position()
         assert pos != 0;
-        out.writeAll(fos);
+
+        /***
+         System.out.println("###writing at " + pos + " fos.size()=" + fos.size() + " raf.length()=" + raf.length());
+         if (pos != fos.size()) {
+         throw new RuntimeException("ERROR" + "###writing at " + pos + " fos.size()=" + fos.size() + " raf.length()=" + raf.length());
+         }
+         ***/
+
+        record.writeAll(fos);
         endRecord(pos);
         // fos.flushBuffer();  // flush later
         return pos;
       }
 
     } catch (IOException e) {
-      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      // TODO: reset our file pointer back to "pos", the start of this record.
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Error logging update", e);
     }
-
   }
 
   public long writeDeleteByQuery(DeleteUpdateCommand cmd, int flags) {
@@ -468,19 +522,25 @@ public class TransactionLog {
     if (pos < 0) return null;
 
     try {
-      // make sure any unflushed buffer has been flushed
-      synchronized (this) {
-        // TODO: optimize this by keeping track of what we have flushed up to
-        fos.flushBuffer();
-        /***
-         System.out.println("###flushBuffer to " + fos.size() + " raf.length()=" + raf.length() + " pos="+pos);
-        if (fos.size() != raf.length() || pos >= fos.size() ) {
-          throw new RuntimeException("ERROR" + "###flushBuffer to " + fos.size() + " raf.length()=" + raf.length() + " pos="+pos);
+      // make sure any unflushed buffer has been flushed.  A record is written atomically
+      // while synchronized, so if the flushed position is past the start of the record,
+      // the whole record has been flushed.
+      if (pos >= flushedSize) {
+        synchronized (this) {
+          flushBuffer();
+          /***
+           System.out.println("###flushBuffer to " + fos.size() + " raf.length()=" + raf.length() + " pos="+pos);
+          if (fos.size() != raf.length() || pos >= fos.size() ) {
+            throw new RuntimeException("ERROR" + "###flushBuffer to " + fos.size() + " raf.length()=" + raf.length() + " pos="+pos);
+          }
+          ***/
         }
-        ***/
       }
 
-      ChannelFastInputStream fis = new ChannelFastInputStream(channel, pos);
+      // don't remap for single lookups, just use a mapping the readers have already made
+      ByteBuffer buf = mapped;
+      ChannelFastInputStream fis = buf != null && pos < buf.capacity()
+          ? new MappedFastInputStream(channel, buf, pos) : new ChannelFastInputStream(channel, pos);
       LogCodec codec = new LogCodec(resolver);
       return codec.readVal(fis);
     } catch (IOException e) {
@@ -488,6 +548,47 @@ public class TransactionLog {
     }
   }
 
+  /**
+   * Returns a stream positioned at <code>pos</code> that reads the first <code>size</code> bytes
+   * through a mapping of the log where possible.  <code>size</code> must not be more than what
+   * has been flushed to the channel.  The log is only remapped once it has grown to twice the
+   * size of the current mapping; until then the part past the mapping is read from the channel.
+   */
+  protected ChannelFastInputStream newInputStream(long pos, long size) {
+    if (USE_MMAP && size > 0) {
+      ByteBuffer buf = mapped;
+      if (buf == null || buf.capacity() < size / 2) {
+        synchronized (this) {
+          buf = mapped;
+          long mapSize = Math.min(Math.min(size, mapLimit), Integer.MAX_VALUE);
+          if (mapSize > 0 && (buf == null || buf.capacity() < mapSize / 2)) {
+            try {
+              MappedByteBuffer mbb = channel.map(FileChannel.MapMode.READ_ONLY, 0, mapSize);
+              buf = mapped = mbb;
+            } catch (IOException e) {
+              // fall back to channel reads, e.g. if we are out of address space
+              log.warn("Could not map transaction log " + tlogFile + ", reading from the channel instead", e);
+              buf = null;
+            }
+          }
+        }
+      }
+      if (buf != null) {
+        return new MappedFastInputStream(channel, buf, pos);
+      }
+    }
+    return new ChannelFastInputStream(channel, pos);
+  }
+
+  /** Flushes the buffer to the channel if anything was written since the last flush.
+   * Must be called while synchronized on this log. */
+  protected void flushBuffer() throws IOException {
+    long size = fos.size();
+    if (size == flushedSize) return;
+    fos.flushBuffer();
+    flushedSize = size;
+  }
+
   public void incref() {
     int result = refcount.incrementAndGet();
     if (result <= 1) {
@@ -502,9 +603,43 @@ public class TransactionLog {
   public void decref() {
     if (refcount.decrementAndGet() == 0) {
       close();
+      // nobody can read through the mapping anymore, so release it without waiting for GC.
+      // Not done in forceClose(), readers may still be open then.
+      unmap();
     }
   }
 
+  private void unmap() {
+    final ByteBuffer buf;
+    synchronized (this) {
+      buf = mapped;
+      mapped = null;
+    }
+    if (buf == null || !MMapDirectory.UNMAP_SUPPORTED) return;
+    try {
+      AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
+        @Override
+        public Void run() throws Exception {
+          final Method getCleanerMethod = buf.getClass().getMethod("cleaner");
+          getCleanerMethod.setAccessible(true);
+          final Object cleaner = getCleanerMethod.invoke(buf);
+          if (cleaner != null) {
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+          }
+          return null;
+        }
+      });
+    } catch (PrivilegedActionException e) {
+      log.warn("Could not unmap transaction log " + tlogFile, e.getCause());
+    }
+  }
+
+  /** Size of the current mapping, for tests */
+  long mappedSize() {
+    ByteBuffer buf = mapped;
+    return buf == null ? 0 : buf.capacity();
+  }
+
   /** returns the current position in the log file */
   public long position() {
     synchronized (this) {
@@ -515,11 +650,17 @@ public class TransactionLog {
   public void finish(UpdateLog.SyncLevel syncLevel) {
     if (syncLevel == UpdateLog.SyncLevel.NONE) return;
     try {
+      long upTo;
       synchronized (this) {
-        fos.flushBuffer();
+        // Concurrent requests finishing at the same time share a single flush:
+        // whoever gets the lock first writes out the records of all of them.
+        flushBuffer();
+        upTo = flushedSize;
       }
 
-      if (syncLevel == UpdateLog.SyncLevel.FSYNC) {
+      if (syncLevel == UpdateLog.SyncLevel.GROUP) {
+        groupSync(upTo);
+      } else if (syncLevel == UpdateLog.SyncLevel.FSYNC) {
         // Since fsync is outside of synchronized block, we can end up with a partial
         // last record on power failure (which is OK, and does not represent an error...
         // we just need to be aware of it when reading).
@@ -531,6 +672,89 @@ public class TransactionLog {
     }
   }
 
+  /**
+   * Blocks until everything before <code>upTo</code> has been forced to disk.  Only one
+   * thread forces the channel at a time; requests arriving while a force is in progress
+   * wait for it to finish, and the next force then covers all of them at once.
+   * Everything before <code>upTo</code> must already have been flushed to the channel.
+   */
+  protected void groupSync(long upTo) throws IOException {
+    long target;
+    int batchSize;
+
+    synchronized (syncLock) {
+      long registeredIn = -1;  // the batch whose pendingSyncs count this request
+      try {
+        for (;;) {
+          if (syncedSize >= upTo) {
+            // some other thread's force covered us
+            if (registeredIn == batchNumber) pendingSyncs--;
+            return;
+          }
+          if (registeredIn != batchNumber) {
+            // not registered yet, or the force of the batch we were counted in failed
+            pendingSyncs++;
+            registeredIn = batchNumber;
+          }
+          if (!syncing) break;
+          syncLock.wait();
+        }
+      } catch (InterruptedException e) {
+        if (registeredIn == batchNumber) pendingSyncs--;
+        Thread.currentThread().interrupt();
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Interrupted while waiting for tlog sync", e);
+      }
+
+      // become the syncer for everyone who is currently waiting.  Waiting requests
+      // flushed their records before registering, so they are all before "target".
+      syncing = true;
+      target = flushedSize;
+      batchSize = pendingSyncs;
+      pendingSyncs = 0;
+      batchNumber++;
+    }
+
+    boolean success = false;
+    long startTime = System.nanoTime();
+    try {
+      syncToDisk();
+      success = true;
+    } finally {
+      synchronized (syncLock) {
+        syncing = false;
+        if (success) {
+          syncedSize = Math.max(syncedSize, target);
+        }
+        // after a failure, the others of the batch register again and retry the force
+        syncLock.notifyAll();
+      }
+    }
+
+    UpdateLog.SyncStats stats = syncStats;
+    if (stats != null) {
+      stats.record(batchSize, System.nanoTime() - startTime);
+    }
+  }
+
+  /** Forces everything flushed so far to disk, see {@link #groupSync(long)} */
+  protected void syncToDisk() throws IOException {
+    channel.force(false);
+  }
+
+  /** After a rollback, records written at pos and later have not been synced */
+  protected void resetSyncedSize(long pos) {
+    synchronized (syncLock) {
+      syncedSize = Math.min(syncedSize, pos);
+    }
+  }
+
+  /** Returns the number of requests waiting for a group sync, for tests */
+  int pendingSyncs() {
+    synchronized (syncLock) {
+      return pendingSyncs;
+    }
+  }
+
   protected void close() {
     try {
       if (debug) {
@@ -582,7 +806,13 @@ public class TransactionLog {
 
     public LogReader(long startingPos) {
       incref();
-      fis = new ChannelFastInputStream(channel, startingPos);
+      long size;
+      synchronized (TransactionLog.this) {
+        flushBuffer();
+        size = flushedSize;
+      }
+      // records written after this point are read through the channel
+      fis = newInputStream(startingPos, size);
     }
 
     // for classes that extend
@@ -683,12 +913,12 @@ public class TransactionLog {
 
       long sz;
       synchronized (TransactionLog.this) {
-        fos.flushBuffer();
+        flushBuffer();
         sz = fos.size();
         assert sz == channel.size();
       }
 
-      fis = new ChannelFastInputStream(channel, 0);
+      fis = newInputStream(0, sz);
       if (sz >=4) {
         // readHeader(fis);  // should not be needed
         prevPos = sz - 4;
@@ -758,6 +988,141 @@ public class TransactionLog {
 
   }
 
+  /** Returns a single threaded iterator over the records of this log, positioned after the last one */
+  public RecordIterator getRecordIterator() throws IOException {
+    return new FSRecordIterator();
+  }
+
+  /**
+   * Steps through the records of a log in either direction, and can be positioned at the start
+   * of any record, e.g. a pointer from the update maps.  Like a {@link java.util.ListIterator}
+   * it sits between two records: {@link #previous} returns the one before it and {@link #next}
+   * the one after it.  Only the records written before the iterator was created are visible.
+   */
+  public abstract class RecordIterator {
+    private LogCodec codec = new LogCodec(resolver);
+    private LogCodec skipDocumentsCodec = new LogCodec(resolver) {
+      @Override
+      public SolrInputDocument readSolrInputDocument(DataInputInputStream dis) {
+        // Given that the SolrInputDocument is last in an add record, it's OK to just skip
+        // reading it completely.
+        return null;
+      }
+    };
+
+    protected long end;             // end of the last record visible to this iterator
+    protected long cursor;          // start of the record next() returns
+    protected long recordPos = -1;  // start of the record returned last
+
+    /** Returns the stream positioned at <code>pos</code>.  Reads going backwards pass the end of
+     * the record they read as <code>readEnd</code>, so that a buffered stream can fill its buffer
+     * up to there and serve the records before it from the same buffer; forward reads pass -1. */
+    protected abstract FastInputStream seekStream(long pos, long readEnd) throws IOException;
+
+    /** Positions the iterator before the record starting at <code>pos</code> */
+    public void seek(long pos) {
+      if (pos < 0 || pos > end) {
+        throw new IllegalArgumentException("Position " + pos + " is outside of " + this);
+      }
+      cursor = pos;
+    }
+
+    /** Returns the record after the current position and moves past it.
+     *
+     * @return The log record, or null if at the end
+     * @throws IOException If there is a low-level I/O error.
+     */
+    public Object next() throws IOException {
+      if (cursor >= end) return null;
+      FastInputStream fis = seekStream(cursor, -1);
+      if (cursor == 0) {
+        // skip over the header
+        codec.unmarshal(fis);
+        fis.readInt();
+        cursor = fis.position();
+        if (cursor >= end) return null;
+      }
+
+      Object o = codec.readVal(fis);
+
+      // skip over record size
+      int size = fis.readInt();
+      assert size == fis.position() - cursor - 4;
+
+      recordPos = cursor;
+      cursor = fis.position();
+      return o;
+    }
+
+    /** Returns the record before the current position and moves back to its start.
+     *
+     * @param readDocuments if false, the document of an add record is not decoded and null is
+     *        returned in its place
+     * @return The log record, or null once the header is reached
+     * @throws IOException If there is a low-level I/O error.
+     */
+    public Object previous(boolean readDocuments) throws IOException {
+      if (cursor <= 4) return null;
+      FastInputStream fis = seekStream(cursor - 4, cursor);
+      int length = fis.readInt();
+      long recordStart = cursor - 4 - length;
+      if (recordStart <= 0) return null;  // this record is the header
+
+      fis = seekStream(recordStart, cursor);
+      Object o = (readDocuments ? codec : skipDocumentsCodec).readVal(fis);
+
+      recordPos = cursor = recordStart;
+      return o;
+    }
+
+    /** returns the position in the log file of the last record returned by next() or previous() */
+    public long position() {
+      return recordPos;
+    }
+
+    public abstract void close();
+
+    @Override
+    public String toString() {
+      return "RecordIterator{" + "file=" + tlogFile + ", position=" + cursor + ", end=" + end + "}";
+    }
+  }
+
+  public class FSRecordIterator extends RecordIterator {
+    ChannelFastInputStream fis;
+
+    public FSRecordIterator() throws IOException {
+      incref();
+
+      synchronized (TransactionLog.this) {
+        flushBuffer();
+        end = flushedSize;
+      }
+      cursor = end;
+      fis = newInputStream(0, end);
+    }
+
+    @Override
+    protected FastInputStream seekStream(long pos, long readEnd) throws IOException {
+      if (readEnd >= 0 && pos < fis.getBufferPos()) {
+        // Position buffer so that this record is at the end.
+        // For small records, this will cause subsequent reads backwards to be within the buffer.
+        long seekPos = readEnd - fis.getBufferSize();
+        seekPos = Math.min(seekPos, pos); // seek to the start of the record if it's larger then the block size.
+        seekPos = Math.max(seekPos, 0);
+        fis.seek(seekPos);
+        fis.peek();  // cause buffer to be filled
+      }
+      fis.seek(pos);
+      return fis;
+    }
+
+    @Override
+    public void close() {
+      decref();
+    }
+  }
+
 }
 
 
@@ -813,3 +1178,130 @@ class ChannelFastInputStream extends FastInputStream {
 }
 
 
+/**
+ * Decodes the part of a log covered by a read-only mapping in place: reads come straight
+ * from the mapped buffer, without a read system call or a copy into the heap buffer.
+ * Anything past the end of the mapping (records appended since it was made) is read
+ * from the channel through the buffer as usual.
+ */
+class MappedFastInputStream extends ChannelFastInputStream {
+  private final ByteBuffer mapped;
+  private boolean inMapping;  // true while reads come from the mapping rather than the buffer
+
+  public MappedFastInputStream(FileChannel ch, ByteBuffer mapped, long chPosition) {
+    super(ch, chPosition);
+    this.mapped = mapped.duplicate();  // private position, shares the mapping
+    if (chPosition < this.mapped.limit()) {
+      this.mapped.position((int)chPosition);
+      inMapping = true;
+    }
+  }
+
+  /** continue at <code>position</code> (at or past the end of the mapping) with channel reads */
+  private void leaveMapping(long position) {
+    inMapping = false;
+    readFromStream = position;
+    end = pos = 0;
+  }
+
+  @Override
+  public void seek(long position) throws IOException {
+    if (position < mapped.limit()) {
+      mapped.position((int)position);
+      inMapping = true;
+    } else if (inMapping) {
+      leaveMapping(position);
+    } else {
+      super.seek(position);
+    }
+  }
+
+  @Override
+  public long position() {
+    return inMapping ? mapped.position() : super.position();
+  }
+
+  /** the whole mapping acts as the buffer, so there is never a need to position it */
+  @Override
+  public long getBufferPos() {
+    return inMapping ? 0 : super.getBufferPos();
+  }
+
+  @Override
+  public int available() throws IOException {
+    return inMapping ? mapped.remaining() : super.available();
+  }
+
+  @Override
+  public int peek() throws IOException {
+    if (inMapping) {
+      if (mapped.hasRemaining()) return mapped.get(mapped.position()) & 0xff;
+      leaveMapping(mapped.limit());
+    }
+    return super.peek();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (inMapping) {
+      if (mapped.hasRemaining()) return mapped.get() & 0xff;
+      leaveMapping(mapped.limit());
+    }
+    return super.read();
+  }
+
+  @Override
+  public int readUnsignedByte() throws IOException {
+    if (inMapping) {
+      if (mapped.hasRemaining()) return mapped.get() & 0xff;
+      leaveMapping(mapped.limit());
+    }
+    return super.readUnsignedByte();
+  }
+
+  @Override
+  public byte readByte() throws IOException {
+    if (inMapping) {
+      if (mapped.hasRemaining()) return mapped.get();
+      leaveMapping(mapped.limit());
+    }
+    return super.readByte();
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    // a value that straddles the end of the mapping is read a byte at a time
+    if (inMapping && mapped.remaining() >= 4) return mapped.getInt();
+    return super.readInt();
+  }
+
+  @Override
+  public long readLong() throws IOException {
+    if (inMapping && mapped.remaining() >= 8) return mapped.getLong();
+    return super.readLong();
+  }
+
+  @Override
+  public int read(byte b[], int off, int len) throws IOException {
+    if (inMapping) {
+      if (mapped.hasRemaining()) {
+        int n = Math.min(len, mapped.remaining());
+        mapped.get(b, off, n);
+        return n;
+      }
+      leaveMapping(mapped.limit());
+    }
+    return super.read(b, off, len);
+  }
+
+  @Override
+  public int skipBytes(int n) throws IOException {
+    if (!inMapping) return super.skipBytes(n);
+    int r = Math.min(n, mapped.remaining());
+    mapped.position(mapped.position() + r);
+    if (r == n) return r;
+    leaveMapping(mapped.limit());
+    int ret = super.skipBytes(n - r);
+    return ret < 0 ? r : r + ret;
+  }
+}
@@ -29,17 +29,23 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.lucene.util.BytesRef;
@@ -49,6 +55,8 @@ import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.Hash;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.PluginInfo;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.request.LocalSolrQueryRequest;
@@ -81,7 +89,12 @@ public class UpdateLog implements PluginInfoInitialized {
     return null;
   }
 
-  public enum SyncLevel { NONE, FLUSH, FSYNC;
+  /**
+   * How far an update request must make it to disk before returning.
+   * <code>GROUP</code> gives the durability of <code>FSYNC</code>, but concurrent requests
+   * share a single fsync of the log instead of each forcing the channel.
+   */
+  public enum SyncLevel { NONE, FLUSH, FSYNC, GROUP;
     public static SyncLevel getSyncLevel(String level){
       if (level == null) {
         return SyncLevel.FLUSH;
@@ -96,6 +109,48 @@ public class UpdateLog implements PluginInfoInitialized {
   }
   public enum State { REPLAYING, BUFFERING, APPLYING_BUFFERED, ACTIVE }
 
+  /** Statistics about the fsyncs done for {@link SyncLevel#GROUP} */
+  public static class SyncStats {
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncedRequests = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong syncTimeNanos = new AtomicLong();
+    private final AtomicLong maxSyncTimeNanos = new AtomicLong();
+
+    void record(int batchSize, long elapsedNanos) {
+      syncs.incrementAndGet();
+      syncedRequests.addAndGet(batchSize);
+      syncTimeNanos.addAndGet(elapsedNanos);
+      updateMax(maxBatchSize, batchSize);
+      updateMax(maxSyncTimeNanos, elapsedNanos);
+    }
+
+    private static void updateMax(AtomicLong max, long val) {
+      long curr;
+      while ((curr = max.get()) < val) {
+        if (max.compareAndSet(curr, val)) break;
+      }
+    }
+
+    public long getSyncs() {
+      return syncs.get();
+    }
+
+    public long getSyncedRequests() {
+      return syncedRequests.get();
+    }
+
+    public void addTo(NamedList<Object> lst) {
+      long n = syncs.get();
+      lst.add("tlog_group_syncs", n);
+      lst.add("tlog_group_synced_requests", syncedRequests.get());
+      lst.add("tlog_group_avg_batch_size", n == 0 ? 0.0 : (double)syncedRequests.get() / n);
+      lst.add("tlog_group_max_batch_size", maxBatchSize.get());
+      lst.add("tlog_group_avg_sync_ms", n == 0 ? 0.0 : syncTimeNanos.get() / 1000000.0 / n);
+      lst.add("tlog_group_max_sync_ms", maxSyncTimeNanos.get() / 1000000.0);
+    }
+  }
+
   public static final int ADD = 0x01;
   public static final int DELETE = 0x02;
   public static final int DELETE_BY_QUERY = 0x03;
@@ -125,17 +180,26 @@ public class UpdateLog implements PluginInfoInitialized {
 
   long id = -1;
   protected State state = State.ACTIVE;
-  protected int operationFlags;  // flags to write in the transaction log with operations (i.e. FLAG_GAP)
+  protected volatile int operationFlags;  // flags to write in the transaction log with operations (i.e. FLAG_GAP)
 
-  protected TransactionLog tlog;
+  // volatile since add() and delete() encode their records for it before synchronizing
+  protected volatile TransactionLog tlog;
   protected TransactionLog prevTlog;
   protected Deque<TransactionLog> logs = new LinkedList<TransactionLog>();  // list of recent logs, newest first
   protected LinkedList<TransactionLog> newestLogsOnStartup = new LinkedList<TransactionLog>();
   protected int numOldRecords;  // number of records in the recent logs
 
-  protected Map<BytesRef,LogPtr> map = new HashMap<BytesRef, LogPtr>();
-  protected Map<BytesRef,LogPtr> prevMap;  // used while committing/reopening is happening
-  protected Map<BytesRef,LogPtr> prevMap2;  // used while committing/reopening is happening
+  // The maps are only modified while synchronized on the UpdateLog, but are concurrent and
+  // volatile so that lookupVersion can read them without taking the lock.  When rotating,
+  // newMap() assigns prevMap2, prevMap and then map, so a reader that visits them in the
+  // opposite order never misses an entry that was moved into an older map.
+  protected volatile Map<BytesRef,LogPtr> map = newLogPtrMap();
+  protected volatile Map<BytesRef,LogPtr> prevMap;  // used while committing/reopening is happening
+  protected volatile Map<BytesRef,LogPtr> prevMap2;  // used while committing/reopening is happening
+  // Odd while a deleteByQuery clears the maps and reopens the realtime searcher: in that
+  // window neither the maps nor the index have the latest versions, so lookupVersion must
+  // wait for the lock.  Only modified while synchronized on the UpdateLog.
+  protected volatile long cacheClears;
   protected TransactionLog prevMapLog;  // the transaction log used to look up entries found in prevMap
   protected TransactionLog prevMapLog2;  // the transaction log used to look up entries found in prevMap
 
@@ -173,6 +237,10 @@ public class UpdateLog implements PluginInfoInitialized {
   protected VersionInfo versionInfo;
 
   protected SyncLevel defaultSyncLevel = SyncLevel.FLUSH;
+  protected int numVersionBuckets = VersionInfo.defaultNumBuckets();
+  protected long versionBucketLockTimeoutMs = -1;
+  protected int replayThreads = 1;  // number of threads applying adds and deletes during log replay
+  protected final SyncStats syncStats = new SyncStats();
 
   volatile UpdateHandler uhandler;    // a core reload can change this reference!
   protected volatile boolean cancelApplyBufferUpdate;
@@ -203,6 +271,19 @@ public class UpdateLog implements PluginInfoInitialized {
   public void init(PluginInfo info) {
     dataDir = (String)info.initArgs.get("dir");
     defaultSyncLevel = SyncLevel.getSyncLevel((String)info.initArgs.get("syncLevel"));
+    numVersionBuckets = getIntArg(info, "numVersionBuckets", numVersionBuckets);
+    versionBucketLockTimeoutMs = getIntArg(info, "versionBucketLockTimeoutMs", -1);
+    replayThreads = Math.max(1, getIntArg(info, "replayThreads", replayThreads));
+  }
+
+  protected static int getIntArg(PluginInfo info, String name, int defaultValue) {
+    Object val = info.initArgs.get(name);
+    if (val == null) return defaultValue;
+    try {
+      return val instanceof Number ? ((Number)val).intValue() : Integer.parseInt(val.toString().trim());
+    } catch (NumberFormatException e) {
+      throw new SolrException(ErrorCode.SERVER_ERROR, "Invalid value for updateLog parameter " + name + ": " + val, e);
+    }
   }
 
   /* Note, when this is called, uhandler is not completely constructed.
@@ -262,7 +343,7 @@ public class UpdateLog implements PluginInfoInitialized {
     }
 
     try {
-      versionInfo = new VersionInfo(this, 256);
+      versionInfo = new VersionInfo(this, numVersionBuckets, versionBucketLockTimeoutMs);
     } catch (SolrException e) {
       log.error("Unable to use updateLog: " + e.getMessage(), e);
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
@@ -376,13 +457,30 @@ public class UpdateLog implements PluginInfoInitialized {
     // TODO: we currently need to log to maintain correct versioning, rtg, etc
     // if ((cmd.getFlags() & UpdateCommand.REPLAY) != 0) return;
 
+    // Encode the record before taking the lock, so that concurrent adds only serialize on
+    // copying the bytes into the log.
+    TransactionLog encodedLog = null;
+    int encodedFlags = 0;
+    MemOutputStream record = null;
+    if ((cmd.getFlags() & UpdateCommand.REPLAY) == 0) {
+      encodedLog = tlog;
+      encodedFlags = operationFlags;
+      if (encodedLog != null) {
+        record = encodedLog.encode(cmd, encodedFlags);
+      }
+    }
+
     synchronized (this) {
       long pos = -1;
 
       // don't log if we are replaying from another log
       if ((cmd.getFlags() & UpdateCommand.REPLAY) == 0) {
         ensureLog();
-        pos = tlog.write(cmd, operationFlags);
+        // the encoding depends on the log (its extern strings) and on the flags
+        if (record == null || encodedLog != tlog || encodedFlags != operationFlags) {
+          record = tlog.encode(cmd, operationFlags);
+        }
+        pos = tlog.append(record);
       }
 
       if (!clearCaches) {
@@ -402,15 +500,20 @@ public class UpdateLog implements PluginInfoInitialized {
       } else {
         // replicate the deleteByQuery logic.  See deleteByQuery for comments.
 
-        if (map != null) map.clear();
-        if (prevMap != null) prevMap.clear();
-        if (prevMap2 != null) prevMap2.clear();
-
+        cacheClears++;
         try {
-          RefCounted<SolrIndexSearcher> holder = uhandler.core.openNewSearcher(true, true);
-          holder.decref();
-        } catch (Throwable e) {
-          SolrException.log(log, "Error opening realtime searcher for deleteByQuery", e);
+          if (map != null) map.clear();
+          if (prevMap != null) prevMap.clear();
+          if (prevMap2 != null) prevMap2.clear();
+
+          try {
+            RefCounted<SolrIndexSearcher> holder = uhandler.core.openNewSearcher(true, true);
+            holder.decref();
+          } catch (Throwable e) {
+            SolrException.log(log, "Error opening realtime searcher for deleteByQuery", e);
+          }
+        } finally {
+          cacheClears++;
         }
 
         if (trace) {
@@ -427,13 +530,28 @@ public class UpdateLog implements PluginInfoInitialized {
   public void delete(DeleteUpdateCommand cmd) {
     BytesRef br = cmd.getIndexedId();
 
+    // encode outside of the lock, see add()
+    TransactionLog encodedLog = null;
+    int encodedFlags = 0;
+    MemOutputStream record = null;
+    if ((cmd.getFlags() & UpdateCommand.REPLAY) == 0) {
+      encodedLog = tlog;
+      encodedFlags = operationFlags;
+      if (encodedLog != null) {
+        record = encodedLog.encodeDelete(cmd, encodedFlags);
+      }
+    }
+
     synchronized (this) {
       long pos = -1;
 
       // don't log if we are replaying from another log
       if ((cmd.getFlags() & UpdateCommand.REPLAY) == 0) {
         ensureLog();
-        pos = tlog.writeDelete(cmd, operationFlags);
+        if (record == null || encodedLog != tlog || encodedFlags != operationFlags) {
+          record = tlog.encodeDelete(cmd, operationFlags);
+        }
+        pos = tlog.append(record);
       }
 
       LogPtr ptr = new LogPtr(pos, cmd.version);
@@ -464,23 +582,28 @@ public class UpdateLog implements PluginInfoInitialized {
       if ((cmd.getFlags() & UpdateCommand.BUFFERING) == 0) {
         // given that we just did a delete-by-query, we don't know what documents were
         // affected and hence we must purge our caches.
-        if (map != null) map.clear();
-        if (prevMap != null) prevMap.clear();
-        if (prevMap2 != null) prevMap2.clear();
+        cacheClears++;
+        try {
+          if (map != null) map.clear();
+          if (prevMap != null) prevMap.clear();
+          if (prevMap2 != null) prevMap2.clear();
 
-        trackDeleteByQuery(cmd.getQuery(), cmd.getVersion());
+          trackDeleteByQuery(cmd.getQuery(), cmd.getVersion());
 
-        // oldDeletes.clear();
+          // oldDeletes.clear();
 
-        // We must cause a new IndexReader to be opened before anything looks at these caches again
-        // so that a cache miss will read fresh data.
-        //
-        // TODO: FUTURE: open a new searcher lazily for better throughput with delete-by-query commands
-        try {
-          RefCounted<SolrIndexSearcher> holder = uhandler.core.openNewSearcher(true, true);
-          holder.decref();
-        } catch (Throwable e) {
-          SolrException.log(log, "Error opening realtime searcher for deleteByQuery", e);
+          // We must cause a new IndexReader to be opened before anything looks at these caches again
+          // so that a cache miss will read fresh data.
+          //
+          // TODO: FUTURE: open a new searcher lazily for better throughput with delete-by-query commands
+          try {
+            RefCounted<SolrIndexSearcher> holder = uhandler.core.openNewSearcher(true, true);
+            holder.decref();
+          } catch (Throwable e) {
+            SolrException.log(log, "Error opening realtime searcher for deleteByQuery", e);
+          }
+        } finally {
+          cacheClears++;
         }
 
       }
@@ -563,6 +686,10 @@ public class UpdateLog implements PluginInfoInitialized {
     }
   }
 
+  protected static Map<BytesRef,LogPtr> newLogPtrMap() {
+    return new ConcurrentHashMap<BytesRef, LogPtr>();
+  }
+
   protected void newMap() {
     prevMap2 = prevMap;
     prevMapLog2 = prevMapLog;
@@ -570,7 +697,7 @@ public class UpdateLog implements PluginInfoInitialized {
     prevMap = map;
     prevMapLog = tlog;
 
-    map = new HashMap<BytesRef, LogPtr>();
+    map = newLogPtrMap();
   }
 
   private void clearOldMaps() {
@@ -644,7 +771,7 @@ public class UpdateLog implements PluginInfoInitialized {
       // any added documents will make it into this commit or not.
       // But we do know that any updates already added will definitely
       // show up in the latest reader after the commit succeeds.
-      map = new HashMap<BytesRef, LogPtr>();
+      map = newLogPtrMap();
 
       if (debug) {
         log.debug("TLOG: preSoftCommit: prevMap="+ System.identityHashCode(prevMap) + " new map=" + System.identityHashCode(map));
@@ -709,33 +836,36 @@ public class UpdateLog implements PluginInfoInitialized {
   // synchronization is needed for stronger guarantees (as VersionUpdateProcessor does).
   public Long lookupVersion(BytesRef indexedId) {
     LogPtr entry;
-    TransactionLog lookupLog;
-
-    synchronized (this) {
-      entry = map.get(indexedId);
-      lookupLog = tlog;  // something found in "map" will always be in "tlog"
-      // SolrCore.verbose("TLOG: lookup ver: for id ",indexedId.utf8ToString(),"in map",System.identityHashCode(map),"got",entry,"lookupLog=",lookupLog);
-      if (entry == null && prevMap != null) {
-        entry = prevMap.get(indexedId);
-        // something found in prevMap will always be found in preMapLog (which could be tlog or prevTlog)
-        lookupLog = prevMapLog;
-        // SolrCore.verbose("TLOG: lookup ver: for id ",indexedId.utf8ToString(),"in prevMap",System.identityHashCode(map),"got",entry,"lookupLog=",lookupLog);
-      }
-      if (entry == null && prevMap2 != null) {
-        entry = prevMap2.get(indexedId);
-        // something found in prevMap2 will always be found in preMapLog2 (which could be tlog or prevTlog)
-        lookupLog = prevMapLog2;
-        // SolrCore.verbose("TLOG: lookup ver: for id ",indexedId.utf8ToString(),"in prevMap2",System.identityHashCode(map),"got",entry,"lookupLog=",lookupLog);
+    Long version;
+
+    // Only the version is needed (not the log the entry points into), so the maps can be
+    // read without synchronizing.  See the comment on "map" for why the order matters.
+    // A miss is only trusted if no deleteByQuery cleared the maps before the index was
+    // read, see cacheClears.  Otherwise the lookup is repeated under the lock, which
+    // waits for the new realtime searcher.
+    long clears = cacheClears;
+    boolean clearing = (clears & 1) != 0;
+    version = null;
+    if (!clearing) {
+      entry = lookupLogPtr(indexedId);
+      if (entry != null) {
+        return entry.version;
       }
+      // Now check real index
+      version = versionInfo.getVersionFromIndex(indexedId);
+      clearing = cacheClears != clears;
     }
 
-    if (entry != null) {
-      return entry.version;
+    if (clearing) {
+      synchronized (this) {
+        entry = lookupLogPtr(indexedId);
+      }
+      if (entry != null) {
+        return entry.version;
+      }
+      version = versionInfo.getVersionFromIndex(indexedId);
     }
 
-    // Now check real index
-    Long version = versionInfo.getVersionFromIndex(indexedId);
-
     if (version != null) {
       return version;
     }
@@ -754,6 +884,26 @@ public class UpdateLog implements PluginInfoInitialized {
     return null;
   }
 
+  private LogPtr lookupLogPtr(BytesRef indexedId) {
+    LogPtr entry = map.get(indexedId);
+    // SolrCore.verbose("TLOG: lookup ver: for id ",indexedId.utf8ToString(),"in map",System.identityHashCode(map),"got",entry);
+    if (entry == null) {
+      Map<BytesRef,LogPtr> m = prevMap;
+      if (m != null) {
+        entry = m.get(indexedId);
+        // SolrCore.verbose("TLOG: lookup ver: for id ",indexedId.utf8ToString(),"in prevMap",System.identityHashCode(m),"got",entry);
+      }
+    }
+    if (entry == null) {
+      Map<BytesRef,LogPtr> m = prevMap2;
+      if (m != null) {
+        entry = m.get(indexedId);
+        // SolrCore.verbose("TLOG: lookup ver: for id ",indexedId.utf8ToString(),"in prevMap2",System.identityHashCode(m),"got",entry);
+      }
+    }
+    return entry;
+  }
+
   public void finish(SyncLevel syncLevel) {
     if (syncLevel == null) {
       syncLevel = defaultSyncLevel;
@@ -819,10 +969,20 @@ public class UpdateLog implements PluginInfoInitialized {
   protected void ensureLog() {
     if (tlog == null) {
       String newLogName = String.format(Locale.ROOT, LOG_FILENAME_PATTERN, TLOG_NAME, id);
-      tlog = new TransactionLog(new File(tlogDir, newLogName), globalStrings);
+      TransactionLog newLog = new TransactionLog(new File(tlogDir, newLogName), globalStrings);
+      newLog.syncStats = syncStats;
+      tlog = newLog;
     }
   }
 
+  public SyncLevel getDefaultSyncLevel() {
+    return defaultSyncLevel;
+  }
+
+  public SyncStats getSyncStats() {
+    return syncStats;
+  }
+
 
   private void doClose(TransactionLog theLog, boolean writeCommit) {
     if (theLog != null) {
@@ -890,6 +1050,8 @@ public class UpdateLog implements PluginInfoInitialized {
     List<Update> deleteByQueryList;
     List<DeleteUpdate> deleteList;
     int latestOperation;
+    // the iterators that found the updates, kept open to look them up again (single threaded)
+    Map<TransactionLog, TransactionLog.RecordIterator> iterators = new IdentityHashMap<TransactionLog, TransactionLog.RecordIterator>();
 
     public List<Long> getVersions(int n) {
       List<Long> ret = new ArrayList(n);
@@ -908,7 +1070,18 @@ public class UpdateLog implements PluginInfoInitialized {
       Update update = updates.get(version);
       if (update == null) return null;
 
-      return update.log.lookup(update.pointer);
+      return lookup(update);
+    }
+
+    private Object lookup(Update update) {
+      TransactionLog.RecordIterator iterator = iterators.get(update.log);
+      if (iterator == null) return update.log.lookup(update.pointer);
+      try {
+        iterator.seek(update.pointer);
+        return iterator.next();
+      } catch (IOException e) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      }
     }
 
     /** Returns the list of deleteByQueries that happened after the given version */
@@ -916,7 +1089,7 @@ public class UpdateLog implements PluginInfoInitialized {
       List<Object> result = new ArrayList<Object>(deleteByQueryList.size());
       for (Update update : deleteByQueryList) {
         if (Math.abs(update.version) > afterVersion) {
-          Object dbq = update.log.lookup(update.pointer);
+          Object dbq = lookup(update);
           result.add(dbq);
         }
       }
@@ -938,14 +1111,15 @@ public class UpdateLog implements PluginInfoInitialized {
       for (TransactionLog oldLog : logList) {
         List<Update> updatesForLog = new ArrayList<Update>();
 
-        TransactionLog.ReverseReader reader = null;
+        TransactionLog.RecordIterator reader = null;
         try {
-          reader = oldLog.getReverseReader();
+          reader = oldLog.getRecordIterator();
+          iterators.put(oldLog, reader);
 
           while (numUpdates < numRecordsToKeep) {
             Object o = null;
             try {
-              o = reader.next();
+              o = reader.previous(false);
               if (o==null) break;
               
               // should currently be a List<Oper,Ver,Doc/Id>
@@ -998,8 +1172,6 @@ public class UpdateLog implements PluginInfoInitialized {
         } catch (IOException e) {
           // failure to read a log record isn't fatal
           log.error("Exception reading versions from log",e);
-        } finally {
-          if (reader != null) reader.close();
         }
 
         updateList.add(updatesForLog);
@@ -1008,6 +1180,9 @@ public class UpdateLog implements PluginInfoInitialized {
     }
     
     public void close() {
+      for (TransactionLog.RecordIterator iterator : iterators.values()) {
+        iterator.close();
+      }
       for (TransactionLog log : logList) {
         log.decref();
       }
@@ -1166,6 +1341,8 @@ public class UpdateLog implements PluginInfoInitialized {
 
   protected RecoveryInfo recoveryInfo;
 
+  private static final Object REPLAY_STOP = new Object();  // tells a replay worker to finish
+
   class LogReplayer implements Runnable {
     private Logger loglog = log;  // set to something different?
 
@@ -1238,6 +1415,7 @@ public class UpdateLog implements PluginInfoInitialized {
 
 
     public void doReplay(TransactionLog translog) {
+      ReplayWorker[] workers = null;
       try {
         loglog.warn("Starting log replay " + translog + " active="+activeLog + " starting pos=" + recoveryInfo.positionOfStart);
 
@@ -1249,6 +1427,10 @@ public class UpdateLog implements PluginInfoInitialized {
         UpdateRequestProcessorChain processorChain = req.getCore().getUpdateProcessingChain(null);
         UpdateRequestProcessor proc = processorChain.createProcessor(req, rsp);
 
+        if (replayThreads > 1) {
+          workers = startWorkers(processorChain);
+        }
+
         long commitVersion = 0;
         int operationAndFlags = 0;
 
@@ -1261,6 +1443,14 @@ public class UpdateLog implements PluginInfoInitialized {
             o = tlogReader.next();
             if (o == null && activeLog) {
               if (!finishing) {
+                // Our own updates are not blocked below, but the updates of the workers would
+                // be, so apply everything they have and do the rest on this thread.
+                if (workers != null) {
+                  ReplayWorker[] toStop = workers;
+                  workers = null;
+                  stopWorkers(toStop);
+                }
+
                 // block to prevent new adds, but don't immediately unlock since
                 // we could be starved from ever completing recovery.  Only unlock
                 // after we've finished this recovery.
@@ -1313,7 +1503,11 @@ public class UpdateLog implements PluginInfoInitialized {
                 cmd.setFlags(UpdateCommand.REPLAY | UpdateCommand.IGNORE_AUTOCOMMIT);
                 if (debug) log.debug("add " +  cmd);
 
-                proc.processAdd(cmd);
+                if (workers != null) {
+                  dispatch(workers, cmd.getIndexedId(), cmd);
+                } else {
+                  proc.processAdd(cmd);
+                }
                 break;
               }
               case UpdateLog.DELETE:
@@ -1326,7 +1520,11 @@ public class UpdateLog implements PluginInfoInitialized {
                 cmd.setRequestVersion(version);
                 cmd.setFlags(UpdateCommand.REPLAY | UpdateCommand.IGNORE_AUTOCOMMIT);
                 if (debug) log.debug("delete " +  cmd);
-                proc.processDelete(cmd);
+                if (workers != null) {
+                  dispatch(workers, cmd.getIndexedId(), cmd);
+                } else {
+                  proc.processDelete(cmd);
+                }
                 break;
               }
 
@@ -1340,6 +1538,10 @@ public class UpdateLog implements PluginInfoInitialized {
                 cmd.setRequestVersion(version);
                 cmd.setFlags(UpdateCommand.REPLAY | UpdateCommand.IGNORE_AUTOCOMMIT);
                 if (debug) log.debug("deleteByQuery " +  cmd);
+                if (workers != null) {
+                  // a delete-by-query may affect any id, so everything before it must be applied first
+                  awaitWorkers(workers);
+                }
                 proc.processDelete(cmd);
                 break;
               }
@@ -1359,28 +1561,16 @@ public class UpdateLog implements PluginInfoInitialized {
               loglog.error("REPLAY_ERR: Exception replaying log", e);
               throw e;
             }
-          } catch (IOException ex) {
-            recoveryInfo.errors++;
-            loglog.warn("REYPLAY_ERR: IOException reading log", ex);
-            // could be caused by an incomplete flush if recovering from log
-          } catch (ClassCastException cl) {
-            recoveryInfo.errors++;
-            loglog.warn("REPLAY_ERR: Unexpected log entry or corrupt log.  Entry=" + o, cl);
-            // would be caused by a corrupt transaction log
-          }  catch (SolrException ex) {
-            if (ex.code() == ErrorCode.SERVICE_UNAVAILABLE.code) {
-              throw ex;
-            }
-            recoveryInfo.errors++;
-            loglog.warn("REYPLAY_ERR: IOException reading log", ex);
-            // could be caused by an incomplete flush if recovering from log
           } catch (Throwable ex) {
-            recoveryInfo.errors++;
-            loglog.warn("REPLAY_ERR: Exception replaying log", ex);
-            // something wrong with the request?
+            handleReplayError(ex, o);
           }
         }
 
+        if (workers != null) {
+          stopWorkers(workers);
+          workers = null;
+        }
+
         CommitUpdateCommand cmd = new CommitUpdateCommand(req, false);
         cmd.setVersion(commitVersion);
         cmd.setRequestVersion(commitVersion);
@@ -1391,7 +1581,7 @@ public class UpdateLog implements PluginInfoInitialized {
           if (debug) log.debug("commit " +  cmd);
           uhandler.commit(cmd);          // this should cause a commit to be added to the incomplete log and avoid it being replayed again after a restart.
         } catch (IOException ex) {
-          recoveryInfo.errors++;
+          recordReplayError();
           loglog.error("Replay exception: final commit.", ex);
         }
 
@@ -1407,15 +1597,182 @@ public class UpdateLog implements PluginInfoInitialized {
         try {
           proc.finish();
         } catch (IOException ex) {
-          recoveryInfo.errors++;
+          recordReplayError();
           loglog.error("Replay exception: finish()", ex);
         }
 
       } finally {
+        if (workers != null) {
+          // we are bailing out because of an error: don't leave the workers running
+          for (ReplayWorker worker : workers) {
+            worker.abort();
+          }
+        }
         if (tlogReader != null) tlogReader.close();
         translog.decref();
       }
     }
+
+    private void recordReplayError() {
+      synchronized (recoveryInfo) {
+        recoveryInfo.errors++;
+      }
+    }
+
+    /** Handles an exception from replaying a single log entry.  Called by the replayer and by its workers. */
+    void handleReplayError(Throwable ex, Object entry) {
+      if (ex instanceof IOException) {
+        recordReplayError();
+        loglog.warn("REYPLAY_ERR: IOException reading log", ex);
+        // could be caused by an incomplete flush if recovering from log
+      } else if (ex instanceof ClassCastException) {
+        recordReplayError();
+        loglog.warn("REPLAY_ERR: Unexpected log entry or corrupt log.  Entry=" + entry, ex);
+        // would be caused by a corrupt transaction log
+      } else if (ex instanceof SolrException) {
+        if (((SolrException)ex).code() == ErrorCode.SERVICE_UNAVAILABLE.code) {
+          throw (SolrException)ex;
+        }
+        recordReplayError();
+        loglog.warn("REYPLAY_ERR: IOException reading log", ex);
+        // could be caused by an incomplete flush if recovering from log
+      } else {
+        recordReplayError();
+        loglog.warn("REPLAY_ERR: Exception replaying log", ex);
+        // something wrong with the request?
+      }
+    }
+
+    private ReplayWorker[] startWorkers(UpdateRequestProcessorChain processorChain) {
+      ReplayWorker[] workers = new ReplayWorker[replayThreads];
+      for (int i=0; i<workers.length; i++) {
+        workers[i] = new ReplayWorker(processorChain);
+        recoveryExecutor.execute(workers[i]);
+      }
+      return workers;
+    }
+
+    /**
+     * Updates of the same id always go to the same worker, so they are applied in log order.
+     * The command is moved to the request of the worker, which its processors were created
+     * with; the request of the replay thread must not be used from other threads.
+     */
+    private void dispatch(ReplayWorker[] workers, BytesRef indexedId, UpdateCommand cmd) throws InterruptedException {
+      int hash = Hash.murmurhash3_x86_32(indexedId.bytes, indexedId.offset, indexedId.length, 0);
+      ReplayWorker worker = workers[(hash & 0x7fffffff) % workers.length];
+      worker.checkFailure();
+      cmd.setReq(worker.wreq);
+      worker.queue.put(cmd);
+    }
+
+    /** Waits until the workers have applied everything dispatched to them so far */
+    private void awaitWorkers(ReplayWorker[] workers) throws InterruptedException {
+      CountDownLatch barrier = new CountDownLatch(workers.length);
+      for (ReplayWorker worker : workers) {
+        worker.queue.put(barrier);
+      }
+      barrier.await();
+      for (ReplayWorker worker : workers) {
+        worker.checkFailure();
+      }
+    }
+
+    private void stopWorkers(ReplayWorker[] workers) {
+      try {
+        for (ReplayWorker worker : workers) {
+          worker.queue.put(REPLAY_STOP);
+        }
+        for (ReplayWorker worker : workers) {
+          worker.done.await();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SolrException(ErrorCode.SERVICE_UNAVAILABLE, "Interrupted while replaying log", e);
+      }
+      for (ReplayWorker worker : workers) {
+        worker.checkFailure();
+      }
+    }
+
+    /** Applies the adds and deletes of a subset of the ids in the log with its own processor chain */
+    class ReplayWorker implements Runnable {
+      final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(1024);
+      final CountDownLatch done = new CountDownLatch(1);
+      final SolrQueryRequest wreq;
+      final SolrQueryResponse wrsp;
+      final UpdateRequestProcessor wproc;
+      volatile SolrException failure;  // a failure that must abort the replay
+      volatile boolean aborted;
+
+      ReplayWorker(UpdateRequestProcessorChain processorChain) {
+        wreq = new LocalSolrQueryRequest(uhandler.core, req.getParams());
+        ((LocalSolrQueryRequest)wreq).setAuthCredentials(AuthCredentialsSource.useInternalAuthCredentials().getAuthCredentials());
+        wrsp = new SolrQueryResponse();
+        wproc = processorChain.createProcessor(wreq, wrsp);
+      }
+
+      void checkFailure() {
+        if (failure != null) throw failure;
+      }
+
+      void abort() {
+        aborted = true;
+        queue.clear();
+        queue.offer(REPLAY_STOP);
+      }
+
+      @Override
+      public void run() {
+        SolrRequestInfo.setRequestInfo(new SolrRequestInfo(wreq, wrsp));
+        try {
+          for (;;) {
+            Object o = queue.take();
+            if (o == REPLAY_STOP) break;
+            if (o instanceof CountDownLatch) {
+              ((CountDownLatch)o).countDown();
+              continue;
+            }
+            if (aborted || failure != null) continue;  // drain until we are stopped
+
+            try {
+              if (o instanceof AddUpdateCommand) {
+                wproc.processAdd((AddUpdateCommand)o);
+              } else {
+                wproc.processDelete((DeleteUpdateCommand)o);
+              }
+
+              Exception e;
+              if ((e = wrsp.getException()) != null) {
+                loglog.error("REPLAY_ERR: Exception replaying log", e);
+                throw e;
+              }
+            } catch (Throwable ex) {
+              try {
+                handleReplayError(ex, o);
+              } catch (SolrException fatal) {
+                failure = fatal;
+              }
+            }
+          }
+
+          if (!aborted) {
+            try {
+              wproc.finish();
+            } catch (IOException ex) {
+              recordReplayError();
+              loglog.error("Replay exception: finish()", ex);
+            }
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          failure = new SolrException(ErrorCode.SERVICE_UNAVAILABLE, "Interrupted while replaying log", e);
+        } finally {
+          wreq.close();
+          SolrRequestInfo.clearRequestInfo();
+          done.countDown();
+        }
+      }
+    }
   }
 
   public void cancelApplyBufferedUpdates() {
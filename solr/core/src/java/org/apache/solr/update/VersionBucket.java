@@ -17,17 +17,84 @@
 
 package org.apache.solr.update;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.solr.common.SolrException;
+
 // TODO: make inner?
 // TODO: store the highest possible in the index on a commit (but how to not block adds?)
 // TODO: could also store highest possible in the transaction log after a commit.
 // Or on a new index, just scan "version" for the max?
-/** @lucene.internal */
+/**
+ * Guards the updates of all ids that hash to this bucket.  Updates must hold the
+ * bucket's lock (see {@link #lock(long)}) while they obtain a version and apply the update,
+ * and may only read or change {@link #highest} while holding it.
+ * <p>
+ * Contention statistics are kept per bucket and only updated while the lock is held, so
+ * the uncontended path only pays for incrementing a volatile counter.  See
+ * {@link VersionInfo#getBucketStatistics()} for the aggregate.
+ *
+ * @lucene.internal
+ */
 public class VersionBucket {
   public long highest;
 
+  private final ReentrantLock lock = new ReentrantLock();
+
+  // statistics, only written while holding the lock.  Volatile since they are read
+  // for reporting without it.
+  volatile long lockCount;
+  volatile long contendedCount;
+  volatile long waitNanos;
+  volatile long maxWaitNanos;
+  volatile int maxQueueLength;
+
   public void updateHighest(long val) {
     if (highest != 0) {
       highest = Math.max(highest, Math.abs(val));
     }
   }
+
+  /**
+   * Acquires the lock of this bucket, waiting at most <code>timeoutMs</code> milliseconds
+   * if it is held by another update.  A negative timeout waits forever.
+   * @throws SolrException if the lock could not be obtained in time
+   */
+  public void lock(long timeoutMs) {
+    if (lock.tryLock()) {
+      lockCount++;
+      return;
+    }
+
+    // contended: record how many were waiting and how long we waited
+    int queueLength = lock.getQueueLength() + 1;
+    long start = System.nanoTime();
+    if (timeoutMs < 0) {
+      lock.lock();
+    } else {
+      boolean locked;
+      try {
+        locked = lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Interrupted while waiting for version bucket lock", e);
+      }
+      if (!locked) {
+        throw new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE,
+            "Timed out after " + timeoutMs + "ms waiting for version bucket lock (too many concurrent updates to the same ids?)");
+      }
+    }
+    long waited = System.nanoTime() - start;
+
+    lockCount++;
+    contendedCount++;
+    waitNanos += waited;
+    if (waited > maxWaitNanos) maxWaitNanos = waited;
+    if (queueLength > maxQueueLength) maxQueueLength = queueLength;
+  }
+
+  public void unlock() {
+    lock.unlock();
+  }
 }
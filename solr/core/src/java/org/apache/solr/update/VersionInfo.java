@@ -18,16 +18,25 @@
 package org.apache.solr.update;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.queries.function.FunctionValues;
 import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.util.BitUtil;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CloseableThreadLocal;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.SolrIndexSearcher;
@@ -37,8 +46,13 @@ public class VersionInfo {
 
   private final UpdateLog ulog;
   private final VersionBucket[] buckets;
+  private final long bucketLockTimeoutMs;
   private SchemaField versionField;
   private SchemaField idField;
+  private final ValueSource versionValueSource;
+  // segment core -> version values, see SegmentVersions
+  private final Map<Object,SegmentVersions> segmentVersions =
+      Collections.synchronizedMap(new WeakHashMap<Object,SegmentVersions>());
   final ReadWriteLock lock = new ReentrantReadWriteLock(true);
 
   /**
@@ -75,11 +89,26 @@ public class VersionInfo {
     
     return sf;
   }
+  /** Default number of buckets: scales with the number of cores that can be indexing concurrently */
+  public static int defaultNumBuckets() {
+    return Math.max(256, Runtime.getRuntime().availableProcessors() * 64);
+  }
+
   public VersionInfo(UpdateLog ulog, int nBuckets) {
+    this(ulog, nBuckets, -1);
+  }
+
+  /**
+   * @param nBuckets number of version buckets, rounded up to a power of two
+   * @param bucketLockTimeoutMs maximum time an update waits for the lock of its bucket, or -1 to wait forever
+   */
+  public VersionInfo(UpdateLog ulog, int nBuckets, long bucketLockTimeoutMs) {
     this.ulog = ulog;
+    this.bucketLockTimeoutMs = bucketLockTimeoutMs;
     IndexSchema schema = ulog.uhandler.core.getLatestSchema(); 
     versionField = getAndCheckVersionField(schema);
     idField = schema.getUniqueKeyField();
+    versionValueSource = versionField.getType().getValueSource(versionField, null);
     buckets = new VersionBucket[ BitUtil.nextHighestPowerOfTwo(nBuckets) ];
     for (int i=0; i<buckets.length; i++) {
       buckets[i] = new VersionBucket();
@@ -87,7 +116,8 @@ public class VersionInfo {
   }
 
   public void reload() {
-
+    // lookups may still be using the values, which are closed with their cores
+    segmentVersions.clear();
   }
 
   public SchemaField getVersionField() {
@@ -178,24 +208,51 @@ public class VersionInfo {
     return buckets[slot];
   }
 
+  /** Locks the given bucket, honoring the configured lock timeout */
+  public void lockBucket(VersionBucket bucket) {
+    bucket.lock(bucketLockTimeoutMs);
+  }
+
+  public void unlockBucket(VersionBucket bucket) {
+    bucket.unlock();
+  }
+
+  /** Returns contention statistics summed over all version buckets */
+  public NamedList<Object> getBucketStatistics() {
+    long lockCount = 0, contendedCount = 0, waitNanos = 0, maxWaitNanos = 0;
+    int maxQueueLength = 0;
+    for (VersionBucket bucket : buckets) {
+      // unsynchronized reads: slightly stale values are fine for statistics
+      lockCount += bucket.lockCount;
+      contendedCount += bucket.contendedCount;
+      waitNanos += bucket.waitNanos;
+      maxWaitNanos = Math.max(maxWaitNanos, bucket.maxWaitNanos);
+      maxQueueLength = Math.max(maxQueueLength, bucket.maxQueueLength);
+    }
+
+    NamedList<Object> lst = new SimpleOrderedMap<Object>();
+    lst.add("version_buckets", buckets.length);
+    lst.add("version_bucket_locks", lockCount);
+    lst.add("version_bucket_contended", contendedCount);
+    lst.add("version_bucket_wait_ms", waitNanos / 1000000.0);
+    lst.add("version_bucket_max_wait_ms", maxWaitNanos / 1000000.0);
+    lst.add("version_bucket_max_queue", maxQueueLength);
+    return lst;
+  }
+
   public Long lookupVersion(BytesRef idBytes) {
     return ulog.lookupVersion(idBytes);
   }
 
   public Long getVersionFromIndex(BytesRef idBytes) {
-    // TODO: we could cache much of this and invalidate during a commit.
-    // TODO: most DocValues classes are threadsafe - expose which.
-
     RefCounted<SolrIndexSearcher> newestSearcher = ulog.uhandler.core.getRealtimeSearcher();
     try {
       SolrIndexSearcher searcher = newestSearcher.get();
       long lookup = searcher.lookupId(idBytes);
       if (lookup < 0) return null;
 
-      ValueSource vs = versionField.getType().getValueSource(versionField, null);
-      Map context = ValueSource.newContext(searcher);
-      vs.createWeight(context, searcher);
-      FunctionValues fv = vs.getValues(context, searcher.getTopReaderContext().leaves().get((int)(lookup>>32)));
+      AtomicReaderContext leaf = searcher.getTopReaderContext().leaves().get((int)(lookup>>32));
+      FunctionValues fv = getSegmentVersions(leaf).getValues(searcher, leaf);
       long ver = fv.longVal((int)lookup);
       return ver;
 
@@ -208,4 +265,80 @@ public class VersionInfo {
     }
   }
 
+  /**
+   * Returns the version values of a segment of the realtime searcher.  The values of a
+   * segment are reused by every realtime searcher that the segment is part of.
+   */
+  private SegmentVersions getSegmentVersions(AtomicReaderContext leaf) {
+    final Object coreKey = leaf.reader().getCoreCacheKey();
+    synchronized (segmentVersions) {
+      SegmentVersions versions = segmentVersions.get(coreKey);
+      if (versions == null) {
+        versions = new SegmentVersions();
+        segmentVersions.put(coreKey, versions);
+        addCoreClosedListener(leaf.reader(), coreKey, versions);
+      }
+      return versions;
+    }
+  }
+
+  /** Drops the values of a segment once its core is closed, like the FieldCache purges it */
+  private void addCoreClosedListener(AtomicReader reader, final Object coreKey, final SegmentVersions versions) {
+    if (reader instanceof SegmentReader) {
+      ((SegmentReader) reader).addCoreClosedListener(new SegmentReader.CoreClosedListener() {
+        @Override
+        public void onClose(SegmentReader owner) {
+          remove(coreKey, versions);
+        }
+      });
+    } else if (coreKey instanceof AtomicReader) {
+      ((AtomicReader) coreKey).addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+        @Override
+        public void onClose(IndexReader reader) {
+          remove(coreKey, versions);
+        }
+      });
+    }
+    // otherwise the weak key drops the values once the core is collected
+  }
+
+  private void remove(Object coreKey, SegmentVersions versions) {
+    synchronized (segmentVersions) {
+      if (segmentVersions.get(coreKey) == versions) {
+        segmentVersions.remove(coreKey);
+      }
+    }
+    versions.close();
+  }
+
+  /**
+   * The {@link FunctionValues} of the version field of one segment core.  Segments are
+   * immutable, so the version stored for a docid never changes and the values can be
+   * reused for as long as the segment is open.  This avoids creating a new ValueSource
+   * context and weight for every lookup.
+   * <p>
+   * FunctionValues are not generally thread-safe (the values of a memory mapped field
+   * cache are read per thread, for example), so every thread has its own values.  The
+   * values must not refer to the core key, which is only held weakly.
+   */
+  private class SegmentVersions {
+    final CloseableThreadLocal<FunctionValues> values = new CloseableThreadLocal<FunctionValues>();
+
+    FunctionValues getValues(SolrIndexSearcher searcher, AtomicReaderContext leaf) throws IOException {
+      FunctionValues fv = values.get();
+      if (fv == null) {
+        // the context is only needed to create the values, so the searcher is not kept
+        Map context = ValueSource.newContext(searcher);
+        versionValueSource.createWeight(context, searcher);
+        fv = versionValueSource.getValues(context, leaf);
+        values.set(fv);
+      }
+      return fv;
+    }
+
+    void close() {
+      values.close();
+    }
+  }
+
 }
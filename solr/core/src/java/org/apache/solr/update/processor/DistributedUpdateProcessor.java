@@ -588,12 +588,12 @@ public class DistributedUpdateProcessor extends UpdateRequestProcessor {
   }
 
  
-  // must be synchronized by bucket
+  // must be called while holding the bucket lock
   private void doLocalAdd(AddUpdateCommand cmd) throws IOException {
     super.processAdd(cmd);
   }
 
-  // must be synchronized by bucket
+  // must be called while holding the bucket lock
   private void doLocalDelete(DeleteUpdateCommand cmd) throws IOException {
     super.processDelete(cmd);
   }
@@ -649,11 +649,12 @@ public class DistributedUpdateProcessor extends UpdateRequestProcessor {
 
     vinfo.lockForUpdate();
     try {
-      synchronized (bucket) {
-        // we obtain the version when synchronized and then do the add so we can ensure that
+      vinfo.lockBucket(bucket);
+      try {
+        // we obtain the version when holding the bucket lock and then do the add so we can ensure that
         // if version1 < version2 then version1 is actually added before version2.
 
-        // even if we don't store the version field, synchronizing on the bucket
+        // even if we don't store the version field, locking the bucket
         // will enable us to know what version happened first, and thus enable
         // realtime-get to work reliably.
         // TODO: if versions aren't stored, do we need to set on the cmd anyway for some reason?
@@ -719,7 +720,9 @@ public class DistributedUpdateProcessor extends UpdateRequestProcessor {
           cmd.solrDoc = clonedDoc;
         }
 
-      }  // end synchronized (bucket)
+      } finally {
+        vinfo.unlockBucket(bucket);
+      }
     } finally {
       vinfo.unlockForUpdate();
     }
@@ -1171,7 +1174,8 @@ public class DistributedUpdateProcessor extends UpdateRequestProcessor {
     vinfo.lockForUpdate();
     try {
 
-      synchronized (bucket) {
+      vinfo.lockBucket(bucket);
+      try {
         if (versionsStored) {
           long bucketVersion = bucket.highest;
 
@@ -1210,7 +1214,9 @@ public class DistributedUpdateProcessor extends UpdateRequestProcessor {
 
         doLocalDelete(cmd);
         return false;
-      }  // end synchronized (bucket)
+      } finally {
+        vinfo.unlockBucket(bucket);
+      }
 
     } finally {
       vinfo.unlockForUpdate();
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.util;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values added to it in a
+ * fixed amount of memory.
+ * <p>
+ * Values are added as 64 bit hashes ({@link #hash(long)}, {@link #hash(BytesRef)}).  The
+ * first <code>log2m</code> bits of a hash select one of 2^log2m registers, which keeps the
+ * longest run of leading zeros seen in the remaining bits.  The relative standard error of
+ * the estimate is about 1.04/sqrt(2^log2m), 0.8% with the default of 2^14 one byte
+ * registers.
+ * <p>
+ * Sketches with the same log2m can be merged, and the merged sketch estimates the number
+ * of distinct values added to any of them; {@link #toBytes()} and {@link #fromBytes(byte[])}
+ * serialize sketches between shards.
+ */
+public class HyperLogLog {
+  public static final int DEFAULT_LOG2M = 14;
+
+  private final int log2m;
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    this(DEFAULT_LOG2M);
+  }
+
+  public HyperLogLog(int log2m) {
+    if (log2m < 4 || log2m > 16) {
+      throw new IllegalArgumentException("log2m must be between 4 and 16: " + log2m);
+    }
+    this.log2m = log2m;
+    this.registers = new byte[1 << log2m];
+  }
+
+  public int getLog2m() {
+    return log2m;
+  }
+
+  /** Adds a value, given its 64 bit hash */
+  public void add(long hash) {
+    int index = (int) (hash >>> (64 - log2m));
+    long rest = hash << log2m;
+    // position of the first set bit after the index bits, starting at 1
+    int rank = rest == 0 ? 64 - log2m + 1 : Long.numberOfLeadingZeros(rest) + 1;
+    if (rank > registers[index]) {
+      registers[index] = (byte) rank;
+    }
+  }
+
+  /** Adds all values of another sketch to this one */
+  public void merge(HyperLogLog other) {
+    if (other.log2m != log2m) {
+      throw new IllegalArgumentException("Cannot merge sketches of log2m " + log2m + " and " + other.log2m);
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /** Returns the estimated number of distinct values added */
+  public long cardinality() {
+    final int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double estimate = alpha(m) * m * m / sum;
+    if (estimate <= 2.5 * m && zeros != 0) {
+      // small cardinalities: linear counting of the empty registers is more accurate
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  private static double alpha(int m) {
+    switch (m) {
+      case 16: return 0.673;
+      case 32: return 0.697;
+      case 64: return 0.709;
+      default: return 0.7213 / (1 + 1.079 / m);
+    }
+  }
+
+  /** Returns the serialized sketch: log2m followed by the registers */
+  public byte[] toBytes() {
+    byte[] bytes = new byte[registers.length + 1];
+    bytes[0] = (byte) log2m;
+    System.arraycopy(registers, 0, bytes, 1, registers.length);
+    return bytes;
+  }
+
+  /** Returns the sketch serialized by {@link #toBytes()} */
+  public static HyperLogLog fromBytes(byte[] bytes) {
+    HyperLogLog sketch = new HyperLogLog(bytes[0]);
+    if (bytes.length != sketch.registers.length + 1) {
+      throw new IllegalArgumentException("Invalid HyperLogLog sketch of " + bytes.length + " bytes");
+    }
+    System.arraycopy(bytes, 1, sketch.registers, 0, sketch.registers.length);
+    return sketch;
+  }
+
+  /** Returns a 64 bit hash of a long (the finalizer of MurmurHash3) */
+  public static long hash(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  /** Returns a 64 bit hash of the bytes (MurmurHash64A) */
+  public static long hash(BytesRef bytes) {
+    final long m = 0xc6a4a7935bd1e995L;
+    final int r = 47;
+    final byte[] data = bytes.bytes;
+    final int length = bytes.length;
+    long h = length * m;
+
+    int pos = bytes.offset;
+    final int blocksEnd = pos + (length & ~7);
+    for (; pos < blocksEnd; pos += 8) {
+      long k = (data[pos] & 0xffL)
+          | (data[pos + 1] & 0xffL) << 8
+          | (data[pos + 2] & 0xffL) << 16
+          | (data[pos + 3] & 0xffL) << 24
+          | (data[pos + 4] & 0xffL) << 32
+          | (data[pos + 5] & 0xffL) << 40
+          | (data[pos + 6] & 0xffL) << 48
+          | (data[pos + 7] & 0xffL) << 56;
+      k *= m;
+      k ^= k >>> r;
+      k *= m;
+      h ^= k;
+      h *= m;
+    }
+
+    switch (length & 7) {
+      case 7: h ^= (data[pos + 6] & 0xffL) << 48;
+      case 6: h ^= (data[pos + 5] & 0xffL) << 40;
+      case 5: h ^= (data[pos + 4] & 0xffL) << 32;
+      case 4: h ^= (data[pos + 3] & 0xffL) << 24;
+      case 3: h ^= (data[pos + 2] & 0xffL) << 16;
+      case 2: h ^= (data[pos + 1] & 0xffL) << 8;
+      case 1: h ^= data[pos] & 0xffL;
+        h *= m;
+    }
+
+    h ^= h >>> r;
+    h *= m;
+    h ^= h >>> r;
+    return h;
+  }
+}
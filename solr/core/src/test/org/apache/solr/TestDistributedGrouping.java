@@ -17,6 +17,9 @@ package org.apache.solr;
  * limitations under the License.
  */
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.apache.lucene.util.LuceneTestCase.Slow;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -264,6 +267,31 @@ public class TestDistributedGrouping extends BaseDistributedSearchTestCase {
 
     // Can't validate the response, but can check if no errors occur.
     simpleQuery("q", "*:*", "rows", 100, "fl", "id," + i1, "group", "true", "group.query", t1 + ":kings OR " + t1 + ":eggs", "group.limit", 10, "sort", i1 + " asc, id asc", CommonParams.TIME_ALLOWED, 1);
+
+    // approximate ngroups merges the sketches of the shards, so groups on several shards count once
+    Set<Integer> groups = new HashSet<Integer>();
+    int numDocs = atLeast(500);
+    for (int i = 0; i < numDocs; i++) {
+      int groupValue = 100000 + random().nextInt(numDocs / 2);
+      groups.add(groupValue);
+      indexr(id, 10000 + i, i1, groupValue, s1, "approx");
+    }
+    commit();
+
+    params = new ModifiableSolrParams();
+    params.set("q", "*:*");
+    params.set("fq", s1 + ":approx");
+    params.set("rows", 0);
+    params.set("group", "true");
+    params.set("group.field", i1);
+    params.set("group.ngroups", "true");
+    params.set("group.ngroups.approximate", "true");
+    setDistributedParams(params);
+    rsp = queryServer(params);
+    nl = (NamedList<?>) rsp.getResponse().get("grouped");
+    nl = (NamedList<?>) nl.get(i1);
+    assertEquals(numDocs, ((Number) nl.get("matches")).intValue());
+    TestDistributedSearch.assertCardinality(groups.size(), ((Number) nl.get("ngroups")).longValue());
   }
 
   private void simpleQuery(Object... queryParams) throws SolrServerException {
@@ -19,8 +19,10 @@ package org.apache.solr;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.search.FieldCache;
@@ -36,6 +38,7 @@ import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.util.HyperLogLog;
 
 import static org.apache.solr.client.solrj.embedded.JettySolrRunner.*;
 
@@ -177,6 +180,9 @@ public class TestDistributedSearch extends BaseDistributedSearchTestCase {
     query("q","*:*", "rows",0, "facet","true", "facet.field",t1,"facet.limit",1);
     query("q","*:*", "rows",0, "facet","true", "facet.query","quick", "facet.query","all", "facet.query","*:*");
     query("q","*:*", "rows",0, "facet","true", "facet.field",t1, "facet.mincount",2);
+    // shards with few terms return all their counts, without refinement
+    query("q","*:*", "rows",0, "facet","true", "facet.field",t1,"facet.limit",1, "facet.distrib.complete",1000);
+    query("q","*:*", "rows",0, "facet","true", "facet.field",t1,"facet.limit",2, "f."+t1+".facet.distrib.complete",1000, "facet.mincount",2);
 
     // a facet query to test out chars out of the ascii range
     query("q","*:*", "rows",0, "facet","true", "facet.query","{!term f=foo_s}international\u00ff\u01ff\u2222\u3333");
@@ -267,6 +273,7 @@ public class TestDistributedSearch extends BaseDistributedSearchTestCase {
     query("q","*:*", "rows",100, "facet","true", "facet.field",oddField, "facet.mincount",2);
 
     query("q","*:*", "sort",i1+" desc", "stats", "true", "stats.field", i1);
+    testCardinality();
 
     /*** TODO: the failure may come back in "exception"
     try {
@@ -400,6 +407,37 @@ public class TestDistributedSearch extends BaseDistributedSearchTestCase {
     FieldCache.DEFAULT.purgeAllCaches();   // avoid FC insanity
   }
   
+  /** stats.cardinality merges the sketches of the shards, so it estimates distinct values over all shards */
+  private void testCardinality() throws Exception {
+    Set<Long> distinct = new HashSet<Long>();
+    int numDocs = atLeast(500);
+    for (int i = 0; i < numDocs; i++) {
+      // values repeat, on the same shard and on different shards
+      long value = random().nextInt(numDocs / 2) * 7919L;
+      distinct.add(value);
+      indexr(id, 1000 + i, nlong, value);
+    }
+    commit();
+
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set("q", "*:*");
+    params.set("rows", 0);
+    params.set("stats", "true");
+    params.set("stats.field", nlong);
+    params.set("stats.cardinality", "true");
+    setDistributedParams(params);
+    QueryResponse rsp = queryServer(params);
+    NamedList<?> statsFields = (NamedList<?>) ((NamedList<?>) rsp.getResponse().get("stats")).get("stats_fields");
+    long estimate = ((Number) ((NamedList<?>) statsFields.get(nlong)).get("cardinality")).longValue();
+    assertCardinality(distinct.size(), estimate);
+  }
+
+  /** Asserts that an estimate is within three standard errors of the exact number of distinct values */
+  static void assertCardinality(long exact, long estimate) {
+    double error = 3 * 1.04 / Math.sqrt(1 << HyperLogLog.DEFAULT_LOG2M) * exact;
+    assertEquals("exact=" + exact + " estimate=" + estimate, exact, estimate, Math.max(1, error));
+  }
+
   protected void queryPartialResults(final List<String> upShards, 
                                      final List<SolrServer> upClients, 
                                      Object... q) throws Exception {
@@ -29,6 +29,8 @@ import org.apache.solr.response.BinaryResponseWriter;
 import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -135,6 +137,13 @@ public class TestGroupingSearch extends SolrTestCaseJ4 {
             ,"//arr[@name='groups']/lst[3]/result/doc/*[@name='id'][.='5']"
             );
 
+    // small group counts are estimated exactly
+    assertQ(req("q","title:title", "group", "true", "group.field","name", "group.ngroups", "true", "group.ngroups.approximate", "true")
+            ,"//lst[@name='grouped']/lst[@name='name']/int[@name='matches'][.='5']"
+            ,"//lst[@name='grouped']/lst[@name='name']/int[@name='ngroups'][.='3']"
+            ,"*[count(//arr[@name='groups']/lst) = 3]"
+            );
+
     assertQ(req("q", "title:title", "group", "true", "group.field", "group_si", "group.ngroups", "true")
         , "//lst[@name='grouped']/lst[@name='group_si']/int[@name='matches'][.='5']"
         , "//lst[@name='grouped']/lst[@name='group_si']/int[@name='ngroups'][.='2']"
@@ -217,6 +226,85 @@ public class TestGroupingSearch extends SolrTestCaseJ4 {
     );
   }
 
+  @Test
+  public void testGroupingCache() throws Exception {
+    for (int i = 1; i <= 6; i++) {
+      assertU(add(doc("id", Integer.toString(i), "name", "author" + (i % 4))));
+    }
+    assertU(commit());
+
+    long hits = getGroupingCacheHits();
+    assertJQ(
+        req("q", "*:*", "rows", "2", "sort", "id asc", "group", "true", "group.field", "name", "fl", "id"),
+        "/grouped/name/groups=[{'groupValue':'author1','doclist':{'numFound':2,'start':0,'docs':[{'id':'1'}]}}," +
+            "{'groupValue':'author2','doclist':{'numFound':2,'start':0,'docs':[{'id':'2'}]}}]"
+    );
+    assertEquals(hits, getGroupingCacheHits());
+
+    // the next page is found in the cache
+    assertJQ(
+        req("q", "*:*", "start", "2", "rows", "2", "sort", "id asc", "group", "true", "group.field", "name", "fl", "id"),
+        "/grouped/name/groups=[{'groupValue':'author3','doclist':{'numFound':1,'start':0,'docs':[{'id':'3'}]}}," +
+            "{'groupValue':'author0','doclist':{'numFound':1,'start':0,'docs':[{'id':'4'}]}}]"
+    );
+    assertEquals(hits + 1, getGroupingCacheHits());
+
+    // the cache is regenerated for the new searcher
+    assertU(add(doc("id", "0", "name", "author4")));
+    assertU(commit());
+    hits = getGroupingCacheHits();
+    assertJQ(
+        req("q", "*:*", "rows", "2", "sort", "id asc", "group", "true", "group.field", "name", "fl", "id"),
+        "/grouped/name/groups=[{'groupValue':'author4','doclist':{'numFound':1,'start':0,'docs':[{'id':'0'}]}}," +
+            "{'groupValue':'author1','doclist':{'numFound':2,'start':0,'docs':[{'id':'1'}]}}]"
+    );
+    assertEquals(hits + 1, getGroupingCacheHits());
+  }
+
+  @Test
+  public void testGroupingCacheFunctionSort() throws Exception {
+    for (int i = 1; i <= 6; i++) {
+      assertU(add(doc("id", Integer.toString(i), "name", "author" + (i % 4), "value_i", Integer.toString(i))));
+    }
+    assertU(commit());
+
+    long hits = getGroupingCacheHits();
+    assertJQ(
+        req("q", "*:*", "rows", "2", "sort", "sum(value_i,0) desc", "group", "true", "group.field", "name", "fl", "id"),
+        "/grouped/name/groups=[{'groupValue':'author2','doclist':{'numFound':2,'start':0,'docs':[{'id':'6'}]}}," +
+            "{'groupValue':'author1','doclist':{'numFound':2,'start':0,'docs':[{'id':'5'}]}}]"
+    );
+    assertEquals(hits, getGroupingCacheHits());
+
+    // function sorts are only equal before they are weighted
+    assertJQ(
+        req("q", "*:*", "start", "2", "rows", "2", "sort", "sum(value_i,0) desc", "group", "true", "group.field", "name", "fl", "id"),
+        "/grouped/name/groups=[{'groupValue':'author0','doclist':{'numFound':1,'start':0,'docs':[{'id':'4'}]}}," +
+            "{'groupValue':'author3','doclist':{'numFound':1,'start':0,'docs':[{'id':'3'}]}}]"
+    );
+    assertEquals(hits + 1, getGroupingCacheHits());
+
+    // the regenerated entry sorts by the values of the new searcher
+    assertU(add(doc("id", "0", "name", "author4", "value_i", "10")));
+    assertU(commit());
+    hits = getGroupingCacheHits();
+    assertJQ(
+        req("q", "*:*", "rows", "2", "sort", "sum(value_i,0) desc", "group", "true", "group.field", "name", "fl", "id"),
+        "/grouped/name/groups=[{'groupValue':'author4','doclist':{'numFound':1,'start':0,'docs':[{'id':'0'}]}}," +
+            "{'groupValue':'author2','doclist':{'numFound':2,'start':0,'docs':[{'id':'6'}]}}]"
+    );
+    assertEquals(hits + 1, getGroupingCacheHits());
+  }
+
+  private long getGroupingCacheHits() {
+    RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+    try {
+      return (Long) searcher.get().getGroupingCache().getStatistics().get("hits");
+    } finally {
+      searcher.decref();
+    }
+  }
+
   @Test
   public void testGroupingSimpleFormatStartBiggerThanRows() throws Exception {
     assertU(add(doc("id", "1")));
@@ -295,6 +383,32 @@ public class TestGroupingSearch extends SolrTestCaseJ4 {
     );
   }
 
+  @Test
+  public void testGroupingNumericFields() throws Exception {
+    assertU(add(doc("id", "1", "price_td", "2.5", "day_tdt", "2013-01-01T00:00:00Z")));
+    assertU(add(doc("id", "2", "price_td", "-1.0", "day_tdt", "2013-01-02T00:00:00Z")));
+    assertU(commit());
+    assertU(add(doc("id", "3", "price_td", "2.5", "day_tdt", "2013-01-01T00:00:00Z")));
+    assertU(add(doc("id", "4", "day_tdt", "2013-01-02T00:00:00Z")));
+    assertU(add(doc("id", "5", "price_td", "-1.0")));
+    assertU(commit());
+
+    assertJQ(
+        req("q", "*:*", "sort", "id asc", "group", "true", "group.field", "price_td", "group.ngroups", "true", "fl", "id"),
+        "/grouped=={'price_td':{'matches':5,'ngroups':3,'groups':[" +
+            "{'groupValue':2.5,'doclist':{'numFound':2,'start':0,'docs':[{'id':'1'}]}}," +
+            "{'groupValue':-1.0,'doclist':{'numFound':2,'start':0,'docs':[{'id':'2'}]}}," +
+            "{'groupValue':null,'doclist':{'numFound':1,'start':0,'docs':[{'id':'4'}]}}]}}"
+    );
+
+    assertJQ(
+        req("q", "*:*", "sort", "id desc", "group", "true", "group.field", "day_tdt", "group.limit", "2", "rows", "2", "fl", "id"),
+        "/grouped=={'day_tdt':{'matches':5,'groups':[" +
+            "{'groupValue':null,'doclist':{'numFound':1,'start':0,'docs':[{'id':'5'}]}}," +
+            "{'groupValue':'2013-01-02T00:00:00Z','doclist':{'numFound':2,'start':0,'docs':[{'id':'4'},{'id':'2'}]}}]}}"
+    );
+  }
+
   @Test
   public void testGroupingGroupedBasedFaceting() throws Exception {
     assertU(add(doc("id", "1", "value1_s1", "1", "value2_i", "1", "value3_s1", "a", "value4_i", "1")));
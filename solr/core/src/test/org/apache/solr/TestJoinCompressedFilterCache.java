@@ -0,0 +1,92 @@
+package org.apache.solr;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.search.ChunkedDocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Joins against a filterCache that holds compressed DocSets */
+public class TestJoinCompressedFilterCache extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    System.setProperty("enable.update.log", "false"); // schema12 doesn't support _version_
+    System.setProperty("solr.compressFilterCache", "true");
+    initCore("solrconfig.xml","schema12.xml");
+  }
+
+  @AfterClass
+  public static void afterTests() throws Exception {
+    System.clearProperty("solr.compressFilterCache");
+  }
+
+  @Test
+  public void testJoin() throws Exception {
+    assertU(add(doc("id", "1","name", "john", "title", "Director", "dept_s","Engineering")));
+    assertU(add(doc("id", "3","name", "nancy", "title", "MTS", "dept_s","Sales")));
+    assertU(add(doc("id", "4","name", "dave", "title", "MTS", "dept_s","Support", "dept_s","Engineering")));
+
+    // Sets of 150 out of ~8200 documents are collected as bitsets, but a chunked set
+    // takes less than half of that
+    int deptSize = 150;
+    String[] depts = {"Engineering", "Sales", "Support"};
+    XmlDoc[] docs = new XmlDoc[8200];
+    for (int i = 0; i < docs.length; i++) {
+      docs[i] = i < depts.length * deptSize
+          ? doc("id", Integer.toString(100 + i), "dept_id_s", depts[i / deptSize])
+          : doc("id", Integer.toString(100 + i));
+    }
+    assertU(add(docs));
+    assertU(commit());
+
+    RefCounted<SolrIndexSearcher> holder = h.getCore().getSearcher();
+    try {
+      SolrIndexSearcher searcher = holder.get();
+      for (String dept : depts) {
+        assertTrue(searcher.getDocSet(new TermQuery(new Term("dept_id_s", dept))) instanceof ChunkedDocSet);
+      }
+    } finally {
+      holder.decref();
+    }
+
+    // a single set from the filterCache
+    assertJQ(req("q","{!join from=dept_s to=dept_id_s}name:nancy", "fl","id", "rows","0")
+        ,"/response/numFound==" + deptSize
+    );
+    assertJQ(req("q","{!join from=dept_s to=dept_id_s}name:nancy", "fl","id", "sort","id asc", "rows","1")
+        ,"/response/docs==[{'id':'250'}]"
+    );
+
+    // the union of several
+    assertJQ(req("q","{!join from=dept_s to=dept_id_s}title:MTS", "fl","id", "rows","0")
+        ,"/response/numFound==" + (3 * deptSize)
+    );
+    assertJQ(req("q","*:*", "fq","{!join from=dept_s to=dept_id_s}title:MTS", "fq","-dept_id_s:Sales", "rows","0")
+        ,"/response/numFound==" + (2 * deptSize)
+    );
+    assertJQ(req("q","{!join from=dept_s to=dept_id_s}name:john", "fl","id", "rows","0")
+        ,"/response/numFound==" + deptSize
+    );
+  }
+}
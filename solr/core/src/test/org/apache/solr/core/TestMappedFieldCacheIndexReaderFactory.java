@@ -0,0 +1,132 @@
+package org.apache.solr.core;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestMappedFieldCacheIndexReaderFactory extends SolrTestCaseJ4 {
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig-mappedfieldcache.xml", "schema.xml");
+  }
+
+  @Test
+  public void testSortAndFunctions() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "foo_ti", "-5", "foo_tf", "2.5", "foo_tl", "10000000000", "foo_td", "-1.5",
+        "foo_tdt", "2000-01-01T00:00:00Z"));
+    assertU(adoc("id", "2", "foo_ti", "7", "foo_tf", "-3.25", "foo_tl", "-3", "foo_td", "8.0",
+        "foo_tdt", "1999-01-01T00:00:00Z"));
+    assertU(commit());
+    assertU(adoc("id", "3", "foo_ti", "0", "foo_tf", "100", "foo_tl", "5", "foo_td", "0.5",
+        "foo_tdt", "2010-01-01T00:00:00Z"));
+    assertU(adoc("id", "4"));
+    assertU(commit());
+
+    SolrQueryRequest req = req();
+    try {
+      for (AtomicReaderContext leaf : req.getSearcher().getTopReaderContext().leaves()) {
+        assertNotNull(leaf.reader().getNumericDocValues("foo_ti"));
+        assertNotNull(leaf.reader().getNumericDocValues("foo_tdt"));
+        assertNull(leaf.reader().getNumericDocValues("foo_s"));
+      }
+      String[] files = new File(h.getCore().getDataDir(), "fieldcache").list();
+      assertNotNull(files);
+      assertTrue(files.length > 0);
+    } finally {
+      req.close();
+    }
+
+    assertJQ(req("q", "id:[1 TO 3]", "sort", "foo_ti asc", "fl", "id"), "/response/docs==[{'id':1},{'id':3},{'id':2}]");
+    assertJQ(req("q", "id:[1 TO 3]", "sort", "foo_tf desc", "fl", "id"), "/response/docs==[{'id':3},{'id':1},{'id':2}]");
+    assertJQ(req("q", "id:[1 TO 3]", "sort", "foo_tl asc", "fl", "id"), "/response/docs==[{'id':2},{'id':3},{'id':1}]");
+    assertJQ(req("q", "id:[1 TO 3]", "sort", "foo_td asc", "fl", "id"), "/response/docs==[{'id':1},{'id':3},{'id':2}]");
+    assertJQ(req("q", "id:[1 TO 3]", "sort", "foo_tdt desc", "fl", "id"), "/response/docs==[{'id':3},{'id':1},{'id':2}]");
+    assertJQ(req("q", "{!func}foo_tf", "fq", "id:[1 TO 3]", "fl", "id,score"),
+        "/response/docs==[{'id':3,'score':100.0},{'id':1,'score':2.5},{'id':2,'score':-3.25}]");
+
+    // a document without values counts as 0, like with the FieldCache
+    assertJQ(req("q", "*:*", "sort", "foo_ti asc", "fl", "id"), "/response/docs==[{'id':1},{'id':3},{'id':4},{'id':2}]");
+
+    // the sidecars of the old segments are reused by the reopened reader
+    assertU(delI("2"));
+    assertU(commit());
+    assertJQ(req("q", "*:*", "sort", "foo_td desc", "fl", "id"), "/response/docs==[{'id':3},{'id':4},{'id':1}]");
+
+    assertU(optimize());
+    assertJQ(req("q", "*:*", "sort", "foo_tl desc", "fl", "id"), "/response/docs==[{'id':1},{'id':3},{'id':4}]");
+    req = req();
+    try {
+      for (AtomicReaderContext leaf : req.getSearcher().getTopReaderContext().leaves()) {
+        FieldCache.Ints ints = FieldCache.DEFAULT.getInts(leaf.reader(), "foo_ti", false);
+        for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+          int id = Integer.parseInt(leaf.reader().document(doc).get("id"));
+          assertEquals(id == 1 ? -5 : 0, ints.get(doc));
+        }
+      }
+    } finally {
+      req.close();
+    }
+  }
+
+  @Test
+  public void testValuesPerThread() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "foo_ti", "-5"));
+    assertU(adoc("id", "2", "foo_ti", "7"));
+    assertU(commit());
+
+    SolrQueryRequest req = req();
+    try {
+      final AtomicReader reader = req.getSearcher().getTopReaderContext().leaves().get(0).reader();
+      NumericDocValues values = reader.getNumericDocValues("foo_ti");
+      assertSame(values, reader.getNumericDocValues("foo_ti"));
+
+      final AtomicReference<NumericDocValues> otherValues = new AtomicReference<NumericDocValues>();
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            otherValues.set(reader.getNumericDocValues("foo_ti"));
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      thread.start();
+      thread.join();
+      assertNotNull(otherValues.get());
+      assertNotSame(values, otherValues.get());
+      for (int doc = 0; doc < reader.maxDoc(); doc++) {
+        assertEquals(values.get(doc), otherValues.get().get(doc));
+      }
+    } finally {
+      req.close();
+    }
+  }
+}
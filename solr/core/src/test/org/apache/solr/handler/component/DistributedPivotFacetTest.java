@@ -0,0 +1,57 @@
+package org.apache.solr.handler.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.solr.BaseDistributedSearchTestCase;
+
+/**
+ * Test for distributed pivot faceting
+ */
+public class DistributedPivotFacetTest extends BaseDistributedSearchTestCase {
+
+  @Override
+  public void doTest() throws Exception {
+    del("*:*");
+    for (int i=0; i<60; i++) {
+      // counts of a_s are 1, 3, 5, ... so that the top values are the same on all shards
+      String a = "v" + (int)Math.sqrt(i);
+      if (i % 7 == 0) {
+        index(id, i, "a_s", a, "c_i", i % 3);
+      } else if (i % 5 == 0) {
+        index(id, i, "a_s", a, "b_s", "w" + (i % 4), "b_s", "x" + (i % 2));
+      } else {
+        index(id, i, "a_s", a, "b_s", "w" + (i % 4), "c_i", i % 3);
+      }
+    }
+    commit();
+
+    handle.clear();
+    handle.put("QTime", SKIPVAL);
+    handle.put("timestamp", SKIPVAL);
+    handle.put("maxScore", SKIPVAL);
+
+    query("q", "*:*", "rows", 0, "facet", "true", "facet.pivot", "a_s,b_s");
+    query("q", "*:*", "rows", 0, "facet", "true", "facet.pivot", "a_s,b_s,c_i");
+    query("q", "*:*", "rows", 0, "facet", "true", "facet.pivot", "b_s,c_i", "facet.missing", "true");
+    query("q", "*:*", "rows", 0, "facet", "true", "facet.pivot", "a_s,c_i", "facet.limit", 3);
+    query("q", "*:*", "rows", 0, "facet", "true", "facet.pivot", "a_s,b_s", "facet.sort", "index", "facet.limit", 4, "f.a_s.facet.offset", 2);
+    query("q", "*:*", "rows", 0, "facet", "true", "facet.pivot", "c_i,a_s", "facet.pivot.mincount", 4);
+    query("q", "*:*", "rows", 0, "facet", "true", "facet.pivot", "{!key=k ex=t}a_s,b_s", "fq", "{!tag=t}c_i:1");
+    query("q", "*:*", "rows", 0, "facet", "true", "facet.pivot", "b_s,a_s", "facet.field", "a_s", "facet.limit", 2);
+  }
+}
@@ -0,0 +1,95 @@
+package org.apache.solr.handler.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util._TestUtil;
+import org.apache.solr.common.util.NamedList;
+
+public class PackedFacetCountsTest extends LuceneTestCase {
+
+  public void testEncode() {
+    NamedList<Integer> counts = new NamedList<Integer>();
+    counts.add("foo", 5);
+    counts.add("bar", 3);
+    counts.add("foobar", 2);
+    counts.add(null, 7);
+
+    PackedFacetCounts.Reader reader = new PackedFacetCounts.Reader(3, PackedFacetCounts.encode(counts, null, true));
+    assertEquals(3, reader.shardNum);
+    assertTrue(reader.complete);
+    assertEquals(7, reader.missing);
+    assertEquals(2, reader.last);
+    assertEquals(3, reader.numTerms);
+
+    // in index order
+    String[] terms = {"bar", "foo", "foobar"};
+    long[] expected = {3, 5, 2};
+    for (int i = 0; i < terms.length; i++) {
+      assertTrue(reader.next());
+      assertEquals(terms[i], reader.term.utf8ToString());
+      assertNull(reader.readable);
+      assertEquals(expected[i], reader.count);
+    }
+    assertFalse(reader.next());
+
+    reader = new PackedFacetCounts.Reader(0, PackedFacetCounts.encode(new NamedList<Integer>(), null, false));
+    assertFalse(reader.complete);
+    assertEquals(-1, reader.missing);
+    assertFalse(reader.next());
+  }
+
+  public void testMerge() {
+    int numShards = _TestUtil.nextInt(random(), 1, 5);
+    Map<String,Long> expected = new TreeMap<String,Long>();
+    PackedFacetCounts.Reader[] readers = new PackedFacetCounts.Reader[numShards];
+    for (int shard = 0; shard < numShards; shard++) {
+      NamedList<Integer> counts = new NamedList<Integer>();
+      int numTerms = random().nextInt(50);
+      for (int i = 0; i < numTerms; i++) {
+        String term = _TestUtil.randomRealisticUnicodeString(random(), 1, 4);
+        if (counts.get(term) != null) continue;
+        int count = random().nextInt(10);
+        counts.add(term, count);
+        Long prev = expected.get(term);
+        expected.put(term, (prev == null ? 0 : prev) + count);
+      }
+      readers[shard] = new PackedFacetCounts.Reader(shard, PackedFacetCounts.encode(counts, null, false));
+    }
+
+    PackedFacetCounts.Merger merger = new PackedFacetCounts.Merger(readers);
+    Map<String,Long> merged = new TreeMap<String,Long>();
+    String prev = null;
+    for (PackedFacetCounts.Reader top = merger.top(); top != null; top = merger.top()) {
+      String term = top.term.utf8ToString();
+      if (prev != null && !prev.equals(term)) {
+        // terms come in unicode order, each term of all shards together
+        assertTrue(prev.codePointAt(0) <= term.codePointAt(0));
+        assertFalse(merged.containsKey(term));
+      }
+      Long count = merged.get(term);
+      merged.put(term, (count == null ? 0 : count) + top.count);
+      prev = term;
+      merger.advanceTop();
+    }
+    assertEquals(expected, merged);
+  }
+}
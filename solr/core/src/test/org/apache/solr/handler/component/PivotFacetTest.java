@@ -0,0 +1,106 @@
+package org.apache.solr.handler.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PivotFacetTest extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml","schema.xml");
+
+    for (int i=0; i<60; i++) {
+      List<String> doc = new ArrayList<String>();
+      doc.add("id");
+      doc.add(Integer.toString(i));
+      if (i % 4 != 3) {
+        doc.add("a_s");
+        doc.add("abc".substring(i % 3, i % 3 + 1));
+      }
+      // several values, or none
+      for (int bit=0; bit<3; bit++) {
+        if ((i & (1 << bit)) != 0) {
+          doc.add("b_s");
+          doc.add("pqr".substring(bit, bit + 1));
+        }
+      }
+      if (i % 5 != 0) {
+        doc.add("c_i");
+        doc.add(Integer.toString(i % 4 + 1));
+      }
+      assertU(adoc(doc.toArray(new String[doc.size()])));
+      if (i == 30) {
+        assertU(commit()); // more than one segment
+      }
+    }
+    assertU(commit());
+  }
+
+  @Test
+  public void testPivotCounts() {
+    assertQ(req("q", "*:*", "rows", "0", "facet", "true", "facet.pivot", "a_s,c_i")
+        ,"//arr[@name='a_s,c_i']/lst[str[@name='value'][.='a']]/int[@name='count'][.='15']"
+        ,"//arr[@name='a_s,c_i']/lst[str[@name='value'][.='a']]/arr[@name='pivot']/lst[int[@name='value'][.='1']]/int[@name='count'][.='4']"
+        ,"//arr[@name='a_s,c_i']/lst[str[@name='value'][.='b']]/arr[@name='pivot']/lst[int[@name='value'][.='2']]/int[@name='count'][.='4']"
+    );
+  }
+
+  @Test
+  public void testSinglePassMatchesPerValueDocSets() {
+    String[][] paramSets = {
+        {"facet.pivot", "a_s,b_s"},
+        {"facet.pivot", "b_s,a_s,c_i", "facet.limit", "2"},
+        {"facet.pivot", "a_s,c_i", "facet.missing", "true", "facet.sort", "index"},
+        {"facet.pivot", "c_i,b_s", "facet.missing", "true", "facet.pivot.mincount", "0"},
+        {"facet.pivot", "a_s,b_s", "facet.mincount", "0", "facet.limit", "2", "f.b_s.facet.offset", "1"},
+        {"facet.pivot", "c_i,a_s,b_s", "facet.pivot.mincount", "3", "facet.limit", "-1"},
+        {"facet.pivot", "{!key=k ex=t}a_s,b_s", "fq", "{!tag=t}c_i:[2 TO 3]", "facet.missing", "true"},
+        {"facet.pivot", "b_s,c_i", "fq", "a_s:a", "f.c_i.facet.sort", "index", "f.c_i.facet.limit", "2"},
+    };
+    for (String[] params : paramSets) {
+      String expected = pivots(params, true);
+      assertTrue(expected, expected.contains("<arr"));
+      assertEquals(Arrays.toString(params), expected, pivots(params, false));
+    }
+  }
+
+  /** returns the facet_pivot section of the response, computed with a single pass or not */
+  private String pivots(String[] params, boolean perValueDocSets) {
+    List<String> all = new ArrayList<String>(Arrays.asList("q", "*:*", "rows", "0", "facet", "true"));
+    all.addAll(Arrays.asList(params));
+    if (perValueDocSets) {
+      // a facet.prefix matching all terms is only supported by the per-value DocSets
+      all.add("facet.prefix");
+      all.add("");
+    }
+    String xml;
+    try {
+      xml = h.query(req(all.toArray(new String[all.size()])));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    return xml.substring(xml.indexOf("<lst name=\"facet_pivot\">"));
+  }
+}
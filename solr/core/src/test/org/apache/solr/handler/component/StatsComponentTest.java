@@ -18,15 +18,21 @@ package org.apache.solr.handler.component;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.MapSolrParams;
 import org.apache.solr.common.params.StatsParams;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.request.LocalSolrQueryRequest;
 import org.apache.solr.request.SolrQueryRequest;
@@ -170,6 +176,36 @@ public class StatsComponentTest extends AbstractSolrTestCase {
             "//long[@name='missing'][.='1']");
   }
 
+  public void testFieldStatisticsCardinality() throws Exception {
+    SolrCore core = h.getCore();
+    assertU(adoc("id", "1", "active_s", "string1", "active_i", "10"));
+    assertU(adoc("id", "2", "active_s", "string2", "active_i", "20"));
+    assertU(commit());
+    assertU(adoc("id", "3", "active_s", "string1", "active_i", "10"));
+    assertU(adoc("id", "4", "active_i", "30"));
+    assertU(commit());
+
+    Map<String, String> args = new HashMap<String, String>();
+    args.put(CommonParams.Q, "*:*");
+    args.put(StatsParams.STATS, "true");
+    args.put(StatsParams.STATS_FIELD, "active_s");
+    args.put("f.active_s." + StatsParams.STATS_CARDINALITY, "true");
+    args.put("indent", "true");
+    SolrQueryRequest req = new LocalSolrQueryRequest(core, new MapSolrParams(args));
+
+    assertQ("test string cardinality", req,
+            "//lst[@name='active_s']/long[@name='count'][.='3']",
+            "//lst[@name='active_s']/long[@name='cardinality'][.='2']");
+
+    args.put(StatsParams.STATS_FIELD, "active_i");
+    args.put(StatsParams.STATS_CARDINALITY, "true");
+    req = new LocalSolrQueryRequest(core, new MapSolrParams(args));
+
+    assertQ("test numeric cardinality", req,
+            "//lst[@name='active_i']/long[@name='count'][.='4']",
+            "//lst[@name='active_i']/long[@name='cardinality'][.='3']");
+  }
+
   public void testFieldStatisticsResultsDateField() throws Exception {
     SolrCore core = h.getCore();
 
@@ -370,4 +406,96 @@ public class StatsComponentTest extends AbstractSolrTestCase {
               400);
 
   }
+
+  public void testSinglePassStatsMatchPerFieldStats() throws Exception {
+    for (int i = 0; i < 60; i++) {
+      if (i % 7 == 3) {
+        assertU(adoc("id", Integer.toString(i), "active_s", "s" + (i % 4)));
+      } else if (i % 5 == 0) {
+        assertU(adoc("id", Integer.toString(i), "stats_ti", Integer.toString(i % 13 - 4),
+            "stats_tf", Float.toString(i * 0.5f), "stats_td", Integer.toString(i * 3)));
+      } else {
+        assertU(adoc("id", Integer.toString(i), "stats_ti", Integer.toString(i % 13 - 4),
+            "stats_tf", Float.toString(i * 0.5f), "stats_td", Integer.toString(i * 3),
+            "active_s", "s" + (i % 4)));
+      }
+      if (i % 17 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    SolrQueryRequest req = req("q", "*:*", "stats.facet", "active_s");
+    try {
+      SimpleStats stats = new SimpleStats(req, req.getSearcher().getDocSet(new MatchAllDocsQuery()), req.getParams());
+      List<SchemaField> fields = new ArrayList<SchemaField>();
+      List<String[]> facets = new ArrayList<String[]>();
+      for (String f : new String[] {"stats_ti", "stats_tf", "stats_td"}) {
+        SchemaField sf = h.getCore().getLatestSchema().getField(f);
+        assertTrue(FieldCacheStats.supports(h.getCore().getLatestSchema(), sf, new String[] {"active_s"}));
+        fields.add(sf);
+        facets.add(new String[] {"active_s"});
+      }
+      NamedList<?>[] singlePass = new FieldCacheStats(req.getSearcher(), fields, facets)
+          .getStatsValues(req.getSearcher().getDocSet(new MatchAllDocsQuery()));
+      for (int i = 0; i < fields.size(); i++) {
+        NamedList<?> perField = stats.getFieldCacheStats(fields.get(i).getName(), new String[] {"active_s"});
+        assertSameStats(perField, singlePass[i]);
+        NamedList<?> expectedFacet = (NamedList<?>) ((NamedList<?>) perField.get("facets")).get("active_s");
+        NamedList<?> actualFacet = (NamedList<?>) ((NamedList<?>) singlePass[i].get("facets")).get("active_s");
+        assertEquals(expectedFacet.size(), actualFacet.size());
+        for (int j = 0; j < expectedFacet.size(); j++) {
+          assertSameStats((NamedList<?>) expectedFacet.getVal(j), (NamedList<?>) actualFacet.get(expectedFacet.getName(j)));
+        }
+      }
+    } finally {
+      req.close();
+    }
+  }
+
+  public void testSparseFacetSlots() throws Exception {
+    final int valueCount = FieldCacheStats.MAX_DENSE_SLOTS * 4;
+    SortedDocValues ords = new SortedDocValues() {
+      @Override
+      public int getOrd(int docID) {
+        return docID % (valueCount + 1) - 1;
+      }
+
+      @Override
+      public void lookupOrd(int ord, BytesRef result) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int getValueCount() {
+        return valueCount;
+      }
+    };
+    FieldCacheStats.FacetStats facet = new FieldCacheStats.FacetStats(ords);
+    assertEquals(0, facet.numSlots());
+
+    Map<Integer,Integer> expected = new HashMap<Integer,Integer>();
+    for (int i = 0; i < 5000; i++) {
+      int ord = random().nextInt(1000) * 13 - 1;
+      int slot = facet.slot(ord);
+      Integer previous = expected.put(ord, slot);
+      if (previous != null) {
+        assertEquals(previous.intValue(), slot);
+      }
+      assertEquals(ord, facet.ord(slot));
+      facet.acc.add(slot, ord);
+    }
+    // only the ordinals that were seen have slots
+    assertEquals(expected.size(), facet.numSlots());
+    assertTrue(facet.acc.count.length < valueCount);
+    for (Map.Entry<Integer,Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getKey().doubleValue(), facet.acc.min[entry.getValue()], 0.0);
+    }
+  }
+
+  private static void assertSameStats(NamedList<?> expected, NamedList<?> actual) {
+    for (String stat : new String[] {"min", "max", "count", "missing", "sum", "sumOfSquares"}) {
+      assertEquals(stat, expected.get(stat), actual.get(stat));
+    }
+  }
 }
@@ -21,7 +21,6 @@ import org.noggit.ObjectBuilder;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
-import org.apache.solr.schema.SchemaField;
 import org.apache.solr.util.TimeZoneUtils;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -352,8 +351,6 @@ public class SimpleFacetsTest extends SolrTestCaseJ4 {
   }
   
   static void doEmptyFacetCounts(String field, String[] prefixes) throws Exception {
-    SchemaField sf = h.getCore().getLatestSchema().getField(field);
-
     String response = JQ(req("q", "*:*"));
     Map rsp = (Map) ObjectBuilder.fromJSON(response);
     Long numFound  = (Long)(((Map)rsp.get("response")).get("numFound"));
@@ -361,9 +358,6 @@ public class SimpleFacetsTest extends SolrTestCaseJ4 {
     ModifiableSolrParams params = params("q","*:*", "rows","0", "facet","true", "facet.field","{!key=myalias}"+field);
     
     String[] methods = {null, "fc","enum","fcs"};
-    if (sf.multiValued() || sf.getType().multiValuedFieldCache()) {
-      methods = new String[]{null, "fc","enum"};
-    }
 
     prefixes = prefixes==null ? new String[]{null} : prefixes;
 
@@ -1567,6 +1561,62 @@ public class SimpleFacetsTest extends SolrTestCaseJ4 {
     helpTestNumericRangeFacetsLongOverflow("range_facet_sl");
   }
 
+  @Test
+  public void testRangeFacetMethods() throws Exception {
+    String[][] fields = {
+        {"id", "0", "60", "7"},
+        {"range_facet_l", "-10", "60", "9"},
+        {"range_facet_f", "10", "40", "4.5"},
+        {"range_facet_d", "10", "40", "4.5"},
+        {"bday", "1976-07-01T00:00:00.000Z", "1976-07-16T00:00:00.000Z", "+1DAY"}
+    };
+    String[] includes = {"lower", "upper", "edge", "outer", "all"};
+    for (String[] field : fields) {
+      for (String include : includes) {
+        for (String hardend : new String[] {"true", "false"}) {
+          String[] params = {"q", "*:*", "rows", "0", "facet", "true",
+              "facet.range", field[0],
+              "facet.range.start", field[1],
+              "facet.range.end", field[2],
+              "facet.range.gap", field[3],
+              "facet.range.other", "all",
+              "facet.range.include", include,
+              "facet.range.hardend", hardend};
+          String byFilter = facetCounts(h.query(req(params, "facet.range.method", "filter")));
+          String byField = facetCounts(h.query(req(params, "facet.range.method", "fc")));
+          assertEquals(field[0] + " include=" + include + " hardend=" + hardend, byFilter, byField);
+        }
+      }
+    }
+
+    // the same on date facets
+    String[] params = {"q", "*:*", "rows", "0", "facet", "true",
+        "facet.date", "bday",
+        "facet.date.start", "1976-07-01T00:00:00.000Z",
+        "facet.date.end", "1976-07-16T00:00:00.000Z",
+        "facet.date.gap", "+1DAY",
+        "facet.date.other", "all"};
+    assertEquals(facetCounts(h.query(req(params, "facet.range.method", "filter"))),
+        facetCounts(h.query(req(params, "facet.range.method", "fc"))));
+
+    // and concurrently evaluated facet queries
+    String[] queryParams = {"q", "*:*", "rows", "0", "facet", "true",
+        "facet.query", "range_facet_l:[* TO 20]",
+        "facet.query", "{!key=high}range_facet_l:[20 TO *]",
+        "facet.query", "bday:[* TO NOW]",
+        "facet.query", "id:[30 TO 60]",
+        // needs the request info on the thread counting it
+        "facet.query", "{!join from=id to=id fromIndex=collection1 key=joined}id:[30 TO 60]"};
+    String sequential = facetCounts(h.query(req(queryParams)));
+    assertEquals(sequential, facetCounts(h.query(req(queryParams, "facet.threads", "0"))));
+    assertEquals(sequential, facetCounts(h.query(req(queryParams, "facet.threads", "3"))));
+    assertEquals(sequential, facetCounts(h.query(req(queryParams, "facet.threads", "-1"))));
+  }
+
+  private static String facetCounts(String response) {
+    return response.substring(response.indexOf("<lst name=\"facet_counts\">"));
+  }
+
   private void helpTestNumericRangeFacetsLongOverflow(final String fieldName) {
     final String f = fieldName;
     final String pre = "//lst[@name='facet_ranges']/lst[@name='"+f+"']/lst[@name='counts']";
@@ -1838,6 +1888,7 @@ public class SimpleFacetsTest extends SolrTestCaseJ4 {
     doFacetPrefix("t_s", null, "facet.method", "enum", "facet.enum.cache.minDf", "3");
     doFacetPrefix("t_s", null, "facet.method", "enum", "facet.enum.cache.minDf", "100");
     doFacetPrefix("t_s", null, "facet.method", "fc");
+    doFacetPrefix("t_s", null, "facet.method", "fcs");
   }
 
   static void indexFacetPrefixSingleValued() {
@@ -21,6 +21,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.lucene.index.DocTermOrds;
 import org.apache.lucene.index.Term;
@@ -28,6 +32,7 @@ import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.search.SolrIndexSearcher;
 import org.junit.After;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -131,6 +136,83 @@ public class TestFaceting extends SolrTestCaseJ4 {
     }
   }
 
+  @Test
+  public void testConcurrentUnInversion() throws Exception {
+    close();
+    createIndex(50);
+    req = lrf.makeRequestInfo("q","*:*").getReq();
+    final SolrIndexSearcher searcher = req.getSearcher();
+    final String field = proto.field();
+
+    final AtomicInteger builds = new AtomicInteger();
+    final AtomicBoolean failBuild = new AtomicBoolean(true);
+    final CountDownLatch release = new CountDownLatch(1);
+    UnInvertedField.testing_buildHook = new Runnable() {
+      @Override
+      public void run() {
+        builds.incrementAndGet();
+        if (failBuild.get()) {
+          throw new RuntimeException("simulated un-inversion failure");
+        }
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    try {
+      // a failed build is not cached, the next request tries again
+      try {
+        UnInvertedField.getUnInvertedField(field, searcher);
+        fail("expected the simulated failure");
+      } catch (RuntimeException e) {
+        assertEquals("simulated un-inversion failure", e.getMessage());
+      }
+      assertNull(searcher.getFieldValueCache().get(field));
+      assertEquals(1, builds.get());
+      failBuild.set(false);
+
+      // concurrent requests wait for a single build
+      int numThreads = 2 + random().nextInt(6);
+      final UnInvertedField[] results = new UnInvertedField[numThreads];
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      Thread[] threads = new Thread[numThreads];
+      for (int i = 0; i < numThreads; i++) {
+        final int idx = i;
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              results[idx] = UnInvertedField.getUnInvertedField(field, searcher);
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        };
+        threads[i].start();
+      }
+      Thread.sleep(100);  // let the threads pile up behind the build
+      release.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (failure.get() != null) {
+        throw new RuntimeException(failure.get());
+      }
+
+      assertEquals(2, builds.get());
+      assertNotNull(results[0]);
+      for (UnInvertedField uif : results) {
+        assertSame(results[0], uif);
+      }
+      assertSame(results[0], searcher.getFieldValueCache().get(field));
+      assertEquals(50, results[0].getNumTerms());
+    } finally {
+      UnInvertedField.testing_buildHook = null;
+    }
+  }
+
   @Test
   public void testTermEnum() throws Exception {
     doTermEnum(0);
@@ -42,6 +42,7 @@ public class DocSetPerf {
   static OpenBitSet bs;
   static BitDocSet bds;
   static HashDocSet hds;
+  static ChunkedDocSet cds;
   static int[] ids; // not unique
 
   static void generate(int maxSize, int bitsToSet) {
@@ -59,6 +60,7 @@ public class DocSetPerf {
     }
     bds = new BitDocSet(bs,bitsToSet);
     hds = new HashDocSet(ids,0,count);
+    cds = ChunkedDocSet.fromBits(bs);
   }
 
 
@@ -83,6 +85,7 @@ public class DocSetPerf {
     OpenBitSet[] sets = new OpenBitSet[numSets];
     DocSet[] bset = new DocSet[numSets];
     DocSet[] hset = new DocSet[numSets];
+    DocSet[] cset = new DocSet[numSets];
     BitSet scratch=new BitSet();
 
     for (int i=0; i<numSets; i++) {
@@ -90,8 +93,17 @@ public class DocSetPerf {
       sets[i] = bs;
       bset[i] = bds;
       hset[i] = hds;
+      cset[i] = cds;
     }
 
+    long bmem=0, hmem=0, cmem=0;
+    for (int i=0; i<numSets; i++) {
+      bmem += bset[i].memSize();
+      hmem += hset[i].memSize();
+      cmem += cset[i].memSize();
+    }
+    System.out.println("MEM bitset="+bmem+" hash="+hmem+" chunked="+cmem);
+
     long start = System.currentTimeMillis();
 
     if ("test".equals(test)) {
@@ -100,6 +112,7 @@ public class DocSetPerf {
         OpenBitSet bs1=bs;
         BitDocSet bds1=bds;
         HashDocSet hds1=hds;
+        ChunkedDocSet cds1=cds;
         generate(randSize ? rand.nextInt(bitSetSize) : bitSetSize, numBitsSet);
 
         OpenBitSet res = ((OpenBitSet)bs1.clone());
@@ -119,6 +132,12 @@ public class DocSetPerf {
         test(hds1.intersectionSize(bds) == icount);
         test(hds1.intersection(hds).size() == icount);
         test(hds1.intersectionSize(hds) == icount);
+        test(cds1.intersection(cds).size() == icount);
+        test(cds1.intersectionSize(cds) == icount);
+        test(cds1.intersectionSize(bds) == icount);
+        test(bds1.intersectionSize(cds) == icount);
+        test(cds1.intersection(hds).size() == icount);
+        test(hds1.intersectionSize(cds) == icount);
 
         ret += icount;
       }
@@ -130,6 +149,8 @@ public class DocSetPerf {
     if (test.endsWith("B")) { type="B"; }
     if (test.endsWith("H")) { type="H"; }
     if (test.endsWith("M")) { type="M"; }
+    if (test.endsWith("C")) { type="C"; }
+    if (test.endsWith("CB")) { type="CB"; }
     if (test.startsWith("intersect")) oper="intersect";
     if (test.startsWith("intersectSize")) oper="intersectSize";
     if (test.startsWith("intersectAndSize")) oper="intersectSize";
@@ -145,6 +166,10 @@ public class DocSetPerf {
           a=bset[idx1]; b=bset[idx2];
         } else if (type=="H") {
           a=hset[idx1]; b=bset[idx2];
+        } else if (type=="C") {
+          a=cset[idx1]; b=cset[idx2];
+        } else if (type=="CB") {
+          a=cset[idx1]; b=bset[idx2];
         } else if (type=="M") {
           if (idx1 < idx2) {
             a=bset[idx1];
@@ -706,6 +706,13 @@ public class QueryEqualityTest extends SolrTestCaseJ4 {
   }
   
   // TODO: more tests
+  public void testQueryCollapse() throws Exception {
+    assertQueryEquals("collapse", "{!collapse field=foo_s1}",
+                      "{!collapse field=foo_s1 nullPolicy=ignore}");
+    assertQueryEquals("collapse", "{!collapse field=foo_s1 max=foo_i}",
+                      "{!collapse max=foo_i field=foo_s1}");
+  }
+
   public void testQueryMaxScore() throws Exception {
     assertQueryEquals("maxscore", "{!maxscore}A OR B OR C",
                       "A OR B OR C");
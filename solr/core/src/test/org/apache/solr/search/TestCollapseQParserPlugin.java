@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestCollapseQParserPlugin extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("enable.update.log", "false"); // schema12 doesn't support _version_
+    initCore("solrconfig.xml", "schema12.xml");
+  }
+
+  @Before
+  public void cleanIndex() {
+    assertU(delQ("*:*"));
+    assertU(commit());
+  }
+
+  @Test
+  public void testCollapse() throws Exception {
+    assertU(adoc("id", "1", "group_s1", "a", "test_ti", "5"));
+    assertU(adoc("id", "2", "group_s1", "a", "test_ti", "10"));
+    assertU(commit());
+    assertU(adoc("id", "3", "group_s1", "b", "test_ti", "2"));
+    assertU(adoc("id", "4", "test_ti", "3"));
+    assertU(adoc("id", "5", "group_s1", "b", "test_ti", "7"));
+    assertU(adoc("id", "6", "test_ti", "1"));
+    assertU(commit());
+
+    // the group heads by score
+    assertQ(req("q", "{!func}test_ti", "fq", "{!collapse field=group_s1}", "fl", "id,score")
+        , "*[count(//doc)=2]"
+        , "//result/doc[1]/str[@name='id'][.='2']"
+        , "//result/doc[1]/float[@name='score'][.='10.0']"
+        , "//result/doc[2]/str[@name='id'][.='5']"
+        , "//result/doc[2]/float[@name='score'][.='7.0']"
+    );
+
+    // the group heads by field value
+    assertQ(req("q", "*:*", "fq", "{!collapse field=group_s1 max=test_ti}", "sort", "id asc")
+        , "*[count(//doc)=2]"
+        , "//result/doc[1]/str[@name='id'][.='2']"
+        , "//result/doc[2]/str[@name='id'][.='5']"
+    );
+    assertQ(req("q", "*:*", "fq", "{!collapse field=group_s1 min=test_ti}", "sort", "id asc")
+        , "*[count(//doc)=2]"
+        , "//result/doc[1]/str[@name='id'][.='1']"
+        , "//result/doc[2]/str[@name='id'][.='3']"
+    );
+
+    // documents without a group
+    assertQ(req("q", "*:*", "fq", "{!collapse field=group_s1 min=test_ti nullPolicy=expand}", "sort", "id asc")
+        , "*[count(//doc)=4]"
+        , "//result/doc[1]/str[@name='id'][.='1']"
+        , "//result/doc[2]/str[@name='id'][.='3']"
+        , "//result/doc[3]/str[@name='id'][.='4']"
+        , "//result/doc[4]/str[@name='id'][.='6']"
+    );
+    assertQ(req("q", "*:*", "fq", "{!collapse field=group_s1 max=test_ti nullPolicy=collapse}", "sort", "id asc")
+        , "*[count(//doc)=3]"
+        , "//result/doc[1]/str[@name='id'][.='2']"
+        , "//result/doc[2]/str[@name='id'][.='4']"
+        , "//result/doc[3]/str[@name='id'][.='5']"
+    );
+
+    // with other filters, and the collapsed DocSet in facets
+    assertQ(req("q", "*:*", "fq", "test_ti:[* TO 6]", "fq", "{!collapse field=group_s1 max=test_ti}", "sort", "id asc",
+                "facet", "true", "facet.field", "group_s1")
+        , "*[count(//doc)=2]"
+        , "//result/doc[1]/str[@name='id'][.='1']"
+        , "//result/doc[2]/str[@name='id'][.='3']"
+        , "//lst[@name='group_s1']/int[@name='a'][.='1']"
+        , "//lst[@name='group_s1']/int[@name='b'][.='1']"
+    );
+  }
+
+  @Test
+  public void testMissingSortValues() throws Exception {
+    assertU(adoc("id", "1", "group_s1", "a"));
+    assertU(adoc("id", "2", "group_s1", "a", "test_ti", "-5"));
+    assertU(adoc("id", "3", "group_s1", "b"));
+    assertU(commit());
+    assertU(adoc("id", "4", "group_s1", "c", "test_ti", "5"));
+    assertU(adoc("id", "5", "group_s1", "b"));
+    assertU(adoc("id", "6", "group_s1", "c"));
+    assertU(commit());
+
+    // documents without a value never win against documents with one, even if 0 would
+    assertQ(req("q", "*:*", "fq", "{!collapse field=group_s1 max=test_ti}", "sort", "id asc")
+        , "*[count(//doc)=3]"
+        , "//result/doc[1]/str[@name='id'][.='2']"
+        , "//result/doc[2]/str[@name='id'][.='3']"
+        , "//result/doc[3]/str[@name='id'][.='4']"
+    );
+    assertQ(req("q", "*:*", "fq", "{!collapse field=group_s1 min=test_ti}", "sort", "id asc")
+        , "*[count(//doc)=3]"
+        , "//result/doc[1]/str[@name='id'][.='2']"
+        , "//result/doc[2]/str[@name='id'][.='3']"
+        , "//result/doc[3]/str[@name='id'][.='4']"
+    );
+  }
+
+  @Test
+  public void testBadRequests() throws Exception {
+    assertQEx("missing field", req("q", "*:*", "fq", "{!collapse}"), 400);
+    assertQEx("multi-valued field", req("q", "*:*", "fq", "{!collapse field=group_s}"), 400);
+    assertQEx("non-numeric min", req("q", "*:*", "fq", "{!collapse field=group_s1 min=id}"), 400);
+  }
+}
@@ -88,6 +88,10 @@ public class TestDocSet extends LuceneTestCase {
     return new BitDocSet(bs);
   }
 
+  public DocSet getChunkedDocSet(OpenBitSet bs) {
+    return rand.nextBoolean() ? ChunkedDocSet.fromBits(bs) : ChunkedDocSet.fromSortedDocs(((SortedIntDocSet)getIntDocSet(bs)).getDocs(), (int)bs.cardinality());
+  }
+
   public DocSet getDocSlice(OpenBitSet bs) {
     int len = (int)bs.cardinality();
     int[] arr = new int[len+5];
@@ -106,7 +110,7 @@ public class TestDocSet extends LuceneTestCase {
 
 
   public DocSet getDocSet(OpenBitSet bs) {
-    switch(rand.nextInt(10)) {
+    switch(rand.nextInt(11)) {
       case 0: return getHashDocSet(bs);
 
       case 1: return getBitDocSet(bs);
@@ -120,6 +124,8 @@ public class TestDocSet extends LuceneTestCase {
       case 8: return getIntDocSet(bs);
 
       case 9: return getDocSlice(bs);
+
+      case 10: return getChunkedDocSet(bs);
     }
     return null;
   }
@@ -196,6 +202,43 @@ public class TestDocSet extends LuceneTestCase {
     // doMany(130, 1000000);
   }
 
+  public void testChunkedDocSets() {
+    // big enough to span several chunks, with both sparse (array) and dense (bitmap) ones
+    int iter = atLeast(50);
+    for (int i=0; i<iter; i++) {
+      int sz = rand.nextInt(300000) + 1;
+      OpenBitSet bs1 = getRandomSet(sz, rand.nextInt(rand.nextBoolean() ? 100 : sz));
+      OpenBitSet bs2 = getRandomSet(sz, rand.nextInt(rand.nextBoolean() ? 100 : sz));
+
+      DocSet a1 = ChunkedDocSet.fromBits(bs1);
+      DocSet b1 = getChunkedDocSet(bs1);
+      DocSet b2 = rand.nextBoolean() ? getChunkedDocSet(bs2) : getDocSet(bs2);
+
+      checkEqual(bs1, a1);
+      checkEqual(bs2, b2);
+      iter(a1, new BitDocSet(bs1));
+      iter(b1, new BitDocSet(bs1));
+      assertEquals(a1, b1);
+
+      OpenBitSet a_and = (OpenBitSet) bs1.clone(); a_and.and(bs2);
+      OpenBitSet a_or = (OpenBitSet) bs1.clone(); a_or.or(bs2);
+      OpenBitSet a_andn = (OpenBitSet) bs1.clone(); a_andn.andNot(bs2);
+
+      checkEqual(a_and, b1.intersection(b2));
+      checkEqual(a_and, b2.intersection(b1));
+      checkEqual(a_or, b1.union(b2));
+      checkEqual(a_andn, b1.andNot(b2));
+
+      assertEquals(a_and.cardinality(), b1.intersectionSize(b2));
+      assertEquals(a_and.cardinality(), b2.intersectionSize(b1));
+      assertEquals(a_and.cardinality() > 0, b1.intersects(b2));
+      assertEquals(a_or.cardinality(), b1.unionSize(b2));
+      assertEquals(a_andn.cardinality(), b1.andNotSize(b2));
+
+      checkEqual(bs1, ChunkedDocSet.compress(new BitDocSet(bs1), sz));
+    }
+  }
+
   public DocSet getRandomDocSet(int n, int maxDoc) {
     OpenBitSet obs = new OpenBitSet(maxDoc);
     int[] a = new int[n];
@@ -471,7 +514,7 @@ public class TestDocSet extends LuceneTestCase {
     IndexReaderContext topLevelContext = reader.getContext();
     OpenBitSet bs = getRandomSet(reader.maxDoc(), rand.nextInt(reader.maxDoc()+1));
     DocSet a = new BitDocSet(bs);
-    DocSet b = getIntDocSet(bs);
+    DocSet b = rand.nextBoolean() ? getIntDocSet(bs) : getChunkedDocSet(bs);
 
     Filter fa = a.getTopFilter();
     Filter fb = b.getTopFilter();
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.util.RefCounted;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestFilterCacheRegenerator extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    System.setProperty("enable.update.log", "false"); // schema12 doesn't support _version_
+    initCore("solrconfig.xml","schema12.xml");
+  }
+
+  @Test
+  public void testRegenerateAcrossCommits() throws Exception {
+    clearIndex();
+    int id = 0;
+    // a few segments
+    for (int seg=0; seg<3; seg++) {
+      for (int i=0; i<20; i++, id++) {
+        assertU(adoc("id", Integer.toString(id), "val_s", (id % 3 == 0) ? "a" : "b"));
+      }
+      assertU(commit());
+    }
+
+    Query termQ = new TermQuery(new Term("val_s", "a"));
+    BooleanQuery boolQ = new BooleanQuery();
+    boolQ.add(new TermQuery(new Term("val_s", "a")), BooleanClause.Occur.SHOULD);
+    boolQ.add(new TermQuery(new Term("id", "1")), BooleanClause.Occur.SHOULD);
+    assertTrue(FilterCacheRegenerator.isSegmentLocal(termQ));
+    assertTrue(FilterCacheRegenerator.isSegmentLocal(boolQ));
+
+    for (int round=0; round<3; round++) {
+      RefCounted<SolrIndexSearcher> oldRef = h.getCore().getSearcher();
+      try {
+        SolrIndexSearcher oldSearcher = oldRef.get();
+        DocSet oldTerm = oldSearcher.getDocSetNC(termQ, null);
+        DocSet oldBool = oldSearcher.getDocSetNC(boolQ, null);
+
+        // new segment, deletes in old segments, and sometimes a merge
+        for (int i=0; i<10; i++, id++) {
+          assertU(adoc("id", Integer.toString(id), "val_s", (id % 3 == 0) ? "a" : "b"));
+        }
+        assertU(delI(Integer.toString(round * 7)));
+        assertU(delI(Integer.toString(round * 7 + 3)));
+        assertU(round == 2 ? optimize() : commit());
+
+        RefCounted<SolrIndexSearcher> newRef = h.getCore().getSearcher();
+        try {
+          SolrIndexSearcher newSearcher = newRef.get();
+          assertSameDocs(newSearcher.getDocSetNC(termQ, null),
+              FilterCacheRegenerator.regenerate(newSearcher, oldSearcher, termQ, oldTerm));
+          assertSameDocs(newSearcher.getDocSetNC(boolQ, null),
+              FilterCacheRegenerator.regenerate(newSearcher, oldSearcher, boolQ, oldBool));
+        } finally {
+          newRef.decref();
+        }
+      } finally {
+        oldRef.decref();
+      }
+    }
+
+    // and through the regular autowarming path
+    assertJQ(req("q","*:*", "fq","val_s:a"), "/response/numFound==" + countA());
+    assertU(adoc("id", Integer.toString(id++), "val_s", "a"));
+    assertU(commit());
+    assertJQ(req("q","*:*", "fq","val_s:a"), "/response/numFound==" + countA());
+  }
+
+  @Test
+  public void testFuzzyQuery() throws Exception {
+    clearIndex();
+    for (int i=0; i<10; i++) {
+      assertU(adoc("id", Integer.toString(i), "val_s", "aaab"));
+    }
+    assertU(commit());
+
+    // only the best term: which one that is depends on all segments
+    Query topTermsQ = new FuzzyQuery(new Term("val_s", "aaaa"), 1, 0, 1, false);
+    FuzzyQuery constantQ = new FuzzyQuery(new Term("val_s", "aaaa"), 1, 0, 1, false);
+    constantQ.setRewriteMethod(MultiTermQuery.CONSTANT_SCORE_FILTER_REWRITE);
+    assertFalse(FilterCacheRegenerator.isSegmentLocal(topTermsQ));
+    assertTrue(FilterCacheRegenerator.isSegmentLocal(constantQ));
+
+    RefCounted<SolrIndexSearcher> oldRef = h.getCore().getSearcher();
+    try {
+      SolrIndexSearcher oldSearcher = oldRef.get();
+      DocSet oldTopTerms = oldSearcher.getDocSetNC(topTermsQ, null);
+      DocSet oldConstant = oldSearcher.getDocSetNC(constantQ, null);
+      assertEquals(10, oldTopTerms.size());
+
+      // a better term in a new segment replaces the old one
+      for (int i=10; i<15; i++) {
+        assertU(adoc("id", Integer.toString(i), "val_s", "aaaa"));
+      }
+      assertU(commit());
+
+      RefCounted<SolrIndexSearcher> newRef = h.getCore().getSearcher();
+      try {
+        SolrIndexSearcher newSearcher = newRef.get();
+        DocSet newTopTerms = newSearcher.getDocSetNC(topTermsQ, null);
+        assertEquals(5, newTopTerms.size());
+        assertFalse(newTopTerms.size() ==
+            FilterCacheRegenerator.regenerate(newSearcher, oldSearcher, topTermsQ, oldTopTerms).size());
+        assertSameDocs(newSearcher.getDocSetNC(constantQ, null),
+            FilterCacheRegenerator.regenerate(newSearcher, oldSearcher, constantQ, oldConstant));
+      } finally {
+        newRef.decref();
+      }
+    } finally {
+      oldRef.decref();
+    }
+
+    // and through the regular autowarming path
+    assertJQ(req("q","*:*", "fq","val_s:aaaa~1"), "/response/numFound==15");
+    assertU(adoc("id", "15", "val_s", "aaaa"));
+    assertU(commit());
+    assertJQ(req("q","*:*", "fq","val_s:aaaa~1"), "/response/numFound==16");
+  }
+
+  private static int countA() {
+    RefCounted<SolrIndexSearcher> ref = h.getCore().getSearcher();
+    try {
+      return ref.get().getDocSetNC(new TermQuery(new Term("val_s", "a")), null).size();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      ref.decref();
+    }
+  }
+
+  private static void assertSameDocs(DocSet expected, DocSet actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.size(), expected.intersectionSize(actual));
+  }
+}
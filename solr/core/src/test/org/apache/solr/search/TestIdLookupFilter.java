@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+
+public class TestIdLookupFilter extends LuceneTestCase {
+
+  public void testNoFalseNegatives() throws Exception {
+    Directory dir = newDirectory();
+    RandomIndexWriter w = new RandomIndexWriter(random(), dir);
+    int numDocs = atLeast(500);
+    for (int i=0; i<numDocs; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", "doc" + i, Field.Store.NO));
+      w.addDocument(doc);
+    }
+    w.forceMerge(1);
+    DirectoryReader r = w.getReader();
+    w.close();
+
+    AtomicReader reader = getOnlySegmentReader(r);
+    IdLookupFilter filter = IdLookupFilter.get(reader, "id");
+    assertNotNull(filter);
+    assertSame(filter, IdLookupFilter.get(reader, "id"));
+    assertNull(IdLookupFilter.get(reader, "nosuchfield"));
+
+    for (int i=0; i<numDocs; i++) {
+      assertTrue(filter.mightContain(new BytesRef("doc" + i)));
+    }
+
+    int falsePositives = 0;
+    int numMissing = 10000;
+    for (int i=0; i<numMissing; i++) {
+      if (filter.mightContain(new BytesRef("missing" + i))) falsePositives++;
+    }
+    // ~3% expected with 8 bits per term and 3 hashes
+    assertTrue("too many false positives: " + falsePositives, falsePositives < numMissing / 10);
+    assertTrue(filter.ramBytesUsed() > 0);
+
+    r.close();
+    dir.close();
+  }
+}
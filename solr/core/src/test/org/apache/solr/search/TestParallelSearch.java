@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.search;
+
+import java.util.Arrays;
+
+import org.apache.lucene.search.Sort;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestParallelSearch extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    System.setProperty("enable.update.log", "false"); // schema12 doesn't support _version_
+    initCore("solrconfig.xml","schema12.xml");
+  }
+
+  @Test
+  public void testSameResults() throws Exception {
+    assertNotNull(h.getCore().getParallelSearchExecutor());
+    clearIndex();
+    int numDocs = atLeast(200);
+    for (int i = 0; i < numDocs; i++) {
+      assertU(adoc("id", Integer.toString(i), "val_i", Integer.toString(random().nextInt(20)),
+          "text", random().nextBoolean() ? "apple" : "apple banana"));
+      if (random().nextInt(40) == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    String[] queries = {"*:*", "text:apple", "text:banana", "{!func}val_i", "val_i:[5 TO 10]", "id:nomatch"};
+    String[] sorts = {null, "score desc", "val_i asc", "val_i desc,id asc", "score desc,val_i asc"};
+    SolrQueryRequest req = req();
+    try {
+      SolrIndexSearcher searcher = req.getSearcher();
+      for (String q : queries) {
+        for (String sortSpec : sorts) {
+          Sort sort = sortSpec == null ? null : QueryParsing.parseSort(sortSpec, req);
+          int len = random().nextInt(numDocs + 10);
+          for (boolean needDocSet : new boolean[] {false, true}) {
+            SolrIndexSearcher.QueryResult expected = search(searcher, req, q, sort, len, needDocSet, false);
+            SolrIndexSearcher.QueryResult actual = search(searcher, req, q, sort, len, needDocSet, true);
+            String msg = "q=" + q + " sort=" + sortSpec + " len=" + len + " docSet=" + needDocSet;
+            assertDocListEquals(msg, expected.getDocList(), actual.getDocList());
+            if (needDocSet) {
+              assertEquals(msg, expected.getDocSet(), actual.getDocSet());
+            }
+          }
+        }
+      }
+    } finally {
+      req.close();
+    }
+  }
+
+  private SolrIndexSearcher.QueryResult search(SolrIndexSearcher searcher, SolrQueryRequest req, String q, Sort sort,
+                                               int len, boolean needDocSet, boolean parallel) throws Exception {
+    SolrIndexSearcher.QueryCommand cmd = new SolrIndexSearcher.QueryCommand();
+    cmd.setQuery(QParser.getParser(q, null, req).getQuery())
+        .setSort(sort)
+        .setLen(len)
+        .setNeedDocSet(needDocSet)
+        .setParallel(parallel)
+        .setFlags(SolrIndexSearcher.GET_SCORES | SolrIndexSearcher.NO_CHECK_QCACHE | SolrIndexSearcher.NO_SET_QCACHE);
+    SolrIndexSearcher.QueryResult result = new SolrIndexSearcher.QueryResult();
+    searcher.search(result, cmd);
+    return result;
+  }
+
+  private static void assertDocListEquals(String msg, DocList expected, DocList actual) {
+    assertEquals(msg, expected.matches(), actual.matches());
+    assertEquals(msg, expected.size(), actual.size());
+    assertEquals(msg, expected.maxScore(), actual.maxScore(), 0f);
+    int[] expectedIds = new int[expected.size()];
+    float[] expectedScores = new float[expected.size()];
+    int[] actualIds = new int[actual.size()];
+    float[] actualScores = new float[actual.size()];
+    DocIterator e = expected.iterator();
+    DocIterator a = actual.iterator();
+    for (int i = 0; i < expectedIds.length; i++) {
+      expectedIds[i] = e.nextDoc();
+      expectedScores[i] = e.score();
+      actualIds[i] = a.nextDoc();
+      actualScores[i] = a.score();
+    }
+    assertTrue(msg, Arrays.equals(expectedIds, actualIds));
+    assertTrue(msg, Arrays.equals(expectedScores, actualScores));
+  }
+}
@@ -25,9 +25,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.lucene.util.BytesRef;
 import org.noggit.ObjectBuilder;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
@@ -35,6 +38,8 @@ import org.apache.solr.common.exceptions.update.DocumentAlreadyExists;
 import org.apache.solr.common.exceptions.update.DocumentDoesNotExist;
 import org.apache.solr.common.exceptions.update.VersionConflict;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.update.UpdateLog;
+import org.apache.solr.update.VersionInfo;
 import org.apache.solr.update.processor.DistributedUpdateProcessor.DistribPhase;
 import org.apache.solr.util.TestHarness;
 import org.junit.BeforeClass;
@@ -233,6 +238,151 @@ public class TestRealTimeGet extends TestRTGBase {
 
   }
 
+  @Test
+  public void testConcurrentVersionLookup() throws Exception {
+    clearIndex();
+    assertU(commit());
+
+    final int numIds = 200;
+    final long[] versions = new long[numIds];
+    for (int i = 0; i < numIds; i++) {
+      versions[i] = addAndGetVersion(sdoc("id", Integer.toString(i)), null);
+      if (random().nextInt(50) == 0) {
+        assertU(commit("softCommit", "true"));
+      }
+    }
+    assertU(commit("softCommit", "true"));
+
+    final VersionInfo versionInfo = h.getCore().getUpdateHandler().getUpdateLog().getVersionInfo();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[4 + random().nextInt(4)];
+    for (int t = 0; t < threads.length; t++) {
+      final Random rand = new Random(random().nextLong());
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 2000; i++) {
+              int id = rand.nextInt(numIds);
+              Long version = versionInfo.getVersionFromIndex(new BytesRef(Integer.toString(id)));
+              assertEquals(Long.valueOf(versions[id]), version);
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    // a new realtime searcher in the middle of the lookups
+    assertU(adoc("id", Integer.toString(numIds)));
+    assertU(commit("softCommit", "true"));
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+    assertNull(versionInfo.getVersionFromIndex(new BytesRef("nonexistent")));
+  }
+
+  @Test
+  public void testConcurrentAddsAndDeletes() throws Exception {
+    clearIndex();
+    assertU(commit());
+
+    final int numThreads = 4 + random().nextInt(4);
+    final int idsPerThread = 100;
+    final long[] versions = new long[numThreads * idsPerThread];
+    final UpdateLog ulog = h.getCore().getUpdateHandler().getUpdateLog();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int first = t * idsPerThread;
+      final Random rand = new Random(random().nextLong());
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int id = first; id < first + idsPerThread; id++) {
+              String idString = Integer.toString(id);
+              long version = addAndGetVersion(sdoc("id", idString, "val_i", id), null);
+              if (rand.nextInt(4) == 0) {
+                version = deleteAndGetVersion(idString, null);
+              }
+              versions[id] = version;
+              assertEquals(Long.valueOf(version), ulog.lookupVersion(new BytesRef(idString)));
+              if (rand.nextInt(50) == 0) {
+                assertU(commit("softCommit", "true"));
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+
+    for (int id = 0; id < versions.length; id++) {
+      assertEquals(Long.valueOf(versions[id]), ulog.lookupVersion(new BytesRef(Integer.toString(id))));
+    }
+    // the records written by the concurrent requests can be read back from the log
+    UpdateLog.RecentUpdates recentUpdates = ulog.getRecentUpdates();
+    try {
+      List<Long> logged = recentUpdates.getVersions(versions.length * 2);
+      for (long version : versions) {
+        assertTrue(logged.contains(version));
+      }
+    } finally {
+      recentUpdates.close();
+    }
+  }
+
+  @Test
+  public void testVersionLookupDuringDeleteByQuery() throws Exception {
+    clearIndex();
+    assertU(commit());
+
+    final UpdateLog ulog = h.getCore().getUpdateHandler().getUpdateLog();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final AtomicBoolean done = new AtomicBoolean();
+    // every deleteByQuery clears the version maps and reopens the realtime searcher
+    Thread dbqThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            deleteByQueryAndGetVersion("id:nomatch", null);
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      }
+    };
+    dbqThread.start();
+    try {
+      // the realtime searcher always has an older version of the document than the maps
+      BytesRef idBytes = new BytesRef("1");
+      for (int i = 0; i < 500 && failure.get() == null; i++) {
+        long version = addAndGetVersion(sdoc("id", "1", "val_i", i), null);
+        assertEquals(Long.valueOf(version), ulog.lookupVersion(idBytes));
+      }
+    } finally {
+      done.set(true);
+      dbqThread.join();
+    }
+    if (failure.get() != null) {
+      throw new RuntimeException(failure.get());
+    }
+  }
+
   @Test
   public void testOptimisticLocking() throws Exception {
     clearIndex();
@@ -199,6 +199,70 @@ public class TestRecovery extends SolrTestCaseJ4 {
 
   }
 
+  @Test
+  public void testParallelLogReplay() throws Exception {
+    try {
+      DirectUpdateHandler2.commitOnClose = false;
+      final Semaphore logReplayFinish = new Semaphore(0);
+
+      UpdateLog.testing_logReplayFinishHook = new Runnable() {
+        @Override
+        public void run() {
+          logReplayFinish.release();
+        }
+      };
+
+      clearIndex();
+      assertU(commit());
+
+      // interleaved adds and deletes of the same ids, replayed by several workers
+      int numIds = 5 + random().nextInt(20);
+      Long[] lastVersion = new Long[numIds];
+      boolean[] deleted = new boolean[numIds];
+      int numUpdates = atLeast(200);
+      for (int i = 0; i < numUpdates; i++) {
+        int id = random().nextInt(numIds);
+        if (lastVersion[id] != null && random().nextInt(4) == 0) {
+          lastVersion[id] = deleteAndGetVersion("P" + id, null);
+          deleted[id] = true;
+        } else {
+          lastVersion[id] = addAndGetVersion(sdoc("id", "P" + id, "val_i", Integer.toString(i)), null);
+          deleted[id] = false;
+        }
+      }
+
+      assertJQ(req("q","*:*"),"/response/numFound==0");
+
+      h.close();
+      System.setProperty("solr.ulog.replayThreads", Integer.toString(2 + random().nextInt(3)));
+      try {
+        createCore();
+      } finally {
+        System.clearProperty("solr.ulog.replayThreads");
+      }
+
+      // wait until recovery has finished
+      assertTrue(logReplayFinish.tryAcquire(timeout, TimeUnit.SECONDS));
+
+      int numFound = 0;
+      for (int id = 0; id < numIds; id++) {
+        if (lastVersion[id] == null) continue;
+        if (deleted[id]) {
+          assertJQ(req("q","id:P" + id), "/response/numFound==0");
+        } else {
+          numFound++;
+          assertJQ(req("q","id:P" + id, "fl","id,_version_"),
+              "/response/numFound==1", "/response/docs/[0]/_version_==" + lastVersion[id]);
+        }
+      }
+      assertJQ(req("q","*:*"), "/response/numFound==" + numFound);
+
+    } finally {
+      DirectUpdateHandler2.commitOnClose = true;
+      UpdateLog.testing_logReplayFinishHook = null;
+    }
+  }
+
   @Test
   public void testBuffering() throws Exception {
 
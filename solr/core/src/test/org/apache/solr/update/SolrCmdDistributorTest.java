@@ -291,6 +291,46 @@ public class SolrCmdDistributorTest extends BaseDistributedSearchTestCase {
           ((NamedList<Object>) resp.get("index")).get("maxDoc"));
     }
 
+    testMaxInFlightPerServer();
+  }
+
+  private void testMaxInFlightPerServer() throws Exception {
+    long before = controlClient.query(new SolrQuery("*:*"), METHOD.GET, SEARCH_CREDENTIALS).getResults()
+        .getNumFound();
+
+    SolrCmdDistributor cmdDistrib = new SolrCmdDistributor(5, updateShardHandler, updateAuthCredentialsSource);
+    cmdDistrib.maxBufferedAddsPerServer = 1;
+    cmdDistrib.maxBufferedAddsPerBusyServer = 1;
+    cmdDistrib.maxInFlightPerServer = 1 + random().nextInt(2);
+
+    List<Node> nodes = new ArrayList<Node>();
+    ZkNodeProps nodeProps = new ZkNodeProps(ZkStateReader.BASE_URL_PROP,
+        ((HttpSolrServer) controlClient).getBaseURL(),
+        ZkStateReader.CORE_NAME_PROP, "");
+    Node node = new StdNode(new ZkCoreNodeProps(nodeProps));
+    nodes.add(node);
+
+    // every add is sent on its own, so the distributor has to wait for the node
+    int cnt = atLeast(50);
+    for (int i = 0; i < cnt; i++) {
+      AddUpdateCommand cmd = new AddUpdateCommand(null);
+      cmd.solrDoc = sdoc("id", 100000 + i);
+      cmdDistrib.distribAdd(cmd, nodes, new ModifiableSolrParams());
+      assertTrue(cmdDistrib.inFlight(node) <= cmdDistrib.maxInFlightPerServer);
+    }
+
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set(DistributedUpdateProcessor.COMMIT_END_POINT, true);
+    cmdDistrib.distribCommit(new CommitUpdateCommand(null, false), nodes, params);
+    cmdDistrib.finish();
+
+    Response response = cmdDistrib.getResponse();
+    assertEquals(response.errors.toString(), 0, response.errors.size());
+    assertEquals(0, cmdDistrib.inFlight(node));
+
+    long numFound = controlClient.query(new SolrQuery("*:*"), METHOD.GET, SEARCH_CREDENTIALS).getResults()
+        .getNumFound();
+    assertEquals(before + cnt, numFound);
   }
   
   @Override
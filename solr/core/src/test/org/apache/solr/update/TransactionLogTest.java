@@ -0,0 +1,220 @@
+package org.apache.solr.update;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util._TestUtil;
+import org.apache.solr.common.SolrInputDocument;
+
+public class TransactionLogTest extends LuceneTestCase {
+
+  private TransactionLog newLog(String name) {
+    File dir = _TestUtil.getTempDir("tlog");
+    dir.mkdirs();
+    return new TransactionLog(new File(dir, name), Collections.<String>emptyList());
+  }
+
+  private static long add(TransactionLog tlog, String id, long version) {
+    AddUpdateCommand cmd = new AddUpdateCommand(null);
+    cmd.solrDoc = new SolrInputDocument();
+    cmd.solrDoc.addField("id", id);
+    cmd.setVersion(version);
+    return tlog.write(cmd, 0);
+  }
+
+  private static long version(Object record) {
+    return (Long) ((List<?>) record).get(1);
+  }
+
+  public void testGroupSync() throws Exception {
+    final TransactionLog tlog = newLog("tlog.0000000000000000001");
+    UpdateLog.SyncStats stats = new UpdateLog.SyncStats();
+    tlog.syncStats = stats;
+    try {
+      final AtomicLong version = new AtomicLong();
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final int numThreads = 2 + random().nextInt(6);
+      final int requestsPerThread = atLeast(50);
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        threads[t] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < requestsPerThread; i++) {
+                long v = version.incrementAndGet();
+                add(tlog, Long.toString(v), v);
+                tlog.finish(UpdateLog.SyncLevel.GROUP);
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        };
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (failure.get() != null) {
+        throw new RuntimeException(failure.get());
+      }
+
+      // every request was either part of a batch or covered by another request's force
+      assertEquals(0, tlog.pendingSyncs());
+      assertTrue(stats.getSyncs() > 0);
+      assertTrue(stats.getSyncedRequests() <= numThreads * requestsPerThread);
+
+      // nothing new to sync
+      long syncs = stats.getSyncs();
+      long syncedRequests = stats.getSyncedRequests();
+      tlog.finish(UpdateLog.SyncLevel.GROUP);
+      assertEquals(syncs, stats.getSyncs());
+      assertEquals(0, tlog.pendingSyncs());
+
+      // a single request is a batch of its own
+      add(tlog, "last", version.incrementAndGet());
+      tlog.finish(UpdateLog.SyncLevel.GROUP);
+      assertEquals(syncs + 1, stats.getSyncs());
+      assertEquals(syncedRequests + 1, stats.getSyncedRequests());
+      assertEquals(0, tlog.pendingSyncs());
+    } finally {
+      tlog.decref();
+    }
+  }
+
+  public void testGroupSyncAfterRollback() throws Exception {
+    TransactionLog tlog = newLog("tlog.0000000000000000002");
+    UpdateLog.SyncStats stats = new UpdateLog.SyncStats();
+    tlog.syncStats = stats;
+    try {
+      add(tlog, "1", 1);
+      long snapshot = tlog.snapshot();
+      add(tlog, "2", 2);
+      add(tlog, "3", 3);
+      tlog.finish(UpdateLog.SyncLevel.GROUP);
+      assertEquals(1, stats.getSyncs());
+
+      tlog.rollback(snapshot);
+      // the record written where the synced ones were must still be synced
+      add(tlog, "4", 4);
+      tlog.finish(UpdateLog.SyncLevel.GROUP);
+      assertEquals(2, stats.getSyncs());
+    } finally {
+      tlog.decref();
+    }
+  }
+
+  public void testReadMappingAcrossRollback() throws Exception {
+    assumeTrue("transaction logs are not memory mapped", TransactionLog.USE_MMAP);
+    TransactionLog tlog = newLog("tlog.0000000000000000003");
+    try {
+      int applied = atLeast(20);
+      for (int i = 1; i <= applied; i++) {
+        add(tlog, Integer.toString(i), i);
+      }
+      long snapshot = tlog.snapshot();
+      int buffered = atLeast(20);
+      for (int i = applied + 1; i <= applied + buffered; i++) {
+        add(tlog, Integer.toString(i), i);
+      }
+
+      TransactionLog.ReverseReader reader = tlog.getReverseReader();
+      try {
+        // the buffered updates can be rolled back, so they must not be mapped
+        assertTrue(tlog.mappedSize() > 0);
+        assertTrue(tlog.mappedSize() <= snapshot);
+        for (int i = applied + buffered; i > applied; i--) {
+          assertEquals(i, version(reader.next()));
+        }
+        tlog.rollback(snapshot);
+        for (int i = applied; i > 0; i--) {
+          assertEquals(i, version(reader.next()));
+        }
+        assertNull(reader.next());
+      } finally {
+        reader.close();
+      }
+
+      TransactionLog.LogReader forward = tlog.getReader(0);
+      try {
+        for (int i = 1; i <= applied; i++) {
+          assertEquals(i, version(forward.next()));
+        }
+        assertNull(forward.next());
+      } finally {
+        forward.close();
+      }
+    } finally {
+      tlog.decref();
+    }
+  }
+  public void testRecordIterator() throws Exception {
+    TransactionLog tlog = newLog("tlog.0000000000000000004");
+    try {
+      int numRecords = atLeast(100);
+      long[] positions = new long[numRecords + 1];
+      for (int i = 1; i <= numRecords; i++) {
+        positions[i] = add(tlog, Integer.toString(i), i);
+      }
+
+      TransactionLog.RecordIterator iterator = tlog.getRecordIterator();
+      try {
+        // records written after the iterator was created are not visible
+        add(tlog, "last", numRecords + 1);
+        assertNull(iterator.next());
+
+        for (int i = numRecords; i > 0; i--) {
+          Object record = iterator.previous(false);
+          assertEquals(i, version(record));
+          assertNull(((List<?>) record).get(2));
+          assertEquals(positions[i], iterator.position());
+        }
+        assertNull(iterator.previous(false));
+
+        // going forward from the header
+        iterator.seek(0);
+        for (int i = 1; i <= numRecords; i++) {
+          assertEquals(i, version(iterator.next()));
+          assertEquals(positions[i], iterator.position());
+        }
+        assertNull(iterator.next());
+
+        // random access by position decodes the whole record
+        for (int iter = 0; iter < 50; iter++) {
+          int i = 1 + random().nextInt(numRecords);
+          iterator.seek(positions[i]);
+          Object record = iterator.next();
+          assertEquals(i, version(record));
+          assertEquals(Integer.toString(i), ((SolrInputDocument) ((List<?>) record).get(2)).getFieldValue("id"));
+          assertEquals(i, version(tlog.lookup(positions[i])));
+        }
+      } finally {
+        iterator.close();
+      }
+    } finally {
+      tlog.decref();
+    }
+  }
+}
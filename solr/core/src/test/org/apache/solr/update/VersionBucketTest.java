@@ -0,0 +1,98 @@
+package org.apache.solr.update;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.SolrException;
+
+public class VersionBucketTest extends LuceneTestCase {
+
+  public void testUncontended() {
+    VersionBucket bucket = new VersionBucket();
+    for (int i = 0; i < 10; i++) {
+      bucket.lock(random().nextBoolean() ? -1 : 1000);
+      bucket.unlock();
+    }
+    assertEquals(10, bucket.lockCount);
+    assertEquals(0, bucket.contendedCount);
+    assertEquals(0, bucket.maxQueueLength);
+  }
+
+  public void testTimeoutAndWait() throws Exception {
+    final VersionBucket bucket = new VersionBucket();
+    bucket.lock(-1);
+    try {
+      // another update times out while the lock is held
+      final AtomicReference<Throwable> timedOut = new AtomicReference<Throwable>();
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            bucket.lock(10);
+            bucket.unlock();
+          } catch (Throwable e) {
+            timedOut.set(e);
+          }
+        }
+      };
+      t.start();
+      t.join();
+      assertTrue(timedOut.get() instanceof SolrException);
+      assertEquals(SolrException.ErrorCode.SERVICE_UNAVAILABLE.code, ((SolrException) timedOut.get()).code());
+      assertEquals(0, bucket.contendedCount);
+    } finally {
+      bucket.unlock();
+    }
+
+    // a waiting update gets the lock once it is released, and the wait is recorded
+    bucket.lock(-1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final long timeoutMs = random().nextBoolean() ? -1 : 60000;
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          started.countDown();
+          bucket.lock(timeoutMs);
+          bucket.unlock();
+        } catch (Throwable e) {
+          failure.set(e);
+        }
+      }
+    };
+    waiter.start();
+    started.await();
+    while (waiter.getState() != Thread.State.WAITING && waiter.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    Thread.sleep(10);
+    bucket.unlock();
+    waiter.join();
+    assertNull(failure.get());
+
+    assertEquals(3, bucket.lockCount);
+    assertEquals(1, bucket.contendedCount);
+    assertTrue(bucket.waitNanos > 0);
+    assertEquals(bucket.waitNanos, bucket.maxWaitNanos);
+    assertEquals(1, bucket.maxQueueLength);
+  }
+}
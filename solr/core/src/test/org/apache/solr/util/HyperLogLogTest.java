@@ -0,0 +1,68 @@
+package org.apache.solr.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+
+public class HyperLogLogTest extends LuceneTestCase {
+
+  public void testSmallCardinalities() {
+    HyperLogLog sketch = new HyperLogLog();
+    assertEquals(0, sketch.cardinality());
+    for (int i = 0; i < 100; i++) {
+      // every value twice
+      sketch.add(HyperLogLog.hash(new BytesRef("value" + (i / 2))));
+    }
+    assertEquals(50, sketch.cardinality());
+  }
+
+  public void testLargeCardinalities() {
+    int n = atLeast(200000);
+    HyperLogLog sketch = new HyperLogLog();
+    long seed = random().nextLong();
+    for (int i = 0; i < n; i++) {
+      sketch.add(HyperLogLog.hash(seed + i));
+    }
+    // within 5 standard errors
+    assertEquals(n, sketch.cardinality(), n * 0.04);
+  }
+
+  public void testMerge() {
+    HyperLogLog all = new HyperLogLog(12);
+    HyperLogLog a = new HyperLogLog(12);
+    HyperLogLog b = new HyperLogLog(12);
+    for (int i = 0; i < 30000; i++) {
+      long hash = HyperLogLog.hash(new BytesRef(Integer.toString(i)));
+      all.add(hash);
+      // overlapping halves
+      if (i < 20000) a.add(hash);
+      if (i >= 10000) b.add(hash);
+    }
+    HyperLogLog merged = HyperLogLog.fromBytes(a.toBytes());
+    merged.merge(HyperLogLog.fromBytes(b.toBytes()));
+    assertEquals(all.cardinality(), merged.cardinality());
+
+    try {
+      merged.merge(new HyperLogLog(10));
+      fail("sketches of different sizes");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
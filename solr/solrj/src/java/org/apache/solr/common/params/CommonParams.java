@@ -153,6 +153,12 @@ public interface CommonParams {
    * Timeout value in milliseconds.  If not set, or the value is <= 0, there is no timeout.
    */
   public static final String TIME_ALLOWED = "timeAllowed";
+
+  /**
+   * 'true' to collect the segments of the index concurrently, if the core has a search
+   * executor (searchThreads in solrconfig.xml).
+   */
+  public static final String SEARCH_PARALLEL = "search.parallel";
   
   /** 'true' if the header should include the handler name */
   public static final String HEADER_ECHO_HANDLER = "echoHandler";
@@ -47,6 +47,8 @@ public interface FacetParams {
   public static final String FACET_METHOD_fc = "fc";
 
   /** Value for FACET_METHOD param, like FACET_METHOD_fc but counts per-segment.
+   * Multi-valued fields are un-inverted per segment, so unchanged segments are not
+   * un-inverted again after a commit.
    */
   public static final String FACET_METHOD_fcs = "fcs";
 
@@ -125,6 +127,19 @@ public interface FacetParams {
    */
   public static final String FACET_PREFIX = FACET + ".prefix";
 
+  /**
+   * In a distributed request, a shard returns all the counts of a facet field that has at
+   * most this many terms in its index, so that no refinement request is needed for it.
+   * Can be specified on a per field basis.  0 (the default) disables it.
+   */
+  public static final String FACET_DISTRIB_COMPLETE = FACET + ".distrib.complete";
+
+  /**
+   * Internal param of distributed requests: the shard returns the counts of each facet
+   * field as a packed block of terms sorted in index order.
+   */
+  public static final String FACET_DISTRIB_PACKED = FACET + ".distrib.packed";
+
  /**
    * When faceting by enumerating the terms in a field,
    * only use the filterCache for terms with a df >= to this parameter.
@@ -248,6 +263,32 @@ public interface FacetParams {
    */
   public static final String FACET_RANGE_INCLUDE = FACET_RANGE + ".include";
 
+  /**
+   * String indicating how the counts of a numerical range facet are computed.
+   * Can be overriden on a per field basis.
+   * @see #FACET_RANGE_METHOD_fc
+   * @see #FACET_RANGE_METHOD_filter
+   */
+  public static final String FACET_RANGE_METHOD = FACET_RANGE + ".method";
+
+  /** Value for FACET_RANGE_METHOD param to indicate that Solr should read the field value
+   * of every document once and count all ranges in a single pass.  This is the default, and
+   * is only used for single-valued trie fields; other fields fall back to
+   * {@link #FACET_RANGE_METHOD_filter}.
+   */
+  public static final String FACET_RANGE_METHOD_fc = "fc";
+
+  /** Value for FACET_RANGE_METHOD param to indicate that Solr should count each range
+   * with a separate range query intersected with the matching documents.
+   */
+  public static final String FACET_RANGE_METHOD_filter = "filter";
+
+  /**
+   * Maximum number of facet queries evaluated concurrently.
+   * Defaults to 0, which evaluates them one after another; a negative value means no limit.
+   */
+  public static final String FACET_THREADS = FACET + ".threads";
+
 
   /**
    * An enumeration of the legal values for {@link #FACET_RANGE_OTHER} and {@link #FACET_DATE_OTHER} ...
@@ -55,6 +55,10 @@ public interface GroupParams {
   /** Whether the group count should be included in the response. */
   public static final String GROUP_TOTAL_COUNT = GROUP + ".ngroups";
 
+  /** Whether the group count of a field may be estimated, in memory that doesn't depend on the number of groups.
+   * In distributed search, the estimate counts groups that span shards once. */
+  public static final String GROUP_TOTAL_COUNT_APPROXIMATE = GROUP_TOTAL_COUNT + ".approximate";
+
   /** Whether to compute grouped facets based on the first specified group. */
   public static final String GROUP_FACET = GROUP + ".facet";
 
@@ -24,4 +24,6 @@ public interface StatsParams {
   public static final String STATS = "stats";
   public static final String STATS_FIELD = STATS + ".field";
   public static final String STATS_FACET = STATS + ".facet";
+  /** Whether to estimate the number of distinct values of a field.  true/false */
+  public static final String STATS_CARDINALITY = STATS + ".cardinality";
 }